@@ -17,6 +17,7 @@ package com.torodb.mongowp.bson;
 
 import com.google.common.collect.UnmodifiableIterator;
 import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.abst.EntryIteratorCursor;
 import com.torodb.mongowp.bson.utils.IntBaseHasher;
 
 import java.io.Serializable;
@@ -55,6 +56,18 @@ public interface BsonDocument extends BsonValue<BsonDocument>, Iterable<Entry<?>
   @Override
   public UnmodifiableIterator<Entry<?>> iterator();
 
+  /**
+   * Returns a new cursor that walks the entries of this document in the same order than
+   * {@link #iterator()}.
+   *
+   * <p>Cursors are the preferred way to traverse documents on hot paths, as they may avoid the
+   * creation of an {@link Entry} (and, on some implementations, of the key and value) per field.
+   * The default implementation just walks {@link #iterator()}.
+   */
+  public default BsonDocumentCursor cursor() {
+    return new EntryIteratorCursor(iterator());
+  }
+
   public default Stream<Entry<?>> stream() {
     return StreamSupport.stream(this.spliterator(), false);
   }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A flyweight that walks the entries of a {@link BsonDocument}.
+ *
+ * <p>Unlike {@link BsonDocument#iterator()}, a cursor does not need to create an
+ * {@link BsonDocument.Entry} for each field: it is positioned on an entry by {@link #advance()}
+ * and the key and the value of that entry are accessed through the cursor itself. Primitive values
+ * can be read with {@link #intValue()}, {@link #longValue()}, {@link #doubleValue()} and
+ * {@link #booleanValue()} and keys can be compared with {@link #keyEquals(byte[])}, so
+ * implementations backed by a buffer can walk documents without creating any object.
+ *
+ * <p>The cursor is initially positioned before the first entry.
+ */
+@NotThreadSafe
+public interface BsonDocumentCursor {
+
+  /**
+   * Moves the cursor to the next entry.
+   *
+   * @return true iff there was another entry, false if the end of the document has been reached
+   */
+  boolean advance();
+
+  /**
+   * @return the key of the current entry
+   * @throws IllegalStateException if the cursor is not positioned on an entry
+   */
+  @Nonnull
+  String key() throws IllegalStateException;
+
+  /**
+   * @param utf8Key the key to compare with, encoded as UTF-8
+   * @return true iff the key of the current entry is equal to the given one
+   * @throws IllegalStateException if the cursor is not positioned on an entry
+   */
+  boolean keyEquals(byte[] utf8Key) throws IllegalStateException;
+
+  /**
+   * @return the type of the value of the current entry
+   * @throws IllegalStateException if the cursor is not positioned on an entry
+   */
+  @Nonnull
+  BsonType type() throws IllegalStateException;
+
+  /**
+   * @return the value of the current entry
+   * @throws IllegalStateException if the cursor is not positioned on an entry
+   */
+  @Nonnull
+  BsonValue<?> value() throws IllegalStateException;
+
+  /**
+   * @return the value of the current entry, which must be a {@link BsonType#INT32}
+   * @throws IllegalStateException         if the cursor is not positioned on an entry
+   * @throws UnsupportedOperationException if the current value is not an int32
+   */
+  int intValue() throws IllegalStateException, UnsupportedOperationException;
+
+  /**
+   * @return the value of the current entry, which must be a {@link BsonType#INT64}
+   * @throws IllegalStateException         if the cursor is not positioned on an entry
+   * @throws UnsupportedOperationException if the current value is not an int64
+   */
+  long longValue() throws IllegalStateException, UnsupportedOperationException;
+
+  /**
+   * @return the value of the current entry, which must be a {@link BsonType#DOUBLE}
+   * @throws IllegalStateException         if the cursor is not positioned on an entry
+   * @throws UnsupportedOperationException if the current value is not a double
+   */
+  double doubleValue() throws IllegalStateException, UnsupportedOperationException;
+
+  /**
+   * @return the value of the current entry, which must be a {@link BsonType#BOOLEAN}
+   * @throws IllegalStateException         if the cursor is not positioned on an entry
+   * @throws UnsupportedOperationException if the current value is not a boolean
+   */
+  boolean booleanValue() throws IllegalStateException, UnsupportedOperationException;
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.abst;
+
+import com.torodb.mongowp.bson.BsonDocumentCursor;
+import com.torodb.mongowp.bson.BsonType;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A {@link BsonDocumentCursor} whose primitive accessors delegate on {@link #value()}, which is
+ * useful for documents whose values are already materialized.
+ */
+@NotThreadSafe
+public abstract class AbstractBsonDocumentCursor implements BsonDocumentCursor {
+
+  @Override
+  public boolean keyEquals(byte[] utf8Key) throws IllegalStateException {
+    return keyEquals(key(), utf8Key);
+  }
+
+  @Override
+  public BsonType type() throws IllegalStateException {
+    return value().getType();
+  }
+
+  @Override
+  public int intValue() throws IllegalStateException, UnsupportedOperationException {
+    return value().asInt32().intValue();
+  }
+
+  @Override
+  public long longValue() throws IllegalStateException, UnsupportedOperationException {
+    return value().asInt64().longValue();
+  }
+
+  @Override
+  public double doubleValue() throws IllegalStateException, UnsupportedOperationException {
+    return value().asDouble().doubleValue();
+  }
+
+  @Override
+  public boolean booleanValue() throws IllegalStateException, UnsupportedOperationException {
+    return value().asBoolean().getPrimitiveValue();
+  }
+
+  /**
+   * Compares a string with an UTF-8 encoded one without creating objects when the string is ASCII.
+   */
+  public static boolean keyEquals(String key, byte[] utf8Key) {
+    int length = key.length();
+    if (length != utf8Key.length) {
+      //an ascii key is as long as its encoding and a non ascii one is shorter
+      if (length > utf8Key.length) {
+        return false;
+      }
+      return key.equals(new String(utf8Key, StandardCharsets.UTF_8));
+    }
+    //as the lengths are equal, both keys can only be equal if they are ascii
+    for (int i = 0; i < length; i++) {
+      if (key.charAt(i) != utf8Key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.abst;
+
+import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.BsonValue;
+
+import java.util.Iterator;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A cursor that walks the entries returned by an iterator.
+ */
+@NotThreadSafe
+public class EntryIteratorCursor extends AbstractBsonDocumentCursor {
+
+  private final Iterator<Entry<?>> iterator;
+  private Entry<?> current;
+
+  public EntryIteratorCursor(Iterator<Entry<?>> iterator) {
+    this.iterator = iterator;
+  }
+
+  @Override
+  public boolean advance() {
+    if (iterator.hasNext()) {
+      current = iterator.next();
+      return true;
+    }
+    current = null;
+    return false;
+  }
+
+  private Entry<?> getCurrent() {
+    if (current == null) {
+      throw new IllegalStateException("The cursor is not positioned on an entry");
+    }
+    return current;
+  }
+
+  @Override
+  public String key() {
+    return getCurrent().getKey();
+  }
+
+  @Override
+  public BsonValue<?> value() {
+    return getCurrent().getValue();
+  }
+}
@@ -17,11 +17,15 @@ package com.torodb.mongowp.bson.impl;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.UnmodifiableIterator;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
 import com.torodb.mongowp.bson.BsonValue;
 import com.torodb.mongowp.bson.abst.AbstractBsonDocument;
+import com.torodb.mongowp.bson.abst.AbstractBsonDocumentCursor;
 import com.torodb.mongowp.bson.annotations.NotMutable;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *
@@ -60,6 +64,11 @@ public class MapBasedBsonDocument extends AbstractBsonDocument {
     return new SimpleEntry<>(key, value);
   }
 
+  @Override
+  public BsonDocumentCursor cursor() {
+    return new MapCursor(map.entrySet().iterator());
+  }
+
   @Override
   public UnmodifiableIterator<Entry<?>> iterator() {
     return Iterators.unmodifiableIterator(
@@ -69,4 +78,44 @@ public class MapBasedBsonDocument extends AbstractBsonDocument {
         )
     );
   }
+
+  /**
+   * A cursor that reads the map entries directly, without wrapping them on {@link SimpleEntry}.
+   */
+  private static class MapCursor extends AbstractBsonDocumentCursor {
+
+    private final Iterator<Map.Entry<String, BsonValue<?>>> iterator;
+    private Map.Entry<String, BsonValue<?>> current;
+
+    private MapCursor(Iterator<Map.Entry<String, BsonValue<?>>> iterator) {
+      this.iterator = iterator;
+    }
+
+    @Override
+    public boolean advance() {
+      if (iterator.hasNext()) {
+        current = iterator.next();
+        return true;
+      }
+      current = null;
+      return false;
+    }
+
+    private Map.Entry<String, BsonValue<?>> getCurrent() {
+      if (current == null) {
+        throw new IllegalStateException("The cursor is not positioned on an entry");
+      }
+      return current;
+    }
+
+    @Override
+    public String key() {
+      return getCurrent().getKey();
+    }
+
+    @Override
+    public BsonValue<?> value() {
+      return getCurrent().getValue();
+    }
+  }
 }
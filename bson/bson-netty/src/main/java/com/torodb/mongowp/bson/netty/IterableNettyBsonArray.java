@@ -39,6 +39,11 @@ public class IterableNettyBsonArray extends AbstractIterableBasedBsonArray {
   @Loose
   private final ByteBuf byteBuf;
   private final OffHeapNettyBsonLowLevelReader offHeapReader;
+  /**
+   * The index of the elements of this array, which is lazily built the first time an element is
+   * accessed by its position.
+   */
+  private NettyBsonOffsetIndex index;
 
   /**
    *
@@ -56,6 +61,50 @@ public class IterableNettyBsonArray extends AbstractIterableBasedBsonArray {
     return new MyIterator(byteBuf.slice(), offHeapReader);
   }
 
+  /**
+   * @return the bytes of this array, without the length field and including the final 0x00. Its
+   *         indexes must not be modified
+   */
+  @Tight
+  ByteBuf getContent() {
+    return byteBuf;
+  }
+
+  @Override
+  public BsonValue<?> get(int position) {
+    NettyBsonOffsetIndex index = getIndex();
+    if (position < 0 || position >= index.size()) {
+      throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + index.size());
+    }
+    int offset = index.getEntryOffset(position);
+    ByteBuf entryBuf = byteBuf.slice(
+        byteBuf.readerIndex() + offset, byteBuf.readableBytes() - offset);
+    try {
+      return offHeapReader.readArrayEntry(entryBuf);
+    } catch (NettyBsonReaderException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public int size() {
+    return getIndex().size();
+  }
+
+  private NettyBsonOffsetIndex getIndex() {
+    NettyBsonOffsetIndex result = index;
+    if (result == null) {
+      try {
+        result = NettyBsonOffsetIndex.ofArray(byteBuf.slice());
+      } catch (NettyBsonReaderException ex) {
+        throw new RuntimeException(ex);
+      }
+      //the index is immutable, so it is safe to publish it without synchronization
+      index = result;
+    }
+    return result;
+  }
+
   private Object writeReplace() throws ObjectStreamException {
     return new ListBsonArray(Lists.newArrayList(this));
   }
@@ -18,6 +18,7 @@ package com.torodb.mongowp.bson.netty;
 import com.google.common.collect.Lists;
 import com.google.common.collect.UnmodifiableIterator;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
 import com.torodb.mongowp.bson.abst.AbstractIterableBasedBsonDocument;
 import com.torodb.mongowp.bson.impl.ListBasedBsonDocument;
 import com.torodb.mongowp.bson.netty.annotations.Loose;
@@ -39,6 +40,11 @@ public class IterableNettyBsonDocument extends AbstractIterableBasedBsonDocument
   @Loose
   private final ByteBuf byteBuf;
   private final OffHeapNettyBsonLowLevelReader offHeapReader;
+  /**
+   * The index of the entries of this document, which is lazily built the first time a key is
+   * looked up.
+   */
+  private NettyBsonOffsetIndex index;
 
   /**
    *
@@ -56,6 +62,72 @@ public class IterableNettyBsonDocument extends AbstractIterableBasedBsonDocument
     return new MyIterator(byteBuf.slice(), offHeapReader);
   }
 
+  /**
+   * @return the bytes of this document, without the length field and including the final 0x00.
+   *         Its indexes must not be modified
+   */
+  @Tight
+  ByteBuf getContent() {
+    return byteBuf;
+  }
+
+  /**
+   * @return the number of bytes this document uses when it is serialized, including its length
+   *         field
+   */
+  public int getSerializedSize() {
+    return byteBuf.readableBytes() + 4;
+  }
+
+  @Override
+  public BsonDocumentCursor cursor() {
+    return new NettyBsonDocumentCursor(byteBuf.slice(), offHeapReader);
+  }
+
+  @Override
+  public Entry<?> getEntry(String key) {
+    NettyBsonOffsetIndex index = getIndex();
+    int keyHash = key.hashCode();
+    int position = index.findCandidate(keyHash, 0);
+    while (position >= 0) {
+      Entry<?> entry = readEntry(index.getEntryOffset(position));
+      if (entry.getKey().equals(key)) {
+        return entry;
+      }
+      position = index.findCandidate(keyHash, position + 1);
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    return getIndex().size();
+  }
+
+  private NettyBsonOffsetIndex getIndex() {
+    NettyBsonOffsetIndex result = index;
+    if (result == null) {
+      try {
+        result = NettyBsonOffsetIndex.ofDocument(byteBuf.slice());
+      } catch (NettyBsonReaderException ex) {
+        throw new RuntimeException(ex);
+      }
+      //the index is immutable, so it is safe to publish it without synchronization
+      index = result;
+    }
+    return result;
+  }
+
+  private Entry<?> readEntry(int offset) {
+    ByteBuf entryBuf = byteBuf.slice(
+        byteBuf.readerIndex() + offset, byteBuf.readableBytes() - offset);
+    try {
+      return offHeapReader.readDocumentEntry(entryBuf);
+    } catch (NettyBsonReaderException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
   private Object writeReplace() throws ObjectStreamException {
     return new ListBasedBsonDocument(Lists.newArrayList(this));
   }
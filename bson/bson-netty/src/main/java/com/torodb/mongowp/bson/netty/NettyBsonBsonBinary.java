@@ -33,15 +33,26 @@ public class NettyBsonBsonBinary extends AbstractBsonBinary {
   private final int length;
   private final BinarySubtype subtype;
   private final NonIoByteSource byteSource;
+  @Tight
+  private final transient ByteBuf data;
 
   public NettyBsonBsonBinary(byte numericSubtype, BinarySubtype subtype,
       @Tight @ModifiesIndexes ByteBuf data) {
     this.numericSubtype = numericSubtype;
     this.subtype = subtype;
+    this.data = data;
     length = data.readableBytes();
     byteSource = new NonIoByteSource(new ByteBufByteSource(data));
   }
 
+  /**
+   * @return the content of this binary. Its indexes must not be modified
+   */
+  @Tight
+  ByteBuf getData() {
+    return data;
+  }
+
   @Override
   public byte getNumericSubType() {
     return numericSubtype;
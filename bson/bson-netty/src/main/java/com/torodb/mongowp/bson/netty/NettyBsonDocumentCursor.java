@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty;
+
+import com.torodb.mongowp.bson.BsonDocumentCursor;
+import com.torodb.mongowp.bson.BsonType;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.netty.annotations.ConservesIndexes;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A {@link BsonDocumentCursor} that walks the bytes of a document stored on a {@link ByteBuf}.
+ *
+ * <p>Advancing, comparing keys and reading primitive values is done with absolute reads on the
+ * buffer, so no object is created unless {@link #key()} or {@link #value()} are called.
+ */
+@NotThreadSafe
+class NettyBsonDocumentCursor implements BsonDocumentCursor {
+
+  @Tight
+  private final ByteBuf byteBuf;
+  private final OffHeapNettyBsonLowLevelReader reader;
+  private int nextEntryIndex;
+  private int entryIndex = -1;
+  private BsonType type;
+  private int keyLength;
+  private int valueIndex;
+
+  /**
+   * @param byteBuf the document content, without the length prefix and including the final 0x00.
+   *                Its indexes are not modified by the cursor
+   * @param reader  the reader used to materialize values
+   */
+  NettyBsonDocumentCursor(@Tight @ConservesIndexes ByteBuf byteBuf,
+      OffHeapNettyBsonLowLevelReader reader) {
+    this.byteBuf = byteBuf;
+    this.reader = reader;
+    this.nextEntryIndex = byteBuf.readerIndex();
+  }
+
+  @Override
+  public boolean advance() {
+    if (nextEntryIndex >= byteBuf.writerIndex() || byteBuf.getByte(nextEntryIndex) == 0x00) {
+      entryIndex = -1;
+      return false;
+    }
+    try {
+      entryIndex = nextEntryIndex;
+      type = ParsingTools.getBsonType(byteBuf.getByte(entryIndex));
+      int keyStart = entryIndex + 1;
+      keyLength = byteBuf.bytesBefore(keyStart, byteBuf.writerIndex() - keyStart, (byte) 0x00);
+      if (keyLength < 0) {
+        throw new NettyBsonReaderException("A cstring was expected but no 0x00 byte was found");
+      }
+      valueIndex = keyStart + keyLength + 1;
+      int next = ParsingTools.skipValue(byteBuf, type, valueIndex, byteBuf.writerIndex());
+      if (next <= entryIndex) {
+        throw new NettyBsonReaderException("The BSON value at " + entryIndex
+            + " does not advance");
+      }
+      nextEntryIndex = next;
+    } catch (NettyBsonReaderException ex) {
+      //a malformed document ends the traversal
+      entryIndex = -1;
+      nextEntryIndex = byteBuf.writerIndex();
+      throw new NettyBsonReaderRuntimeException(ex);
+    }
+    return true;
+  }
+
+  private void checkPositioned() {
+    if (entryIndex < 0) {
+      throw new IllegalStateException("The cursor is not positioned on an entry");
+    }
+  }
+
+  private void checkType(BsonType expected) {
+    checkPositioned();
+    if (type != expected) {
+      throw new UnsupportedOperationException(
+          "Values of type " + type + " cannot be read as " + expected);
+    }
+  }
+
+  @Override
+  public String key() {
+    checkPositioned();
+    ByteBuf keyBuf = byteBuf.slice(entryIndex + 1, keyLength + 1);
+    try {
+      return reader.getStringReader().readCString(keyBuf, true);
+    } catch (NettyBsonReaderException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public boolean keyEquals(byte[] utf8Key) {
+    checkPositioned();
+    if (utf8Key.length != keyLength) {
+      return false;
+    }
+    int keyStart = entryIndex + 1;
+    for (int i = 0; i < keyLength; i++) {
+      if (byteBuf.getByte(keyStart + i) != utf8Key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public BsonType type() {
+    checkPositioned();
+    return type;
+  }
+
+  @Override
+  public BsonValue<?> value() {
+    checkPositioned();
+    ByteBuf entryBuf = byteBuf.slice(entryIndex, nextEntryIndex - entryIndex);
+    try {
+      return reader.readArrayEntry(entryBuf);
+    } catch (NettyBsonReaderException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public int intValue() {
+    checkType(BsonType.INT32);
+    return byteBuf.getInt(valueIndex);
+  }
+
+  @Override
+  public long longValue() {
+    checkType(BsonType.INT64);
+    return byteBuf.getLong(valueIndex);
+  }
+
+  @Override
+  public double doubleValue() {
+    checkType(BsonType.DOUBLE);
+    return byteBuf.getDouble(valueIndex);
+  }
+
+  @Override
+  public boolean booleanValue() {
+    checkType(BsonType.BOOLEAN);
+    return byteBuf.getByte(valueIndex) != 0x00;
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.torodb.mongowp.bson.netty;
 
-import com.google.common.base.Charsets;
 import com.google.common.primitives.UnsignedInteger;
 import com.torodb.mongowp.bson.BsonArray;
 import com.torodb.mongowp.bson.BsonBinary;
@@ -25,7 +24,7 @@ import com.torodb.mongowp.bson.BsonDbPointer;
 import com.torodb.mongowp.bson.BsonDecimal128;
 import com.torodb.mongowp.bson.BsonDeprecated;
 import com.torodb.mongowp.bson.BsonDocument;
-import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
 import com.torodb.mongowp.bson.BsonDouble;
 import com.torodb.mongowp.bson.BsonInt32;
 import com.torodb.mongowp.bson.BsonInt64;
@@ -38,20 +37,27 @@ import com.torodb.mongowp.bson.BsonObjectId;
 import com.torodb.mongowp.bson.BsonRegex;
 import com.torodb.mongowp.bson.BsonString;
 import com.torodb.mongowp.bson.BsonTimestamp;
+import com.torodb.mongowp.bson.BsonType;
 import com.torodb.mongowp.bson.BsonUndefined;
 import com.torodb.mongowp.bson.BsonValue;
 import com.torodb.mongowp.bson.BsonValueVisitor;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
 import com.torodb.mongowp.bson.utils.NonIoByteSource;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 
 import java.io.IOException;
 import java.io.OutputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
+ * Writes {@link BsonDocument documents} as BSON.
  *
+ * <p>Documents, arrays, strings and binaries that were read with the off heap readers are already
+ * stored as BSON, so their bytes are copied instead of serializing them again.
  */
 @ThreadSafe
 public class NettyBsonDocumentWriter {
@@ -62,22 +68,74 @@ public class NettyBsonDocumentWriter {
     doc.accept(VISITOR, byteBuf);
   }
 
+  /**
+   * Returns the bytes of the given document if it is already stored as BSON.
+   *
+   * <p>The returned buffer contains the document without its length field (including the final
+   * 0x00) and it is shared with the document, so its indexes must not be modified.
+   *
+   * @return the content of the document or null if the document is not stored as BSON
+   */
+  @Nullable
+  @Tight
+  public ByteBuf getRawContent(BsonDocument doc) {
+    if (doc instanceof IterableNettyBsonDocument) {
+      return ((IterableNettyBsonDocument) doc).getContent();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of bytes the given document will use once written, if it can be known
+   * without serializing it.
+   *
+   * @return the serialized size of the document or -1 if it is not known
+   */
+  public int getSerializedSizeHint(BsonDocument doc) {
+    if (doc instanceof IterableNettyBsonDocument) {
+      return ((IterableNettyBsonDocument) doc).getSerializedSize();
+    }
+    return -1;
+  }
+
   private static class WriterBsonValueVisitor implements BsonValueVisitor<Void, ByteBuf> {
 
     void writeCString(ByteBuf buf, String str) {
-      buf.writeBytes(str.getBytes(Charsets.UTF_8));
+      ByteBufUtil.writeUtf8(buf, str);
       buf.writeByte(0x00);
     }
 
     void writeString(ByteBuf buf, String str) {
-      byte[] bytes = str.getBytes(Charsets.UTF_8);
-      int length = bytes.length + 1;
+      int lengthIndex = buf.writerIndex();
+      buf.writeInt(0); // reserve space for the string length
+      int length = ByteBufUtil.writeUtf8(buf, str) + 1;
+      buf.writeByte(0x00);
+      buf.setInt(lengthIndex, length);
+    }
+
+    void writeIndexKey(ByteBuf buf, int index) {
+      if (index < 10) {
+        buf.writeByte('0' + index).writeByte(0x00);
+      } else {
+        writeCString(buf, Integer.toString(index));
+      }
+    }
 
-      buf.writeInt(length).writeBytes(bytes).writeByte(0x00);
+    /**
+     * Copies the content of a document or array that is already stored as BSON, prefixing it with
+     * its length.
+     */
+    void writeRawDocument(ByteBuf buf, @Tight ByteBuf content) {
+      buf.writeInt(content.readableBytes() + 4)
+          .writeBytes(content, content.readerIndex(), content.readableBytes());
     }
 
     @Override
     public Void visit(BsonArray value, ByteBuf arg) {
+      if (value instanceof IterableNettyBsonArray) {
+        writeRawDocument(arg, ((IterableNettyBsonArray) value).getContent());
+        return null;
+      }
       final int docStart = arg.writerIndex();
       arg.writeInt(0); // reserve space for doc size
 
@@ -88,7 +146,7 @@ public class NettyBsonDocumentWriter {
         } catch (NettyBsonReaderException ex) {
           throw new AssertionError(ex);
         }
-        writeCString(arg, Integer.toString(i));
+        writeIndexKey(arg, i);
 
         child.accept(this, arg);
         i++;
@@ -105,6 +163,13 @@ public class NettyBsonDocumentWriter {
 
     @Override
     public Void visit(BsonBinary value, ByteBuf arg) {
+      if (value instanceof NettyBsonBsonBinary && ((NettyBsonBsonBinary) value).getData() != null) {
+        ByteBuf data = ((NettyBsonBsonBinary) value).getData();
+        arg.writeInt(data.readableBytes())
+            .writeByte(value.getNumericSubType())
+            .writeBytes(data, data.readerIndex(), data.readableBytes());
+        return null;
+      }
       NonIoByteSource byteSource = value.getByteSource();
 
       UnsignedInteger unsignedSize;
@@ -137,19 +202,40 @@ public class NettyBsonDocumentWriter {
 
     @Override
     public Void visit(BsonDocument value, ByteBuf arg) {
+      if (value instanceof IterableNettyBsonDocument) {
+        writeRawDocument(arg, ((IterableNettyBsonDocument) value).getContent());
+        return null;
+      }
       final int docStart = arg.writerIndex();
       arg.writeInt(0); // reserve space for doc size
 
-      for (Entry<?> entry : value) {
-        BsonValue<?> child = entry.getValue();
+      BsonDocumentCursor cursor = value.cursor();
+      while (cursor.advance()) {
+        BsonType type = cursor.type();
         try {
-          arg.writeByte(ParsingTools.getByte(child.getType()));
+          arg.writeByte(ParsingTools.getByte(type));
         } catch (NettyBsonReaderException ex) {
           throw new AssertionError(ex);
         }
-        writeCString(arg, entry.getKey());
-
-        child.accept(this, arg);
+        writeCString(arg, cursor.key());
+
+        switch (type) {
+          case INT32:
+            arg.writeInt(cursor.intValue());
+            break;
+          case INT64:
+            arg.writeLong(cursor.longValue());
+            break;
+          case DOUBLE:
+            arg.writeDouble(cursor.doubleValue());
+            break;
+          case BOOLEAN:
+            arg.writeByte(cursor.booleanValue() ? 0x01 : 0x00);
+            break;
+          default:
+            cursor.value().accept(this, arg);
+            break;
+        }
       }
 
       arg.writeByte(0x00);
@@ -247,6 +333,13 @@ public class NettyBsonDocumentWriter {
 
     @Override
     public Void visit(BsonString value, ByteBuf arg) {
+      if (value instanceof NettyBsonString) {
+        ByteBuf bytes = ((NettyBsonString) value).getByteBuf();
+        arg.writeInt(bytes.readableBytes() + 1)
+            .writeBytes(bytes, bytes.readerIndex(), bytes.readableBytes())
+            .writeByte(0x00);
+        return null;
+      }
       writeString(arg, value.getValue());
 
       return null;
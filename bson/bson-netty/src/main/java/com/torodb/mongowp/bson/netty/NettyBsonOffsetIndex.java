@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty;
+
+import com.torodb.mongowp.bson.BsonType;
+import com.torodb.mongowp.bson.netty.annotations.ConservesIndexes;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A compact index of the entries of a BSON document or array stored on a {@link ByteBuf}.
+ *
+ * <p>The index stores, in document order, the offset (relative to the buffer reader index) where
+ * each entry starts and the {@link String#hashCode() hash} of its key. Keys are hashed directly
+ * from their bytes, so building the index does not create any object but the index itself. When
+ * there are more than {@link #LINEAR_SCAN_THRESHOLD} entries, an open addressing table is also
+ * built to find keys without scanning the hashes.
+ */
+@Immutable
+final class NettyBsonOffsetIndex {
+
+  private static final int LINEAR_SCAN_THRESHOLD = 8;
+  private static final int[] EMPTY = new int[0];
+
+  private final int[] entryOffsets;
+  private final int[] keyHashes;
+  /**
+   * An open addressing table that contains entry positions plus one (so 0 means empty slot) or
+   * null if the index is small enough to be linearly scanned.
+   */
+  private final int[] slots;
+
+  private NettyBsonOffsetIndex(int[] entryOffsets, int[] keyHashes, int[] slots) {
+    this.entryOffsets = entryOffsets;
+    this.keyHashes = keyHashes;
+    this.slots = slots;
+  }
+
+  /**
+   * Builds the index of the given document.
+   *
+   * @param byteBuf the document content, without the length prefix and including the final 0x00
+   */
+  static NettyBsonOffsetIndex ofDocument(@Tight @ConservesIndexes ByteBuf byteBuf)
+      throws NettyBsonReaderException {
+    return build(byteBuf, true);
+  }
+
+  /**
+   * Builds the index of the given array.
+   *
+   * <p>Array keys are not hashed, as array elements are looked up by position.
+   *
+   * @param byteBuf the array content, without the length prefix and including the final 0x00
+   */
+  static NettyBsonOffsetIndex ofArray(@Tight @ConservesIndexes ByteBuf byteBuf)
+      throws NettyBsonReaderException {
+    return build(byteBuf, false);
+  }
+
+  private static NettyBsonOffsetIndex build(ByteBuf byteBuf, boolean hashKeys)
+      throws NettyBsonReaderException {
+    int base = byteBuf.readerIndex();
+    int end = byteBuf.writerIndex();
+    int[] offsets = EMPTY;
+    int[] hashes = EMPTY;
+    int size = 0;
+
+    int index = base;
+    while (index < end && byteBuf.getByte(index) != 0x00) {
+      if (size == offsets.length) {
+        int newCapacity = Math.max(LINEAR_SCAN_THRESHOLD, size * 2);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        if (hashKeys) {
+          hashes = Arrays.copyOf(hashes, newCapacity);
+        }
+      }
+      offsets[size] = index - base;
+
+      BsonType type = ParsingTools.getBsonType(byteBuf.getByte(index));
+      int keyStart = index + 1;
+      int keyLength = byteBuf.bytesBefore(keyStart, end - keyStart, (byte) 0x00);
+      if (keyLength < 0) {
+        throw new NettyBsonReaderException("A cstring was expected but no 0x00 byte was found");
+      }
+      if (hashKeys) {
+        hashes[size] = hashKey(byteBuf, keyStart, keyLength);
+      }
+      int next = ParsingTools.skipValue(byteBuf, type, keyStart + keyLength + 1, end);
+      if (next <= index) {
+        throw new NettyBsonReaderException("The BSON value at " + index + " does not advance");
+      }
+      index = next;
+      size++;
+    }
+
+    offsets = Arrays.copyOf(offsets, size);
+    if (!hashKeys) {
+      return new NettyBsonOffsetIndex(offsets, null, null);
+    }
+    hashes = Arrays.copyOf(hashes, size);
+    int[] slots = null;
+    if (size > LINEAR_SCAN_THRESHOLD) {
+      slots = new int[Integer.highestOneBit(size * 2 - 1) << 1];
+      int mask = slots.length - 1;
+      for (int i = 0; i < size; i++) {
+        int slot = mix(hashes[i]) & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = i + 1;
+      }
+    }
+    return new NettyBsonOffsetIndex(offsets, hashes, slots);
+  }
+
+  /**
+   * Computes the same value {@link String#hashCode()} would return for the key stored on the given
+   * bytes.
+   */
+  private static int hashKey(ByteBuf byteBuf, int keyStart, int keyLength) {
+    int hash = 0;
+    for (int i = keyStart; i < keyStart + keyLength; i++) {
+      byte b = byteBuf.getByte(i);
+      if (b < 0) {
+        //non ascii keys must be decoded to compute the utf-16 based hash
+        return byteBuf.toString(keyStart, keyLength, StandardCharsets.UTF_8).hashCode();
+      }
+      hash = 31 * hash + b;
+    }
+    return hash;
+  }
+
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  int size() {
+    return entryOffsets.length;
+  }
+
+  /**
+   * @return the offset, relative to the buffer reader index, where the entry at the given position
+   *         starts
+   */
+  int getEntryOffset(int position) {
+    return entryOffsets[position];
+  }
+
+  /**
+   * Returns the position of the first entry whose key hash is equal to the given one, starting
+   * from (and including) the given position.
+   *
+   * <p>Different keys can share the same hash, so callers must check the key of the returned entry
+   * and call this method again with the next position if it does not match.
+   *
+   * @return the position of the first candidate or -1 if there is no candidate
+   */
+  int findCandidate(int keyHash, int fromPosition) {
+    assert keyHashes != null : "Array indexes do not store key hashes";
+    if (slots == null) {
+      for (int i = fromPosition; i < keyHashes.length; i++) {
+        if (keyHashes[i] == keyHash) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    //probe chains store entries on document order, so the first candidate after fromPosition is
+    //the smallest position found on the chain that is not lower than fromPosition
+    int mask = slots.length - 1;
+    int slot = mix(keyHash) & mask;
+    int result = -1;
+    while (slots[slot] != 0) {
+      int position = slots[slot] - 1;
+      if (position >= fromPosition && keyHashes[position] == keyHash
+          && (result == -1 || position < result)) {
+        result = position;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return result;
+  }
+}
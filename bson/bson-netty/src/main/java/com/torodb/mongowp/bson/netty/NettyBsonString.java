@@ -41,6 +41,15 @@ public class NettyBsonString extends AbstractBsonString {
     this.byteBuf = byteBuf;
   }
 
+  /**
+   * @return the UTF-8 bytes of this string, without the final 0x00. Its indexes must not be
+   *         modified
+   */
+  @Tight
+  ByteBuf getByteBuf() {
+    return byteBuf;
+  }
+
   @Override
   public String getValue() {
     return getString(byteBuf);
@@ -41,6 +41,7 @@ import com.google.common.primitives.UnsignedBytes;
 import com.torodb.mongowp.bson.BinarySubtype;
 import com.torodb.mongowp.bson.BsonRegex.Options;
 import com.torodb.mongowp.bson.BsonType;
+import io.netty.buffer.ByteBuf;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -254,4 +255,96 @@ class ParsingTools {
     return result;
   }
 
+  /**
+   * Returns the index where the value of the given type that starts at the given index ends,
+   * without reading it.
+   *
+   * <p>Neither the reader nor the writer index of the buffer are modified. The lengths stored on
+   * the buffer are not trusted: the returned index is always greater than or equal to the given
+   * one and never greater than {@code end}.
+   *
+   * @param end the index of the first byte after the enclosing document
+   * @throws NettyBsonReaderException if a length is invalid or the value exceeds {@code end}
+   */
+  static int skipValue(ByteBuf byteBuf, BsonType type, int valueIndex, int end)
+      throws NettyBsonReaderException {
+    long next;
+    switch (type) {
+      case UNDEFINED:
+      case NULL:
+      case MIN:
+      case MAX:
+        next = valueIndex;
+        break;
+      case BOOLEAN:
+        next = valueIndex + 1L;
+        break;
+      case INT32:
+        next = valueIndex + 4L;
+        break;
+      case DOUBLE:
+      case DATETIME:
+      case TIMESTAMP:
+      case INT64:
+        next = valueIndex + 8L;
+        break;
+      case OBJECT_ID:
+        next = valueIndex + 12L;
+        break;
+      case DECIMAL128:
+        next = valueIndex + 16L;
+        break;
+      case STRING:
+      case JAVA_SCRIPT:
+      case DEPRECATED:
+        next = valueIndex + 4L + readLength(byteBuf, valueIndex, end, 1);
+        break;
+      case DB_POINTER:
+        next = valueIndex + 4L + readLength(byteBuf, valueIndex, end, 1) + 12;
+        break;
+      case DOCUMENT:
+      case ARRAY:
+      case JAVA_SCRIPT_WITH_SCOPE:
+        next = valueIndex + (long) readLength(byteBuf, valueIndex, end, 5);
+        break;
+      case BINARY:
+        next = valueIndex + 4L + 1 + readLength(byteBuf, valueIndex, end, 0);
+        break;
+      case REGEX: {
+        int index = valueIndex;
+        for (int i = 0; i < 2; i++) {
+          int length = byteBuf.bytesBefore(index, Math.max(end - index, 0), (byte) 0x00);
+          if (length < 0) {
+            throw new NettyBsonReaderException(
+                "A cstring was expected but no 0x00 byte was found");
+          }
+          index += length + 1;
+        }
+        next = index;
+        break;
+      }
+      default:
+        throw new NettyBsonReaderException("Unexpected bson type " + type);
+    }
+    if (next > end) {
+      throw new NettyBsonReaderException("The " + type + " value at " + valueIndex
+          + " exceeds the document bounds");
+    }
+    return (int) next;
+  }
+
+  private static int readLength(ByteBuf byteBuf, int valueIndex, int end, int minLength)
+      throws NettyBsonReaderException {
+    if (valueIndex + 4L > end) {
+      throw new NettyBsonReaderException("The length of the value at " + valueIndex
+          + " exceeds the document bounds");
+    }
+    int length = byteBuf.getInt(valueIndex);
+    if (length < minLength) {
+      throw new NettyBsonReaderException("Invalid length " + length + " of the value at "
+          + valueIndex);
+    }
+    return length;
+  }
+
 }
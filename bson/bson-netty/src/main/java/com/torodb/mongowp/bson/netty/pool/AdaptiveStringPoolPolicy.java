@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty.pool;
+
+import com.google.common.base.Preconditions;
+import com.torodb.mongowp.bson.netty.annotations.ConservesIndexes;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+
+/**
+ * A {@link StringPoolPolicy} that admits the byte sequences that have been seen frequently.
+ *
+ * <p>The frequency of each byte sequence is estimated with a count-min sketch of 4 rows of small
+ * saturating counters, so the policy only keeps a fixed amount of memory whatever the number of
+ * distinct strings is. A sequence is admitted once its estimated frequency reaches the admission
+ * threshold; sequences marked as likely cacheable (like keys) need one occurrence less.
+ *
+ * <p>Like on TinyLFU, all counters are halved each time the number of recorded occurrences
+ * reaches ten times the sketch width, so the policy forgets old patterns and adapts when the
+ * workload changes. Counters, including the number of recorded occurrences, are updated without
+ * synchronization, which means some increments can be lost under contention. That only makes the
+ * estimation a little more conservative and the resets a little less frequent, but it keeps
+ * concurrent decoders from contending on a shared counter.
+ *
+ * <p>When it is used by an {@link OpenAddressingStringPool}, the policy reuses the hash the pool
+ * computes, so the bytes are only hashed once.
+ */
+public class AdaptiveStringPoolPolicy extends StringPoolPolicy {
+
+  public static final int DEFAULT_WIDTH = 1 << 14;
+  public static final int DEFAULT_ADMISSION_THRESHOLD = 3;
+  private static final int DEPTH = 4;
+  private static final int MAX_FREQUENCY = 15;
+
+  private final byte[][] table;
+  private final int mask;
+  private final int admissionThreshold;
+  private final int resetSampleSize;
+  /**
+   * The occurrences recorded since the last reset. Approximate, as it is not updated atomically.
+   */
+  private int samples;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder admissions = new LongAdder();
+  private final LongAdder resets = new LongAdder();
+
+  @Inject
+  public AdaptiveStringPoolPolicy() {
+    this(DEFAULT_WIDTH, DEFAULT_ADMISSION_THRESHOLD);
+  }
+
+  /**
+   * @param width              the number of counters on each row of the sketch. It is rounded up
+   *                           to a power of two
+   * @param admissionThreshold the number of times a byte sequence must be seen to be admitted
+   */
+  public AdaptiveStringPoolPolicy(int width, int admissionThreshold) {
+    Preconditions.checkArgument(width > 0, "The width must be positive");
+    Preconditions.checkArgument(admissionThreshold > 0
+        && admissionThreshold <= MAX_FREQUENCY,
+        "The admission threshold must be between 1 and %s", MAX_FREQUENCY);
+    int tableWidth = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+    this.table = new byte[DEPTH][tableWidth];
+    this.mask = tableWidth - 1;
+    this.admissionThreshold = admissionThreshold;
+    this.resetSampleSize = tableWidth * 10;
+  }
+
+  @Override
+  public boolean apply(boolean likelyCacheable, @Tight @ConservesIndexes ByteBuf input) {
+    return apply(likelyCacheable, input, OpenAddressingStringPool.hash(input));
+  }
+
+  @Override
+  public boolean apply(boolean likelyCacheable, @Tight @ConservesIndexes ByteBuf input,
+      int hash) {
+    requests.increment();
+    int frequency = increment(hash);
+    int threshold = likelyCacheable ? admissionThreshold - 1 : admissionThreshold;
+    if (frequency >= threshold) {
+      admissions.increment();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records an occurrence of the given hash and returns its estimated frequency, including this
+   * occurrence.
+   */
+  private int increment(int hash) {
+    int secondHash = rehash(hash);
+    int min = MAX_FREQUENCY;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, table[i][index(hash, secondHash, i)]);
+    }
+    if (min < MAX_FREQUENCY) {
+      //conservative update: only the counters that define the estimation are incremented
+      for (int i = 0; i < DEPTH; i++) {
+        int index = index(hash, secondHash, i);
+        if (table[i][index] == min) {
+          table[i][index] = (byte) (min + 1);
+        }
+      }
+      min++;
+    }
+    if (++samples >= resetSampleSize) {
+      reset();
+    }
+    return min;
+  }
+
+  private int index(int hash, int secondHash, int row) {
+    return (hash + row * secondHash) & mask;
+  }
+
+  private static int rehash(int hash) {
+    int h = hash * 0x31848BAB;
+    return (h ^ (h >>> 14)) | 1;
+  }
+
+  private void reset() {
+    for (byte[] row : table) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (byte) (row[i] >>> 1);
+      }
+    }
+    samples = 0;
+    resets.increment();
+  }
+
+  /**
+   * @return the number of times this policy has been asked whether a byte sequence should be
+   *         pooled
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * @return the number of times this policy has decided a byte sequence should be pooled
+   */
+  public long getAdmissionCount() {
+    return admissions.sum();
+  }
+
+  /**
+   * @return the ratio of requests that have been admitted, or 0 if there was no request
+   */
+  public double getAdmissionRate() {
+    long requestCount = getRequestCount();
+    return requestCount == 0 ? 0 : (double) getAdmissionCount() / requestCount;
+  }
+
+  /**
+   * @return the number of times the frequencies have been halved
+   */
+  public long getResetCount() {
+    return resets.sum();
+  }
+
+  /**
+   * @return the number of bytes used by the frequency sketch
+   */
+  public long getSketchBytes() {
+    return (long) DEPTH * (mask + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "frequency >= " + admissionThreshold;
+  }
+}
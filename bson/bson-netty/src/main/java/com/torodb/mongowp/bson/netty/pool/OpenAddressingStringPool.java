@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty.pool;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import com.google.common.base.Preconditions;
+import com.torodb.mongowp.bson.netty.annotations.ConservesIndexes;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
+import io.netty.buffer.ByteBuf;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import javax.inject.Qualifier;
+
+/**
+ * A {@link StringPool} backed by a fixed size open addressing table whose keys are the raw UTF-8
+ * bytes of the strings.
+ *
+ * <p>Keys are stored as arrays of 8 byte words that are compared against the buffer a word at a
+ * time, so a hit returns the canonical string without decoding or copying the buffer. The table
+ * never grows: a lookup only probes {@link #MAX_PROBES} slots and, when all of them are used, a
+ * miss replaces the entry on the first probed slot.
+ *
+ * <p>The table is not synchronized. Entries are immutable, so a thread can only see a complete
+ * entry or an older one, and a lost update just means a future miss.
+ */
+public class OpenAddressingStringPool extends StringPool {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+  private static final int MAX_PROBES = 8;
+  /**
+   * An approximation of the bytes used by each entry besides its key words and string chars.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final PoolEntry[] table;
+  private final int mask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder retainedBytes = new LongAdder();
+
+  @Inject
+  public OpenAddressingStringPool(StringPoolPolicy heuristic, @Capacity int capacity) {
+    super(heuristic);
+    Preconditions.checkArgument(capacity > 0, "The capacity must be positive");
+    int tableSize = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+    this.table = new PoolEntry[tableSize];
+    this.mask = tableSize - 1;
+  }
+
+  /**
+   * @return the number of strings this pool can hold
+   */
+  public int getCapacity() {
+    return table.length;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The bytes are hashed once and the hash is shared with the policy.
+   */
+  @Override
+  public String fromPool(boolean likelyCacheable, @Tight @ConservesIndexes ByteBuf stringBuf) {
+    int hash = hash(stringBuf);
+    if (!getPolicy().apply(likelyCacheable, stringBuf, hash)) {
+      return getString(stringBuf);
+    }
+    return retrieveFromPool(stringBuf, hash);
+  }
+
+  @Override
+  protected String retrieveFromPool(@Tight @ConservesIndexes ByteBuf stringBuf) {
+    return retrieveFromPool(stringBuf, hash(stringBuf));
+  }
+
+  private String retrieveFromPool(@Tight @ConservesIndexes ByteBuf stringBuf, int hash) {
+    int home = hash & mask;
+    int freeSlot = -1;
+    for (int i = 0; i < MAX_PROBES; i++) {
+      int slot = (home + i) & mask;
+      PoolEntry entry = table[slot];
+      if (entry == null) {
+        freeSlot = slot;
+        break;
+      }
+      if (entry.hash == hash && entry.matches(stringBuf)) {
+        hits.increment();
+        return entry.value;
+      }
+    }
+    misses.increment();
+    PoolEntry newEntry = new PoolEntry(hash, stringBuf);
+    int slot = freeSlot >= 0 ? freeSlot : home;
+    PoolEntry evicted = table[slot];
+    table[slot] = newEntry;
+    retainedBytes.add(newEntry.getRetainedBytes());
+    if (evicted != null) {
+      retainedBytes.add(-evicted.getRetainedBytes());
+    }
+    return newEntry.value;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the ratio of pooled lookups that found the string on the table, or 0 if there was no
+   *         lookup
+   */
+  public double getHitRate() {
+    long hitCount = getHitCount();
+    long lookups = hitCount + getMissCount();
+    return lookups == 0 ? 0 : (double) hitCount / lookups;
+  }
+
+  /**
+   * @return an estimation of the bytes retained by the pooled strings and their keys, excluding
+   *         the table itself
+   */
+  public long getRetainedBytes() {
+    return retainedBytes.sum();
+  }
+
+  /**
+   * Reads the word that starts at the given offset of the buffer, as if the buffer were big
+   * endian and padding with zeros if there are less than 8 bytes after the offset.
+   */
+  static long readWord(ByteBuf buf, int offset) {
+    int index = buf.readerIndex() + offset;
+    int remaining = buf.readableBytes() - offset;
+    if (remaining >= 8) {
+      long word = buf.getLong(index);
+      return buf.order() == ByteOrder.BIG_ENDIAN ? word : Long.reverseBytes(word);
+    }
+    long word = 0;
+    for (int i = 0; i < remaining; i++) {
+      word |= (buf.getByte(index + i) & 0xFFL) << (56 - 8 * i);
+    }
+    return word;
+  }
+
+  static int hash(ByteBuf buf) {
+    int length = buf.readableBytes();
+    long hash = length;
+    for (int offset = 0; offset < length; offset += 8) {
+      hash = (hash ^ readWord(buf, offset)) * 0x9E3779B97F4A7C15L;
+    }
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  @Immutable
+  private static final class PoolEntry {
+
+    private final int hash;
+    private final int length;
+    private final long[] words;
+    private final String value;
+
+    private PoolEntry(int hash, ByteBuf stringBuf) {
+      this.hash = hash;
+      this.length = stringBuf.readableBytes();
+      this.words = new long[(length + 7) >>> 3];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = readWord(stringBuf, i << 3);
+      }
+      this.value = getString(stringBuf);
+    }
+
+    private long getRetainedBytes() {
+      return ENTRY_OVERHEAD + 8L * words.length + 2L * value.length();
+    }
+
+    private boolean matches(ByteBuf stringBuf) {
+      if (stringBuf.readableBytes() != length) {
+        return false;
+      }
+      for (int i = 0; i < words.length; i++) {
+        if (words[i] != readWord(stringBuf, i << 3)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  @Qualifier
+  @Target({FIELD, PARAMETER, METHOD})
+  @Retention(RUNTIME)
+  public static @interface Capacity {
+  }
+}
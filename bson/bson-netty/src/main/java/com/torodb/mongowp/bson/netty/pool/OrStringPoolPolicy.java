@@ -35,6 +35,12 @@ public class OrStringPoolPolicy extends StringPoolPolicy {
     return policy1.apply(likelyCacheable, input) || policy2.apply(likelyCacheable, input);
   }
 
+  @Override
+  public boolean apply(boolean likelyCacheable, ByteBuf input, int hash) {
+    return policy1.apply(likelyCacheable, input, hash)
+        || policy2.apply(likelyCacheable, input, hash);
+  }
+
   @Override
   public String toString() {
     return "(" + policy1 + " or " + policy2 + ")";
@@ -36,6 +36,10 @@ public abstract class StringPool {
     this.heuristic = heuristic;
   }
 
+  protected StringPoolPolicy getPolicy() {
+    return heuristic;
+  }
+
   protected static String getString(@Tight @ConservesIndexes ByteBuf stringBuf) {
     return stringBuf.toString(Charsets.UTF_8);
   }
@@ -30,6 +30,18 @@ public abstract class StringPoolPolicy {
   public abstract boolean apply(boolean likelyCacheable, @Tight
       @ConservesIndexes ByteBuf input);
 
+  /**
+   * Like {@link #apply(boolean, ByteBuf)}, but receives a hash of the input that the pool has
+   * already computed, so policies that hash the input do not have to do it again.
+   *
+   * <p>The pool must always compute the hash with the same function. The default implementation
+   * ignores it.
+   */
+  public boolean apply(boolean likelyCacheable, @Tight @ConservesIndexes ByteBuf input,
+      int hash) {
+    return apply(likelyCacheable, input);
+  }
+
   public StringPoolPolicy and(StringPoolPolicy other) {
     return new AndStringPoolPolicy(this, other);
   }
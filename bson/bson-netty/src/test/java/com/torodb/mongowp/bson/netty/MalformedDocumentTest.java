@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.torodb.mongowp.bson.netty.pool.AlwaysFalseStringPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+
+public class MalformedDocumentTest {
+
+  private static final NettyStringReader STRING_READER =
+      new PooledNettyStringReader(AlwaysFalseStringPool.getInstance());
+
+  /**
+   * Returns the content of a document (without its length prefix) whose only entry is a string
+   * with the given length.
+   */
+  private static ByteBuf stringEntry(int length) {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeByte(0x02);
+    buf.writeByte('a');
+    buf.writeByte(0x00);
+    buf.writeInt(length);
+    buf.writeByte(0x00);
+    return buf;
+  }
+
+  private static void assertIndexFails(ByteBuf content) {
+    try {
+      NettyBsonOffsetIndex.ofDocument(content);
+      fail("The index of a malformed document should not be built");
+    } catch (NettyBsonReaderException expected) {
+      //expected
+    }
+  }
+
+  private static void assertCursorFails(ByteBuf content) {
+    NettyBsonDocumentCursor cursor = new NettyBsonDocumentCursor(content,
+        new OffHeapNettyBsonLowLevelReader(STRING_READER));
+    try {
+      cursor.advance();
+      fail("A malformed document should not be traversed");
+    } catch (NettyBsonReaderRuntimeException expected) {
+      //expected
+    }
+    assertFalse(cursor.advance());
+  }
+
+  @Test
+  public void testNegativeLength() {
+    assertIndexFails(stringEntry(-7));
+    assertCursorFails(stringEntry(-7));
+  }
+
+  @Test
+  public void testZeroLength() {
+    assertIndexFails(stringEntry(0));
+    assertCursorFails(stringEntry(0));
+  }
+
+  @Test
+  public void testLengthOverflow() {
+    assertIndexFails(stringEntry(Integer.MAX_VALUE - 2));
+    assertCursorFails(stringEntry(Integer.MAX_VALUE - 2));
+  }
+
+  @Test
+  public void testNestedDocumentLength() {
+    ByteBuf content = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    content.writeByte(0x03);
+    content.writeByte('a');
+    content.writeByte(0x00);
+    content.writeInt(-4);
+    content.writeByte(0x00);
+    assertIndexFails(content);
+    assertCursorFails(content.resetReaderIndex());
+  }
+}
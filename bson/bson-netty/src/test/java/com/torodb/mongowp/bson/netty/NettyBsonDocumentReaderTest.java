@@ -16,7 +16,13 @@
 package com.torodb.mongowp.bson.netty;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import com.torodb.mongowp.bson.BsonArray;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
+import com.torodb.mongowp.bson.BsonValue;
 import com.torodb.mongowp.bson.netty.pool.AlwaysFalseStringPool;
 import com.torodb.mongowp.bson.org.bson.utils.MongoBsonTranslator;
 import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
@@ -32,6 +38,7 @@ import org.junit.runners.Parameterized.Parameters;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 
 /**
@@ -94,4 +101,70 @@ public class NettyBsonDocumentReaderTest {
   public void readOffHeapValuesTest() throws NettyBsonReaderException, IOException {
     test(AllocationType.OFFHEAP_VALUES);
   }
+
+  @Test
+  public void offHeapLookupTest() throws NettyBsonReaderException, IOException {
+    MongoBsonUtils.write(mongoDoc, byteBuf);
+    com.torodb.mongowp.bson.BsonDocument expected =
+        reader.readDocument(AllocationType.HEAP, byteBuf.slice());
+    com.torodb.mongowp.bson.BsonDocument offHeap =
+        reader.readDocument(AllocationType.OFFHEAP, byteBuf);
+
+    assertLookupsEqual(expected, offHeap);
+  }
+
+  @Test
+  public void offHeapCursorTest() throws NettyBsonReaderException, IOException {
+    MongoBsonUtils.write(mongoDoc, byteBuf);
+    com.torodb.mongowp.bson.BsonDocument expected =
+        reader.readDocument(AllocationType.HEAP, byteBuf.slice());
+    com.torodb.mongowp.bson.BsonDocument offHeap =
+        reader.readDocument(AllocationType.OFFHEAP, byteBuf);
+
+    BsonDocumentCursor cursor = offHeap.cursor();
+    for (com.torodb.mongowp.bson.BsonDocument.Entry<?> entry : expected) {
+      assertTrue(cursor.advance());
+      assertEquals(entry.getKey(), cursor.key());
+      assertTrue(cursor.keyEquals(entry.getKey().getBytes(StandardCharsets.UTF_8)));
+      assertEquals(entry.getValue().getType(), cursor.type());
+      assertEquals(entry.getValue(), cursor.value());
+      switch (cursor.type()) {
+        case INT32:
+          assertEquals(entry.getValue().asInt32().intValue(), cursor.intValue());
+          break;
+        case INT64:
+          assertEquals(entry.getValue().asInt64().longValue(), cursor.longValue());
+          break;
+        case DOUBLE:
+          assertEquals(entry.getValue().asDouble().doubleValue(), cursor.doubleValue(), 0);
+          break;
+        default:
+          break;
+      }
+    }
+    assertFalse(cursor.advance());
+  }
+
+  private void assertLookupsEqual(com.torodb.mongowp.bson.BsonDocument expected,
+      com.torodb.mongowp.bson.BsonDocument actual) {
+    assertEquals(expected.size(), actual.size());
+    for (com.torodb.mongowp.bson.BsonDocument.Entry<?> entry : expected) {
+      assertLookupsEqual(entry.getValue(), actual.get(entry.getKey()));
+    }
+    assertNull(actual.get("\u00f1_not_a_key"));
+  }
+
+  private void assertLookupsEqual(BsonValue<?> expected, BsonValue<?> actual) {
+    assertEquals(expected, actual);
+    if (expected.isDocument()) {
+      assertLookupsEqual(expected.asDocument(), actual.asDocument());
+    } else if (expected.isArray()) {
+      BsonArray expectedArray = expected.asArray();
+      BsonArray actualArray = actual.asArray();
+      assertEquals(expectedArray.size(), actualArray.size());
+      for (int i = 0; i < expectedArray.size(); i++) {
+        assertLookupsEqual(expectedArray.get(i), actualArray.get(i));
+      }
+    }
+  }
 }
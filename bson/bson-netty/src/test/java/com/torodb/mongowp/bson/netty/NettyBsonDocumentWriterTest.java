@@ -17,7 +17,9 @@ package com.torodb.mongowp.bson.netty;
 
 import static org.junit.Assert.*;
 
+import com.torodb.mongowp.bson.netty.pool.AlwaysFalseStringPool;
 import com.torodb.mongowp.bson.org.bson.utils.MongoBsonTranslator;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.bson.*;
@@ -72,4 +74,24 @@ public class NettyBsonDocumentWriterTest {
     assertEquals(mongoDoc, read);
   }
 
+  @Test
+  public void rawCopyTest() throws NettyBsonReaderException, IOException {
+    NettyStringReader stringReader =
+        new PooledNettyStringReader(AlwaysFalseStringPool.getInstance());
+    NettyBsonDocumentReader reader =
+        new NettyBsonDocumentReader(new DefaultNettyBsonLowLevelReader(stringReader),
+            new OffHeapNettyBsonLowLevelReader(stringReader),
+            new OffHeapValuesNettyBsonLowLevelReader(stringReader));
+    ByteBuf original = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    MongoBsonUtils.write(mongoDoc, original);
+
+    for (AllocationType allocationType : new AllocationType[] {
+        AllocationType.OFFHEAP, AllocationType.OFFHEAP_VALUES}) {
+      byteBuf.clear();
+      writer.writeInto(byteBuf, reader.readDocument(allocationType, original.slice()));
+
+      assertEquals(original, byteBuf);
+    }
+  }
+
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class AdaptiveStringPoolPolicyTest {
+
+  private static ByteBuf buf(String str) {
+    return Unpooled.wrappedBuffer(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testAdmitsFrequentSequences() {
+    AdaptiveStringPoolPolicy policy = new AdaptiveStringPoolPolicy(1024, 3);
+
+    assertFalse(policy.apply(false, buf("active")));
+    assertFalse(policy.apply(false, buf("active")));
+    assertTrue(policy.apply(false, buf("active")));
+    assertFalse(policy.apply(false, buf("unique value")));
+
+    assertFalse(policy.apply(true, buf("key")));
+    assertTrue(policy.apply(true, buf("key")));
+
+    assertEquals(6, policy.getRequestCount());
+    assertEquals(2, policy.getAdmissionCount());
+  }
+
+  @Test
+  public void testForgetsOldSequences() {
+    AdaptiveStringPoolPolicy policy = new AdaptiveStringPoolPolicy(2, 2);
+    for (int i = 0; i < 4; i++) {
+      policy.apply(false, buf("old"));
+    }
+    //the sketch is halved each 20 samples on a sketch of width 2
+    for (int i = 0; i < 40; i++) {
+      policy.apply(false, buf("new" + i));
+    }
+    assertTrue(policy.getResetCount() >= 2);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.bson.netty.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class OpenAddressingStringPoolTest {
+
+  private final OpenAddressingStringPool pool = new OpenAddressingStringPool(
+      OnlyLikelyStringPoolPolicy.getInstance(), OpenAddressingStringPool.DEFAULT_CAPACITY);
+
+  private static ByteBuf buf(String str, ByteOrder order) {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    //the string is surrounded by other bytes to check the pool only reads the readable ones
+    ByteBuf buf = Unpooled.buffer(bytes.length + 6).order(order);
+    buf.writeBytes(new byte[] {1, 2, 3}).writeBytes(bytes).writeBytes(new byte[] {4, 5, 6});
+    return buf.slice(3, bytes.length);
+  }
+
+  @Test
+  public void testCanonicalStrings() {
+    for (String str : new String[] {"", "a", "$db", "documents", "a long key with some words",
+        "ñandú"}) {
+      String first = pool.fromPool(true, buf(str, ByteOrder.BIG_ENDIAN));
+      String second = pool.fromPool(true, buf(str, ByteOrder.LITTLE_ENDIAN));
+
+      assertEquals(str, first);
+      assertSame(first, second);
+    }
+    assertEquals(6, pool.getHitCount());
+    assertEquals(0.5, pool.getHitRate(), 0);
+  }
+
+  @Test
+  public void testNotLikelyCacheable() {
+    String first = pool.fromPool(false, buf("find", ByteOrder.BIG_ENDIAN));
+    String second = pool.fromPool(false, buf("find", ByteOrder.BIG_ENDIAN));
+
+    assertEquals("find", second);
+    assertNotSame(first, second);
+  }
+
+  @Test
+  public void testBoundedSize() {
+    OpenAddressingStringPool smallPool = new OpenAddressingStringPool(
+        OnlyLikelyStringPoolPolicy.getInstance(), 1);
+    for (int i = 0; i < 1000; i++) {
+      String str = "key" + i;
+      assertEquals(str, smallPool.fromPool(true, buf(str, ByteOrder.BIG_ENDIAN)));
+    }
+    assertEquals(8, smallPool.getCapacity());
+  }
+
+  @Test
+  public void testPolicyReceivesTheHashOfThePool() {
+    HashRecordingPolicy policy = new HashRecordingPolicy();
+    OpenAddressingStringPool hashedPool = new OpenAddressingStringPool(
+        policy.and(new AdaptiveStringPoolPolicy(1024, 1)),
+        OpenAddressingStringPool.DEFAULT_CAPACITY);
+    ByteBuf buf = buf("documents", ByteOrder.BIG_ENDIAN);
+
+    assertEquals("documents", hashedPool.fromPool(true, buf));
+
+    assertEquals(OpenAddressingStringPool.hash(buf), policy.hash);
+    assertEquals(1, hashedPool.getMissCount());
+  }
+
+  private static class HashRecordingPolicy extends StringPoolPolicy {
+
+    private int hash;
+
+    @Override
+    public boolean apply(boolean likelyCacheable, ByteBuf input) {
+      throw new AssertionError("The policy hashed the bytes again");
+    }
+
+    @Override
+    public boolean apply(boolean likelyCacheable, ByteBuf input, int hash) {
+      this.hash = hash;
+      return true;
+    }
+  }
+}
@@ -17,7 +17,7 @@ package com.torodb.mongowp.bson.org.bson.utils;
 
 import com.google.common.primitives.UnsignedBytes;
 import com.torodb.mongowp.bson.BinarySubtype;
-import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
 import com.torodb.mongowp.bson.impl.ByteArrayBsonBinary;
 import com.torodb.mongowp.bson.impl.ByteArrayBsonObjectId;
 import com.torodb.mongowp.bson.impl.DefaultBsonDbPointer;
@@ -135,8 +135,27 @@ public class MongoBsonTranslator {
         com.torodb.mongowp.bson.BsonDocument casted =
                 (com.torodb.mongowp.bson.BsonDocument) value;
         BsonDocument result = new org.bson.BsonDocument();
-        for (Entry<?> entry : casted) {
-          result.append(entry.getKey(), translatePrivate(entry.getValue()));
+        BsonDocumentCursor cursor = casted.cursor();
+        while (cursor.advance()) {
+          BsonValue translated;
+          switch (cursor.type()) {
+            case INT32:
+              translated = new BsonInt32(cursor.intValue());
+              break;
+            case INT64:
+              translated = new BsonInt64(cursor.longValue());
+              break;
+            case DOUBLE:
+              translated = new BsonDouble(cursor.doubleValue());
+              break;
+            case BOOLEAN:
+              translated = cursor.booleanValue() ? BsonBoolean.TRUE : BsonBoolean.FALSE;
+              break;
+            default:
+              translated = translatePrivate(cursor.value());
+              break;
+          }
+          result.append(cursor.key(), translated);
         }
         return result;
       }
@@ -22,11 +22,26 @@ import com.torodb.mongowp.bson.impl.PrimitiveBsonDouble;
 public class MongoConstants {
 
   public static final int DEFAULT_PORT = 27017;
-  /*
-   * TODO: MAX_MESSAGE_SIZE_BYTES is a value that the server could change, so it should be
-   * configurable
+  /**
+   * The default max size of a message. Servers can change it with
+   * {@link MongoServerConfig#getMaxMessageSizeBytes()}.
    */
   public static final int MAX_MESSAGE_SIZE_BYTES = 48 * 1000 * 1000;
+  /**
+   * The default max size of a document. Servers can change it with
+   * {@link MongoServerConfig#getMaxBsonObjectSize()}.
+   */
+  public static final int MAX_BSON_OBJECT_SIZE_BYTES = 16 * 1024 * 1024;
+  /**
+   * The extra bytes a command document can use over the max size of a document, so commands can
+   * contain documents of the max size.
+   */
+  public static final int BSON_OBJECT_INTERNAL_OVERHEAD_BYTES = 16 * 1024;
+  /**
+   * The default max number of documents on a write batch. Servers can change it with
+   * {@link MongoServerConfig#getMaxWriteBatchSize()}.
+   */
+  public static final int MAX_WRITE_BATCH_SIZE = 100000;
   public static final int MESSAGE_LENGTH_FIELD_BYTES = Ints.BYTES;
   public static final int MESSAGE_HEADER_WITHOUT_LENGTH_FIELD_BYTES = Ints.BYTES + Ints.BYTES
       + Ints.BYTES;
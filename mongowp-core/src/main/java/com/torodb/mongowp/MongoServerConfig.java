@@ -18,4 +18,267 @@ package com.torodb.mongowp;
 public interface MongoServerConfig {
 
   public int getPort();
+
+  /**
+   * @return the max size of the messages the server accepts, which is advertised to clients as
+   *         {@code maxMessageSizeBytes}
+   */
+  public default int getMaxMessageSizeBytes() {
+    return MongoConstants.MAX_MESSAGE_SIZE_BYTES;
+  }
+
+  /**
+   * @return the max size of the documents the server accepts, which is advertised to clients as
+   *         {@code maxBsonObjectSize}
+   */
+  public default int getMaxBsonObjectSize() {
+    return MongoConstants.MAX_BSON_OBJECT_SIZE_BYTES;
+  }
+
+  /**
+   * @return the max number of documents a write batch can contain, which is advertised to clients
+   *         as {@code maxWriteBatchSize}
+   */
+  public default int getMaxWriteBatchSize() {
+    return MongoConstants.MAX_WRITE_BATCH_SIZE;
+  }
+
+  /**
+   * @return the network transport the server should use
+   */
+  public default Transport getTransport() {
+    return Transport.AUTO;
+  }
+
+  /**
+   * Returns the number of channels that accept connections on the port.
+   *
+   * <p>Values greater than one require {@code SO_REUSEPORT}, so they are ignored when the selected
+   * transport does not support it.
+   */
+  public default int getAcceptorCount() {
+    return 1;
+  }
+
+  /**
+   * @return the way decoded requests are executed
+   */
+  public default ExecutionMode getExecutionMode() {
+    return ExecutionMode.INLINE;
+  }
+
+  /**
+   * @return the number of threads used to execute requests when the execution mode is
+   *         {@link ExecutionMode#POOL}
+   */
+  public default int getExecutorThreads() {
+    return Runtime.getRuntime().availableProcessors() * 2;
+  }
+
+  /**
+   * @return the max number of connections whose requests can be waiting for a thread when the
+   *         execution mode is {@link ExecutionMode#POOL}
+   */
+  public default int getExecutorQueueSize() {
+    return 4096;
+  }
+
+  /**
+   * Returns true iff the flushes requested while a batch of reads is processed should be delayed
+   * until the batch finishes, so several replies can be written with a single syscall.
+   */
+  public default boolean isFlushCoalescingEnabled() {
+    return true;
+  }
+
+  /**
+   * @return the max number of flushes that can be delayed before the channel is flushed
+   */
+  public default int getMaxCoalescedFlushes() {
+    return 256;
+  }
+
+  /**
+   * @return the max number of bytes that can be written on a channel before it is flushed, even
+   *         if flushes are being coalesced
+   */
+  public default int getMaxCoalescedBytes() {
+    return 64 * 1024;
+  }
+
+  /**
+   * @return the number of pending outbound bytes at which a connection is marked as not writable
+   *         and stops reading new requests
+   */
+  public default int getWriteBufferHighWaterMark() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * @return the number of pending outbound bytes at which a not writable connection is marked as
+   *         writable again
+   */
+  public default int getWriteBufferLowWaterMark() {
+    return 256 * 1024;
+  }
+
+  /**
+   * @return true iff replies should reference the buffers their documents are stored on instead of
+   *         copying them into the output buffer, when the documents are buffer backed
+   */
+  public default boolean isZeroCopyRepliesEnabled() {
+    return false;
+  }
+
+  /**
+   * @return the min number of contiguous bytes that are referenced instead of copied when
+   *         {@linkplain #isZeroCopyRepliesEnabled() zero copy replies} are enabled
+   */
+  public default int getZeroCopyMinSliceBytes() {
+    return 4 * 1024;
+  }
+
+  /**
+   * Returns true iff the documents of very large replies should be encoded in parallel, out of the
+   * event loop, so the other connections of the loop are not blocked while they are serialized.
+   */
+  public default boolean isParallelReplyEncodingEnabled() {
+    return false;
+  }
+
+  /**
+   * @return the min number of documents a reply must contain to be encoded in parallel
+   */
+  public default int getParallelEncodingMinDocuments() {
+    return 4096;
+  }
+
+  /**
+   * @return the number of documents each encoding task serializes when a reply is encoded in
+   *         parallel
+   */
+  public default int getParallelEncodingChunkDocuments() {
+    return 1024;
+  }
+
+  /**
+   * @return the number of threads used to encode replies in parallel
+   */
+  public default int getEncodingThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Returns true iff the documents of big OP_INSERT messages (and of the trailing document sequence
+   * of big OP_MSG messages) should be delivered to the request processor as soon as they are
+   * received, instead of waiting for the whole message.
+   *
+   * <p>Streamed documents can only be iterated once and each off heap document is only valid until
+   * the next one is requested. This mode is ignored when the execution mode is
+   * {@link ExecutionMode#INLINE}, as the consumer has to wait for the documents.
+   */
+  public default boolean isStreamingDecodingEnabled() {
+    return false;
+  }
+
+  /**
+   * @return the min size of the messages whose documents are streamed
+   */
+  public default int getStreamingDecodingMinMessageBytes() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * @return the number of received bytes that can be waiting to be consumed by the request
+   *         processor before the connection stops reading
+   */
+  public default int getStreamingDecodingWindowBytes() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * @return the milliseconds after which idle cursors are killed, unless they have been created
+   *         with the {@code noCursorTimeout} option
+   */
+  public default long getCursorTimeoutMillis() {
+    return 10 * 60 * 1000;
+  }
+
+  /**
+   * @return the milliseconds since a request is received until its last reply is sent after which
+   *         the request is recorded as a slow operation or a negative value if requests should
+   *         not be recorded by their latency
+   */
+  public default long getSlowOperationThresholdMillis() {
+    return 100;
+  }
+
+  /**
+   * @return the fraction (between 0 and 1) of the requests that are recorded by the operation
+   *         profiler, whatever their latency is
+   */
+  public default double getProfilerSampleRate() {
+    return 0;
+  }
+
+  /**
+   * @return the number of operations the profiler keeps, which is rounded up to a power of two.
+   *         Older operations are discarded when new ones are recorded
+   */
+  public default int getProfilerBufferSize() {
+    return 1024;
+  }
+
+  /**
+   * @return the max number of namespaces whose traffic is tracked separately. The traffic of the
+   *         namespaces that are seen once the limit is reached is added to a shared entry
+   */
+  public default int getTopMaxNamespaces() {
+    return 1000;
+  }
+
+  /**
+   * Returns true iff the CPU time and the bytes allocated by the thread that executes each request
+   * should be measured.
+   *
+   * <p>Measurements are taken with the {@link java.lang.management.ThreadMXBean}, which adds some
+   * overhead to each request, and they are ignored on JVMs that do not support them.
+   */
+  public default boolean isResourceAccountingEnabled() {
+    return false;
+  }
+
+  /**
+   * @return the number of namespaces whose parsed form is cached by the request decoders, which is
+   *         rounded up to a power of two
+   */
+  public default int getNamespaceCacheSize() {
+    return 1024;
+  }
+
+  public static enum Transport {
+    /**
+     * The best native transport available on the platform or {@link #NIO} if there is none.
+     */
+    AUTO,
+    EPOLL,
+    IO_URING,
+    NIO
+  }
+
+  public static enum ExecutionMode {
+    /**
+     * Requests are executed on the Netty event loop that read them.
+     */
+    INLINE,
+    /**
+     * Requests are executed on a bounded thread pool.
+     */
+    POOL,
+    /**
+     * Each request is executed on its own virtual thread. It requires a JVM that supports virtual
+     * threads and falls back to {@link #POOL} otherwise.
+     */
+    VIRTUAL_THREADS
+  }
 }
@@ -15,6 +15,8 @@
  */
 package com.torodb.mongowp.commands;
 
+import com.torodb.mongowp.messages.utils.Namespace;
+
 import java.net.InetAddress;
 import java.time.Duration;
 
@@ -29,13 +31,27 @@ public class Request {
 
   private final String database;
   @Nullable
+  private final Namespace namespace;
+  @Nullable
   private final ExternalClientInfo externalClientInfo;
   private final boolean slaveOk;
   private final Duration timeout;
 
   public Request(String database, @Nullable ExternalClientInfo externalClientInfo,
       boolean slaveOk, @Nullable Duration timeout) {
+    this(database, null, externalClientInfo, slaveOk, timeout);
+  }
+
+  public Request(Namespace namespace, @Nullable ExternalClientInfo externalClientInfo,
+      boolean slaveOk, @Nullable Duration timeout) {
+    this(namespace.getDatabase(), namespace, externalClientInfo, slaveOk, timeout);
+  }
+
+  private Request(String database, @Nullable Namespace namespace,
+      @Nullable ExternalClientInfo externalClientInfo, boolean slaveOk,
+      @Nullable Duration timeout) {
     this.database = database;
+    this.namespace = namespace;
     this.externalClientInfo = externalClientInfo;
     this.slaveOk = slaveOk;
     this.timeout = timeout;
@@ -45,6 +61,15 @@ public class Request {
     return database;
   }
 
+  /**
+   * @return the collection the request refers to or null if it only refers to a database, like
+   *         commands do
+   */
+  @Nullable
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nullable
   public ExternalClientInfo getExternalClientInfo() {
     return externalClientInfo;
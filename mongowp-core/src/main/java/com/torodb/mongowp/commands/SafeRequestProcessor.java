@@ -25,6 +25,13 @@ import com.torodb.mongowp.messages.request.KillCursorsMessage;
 import com.torodb.mongowp.messages.request.UpdateMessage;
 import com.torodb.mongowp.messages.response.ReplyMessage;
 
+/**
+ * The backend that executes the requests.
+ *
+ * <p>Implementers can keep their cursors on a
+ * {@link com.torodb.mongowp.commands.cursors.CursorRegistry}, whose cursors are killed when the
+ * connection that created them is closed.
+ */
 public interface SafeRequestProcessor<C extends Connection> extends CommandExecutor<C> {
 
   public C openConnection();
@@ -41,6 +48,20 @@ public interface SafeRequestProcessor<C extends Connection> extends CommandExecu
   public ReplyMessage getMore(C connection, Request req, int requestId, GetMoreMessage moreMessage)
       throws MongoException;
 
+  /**
+   * Returns how long a {@code getMore} on the given cursor that finds no documents must wait for
+   * new data before replying.
+   *
+   * <p>Only tailable cursors created with the {@code awaitData} option should wait. The server does
+   * not block any thread while the request waits, but the backend must signal the namespace of
+   * the cursor each time it appends data to it, so the request is resumed.
+   *
+   * @return the timeout in milliseconds or 0 if the request must be replied immediately
+   */
+  public default long getAwaitDataTimeoutMillis(C connection, long cursorId) {
+    return 0;
+  }
+
   public void killCursors(C connection, Request req, KillCursorsMessage killCursorsMessage) throws
       MongoException;
 
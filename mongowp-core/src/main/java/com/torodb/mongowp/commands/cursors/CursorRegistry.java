@@ -0,0 +1,384 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.commands.cursors;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.annotations.MongoWp;
+import com.torodb.mongowp.commands.Connection;
+import com.torodb.mongowp.commands.pojos.MongoCursor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Stores the cursors of the {@link com.torodb.mongowp.commands.SafeRequestProcessor} so they can
+ * be found by the {@code getMore} and {@code killCursors} requests.
+ *
+ * <p>Ids are random, so they are allocated without contention and cannot be guessed, and lookups
+ * are lock free. Each cursor is owned by the connection that created it, which must be
+ * {@link #openConnection(Connection) opened} on the registry. The cursors of a connection are
+ * killed when it is closed and cursors cannot be registered on a closed connection. Cursors that
+ * are killed while they are {@link #checkout(long) checked out} are closed once they are
+ * {@link #release(RegisteredCursor) released}.
+ *
+ * <p>Cursors that are not used for {@link MongoServerConfig#getCursorTimeoutMillis() some time}
+ * are killed, unless they were created with the {@code noCursorTimeout} option. Deadlines are
+ * tracked by a timer wheel whose buckets are checked once per tick. Using a cursor does not move it
+ * on the wheel: it is moved lazily when its bucket is checked and its deadline has changed.
+ */
+@ThreadSafe
+@Singleton
+public class CursorRegistry {
+
+  private static final Logger LOGGER = LogManager.getLogger(CursorRegistry.class);
+  private static final long TICK_MILLIS = 1000;
+  private static final int WHEEL_SIZE = 512;
+
+  private final Ticker ticker;
+  private final long timeoutNanos;
+  private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+  private final long startNanos;
+  private final ConcurrentHashMap<Long, RegisteredCursor> cursors = new ConcurrentHashMap<>();
+  /**
+   * The cursors of each open connection.
+   */
+  private final ConcurrentHashMap<Integer, Set<RegisteredCursor>> connectionCursors =
+      new ConcurrentHashMap<>();
+  private final List<Set<RegisteredCursor>> wheel;
+  /**
+   * The last tick whose bucket has been checked.
+   */
+  private volatile long processedTick;
+  private final LongAdder retainedBytes = new LongAdder();
+  private final LongAdder retainedDocuments = new LongAdder();
+  @Nullable
+  private final ScheduledExecutorService timer;
+
+  @Inject
+  public CursorRegistry(@MongoWp ThreadFactory threadFactory, MongoServerConfig config) {
+    this(config.getCursorTimeoutMillis(), Ticker.systemTicker(), threadFactory);
+  }
+
+  /**
+   * Creates a registry that only kills idle cursors when {@link #expireIdleCursors()} is called.
+   */
+  public CursorRegistry(long timeoutMillis, Ticker ticker) {
+    this(timeoutMillis, ticker, null);
+  }
+
+  private CursorRegistry(long timeoutMillis, Ticker ticker,
+      @Nullable ThreadFactory threadFactory) {
+    this.ticker = ticker;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.startNanos = ticker.read();
+    this.wheel = new ArrayList<>(WHEEL_SIZE);
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(ConcurrentHashMap.newKeySet());
+    }
+    if (threadFactory == null) {
+      timer = null;
+    } else {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("mongowp-cursor-timeout-%d")
+          .setThreadFactory(threadFactory)
+          .setDaemon(true)
+          .build());
+      timer.scheduleWithFixedDelay(this::expireIdleCursors, TICK_MILLIS, TICK_MILLIS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  Ticker getTicker() {
+    return ticker;
+  }
+
+  /**
+   * Allows the given connection to register cursors until
+   * {@link #killConnectionCursors(Connection) it is closed}.
+   */
+  public void openConnection(Connection connection) {
+    connectionCursors.putIfAbsent(connection.getConnectionId(), ConcurrentHashMap.newKeySet());
+  }
+
+  /**
+   * Stores a cursor.
+   *
+   * @param owner     the connection that created the cursor
+   * @param namespace the namespace the cursor iterates
+   * @param noTimeout true iff the cursor must not be killed when it is idle
+   * @return the registered cursor, whose id must be sent to the client
+   * @throws IllegalStateException if the owner is not open, in which case the cursor is closed
+   */
+  public RegisteredCursor register(Connection owner, String namespace, MongoCursor<?> cursor,
+      boolean noTimeout) throws IllegalStateException {
+    RegisteredCursor registered;
+    do {
+      registered = new RegisteredCursor(this, newId(), owner.getConnectionId(), namespace,
+          noTimeout, cursor, ticker.read());
+    } while (cursors.putIfAbsent(registered.getId(), registered) != null);
+
+    RegisteredCursor toAdd = registered;
+    //the connection is closed atomically, so the cursor is either rejected here or killed when the
+    //connection is closed
+    Set<RegisteredCursor> ofConnection = connectionCursors.computeIfPresent(
+        owner.getConnectionId(), (id, set) -> {
+          set.add(toAdd);
+          return set;
+        });
+    if (ofConnection == null) {
+      kill(registered);
+      throw new IllegalStateException("The connection " + owner.getConnectionId()
+          + " is closed");
+    }
+    if (!noTimeout) {
+      schedule(registered, registered.getLastAccessNanos() + timeoutNanos);
+    }
+    return registered;
+  }
+
+  /**
+   * Looks for a cursor and marks it as in use, so it is not killed for being idle.
+   *
+   * <p>Cursors returned by this method must be {@link #release(RegisteredCursor) released} or
+   * {@link #kill(RegisteredCursor) killed} once the request that uses them finishes.
+   *
+   * @return the cursor or null if there is no cursor with the given id or it is being used by
+   *         another request
+   */
+  @Nullable
+  public RegisteredCursor checkout(long cursorId) {
+    RegisteredCursor cursor = cursors.get(cursorId);
+    if (cursor == null || !cursor.tryCheckout()) {
+      return null;
+    }
+    if (cursor.isKilled()) {
+      release(cursor);
+      return null;
+    }
+    return cursor;
+  }
+
+  /**
+   * Finishes the use of a cursor returned by {@link #checkout(long)}, restarting its idle timeout.
+   * If the cursor has been killed meanwhile, it is closed.
+   */
+  public void release(RegisteredCursor cursor) {
+    close(cursor.getId(), cursor.release(ticker.read()));
+  }
+
+  /**
+   * Removes and closes a cursor, like an exhausted one. If the cursor is checked out, it is closed
+   * when it is released.
+   */
+  public void kill(RegisteredCursor cursor) {
+    if (cursors.remove(cursor.getId(), cursor)) {
+      Set<RegisteredCursor> ofConnection = connectionCursors.get(cursor.getConnectionId());
+      if (ofConnection != null) {
+        ofConnection.remove(cursor);
+      }
+    }
+    close(cursor);
+  }
+
+  /**
+   * Kills the given cursors on behalf of a connection, ignoring the ids that do not exist and the
+   * cursors owned by other connections.
+   *
+   * @param connection the connection that requests to kill the cursors
+   * @return the number of killed cursors
+   */
+  public int killCursors(Connection connection, long... cursorIds) {
+    List<RegisteredCursor> toKill = new ArrayList<>(cursorIds.length);
+    for (long cursorId : cursorIds) {
+      RegisteredCursor cursor = cursors.get(cursorId);
+      if (cursor == null) {
+        continue;
+      }
+      if (cursor.getConnectionId() != connection.getConnectionId()) {
+        LOGGER.debug("Connection {} cannot kill the cursor {} of the connection {}",
+            connection.getConnectionId(), cursorId, cursor.getConnectionId());
+        continue;
+      }
+      toKill.add(cursor);
+    }
+    return killAll(toKill);
+  }
+
+  /**
+   * Kills all the cursors owned by the given connection, which must be called once it is closed.
+   * Later registrations of the connection are rejected.
+   *
+   * @return the number of killed cursors
+   */
+  public int killConnectionCursors(Connection connection) {
+    Set<RegisteredCursor> owned = connectionCursors.remove(connection.getConnectionId());
+    if (owned == null) {
+      return 0;
+    }
+    return killAll(owned);
+  }
+
+  /**
+   * Kills the cursors whose idle timeout has expired.
+   *
+   * <p>This method is periodically called by the timer of the registry, if it has one.
+   *
+   * @return the number of killed cursors
+   */
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  public synchronized int expireIdleCursors() {
+    try {
+      long now = ticker.read();
+      long currentTick = (now - startNanos) / tickNanos;
+      List<RegisteredCursor> expired = new ArrayList<>();
+      for (long tick = Math.max(processedTick + 1, currentTick - WHEEL_SIZE + 1);
+          tick <= currentTick; tick++) {
+        Set<RegisteredCursor> bucket = wheel.get((int) (tick % WHEEL_SIZE));
+        Iterator<RegisteredCursor> it = bucket.iterator();
+        while (it.hasNext()) {
+          RegisteredCursor cursor = it.next();
+          long deadline = cursor.getLastAccessNanos() + timeoutNanos;
+          if (cursor.isKilled()) {
+            it.remove();
+          } else if (cursor.isInUse()) {
+            it.remove();
+            schedule(cursor, now + timeoutNanos);
+          } else if (deadline - now <= 0) {
+            it.remove();
+            expired.add(cursor);
+          } else if (getBucket(deadline) != bucket) {
+            it.remove();
+            schedule(cursor, deadline);
+          }
+        }
+      }
+      processedTick = currentTick;
+      if (!expired.isEmpty()) {
+        LOGGER.debug("Killing {} idle cursors", expired.size());
+      }
+      return killAll(expired);
+    } catch (RuntimeException ex) {
+      LOGGER.error("Error while killing idle cursors", ex);
+      return 0;
+    }
+  }
+
+  /**
+   * @return the number of live cursors
+   */
+  public int getCursorCount() {
+    return cursors.size();
+  }
+
+  /**
+   * @return the bytes retained by the live cursors
+   */
+  public long getRetainedBytes() {
+    return retainedBytes.sum();
+  }
+
+  /**
+   * @return the documents retained by the live cursors
+   */
+  public long getRetainedDocuments() {
+    return retainedDocuments.sum();
+  }
+
+  /**
+   * Stops the timer, closes all connections and kills all cursors.
+   */
+  public void shutdown() {
+    if (timer != null) {
+      timer.shutdownNow();
+    }
+    connectionCursors.clear();
+    killAll(new ArrayList<>(cursors.values()));
+  }
+
+  void onRetainedChanged(long bytes, long documents) {
+    retainedBytes.add(bytes);
+    retainedDocuments.add(documents);
+  }
+
+  private static long newId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    } while (id == 0);
+    return id;
+  }
+
+  private void schedule(RegisteredCursor cursor, long deadlineNanos) {
+    getBucket(deadlineNanos).add(cursor);
+  }
+
+  private Set<RegisteredCursor> getBucket(long deadlineNanos) {
+    long tick = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+    //buckets of ticks that have already been checked would be checked a round later
+    tick = Math.max(tick, processedTick + 1);
+    return wheel.get((int) (tick % WHEEL_SIZE));
+  }
+
+  private int killAll(Collection<RegisteredCursor> toKill) {
+    int killed = 0;
+    for (RegisteredCursor cursor : toKill) {
+      if (cursors.remove(cursor.getId(), cursor)) {
+        Set<RegisteredCursor> ofConnection = connectionCursors.get(cursor.getConnectionId());
+        if (ofConnection != null) {
+          ofConnection.remove(cursor);
+        }
+        killed++;
+      }
+      close(cursor);
+    }
+    return killed;
+  }
+
+  private static void close(RegisteredCursor cursor) {
+    close(cursor.getId(), cursor.kill());
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private static void close(long cursorId, @Nullable MongoCursor<?> killed) {
+    if (killed == null) {
+      return;
+    }
+    try {
+      killed.close();
+    } catch (RuntimeException ex) {
+      LOGGER.warn("Error while closing cursor " + cursorId, ex);
+    }
+  }
+}
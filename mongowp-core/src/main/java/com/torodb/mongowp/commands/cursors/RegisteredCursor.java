@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.commands.cursors;
+
+import com.torodb.mongowp.commands.pojos.MongoCursor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A cursor stored on a {@link CursorRegistry}.
+ *
+ * <p>Implementers report the bytes and documents the cursor keeps in memory (like a prefetched
+ * batch) with {@link #addRetained(long, long)}, so the registry can account them. Once the cursor
+ * is killed it drops the reference to the {@link MongoCursor}, so a handle that is leaked by its
+ * user does not pin the data of the cursor. A cursor killed while it is checked out keeps its
+ * {@link MongoCursor} until it is released, so the request that uses it is not closed under its
+ * feet.
+ */
+@ThreadSafe
+public class RegisteredCursor {
+
+  private final CursorRegistry registry;
+  private final long id;
+  private final int connectionId;
+  private final String namespace;
+  private final boolean noTimeout;
+  @Nullable
+  private volatile MongoCursor<?> cursor;
+  private final AtomicBoolean inUse = new AtomicBoolean();
+  private volatile boolean killed;
+  private final AtomicLong retainedBytes = new AtomicLong();
+  private final AtomicLong retainedDocuments = new AtomicLong();
+  /**
+   * The {@link CursorRegistry#getTicker() ticker} read when this cursor was last released.
+   */
+  private volatile long lastAccessNanos;
+
+  RegisteredCursor(CursorRegistry registry, long id, int connectionId, String namespace,
+      boolean noTimeout, MongoCursor<?> cursor, long nowNanos) {
+    this.registry = registry;
+    this.id = id;
+    this.connectionId = connectionId;
+    this.namespace = namespace;
+    this.noTimeout = noTimeout;
+    this.cursor = cursor;
+    this.lastAccessNanos = nowNanos;
+  }
+
+  /**
+   * @return the id the client uses to refer to this cursor, which is never 0
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the id of the {@link com.torodb.mongowp.commands.Connection} that owns this cursor
+   */
+  public int getConnectionId() {
+    return connectionId;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  /**
+   * @return true iff this cursor is never killed for being idle
+   */
+  public boolean isNoTimeout() {
+    return noTimeout;
+  }
+
+  /**
+   * @return the cursor or null if it has been killed and it is not in use
+   */
+  @Nullable
+  public MongoCursor<?> getCursor() {
+    return cursor;
+  }
+
+  public boolean isKilled() {
+    return killed;
+  }
+
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  public long getRetainedDocuments() {
+    return retainedDocuments.get();
+  }
+
+  /**
+   * Adds (or subtracts, when the arguments are negative) memory retained by this cursor.
+   */
+  public void addRetained(long bytes, long documents) {
+    synchronized (this) {
+      if (cursor == null) {
+        return;
+      }
+      retainedBytes.addAndGet(bytes);
+      retainedDocuments.addAndGet(documents);
+    }
+    registry.onRetainedChanged(bytes, documents);
+  }
+
+  long getLastAccessNanos() {
+    return lastAccessNanos;
+  }
+
+  boolean isInUse() {
+    return inUse.get();
+  }
+
+  boolean tryCheckout() {
+    return inUse.compareAndSet(false, true);
+  }
+
+  /**
+   * Finishes the use of this cursor.
+   *
+   * @return the cursor to close if this cursor was killed while it was in use, otherwise null
+   */
+  @Nullable
+  MongoCursor<?> release(long nowNanos) {
+    synchronized (this) {
+      lastAccessNanos = nowNanos;
+      inUse.set(false);
+      if (!killed) {
+        return null;
+      }
+    }
+    return detach();
+  }
+
+  /**
+   * Marks this cursor as killed and, unless it is in use, drops the cursor and the memory it
+   * retains.
+   *
+   * @return the cursor to close or null if it was already killed or it must be closed once it is
+   *         {@link #release(long) released}
+   */
+  @Nullable
+  MongoCursor<?> kill() {
+    synchronized (this) {
+      killed = true;
+      if (inUse.get()) {
+        return null;
+      }
+    }
+    return detach();
+  }
+
+  @Nullable
+  private MongoCursor<?> detach() {
+    MongoCursor<?> detached;
+    long bytes;
+    long documents;
+    synchronized (this) {
+      detached = cursor;
+      cursor = null;
+      bytes = retainedBytes.getAndSet(0);
+      documents = retainedDocuments.getAndSet(0);
+    }
+    if (detached != null) {
+      registry.onRetainedChanged(-bytes, -documents);
+    }
+    return detached;
+  }
+
+  @Override
+  public String toString() {
+    return "RegisteredCursor{id=" + id + ", connectionId=" + connectionId + ", namespace="
+        + namespace + ", noTimeout=" + noTimeout + ", retainedBytes=" + getRetainedBytes()
+        + ", retainedDocuments=" + getRetainedDocuments() + '}';
+  }
+}
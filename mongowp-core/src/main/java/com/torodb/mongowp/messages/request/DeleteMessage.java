@@ -17,6 +17,7 @@ package com.torodb.mongowp.messages.request;
 
 import com.torodb.mongowp.annotations.Ethereal;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.utils.Namespace;
 
 import javax.annotation.Nonnull;
 
@@ -25,9 +26,7 @@ public class DeleteMessage extends AbstractRequestMessage {
   public static final RequestOpCode REQUEST_OP_CODE = RequestOpCode.OP_DELETE;
 
   @Nonnull
-  private final String database;
-  @Nonnull
-  private final String collection;
+  private final Namespace namespace;
   @Nonnull
   private final BsonDocument document;
   private final boolean singleRemove;
@@ -39,9 +38,18 @@ public class DeleteMessage extends AbstractRequestMessage {
       @Nonnull String collection,
       @Nonnull @Ethereal("dataContext") BsonDocument document,
       boolean singleRemove) {
+    this(requestBaseMessage, dataContext, Namespace.of(database, collection), document,
+        singleRemove);
+  }
+
+  public DeleteMessage(
+      @Nonnull RequestBaseMessage requestBaseMessage,
+      @Nonnull BsonContext dataContext,
+      @Nonnull Namespace namespace,
+      @Nonnull @Ethereal("dataContext") BsonDocument document,
+      boolean singleRemove) {
     super(requestBaseMessage, dataContext);
-    this.database = database;
-    this.collection = collection;
+    this.namespace = namespace;
     this.document = document;
     this.singleRemove = singleRemove;
   }
@@ -51,14 +59,19 @@ public class DeleteMessage extends AbstractRequestMessage {
     return REQUEST_OP_CODE;
   }
 
+  @Nonnull
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nonnull
   public String getDatabase() {
-    return database;
+    return namespace.getDatabase();
   }
 
   @Nonnull
   public String getCollection() {
-    return collection;
+    return namespace.getCollection();
   }
 
   @Nonnull
@@ -74,8 +87,9 @@ public class DeleteMessage extends AbstractRequestMessage {
   @Override
   public String toString() {
     //TODO: This must be changed to preserve privacy on logs
-    return "DeleteMessage{" + super.toString() + ", database='" + database + '\'' + ", collection='"
-        + collection + '\'' + ", document=" + (getDataContext().isValid() ? document :
+    return "DeleteMessage{" + super.toString() + ", database='" + getDatabase() + '\''
+        + ", collection='" + getCollection() + '\''
+        + ", document=" + (getDataContext().isValid() ? document :
         "<not available>") + '}';
   }
 }
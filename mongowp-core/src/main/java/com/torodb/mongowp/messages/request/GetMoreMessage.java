@@ -15,6 +15,8 @@
  */
 package com.torodb.mongowp.messages.request;
 
+import com.torodb.mongowp.messages.utils.Namespace;
+
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
@@ -26,9 +28,7 @@ public class GetMoreMessage extends AbstractRequestMessage {
   public static final RequestOpCode REQUEST_OP_CODE = RequestOpCode.OP_GET_MORE;
 
   @Nonnull
-  private final String database;
-  @Nonnull
-  private final String collection;
+  private final Namespace namespace;
   @Nonnegative
   private final int numberToReturn;
   @Nonnegative
@@ -40,10 +40,18 @@ public class GetMoreMessage extends AbstractRequestMessage {
       @Nonnull String collection,
       int numberToReturn,
       long cursorId
+  ) {
+    this(requestBaseMessage, Namespace.of(database, collection), numberToReturn, cursorId);
+  }
+
+  public GetMoreMessage(
+      @Nonnull RequestBaseMessage requestBaseMessage,
+      @Nonnull Namespace namespace,
+      int numberToReturn,
+      long cursorId
   ) {
     super(requestBaseMessage, EmptyBsonContext.getInstance());
-    this.database = database;
-    this.collection = collection;
+    this.namespace = namespace;
     this.numberToReturn = numberToReturn;
     this.cursorId = cursorId;
   }
@@ -53,14 +61,19 @@ public class GetMoreMessage extends AbstractRequestMessage {
     return REQUEST_OP_CODE;
   }
 
+  @Nonnull
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nonnull
   public String getDatabase() {
-    return database;
+    return namespace.getDatabase();
   }
 
   @Nonnull
   public String getCollection() {
-    return collection;
+    return namespace.getCollection();
   }
 
   public int getNumberToReturn() {
@@ -77,8 +90,8 @@ public class GetMoreMessage extends AbstractRequestMessage {
 
   @Override
   public String toString() {
-    return "GetMoreMessage{" + super.toString() + ", database='" + database + '\''
-        + ", collection='" + collection + '\'' + ", numberToReturn=" + numberToReturn
+    return "GetMoreMessage{" + super.toString() + ", database='" + getDatabase() + '\''
+        + ", collection='" + getCollection() + '\'' + ", numberToReturn=" + numberToReturn
         + ", cursorId=" + cursorId + '}';
   }
 
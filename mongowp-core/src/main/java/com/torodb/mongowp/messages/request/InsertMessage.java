@@ -20,6 +20,7 @@ import com.torodb.mongowp.annotations.Ethereal;
 import com.torodb.mongowp.bson.BsonDocument;
 import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.messages.utils.Namespace;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -30,9 +31,7 @@ public class InsertMessage extends AbstractRequestMessage {
   public static final RequestOpCode REQUEST_OP_CODE = RequestOpCode.OP_INSERT;
 
   @Nonnull
-  private final String database;
-  @Nonnull
-  private final String collection;
+  private final Namespace namespace;
   @Nonnull
   @Ethereal("this")
   private final IterableDocumentProvider<?> documents;
@@ -44,10 +43,20 @@ public class InsertMessage extends AbstractRequestMessage {
       @Nonnull String collection,
       boolean continueOnError,
       @Nonnull @Ethereal("dataContext") IterableDocumentProvider<?> documents
+  ) {
+    this(requestBaseMessage, dataContext, Namespace.of(database, collection), continueOnError,
+        documents);
+  }
+
+  public InsertMessage(
+      @Nonnull RequestBaseMessage requestBaseMessage,
+      @Nonnull BsonContext dataContext,
+      @Nonnull Namespace namespace,
+      boolean continueOnError,
+      @Nonnull @Ethereal("dataContext") IterableDocumentProvider<?> documents
   ) {
     super(requestBaseMessage, dataContext);
-    this.database = database;
-    this.collection = collection;
+    this.namespace = namespace;
     this.documents = documents;
   }
 
@@ -59,7 +68,7 @@ public class InsertMessage extends AbstractRequestMessage {
       boolean continueOnError,
       @Nonnull Iterable<? extends BsonDocument> documents
   ) {
-    this(requestBaseMessage, context, database, collection, continueOnError,
+    this(requestBaseMessage, context, Namespace.of(database, collection), continueOnError,
         IterableDocumentProvider.of(documents));
   }
 
@@ -68,14 +77,19 @@ public class InsertMessage extends AbstractRequestMessage {
     return REQUEST_OP_CODE;
   }
 
+  @Nonnull
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nonnull
   public String getDatabase() {
-    return database;
+    return namespace.getDatabase();
   }
 
   @Nonnull
   public String getCollection() {
-    return collection;
+    return namespace.getCollection();
   }
 
   public IterableDocumentProvider<?> getDocuments() {
@@ -89,12 +103,14 @@ public class InsertMessage extends AbstractRequestMessage {
     sb.append("InsertMessage{")
         .append(super.toString())
         .append(", database='")
-        .append(database)
+        .append(getDatabase())
         .append("' , collection='")
-        .append(collection)
+        .append(getCollection())
         .append('\'');
 
-    if (getDataContext().isValid()) {
+    if (!documents.isRepeatable()) {
+      sb.append(", documents=<streamed>");
+    } else if (getDataContext().isValid()) {
       //TODO: This must be changed to preserve privacy on logs
       int docsLimit = 10;
       sb.append(", documents (limited to ").append(docsLimit).append(")=")
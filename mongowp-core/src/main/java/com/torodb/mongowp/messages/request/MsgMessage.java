@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.messages.request;
+
+import com.google.common.collect.ImmutableMap;
+import com.torodb.mongowp.annotations.Ethereal;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.abst.AbstractBsonDocument.SimpleEntry;
+import com.torodb.mongowp.bson.impl.ListBasedBsonDocument;
+import com.torodb.mongowp.messages.utils.DocumentSequenceBsonArray;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A OP_MSG request.
+ *
+ * <p>The message is composed by a <em>body</em> (the section of kind 0) and zero or more
+ * <em>document sequences</em> (the sections of kind 1). Document sequences are not merged into
+ * the body when the message is decoded, so huge batches (like the {@code documents} of an insert)
+ * can be consumed lazily from the original buffer.
+ */
+@Immutable
+public class MsgMessage extends AbstractRequestMessage {
+
+  public static final RequestOpCode REQUEST_OP_CODE = RequestOpCode.OP_MSG;
+
+  @Nonnull
+  private final String database;
+  private final boolean checksumPresent;
+  private final boolean moreToCome;
+  private final boolean exhaustAllowed;
+  @Nonnull
+  @Ethereal("getDataContext")
+  private final BsonDocument body;
+  @Nonnull
+  @Ethereal("getDataContext")
+  private final ImmutableMap<String, IterableDocumentProvider<?>> documentSequences;
+
+  public MsgMessage(
+      @Nonnull RequestBaseMessage requestBaseMessage,
+      @Nonnull BsonContext dataContext,
+      @Nonnull String database,
+      boolean checksumPresent,
+      boolean moreToCome,
+      boolean exhaustAllowed,
+      @Nonnull @Ethereal("dataContext") BsonDocument body,
+      @Nonnull @Ethereal("dataContext") Map<String, IterableDocumentProvider<?>> documentSequences) {
+    super(requestBaseMessage, dataContext);
+    this.database = database;
+    this.checksumPresent = checksumPresent;
+    this.moreToCome = moreToCome;
+    this.exhaustAllowed = exhaustAllowed;
+    this.body = body;
+    this.documentSequences = ImmutableMap.copyOf(documentSequences);
+  }
+
+  @Override
+  public RequestOpCode getOpCode() {
+    return REQUEST_OP_CODE;
+  }
+
+  /**
+   * @return the database on which the command must be executed, as specified by the {@code $db}
+   *         field of the body
+   */
+  @Nonnull
+  public String getDatabase() {
+    return database;
+  }
+
+  public boolean isChecksumPresent() {
+    return checksumPresent;
+  }
+
+  /**
+   * @return true iff the client does not expect a reply to this message
+   */
+  public boolean isMoreToCome() {
+    return moreToCome;
+  }
+
+  /**
+   * @return true iff the client is prepared to receive several replies to this message
+   */
+  public boolean isExhaustAllowed() {
+    return exhaustAllowed;
+  }
+
+  @Nonnull
+  @Ethereal("this")
+  public BsonDocument getBody() {
+    return body;
+  }
+
+  /**
+   * @return the document sequences of this message, indexed by their identifier
+   */
+  @Nonnull
+  @Ethereal("this")
+  public Map<String, IterableDocumentProvider<?>> getDocumentSequences() {
+    return documentSequences;
+  }
+
+  /**
+   * Returns the command document this message represents, which is the body with each document
+   * sequence appended as an array whose key is the sequence identifier.
+   *
+   * <p>Documents on the sequences are not read until the returned arrays are iterated.
+   */
+  @Nonnull
+  @Ethereal("this")
+  public BsonDocument getCommandDocument() {
+    if (documentSequences.isEmpty()) {
+      return body;
+    }
+    ArrayList<Entry<?>> entries = new ArrayList<>(body.size() + documentSequences.size());
+    for (Entry<?> entry : body) {
+      entries.add(entry);
+    }
+    for (Map.Entry<String, IterableDocumentProvider<?>> sequence : documentSequences.entrySet()) {
+      entries.add(new SimpleEntry<>(
+          sequence.getKey(),
+          new DocumentSequenceBsonArray(sequence.getValue())
+      ));
+    }
+    return new ListBasedBsonDocument(entries);
+  }
+
+  @Override
+  public String toString() {
+    //TODO: This must be changed to preserve privacy on logs
+    return "MsgMessage{" + super.toString() + ", database='" + database + '\''
+        + ", moreToCome=" + moreToCome + ", exhaustAllowed=" + exhaustAllowed
+        + ", body=" + (getDataContext().isValid() ? body : "<not available>")
+        + ", documentSequences=" + documentSequences.keySet() + '}';
+  }
+}
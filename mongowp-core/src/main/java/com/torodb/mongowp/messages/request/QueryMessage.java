@@ -27,6 +27,7 @@ import static com.torodb.mongowp.messages.request.QueryMessage.QueryOption.TAILA
 import com.google.common.base.Preconditions;
 import com.torodb.mongowp.annotations.Ethereal;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.utils.Namespace;
 
 import java.util.Set;
 
@@ -45,9 +46,7 @@ public class QueryMessage extends AbstractRequestMessage {
   }
 
   @Nonnull
-  private final String database;
-  @Nonnull
-  private final String collection;
+  private final Namespace namespace;
   @Nonnegative
   private final int numberToSkip;
   private final int numberToReturn;
@@ -95,9 +94,27 @@ public class QueryMessage extends AbstractRequestMessage {
       @Ethereal("context") BsonDocument orderBy,
       boolean returnKey, boolean showDiscLoc,
       boolean snapshot) {
+    this(requestBaseMessage, context, documentContext, Namespace.of(database, collection),
+        numberToSkip, numberToReturn, queryOptions, query, returnFieldsSelector, comment,
+        explainOption, hint, maxScan, maxTimeMs, max, min, orderBy, returnKey, showDiscLoc,
+        snapshot);
+  }
+
+  public QueryMessage(
+      RequestBaseMessage requestBaseMessage, @Nonnull BsonContext context,
+      AutoCloseable documentContext, @Nonnull Namespace namespace,
+      int numberToSkip, int numberToReturn, QueryOptions queryOptions,
+      @Ethereal("context") BsonDocument query,
+      @Ethereal("context") BsonDocument returnFieldsSelector,
+      String comment, ExplainOption explainOption,
+      @Ethereal("context") BsonDocument hint, long maxScan, int maxTimeMs,
+      @Ethereal("context") BsonDocument max,
+      @Ethereal("context") BsonDocument min,
+      @Ethereal("context") BsonDocument orderBy,
+      boolean returnKey, boolean showDiscLoc,
+      boolean snapshot) {
     super(requestBaseMessage, context);
-    this.database = database;
-    this.collection = collection;
+    this.namespace = namespace;
     this.numberToSkip = numberToSkip;
     this.numberToReturn = numberToReturn;
     this.queryOptions = queryOptions;
@@ -116,14 +133,19 @@ public class QueryMessage extends AbstractRequestMessage {
     this.snapshot = snapshot;
   }
 
+  @Nonnull
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nonnull
   public String getDatabase() {
-    return database;
+    return namespace.getDatabase();
   }
 
   @Nonnull
   public String getCollection() {
-    return collection;
+    return namespace.getCollection();
   }
 
   @Nonnegative
@@ -260,8 +282,9 @@ public class QueryMessage extends AbstractRequestMessage {
 
   @Override
   public String toString() {
-    return "QueryMessage{" + super.toString() + ", database='" + database + '\'' + ", collection='"
-        + collection + '\'' + ", numberToSkip=" + numberToSkip + ", numberToReturn="
+    return "QueryMessage{" + super.toString() + ", database='" + getDatabase() + '\''
+        + ", collection='" + getCollection() + '\''
+        + ", numberToSkip=" + numberToSkip + ", numberToReturn="
         + numberToReturn + ", query=" + query + ", returnFieldsSelector=" + returnFieldsSelector
         + '}';
   }
@@ -347,9 +370,7 @@ public class QueryMessage extends AbstractRequestMessage {
     @Nonnull
     private final RequestBaseMessage requestBaseMessage;
     @Nonnull
-    private final String database;
-    @Nonnull
-    private final String collection;
+    private final Namespace namespace;
     @Nonnegative
     private int numberToSkip = 0;
     private int numberToReturn = 0;
@@ -386,9 +407,14 @@ public class QueryMessage extends AbstractRequestMessage {
     public Builder(@Nonnull RequestBaseMessage requestBaseMessage,
         BsonContext context, @Nonnull String database,
         @Nonnull String collection, @Nonnull QueryOptions queryOptions) {
+      this(requestBaseMessage, context, Namespace.of(database, collection), queryOptions);
+    }
+
+    public Builder(@Nonnull RequestBaseMessage requestBaseMessage,
+        BsonContext context, @Nonnull Namespace namespace,
+        @Nonnull QueryOptions queryOptions) {
       this.requestBaseMessage = requestBaseMessage;
-      this.database = database;
-      this.collection = collection;
+      this.namespace = namespace;
       this.queryOptions = queryOptions;
       this.context = context;
     }
@@ -472,7 +498,7 @@ public class QueryMessage extends AbstractRequestMessage {
     public QueryMessage build() {
       Preconditions.checkNotNull(query, "Query shall not be null");
       return new QueryMessage(requestBaseMessage, context, context,
-          database, collection, numberToSkip, numberToReturn,
+          namespace, numberToSkip, numberToReturn,
           queryOptions, query, returnFieldsSelector, comment,
           explainOption, hint, maxScan, maxTimeMs, max, min, orderBy,
           returnKey, showDiscLoc, snapshot);
@@ -33,11 +33,35 @@ public class RequestBaseMessage {
   @Nonnegative
   private final int clientPort;
   private final int requestId;
+  @Nonnegative
+  private final int messageLength;
+  private final int documentCount;
 
   public RequestBaseMessage(@Nullable InetAddress clientAddress, int clientPort, int requestId) {
+    this(clientAddress, clientPort, requestId, 0);
+  }
+
+  public RequestBaseMessage(@Nullable InetAddress clientAddress, int clientPort, int requestId,
+      @Nonnegative int messageLength) {
+    this(clientAddress, clientPort, requestId, messageLength, -1);
+  }
+
+  public RequestBaseMessage(@Nullable InetAddress clientAddress, int clientPort, int requestId,
+      @Nonnegative int messageLength, int documentCount) {
     this.clientAddress = clientAddress;
     this.clientPort = clientPort;
     this.requestId = requestId;
+    this.messageLength = messageLength;
+    this.documentCount = documentCount;
+  }
+
+  /**
+   * @return a copy of this message whose {@link #getDocumentCount() document count} is the given
+   *         one
+   */
+  public RequestBaseMessage withDocumentCount(int documentCount) {
+    return new RequestBaseMessage(clientAddress, clientPort, requestId, messageLength,
+        documentCount);
   }
 
   @Nullable
@@ -57,4 +81,21 @@ public class RequestBaseMessage {
   public int getRequestId() {
     return requestId;
   }
+
+  /**
+   * @return the size of the message, including its header, or 0 if it is not known. The size of
+   *         compressed messages is the one they have once they are decompressed
+   */
+  @Nonnegative
+  public int getMessageLength() {
+    return messageLength;
+  }
+
+  /**
+   * @return the number of documents the message contains, as counted when its size limits were
+   *         checked, or -1 if they were not counted
+   */
+  public int getDocumentCount() {
+    return documentCount;
+  }
 }
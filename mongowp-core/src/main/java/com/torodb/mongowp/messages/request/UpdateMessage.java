@@ -17,6 +17,7 @@ package com.torodb.mongowp.messages.request;
 
 import com.torodb.mongowp.annotations.Ethereal;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.utils.Namespace;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -30,9 +31,7 @@ public class UpdateMessage extends AbstractRequestMessage {
   public static final RequestOpCode REQUEST_OP_CODE = RequestOpCode.OP_UPDATE;
 
   @Nonnull
-  private final String database;
-  @Nonnull
-  private final String collection;
+  private final Namespace namespace;
   @Ethereal("getDataContext")
   @Nonnull
   private final BsonDocument selector;
@@ -51,9 +50,20 @@ public class UpdateMessage extends AbstractRequestMessage {
       @Nonnull @Ethereal("dataContext") BsonDocument update,
       boolean upsert,
       boolean multiUpdate) {
+    this(requestBaseMessage, dataContext, Namespace.of(database, collection), selector, update,
+        upsert, multiUpdate);
+  }
+
+  public UpdateMessage(
+      @Nonnull RequestBaseMessage requestBaseMessage,
+      @Nonnull BsonContext dataContext,
+      @Nonnull Namespace namespace,
+      @Nonnull @Ethereal("dataContext") BsonDocument selector,
+      @Nonnull @Ethereal("dataContext") BsonDocument update,
+      boolean upsert,
+      boolean multiUpdate) {
     super(requestBaseMessage, dataContext);
-    this.database = database;
-    this.collection = collection;
+    this.namespace = namespace;
     this.selector = selector;
     this.update = update;
     this.upsert = upsert;
@@ -65,14 +75,19 @@ public class UpdateMessage extends AbstractRequestMessage {
     return REQUEST_OP_CODE;
   }
 
+  @Nonnull
+  public Namespace getNamespace() {
+    return namespace;
+  }
+
   @Nonnull
   public String getDatabase() {
-    return database;
+    return namespace.getDatabase();
   }
 
   @Nonnull
   public String getCollection() {
-    return collection;
+    return namespace.getCollection();
   }
 
   @Nonnull
@@ -102,8 +117,9 @@ public class UpdateMessage extends AbstractRequestMessage {
   @Override
   public String toString() {
     //TODO: This must be changed to preserve privacy on logs
-    return "UpdateMessage{" + super.toString() + ", database='" + database + '\'' + ", collection='"
-        + collection + '\'' + ", selector=" + (getDataContext().isValid() ? selector :
+    return "UpdateMessage{" + super.toString() + ", database='" + getDatabase() + '\''
+        + ", collection='" + getCollection() + '\''
+        + ", selector=" + (getDataContext().isValid() ? selector :
         "<not available>") + ", update=" + (getDataContext().isValid() ? update : "<not avaiable>")
         + '}';
   }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.messages.response;
+
+import com.google.common.collect.ImmutableMap;
+import com.torodb.mongowp.annotations.Ethereal;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.request.BsonContext;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A OP_MSG reply.
+ *
+ * <p>Replies contain a body and, optionally, document sequences that are written after the body
+ * as sections of kind 1.
+ */
+public class MsgReplyMessage implements AutoCloseable {
+
+  private final int responseTo;
+  private final boolean moreToCome;
+  @Nonnull
+  @Ethereal("dataContext")
+  private final BsonDocument body;
+  @Nonnull
+  @Ethereal("dataContext")
+  private final ImmutableMap<String, IterableDocumentProvider<? extends BsonDocument>>
+      documentSequences;
+  @Nonnull
+  private final BsonContext dataContext;
+
+  public MsgReplyMessage(
+      @Nonnull BsonContext dataContext,
+      int responseTo,
+      boolean moreToCome,
+      @Ethereal("dataContext") BsonDocument body,
+      @Ethereal("dataContext")
+      Map<String, IterableDocumentProvider<? extends BsonDocument>> documentSequences) {
+    this.dataContext = dataContext;
+    this.responseTo = responseTo;
+    this.moreToCome = moreToCome;
+    this.body = body;
+    this.documentSequences = ImmutableMap.copyOf(documentSequences);
+  }
+
+  public int getResponseTo() {
+    return responseTo;
+  }
+
+  /**
+   * @return true iff the server is going to send another reply to the same request without
+   *         waiting for a new client request
+   */
+  public boolean isMoreToCome() {
+    return moreToCome;
+  }
+
+  @Nonnull
+  @Ethereal("this")
+  public BsonDocument getBody() {
+    return body;
+  }
+
+  @Nonnull
+  @Ethereal("this")
+  public Map<String, IterableDocumentProvider<? extends BsonDocument>> getDocumentSequences() {
+    return documentSequences;
+  }
+
+  @Nonnull
+  public BsonContext getDataContext() {
+    return dataContext;
+  }
+
+  @Override
+  public void close() throws Exception {
+    dataContext.close();
+  }
+
+  @Override
+  public String toString() {
+    //TODO: This must be changed to preserve privacy on logs
+    return "MsgReplyMessage{responseTo=" + responseTo + ", moreToCome=" + moreToCome
+        + ", body=" + (dataContext.isValid() ? body : "<not available>")
+        + ", documentSequences=" + documentSequences.keySet() + '}';
+  }
+
+  @NotThreadSafe
+  public static class Builder {
+
+    @Nonnull
+    private final BsonContext dataContext;
+    private final int responseTo;
+    @Nonnull
+    private final BsonDocument body;
+    private final ImmutableMap.Builder<String, IterableDocumentProvider<? extends BsonDocument>>
+        documentSequences = ImmutableMap.builder();
+    private boolean moreToCome;
+
+    public Builder(
+        @Nonnull BsonContext dataContext,
+        int responseTo,
+        @Ethereal("dataContext") BsonDocument body) {
+      this.dataContext = dataContext;
+      this.responseTo = responseTo;
+      this.body = body;
+    }
+
+    public Builder setMoreToCome(boolean moreToCome) {
+      this.moreToCome = moreToCome;
+      return this;
+    }
+
+    public Builder addDocumentSequence(String identifier,
+        @Ethereal("dataContext") IterableDocumentProvider<? extends BsonDocument> documents) {
+      this.documentSequences.put(identifier, documents);
+      return this;
+    }
+
+    public MsgReplyMessage build() {
+      return new MsgReplyMessage(
+          dataContext,
+          responseTo,
+          moreToCome,
+          body,
+          documentSequences.build()
+      );
+    }
+  }
+}
@@ -94,6 +94,11 @@ public class ReplyMessage implements AutoCloseable {
     return documents;
   }
 
+  @Nonnull
+  public BsonContext getDataContext() {
+    return dataContext;
+  }
+
   @Override
   public void close() throws Exception {
     dataContext.close();
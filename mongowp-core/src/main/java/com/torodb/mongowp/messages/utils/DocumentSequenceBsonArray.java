@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.messages.utils;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.UnmodifiableIterator;
+import com.torodb.mongowp.annotations.Ethereal;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.abst.AbstractIterableBasedBsonArray;
+import com.torodb.mongowp.bson.impl.ListBsonArray;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.ObjectStreamException;
+
+/**
+ * A {@link com.torodb.mongowp.bson.BsonArray} view of a {@link IterableDocumentProvider}.
+ *
+ * <p>Documents are read from the provider each time the array is iterated, using
+ * {@link AllocationType#OFFHEAP}, so they are never materialized unless the consumer does so.
+ */
+@SuppressFBWarnings(value = {"SE_BAD_FIELD", "SE_NO_SERIALVERSIONID"},
+    justification = "writeReplace is used")
+public class DocumentSequenceBsonArray extends AbstractIterableBasedBsonArray {
+
+  @Ethereal("provider-context")
+  private final IterableDocumentProvider<?> provider;
+
+  public DocumentSequenceBsonArray(
+      @Ethereal("provider-context") IterableDocumentProvider<?> provider) {
+    this.provider = provider;
+  }
+
+  @Override
+  public UnmodifiableIterator<BsonValue<?>> iterator() {
+    return Iterators.unmodifiableIterator(
+        provider.getIterable(AllocationType.OFFHEAP)
+            .<BsonValue<?>>transform(doc -> doc)
+            .iterator()
+    );
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    return new ListBsonArray(Lists.newArrayList(this));
+  }
+}
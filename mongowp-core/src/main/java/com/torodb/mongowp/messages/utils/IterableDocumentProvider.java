@@ -40,6 +40,30 @@ public abstract class IterableDocumentProvider<E extends BsonDocument> {
   @Ethereal("my-own-context")
   public abstract FluentIterable<E> getIterable(BsonDocumentReader.AllocationType algorithm);
 
+  /**
+   * Returns the number of bytes the documents of this provider use when they are serialized as
+   * BSON, or an estimation of it.
+   *
+   * <p>Encoders use this value to allocate their output buffers before the documents are iterated.
+   * The default implementation returns -1, which means the size is not known without iterating.
+   *
+   * @return the serialized size of the documents or -1 if it is not known
+   */
+  public int getSerializedSizeHint() {
+    return -1;
+  }
+
+  /**
+   * Returns true iff the documents can be iterated several times.
+   *
+   * <p>Providers whose documents are received while they are consumed return false, and calling
+   * {@link #getIterable(AllocationType)} more than once on them fails. The default implementation
+   * returns true.
+   */
+  public boolean isRepeatable() {
+    return true;
+  }
+
   @Material
   @SuppressWarnings("unchecked")
   public static <E1 extends BsonDocument> IterableDocumentProvider<E1> of() {
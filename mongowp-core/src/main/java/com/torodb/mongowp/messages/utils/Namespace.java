@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.messages.utils;
+
+import com.torodb.mongowp.exceptions.InvalidNamespaceException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The database and collection a request refers to.
+ *
+ * <p>Namespaces are compared by their full name, whose hash is computed when they are created, so
+ * they can be cheaply used as map keys.
+ */
+@Immutable
+public final class Namespace {
+
+  @Nonnull
+  private final String database;
+  @Nonnull
+  private final String collection;
+  @Nonnull
+  private final String fullName;
+  private final int hash;
+
+  private Namespace(String database, String collection, String fullName) {
+    this.database = database;
+    this.collection = collection;
+    this.fullName = fullName;
+    this.hash = fullName.hashCode();
+  }
+
+  public static Namespace of(@Nonnull String database, @Nonnull String collection) {
+    return new Namespace(database, collection, NamespaceUtils.get(database, collection));
+  }
+
+  /**
+   * @param fullName a namespace like {@code database.collection}
+   * @throws InvalidNamespaceException if the given name has no database or no collection
+   */
+  public static Namespace parse(@Nonnull String fullName) throws InvalidNamespaceException {
+    return new Namespace(
+        NamespaceUtils.getDatabase(fullName),
+        NamespaceUtils.getCollection(fullName),
+        fullName
+    );
+  }
+
+  @Nonnull
+  public String getDatabase() {
+    return database;
+  }
+
+  @Nonnull
+  public String getCollection() {
+    return collection;
+  }
+
+  @Nonnull
+  public String getFullName() {
+    return fullName;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Namespace)) {
+      return false;
+    }
+    Namespace other = (Namespace) obj;
+    return hash == other.hash && fullName.equals(other.fullName);
+  }
+
+  @Override
+  public String toString() {
+    return fullName;
+  }
+}
@@ -26,6 +26,7 @@ import com.torodb.mongowp.MongoConstants;
 import com.torodb.mongowp.bson.BsonArray;
 import com.torodb.mongowp.bson.BsonDocument;
 import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.BsonDocumentCursor;
 import com.torodb.mongowp.bson.BsonNumber;
 import com.torodb.mongowp.bson.BsonObjectId;
 import com.torodb.mongowp.bson.BsonTimestamp;
@@ -85,10 +86,12 @@ public class BsonReaderTool {
       String objectName,
       BsonDocument bson,
       Set<String> fields) throws BadValueException {
-    for (Entry<?> entry : bson) {
-      if (!fields.contains(entry.getKey())) {
+    BsonDocumentCursor cursor = bson.cursor();
+    while (cursor.advance()) {
+      String key = cursor.key();
+      if (!fields.contains(key)) {
         throw new BadValueException(
-            "Unexpected field " + entry.getKey() + " in " + objectName
+            "Unexpected field " + key + " in " + objectName
         );
       }
     }
@@ -566,11 +569,11 @@ public class BsonReaderTool {
     BsonValue<?> value = entry.getValue();
     switch (value.getType()) {
       case INT64:
-        return !value.equals(DefaultBsonValues.newLong(0));
+        return value.asInt64().longValue() != 0;
       case DOUBLE:
-        return !value.equals(DefaultBsonValues.newDouble(0));
+        return value.asDouble().doubleValue() != 0;
       case INT32:
-        return !value.equals(DefaultBsonValues.newInt(0));
+        return value.asInt32().intValue() != 0;
       case BOOLEAN:
         return value.asBoolean().getPrimitiveValue();
       case UNDEFINED:
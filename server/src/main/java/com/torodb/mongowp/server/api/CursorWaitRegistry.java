@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.torodb.mongowp.OpTime;
+import com.torodb.mongowp.annotations.MongoWp;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Parks the {@code getMore} requests on tailable cursors that await for data until the backend
+ * signals that new data is available or a deadline expires.
+ *
+ * <p>Waiting requests do not hold any thread: they are continuations that are executed by the
+ * thread that {@link #signal(String) signals} the namespace they wait on, or by the single timer
+ * thread of this registry when their deadline expires. Backends signal a namespace after data is
+ * appended to it and, optionally, the {@link OpTime} of the last applied operation.
+ *
+ * <p>To not lose signals sent between the moment the request finds no data and the moment it is
+ * registered, each namespace has a version that is incremented by each signal. Callers read it
+ * with {@link #getVersion(String)} before looking for data and the continuation is executed
+ * immediately if the namespace has been signaled since then.
+ */
+@ThreadSafe
+@Singleton
+public class CursorWaitRegistry {
+
+  private static final Logger LOGGER = LogManager.getLogger(CursorWaitRegistry.class);
+  private static final long TICK_MILLIS = 10;
+
+  /**
+   * The namespaces that have been waited on. Entries are never removed, so this map is bounded by
+   * the number of namespaces.
+   */
+  private final Map<String, NamespaceWaiters> namespaces = new ConcurrentHashMap<>();
+  private final Object opTimeLock = new Object();
+  @GuardedBy("opTimeLock")
+  private final NavigableMap<OpTime, Set<Waiter>> opTimeWaiters = new TreeMap<>();
+  @GuardedBy("opTimeLock")
+  @Nullable
+  private OpTime lastOpTime;
+  private final HashedWheelTimer timer;
+
+  @Inject
+  public CursorWaitRegistry(@MongoWp ThreadFactory threadFactory) {
+    this.timer = new HashedWheelTimer(
+        new ThreadFactoryBuilder()
+            .setNameFormat("mongowp-cursor-wait-%d")
+            .setThreadFactory(threadFactory)
+            .setDaemon(true)
+            .build(),
+        TICK_MILLIS,
+        TimeUnit.MILLISECONDS
+    );
+  }
+
+  /**
+   * @return the number of times the given namespace has been signaled
+   */
+  public long getVersion(String namespace) {
+    NamespaceWaiters waiters = getWaiters(namespace);
+    synchronized (waiters) {
+      return waiters.version;
+    }
+  }
+
+  /**
+   * Executes the given continuation once the namespace is signaled or the timeout expires.
+   *
+   * @param namespace       the namespace whose new data the caller waits for
+   * @param observedVersion the {@link #getVersion(String) version} of the namespace when the
+   *                        caller looked for data
+   * @param timeout         the maximum time to wait
+   * @param unit            the unit of the timeout
+   * @param continuation    the code to execute. It must not block, as it may be executed by the
+   *                        thread that signals the namespace or by the timer thread
+   * @return the registration, which can be used to stop waiting
+   */
+  public Registration await(String namespace, long observedVersion, long timeout,
+      TimeUnit unit, Continuation continuation) {
+    NamespaceWaiters waiters = getWaiters(namespace);
+    Waiter waiter = new Waiter(continuation);
+    waiter.remover = () -> {
+      synchronized (waiters) {
+        waiters.waiters.remove(waiter);
+      }
+    };
+    boolean signaled;
+    synchronized (waiters) {
+      signaled = waiters.version != observedVersion;
+      if (!signaled) {
+        waiters.waiters.add(waiter);
+      }
+    }
+    return start(waiter, signaled, timeout, unit);
+  }
+
+  /**
+   * Executes the given continuation once an {@link OpTime} equal or after the given one is
+   * {@link #signalOpTime(OpTime) signaled} or the timeout expires.
+   *
+   * @see #await(String, long, long, TimeUnit, Continuation)
+   */
+  public Registration awaitOpTime(OpTime opTime, long timeout, TimeUnit unit,
+      Continuation continuation) {
+    Waiter waiter = new Waiter(continuation);
+    waiter.remover = () -> {
+      synchronized (opTimeLock) {
+        Set<Waiter> waiters = opTimeWaiters.get(opTime);
+        if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) {
+          opTimeWaiters.remove(opTime);
+        }
+      }
+    };
+    boolean signaled;
+    synchronized (opTimeLock) {
+      signaled = lastOpTime != null && lastOpTime.isEqualOrAfter(opTime);
+      if (!signaled) {
+        opTimeWaiters.computeIfAbsent(opTime, key -> new LinkedHashSet<>()).add(waiter);
+      }
+    }
+    return start(waiter, signaled, timeout, unit);
+  }
+
+  /**
+   * Notifies that new data has been appended to the given namespace, resuming the requests that
+   * wait on it.
+   *
+   * <p>The continuations are executed on the calling thread.
+   */
+  public void signal(String namespace) {
+    NamespaceWaiters waiters = namespaces.get(namespace);
+    if (waiters == null) {
+      return;
+    }
+    List<Waiter> toResume;
+    synchronized (waiters) {
+      waiters.version++;
+      if (waiters.waiters.isEmpty()) {
+        return;
+      }
+      toResume = new ArrayList<>(waiters.waiters);
+      waiters.waiters.clear();
+    }
+    resume(toResume);
+  }
+
+  /**
+   * Notifies that the operation with the given optime has been applied, resuming the requests that
+   * wait for it or for a previous one.
+   *
+   * <p>The continuations are executed on the calling thread.
+   */
+  public void signalOpTime(OpTime opTime) {
+    List<Waiter> toResume = new ArrayList<>();
+    synchronized (opTimeLock) {
+      if (lastOpTime != null && lastOpTime.isAfter(opTime)) {
+        return;
+      }
+      lastOpTime = opTime;
+      NavigableMap<OpTime, Set<Waiter>> reached = opTimeWaiters.headMap(opTime, true);
+      reached.values().forEach(toResume::addAll);
+      reached.clear();
+    }
+    resume(toResume);
+  }
+
+  /**
+   * Stops the timer. Requests that are still waiting are never resumed.
+   */
+  public void shutdown() {
+    timer.stop();
+  }
+
+  private NamespaceWaiters getWaiters(String namespace) {
+    return namespaces.computeIfAbsent(namespace, ns -> new NamespaceWaiters());
+  }
+
+  private Registration start(Waiter waiter, boolean signaled, long timeout, TimeUnit unit) {
+    if (signaled) {
+      waiter.complete(true);
+      return waiter;
+    }
+    Timeout timerTask = timer.newTimeout(t -> {
+      waiter.remover.run();
+      waiter.complete(false);
+    }, timeout, unit);
+    waiter.timeout = timerTask;
+    if (waiter.done.get()) {
+      timerTask.cancel();
+    }
+    return waiter;
+  }
+
+  private static void resume(List<Waiter> waiters) {
+    for (Waiter waiter : waiters) {
+      waiter.complete(true);
+    }
+  }
+
+  /**
+   * The code that is executed when a wait finishes.
+   */
+  @FunctionalInterface
+  public static interface Continuation {
+
+    /**
+     * @param signaled true if the wait finished because new data may be available or false if the
+     *                 timeout expired
+     */
+    public void resume(boolean signaled);
+  }
+
+  public static interface Registration {
+
+    /**
+     * Stops waiting without executing the continuation.
+     *
+     * @return false if the continuation has already been executed (or it is being executed)
+     */
+    public boolean cancel();
+  }
+
+  private static class NamespaceWaiters {
+
+    private long version;
+    private final Set<Waiter> waiters = new LinkedHashSet<>();
+  }
+
+  private static class Waiter implements Registration {
+
+    private final Continuation continuation;
+    /**
+     * Removes this waiter from the registry. Set before the waiter is registered.
+     */
+    private Runnable remover;
+    private final AtomicBoolean done = new AtomicBoolean();
+    @Nullable
+    private volatile Timeout timeout;
+
+    Waiter(Continuation continuation) {
+      this.continuation = continuation;
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    void complete(boolean signaled) {
+      if (!done.compareAndSet(false, true)) {
+        return;
+      }
+      Timeout timeout = this.timeout;
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      try {
+        continuation.resume(signaled);
+      } catch (RuntimeException ex) {
+        LOGGER.error("Error while resuming a cursor wait", ex);
+      }
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!done.compareAndSet(false, true)) {
+        return false;
+      }
+      Timeout timeout = this.timeout;
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      remover.run();
+      return true;
+    }
+  }
+}
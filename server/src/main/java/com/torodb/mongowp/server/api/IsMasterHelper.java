@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.api;
+
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Adds to {@code isMaster} (and {@code hello}) replies the fields that describe the limits of this
+ * server, so drivers split their batches to fit on them.
+ *
+ * <p>The limits are read from {@link MongoServerConfig}. Replies are decorated by the network layer
+ * before they are sent, so applications do not need to use this class, but they can call
+ * {@link #appendLimits(BsonDocumentBuilder)} when they build the reply or bind a subclass to add
+ * or change the advertised fields.
+ */
+@ThreadSafe
+@Singleton
+public class IsMasterHelper {
+
+  public static final IntField MAX_BSON_OBJECT_SIZE_FIELD = new IntField("maxBsonObjectSize");
+  public static final IntField MAX_MESSAGE_SIZE_BYTES_FIELD = new IntField("maxMessageSizeBytes");
+  public static final IntField MAX_WRITE_BATCH_SIZE_FIELD = new IntField("maxWriteBatchSize");
+
+  private final int maxBsonObjectSize;
+  private final int maxMessageSizeBytes;
+  private final int maxWriteBatchSize;
+
+  @Inject
+  public IsMasterHelper(MongoServerConfig config) {
+    this.maxBsonObjectSize = config.getMaxBsonObjectSize();
+    this.maxMessageSizeBytes = config.getMaxMessageSizeBytes();
+    this.maxWriteBatchSize = config.getMaxWriteBatchSize();
+  }
+
+  public int getMaxBsonObjectSize() {
+    return maxBsonObjectSize;
+  }
+
+  public int getMaxMessageSizeBytes() {
+    return maxMessageSizeBytes;
+  }
+
+  public int getMaxWriteBatchSize() {
+    return maxWriteBatchSize;
+  }
+
+  /**
+   * Appends the limits of this server to the given builder.
+   */
+  public BsonDocumentBuilder appendLimits(BsonDocumentBuilder builder) {
+    return builder
+        .append(MAX_BSON_OBJECT_SIZE_FIELD, maxBsonObjectSize)
+        .append(MAX_MESSAGE_SIZE_BYTES_FIELD, maxMessageSizeBytes)
+        .append(MAX_WRITE_BATCH_SIZE_FIELD, maxWriteBatchSize);
+  }
+
+  /**
+   * Returns the given successful {@code isMaster} reply with the limits of this server.
+   *
+   * <p>Limits that are already present on the reply are not changed.
+   */
+  public BsonDocument decorate(BsonDocument isMasterReply) {
+    if (isMasterReply.containsKey(MAX_BSON_OBJECT_SIZE_FIELD.getFieldName())
+        && isMasterReply.containsKey(MAX_MESSAGE_SIZE_BYTES_FIELD.getFieldName())
+        && isMasterReply.containsKey(MAX_WRITE_BATCH_SIZE_FIELD.getFieldName())) {
+      return isMasterReply;
+    }
+    BsonDocumentBuilder builder = new BsonDocumentBuilder(isMasterReply);
+    appendIfAbsent(builder, isMasterReply, MAX_BSON_OBJECT_SIZE_FIELD, maxBsonObjectSize);
+    appendIfAbsent(builder, isMasterReply, MAX_MESSAGE_SIZE_BYTES_FIELD, maxMessageSizeBytes);
+    appendIfAbsent(builder, isMasterReply, MAX_WRITE_BATCH_SIZE_FIELD, maxWriteBatchSize);
+    return builder.build();
+  }
+
+  private static void appendIfAbsent(BsonDocumentBuilder builder, BsonDocument reply,
+      IntField field, int value) {
+    if (!reply.containsKey(field.getFieldName())) {
+      builder.append(field, value);
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.torodb.mongowp.server.api;
 import com.torodb.mongowp.MongoConstants;
 import com.torodb.mongowp.Status;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import com.torodb.mongowp.bson.utils.DefaultBsonValues;
 import com.torodb.mongowp.commands.Command;
 import com.torodb.mongowp.commands.CommandLibrary.LibraryEntry;
@@ -27,6 +29,7 @@ import com.torodb.mongowp.commands.MarshalException;
 import com.torodb.mongowp.commands.Request;
 import com.torodb.mongowp.commands.Request.ExternalClientInfo;
 import com.torodb.mongowp.commands.SafeRequestProcessor;
+import com.torodb.mongowp.commands.cursors.CursorRegistry;
 import com.torodb.mongowp.commands.pojos.QueryRequest;
 import com.torodb.mongowp.exceptions.CommandNotFoundException;
 import com.torodb.mongowp.exceptions.FailedToParseException;
@@ -36,21 +39,41 @@ import com.torodb.mongowp.fields.DoubleField;
 import com.torodb.mongowp.fields.IntField;
 import com.torodb.mongowp.fields.StringField;
 import com.torodb.mongowp.messages.request.DeleteMessage;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
 import com.torodb.mongowp.messages.request.GetMoreMessage;
 import com.torodb.mongowp.messages.request.InsertMessage;
 import com.torodb.mongowp.messages.request.KillCursorsMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
 import com.torodb.mongowp.messages.request.QueryMessage;
 import com.torodb.mongowp.messages.request.QueryMessage.QueryOptions;
 import com.torodb.mongowp.messages.request.RequestOpCode;
 import com.torodb.mongowp.messages.request.UpdateMessage;
 import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.server.callback.ExhaustCursorSource;
+import com.torodb.mongowp.server.callback.ExhaustMsgSource;
 import com.torodb.mongowp.server.callback.MessageReplier;
 import com.torodb.mongowp.server.callback.RequestProcessor;
+import com.torodb.mongowp.server.metrics.CommandDispatchEvent;
+import com.torodb.mongowp.server.metrics.ResourceAccounting;
+import com.torodb.mongowp.server.metrics.ResourceMeasurement;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.TopStatistics;
+import com.torodb.mongowp.server.metrics.TopStatistics.OperationType;
+import com.torodb.mongowp.server.metrics.WireEvents;
 import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.AttributeMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
@@ -58,24 +81,47 @@ import javax.inject.Inject;
  */
 public class RequestProcessorAdaptor<C extends Connection> implements RequestProcessor {
 
+  private static final Logger LOGGER = LogManager.getLogger(RequestProcessorAdaptor.class);
+
   public final AttributeKey<C> connection = AttributeKey.valueOf(
       RequestProcessorAdaptor.class.getCanonicalName() + ".connection");
+  private final AttributeKey<Set<ParkedGetMore>> parkedGetMores = AttributeKey.valueOf(
+      RequestProcessorAdaptor.class.getCanonicalName() + ".parkedGetMores");
 
   public static final String QUERY_MESSAGE_COMMAND_COLLECTION = "$cmd";
   public static final String QUERY_MESSAGE_ADMIN_DATABASE = "admin";
   public static final IntField ERR_CODE = new IntField("code");
   public static final StringField ERR_MSG_FIELD = new StringField("errmsg");
   public static final DoubleField OK_FIELD = new DoubleField("ok");
+  private static final String READ_PREFERENCE_FIELD_NAME = "$readPreference";
+  private static final String READ_PREFERENCE_MODE_FIELD_NAME = "mode";
+  private static final String READ_PREFERENCE_PRIMARY = "primary";
+  private static final String GET_MORE_COMMAND_NAME = "getMore";
 
   private final SafeRequestProcessor<C> safeRequestProcessor;
   private final ErrorHandler errorHandler;
+  private final CursorWaitRegistry cursorWaitRegistry;
+  private final CursorRegistry cursorRegistry;
+  private final ServerMetrics serverMetrics;
+  private final TopStatistics topStatistics;
+  private final ResourceAccounting resourceAccounting;
 
   @Inject
   public RequestProcessorAdaptor(
       SafeRequestProcessor<C> safeRequestProcessor,
-      ErrorHandler errorHandler) {
+      ErrorHandler errorHandler,
+      CursorWaitRegistry cursorWaitRegistry,
+      CursorRegistry cursorRegistry,
+      ServerMetrics serverMetrics,
+      TopStatistics topStatistics,
+      ResourceAccounting resourceAccounting) {
     this.safeRequestProcessor = safeRequestProcessor;
     this.errorHandler = errorHandler;
+    this.cursorWaitRegistry = cursorWaitRegistry;
+    this.cursorRegistry = cursorRegistry;
+    this.serverMetrics = serverMetrics;
+    this.topStatistics = topStatistics;
+    this.resourceAccounting = resourceAccounting;
   }
 
   @Nonnull
@@ -99,12 +145,24 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
           + oldConnection.getConnectionId() + " was stored before "
           + "channel became active!");
     }
+    cursorRegistry.openConnection(newConnection);
+    resourceAccounting.onConnectionOpened(newConnection.getConnectionId());
   }
 
   @Override
   public void onChannelInactive(AttributeMap attMap) {
+    Set<ParkedGetMore> parked = attMap.attr(parkedGetMores).get();
+    if (parked != null) {
+      for (ParkedGetMore getMore : parked) {
+        if (parked.remove(getMore)) {
+          getMore.cancel();
+        }
+      }
+    }
     C connection = attMap.attr(this.connection).getAndRemove();
     if (connection != null) {
+      cursorRegistry.killConnectionCursors(connection);
+      resourceAccounting.onConnectionClosed(connection.getConnectionId());
       connection.close();
     }
   }
@@ -142,28 +200,83 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
         requestBuilder.setAutoclose(true);
       }
 
+      Request request = new Request(
+          queryMessage.getNamespace(),
+          new ExternalClientInfo(queryMessage.getClientAddress(), queryMessage.getClientPort()),
+          requestBuilder.isSlaveOk(),
+          null //Set the requested timeout
+      );
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
       ReplyMessage reply = safeRequestProcessor.query(
           connection,
-          new Request(
-              queryMessage.getDatabase(),
-              new ExternalClientInfo(queryMessage.getClientAddress(), queryMessage.getClientPort()),
-              requestBuilder.isSlaveOk(),
-              null //Set the requested timeout
-          ),
+          request,
           messageReplier.getRequestId(),
           requestBuilder.build()
       );
-      messageReplier.replyMessage(reply);
+      recordResources(connection, queryMessage.getDatabase(), queryMessage.getCollection(), null,
+          resources);
+      topStatistics.record(queryMessage.getDatabase(), queryMessage.getCollection(),
+          OperationType.READ, System.nanoTime() - start, 0, 0,
+          queryMessage.getBaseMessage().getMessageLength());
+      if (queryOptions.isExhaust()) {
+        messageReplier.replyExhaustMessages(reply, createExhaustSource(
+            connection, request, queryMessage, reply.getCursorId(), messageReplier.getRequestId()));
+      } else {
+        messageReplier.replyMessage(reply, documents -> topStatistics.recordDocumentsOut(
+            queryMessage.getDatabase(), queryMessage.getCollection(), documents));
+      }
     }
 
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Creates the source of the batches that follow the first reply of an exhaust query, which are
+   * the replies of the {@code OP_GET_MORE} requests the client would have sent.
+   */
+  private ExhaustCursorSource createExhaustSource(C connection, Request request,
+      QueryMessage queryMessage, long cursorId, int requestId) {
+    GetMoreMessage getMoreMessage = new GetMoreMessage(
+        queryMessage.getBaseMessage(),
+        queryMessage.getNamespace(),
+        Math.abs(queryMessage.getNumberToReturn()),
+        cursorId
+    );
+    return () -> {
+      try {
+        return safeRequestProcessor.getMore(connection, request, requestId, getMoreMessage);
+      } catch (MongoException ex) {
+        ReplyMessage error = errorHandler.handleMongodbException(connection, requestId, true, ex);
+        if (error != null) {
+          return error;
+        }
+        return new ReplyMessage.Builder(EmptyBsonContext.getInstance(), requestId, 0, 0,
+            Collections.<BsonDocument>emptyList())
+            .setQueryFailure(true)
+            .build();
+      }
+    };
+  }
+
   private void executeCommand(
       C connection,
       QueryMessage queryMessage,
       MessageReplier messageReplier) throws MongoException {
-    BsonDocument document = queryMessage.getQuery();
+    Request request = new Request(
+        queryMessage.getDatabase(),
+        new ExternalClientInfo(queryMessage.getClientAddress(), queryMessage.getClientPort()),
+        queryMessage.getQueryOptions().isSlaveOk(),
+        null //Set the requested timeout
+    );
+    BsonDocument bson = executeCommand(connection, request, queryMessage.getQuery(),
+        queryMessage.getBaseMessage().getMessageLength());
+
+    messageReplier.replyMessageNoCursor(bson);
+  }
+
+  @SuppressWarnings("unchecked")
+  private BsonDocument executeCommand(C connection, Request request, BsonDocument document,
+      int messageLength) throws MongoException {
     LibraryEntry libraryEntry = safeRequestProcessor.getCommandsLibrary().find(document);
     Command command;
     if (libraryEntry == null) {
@@ -180,7 +293,7 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
     }
 
     if (command.isAdminOnly()) {
-      if (!QUERY_MESSAGE_ADMIN_DATABASE.equals(queryMessage.getDatabase())) {
+      if (!QUERY_MESSAGE_ADMIN_DATABASE.equals(request.getDatabase())) {
         throw new UnauthorizedException(
             command.getCommandName() + "may only be run "
             + "against the admin database."
@@ -188,62 +301,146 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
       }
     }
 
-    Object arg = command.unmarshallArg(document, libraryEntry.getAlias());
+    CommandDispatchEvent event = WireEvents.beginCommandDispatch();
+    BsonDocument bson = null;
+    boolean ok = false;
+    try {
+      Object arg = command.unmarshallArg(document, libraryEntry.getAlias());
 
-    Request request = new Request(
-        queryMessage.getDatabase(),
-        new ExternalClientInfo(queryMessage.getClientAddress(), queryMessage.getClientPort()),
-        queryMessage.getQueryOptions().isSlaveOk(),
-        null //Set the requested timeout
-    );
-    Status<?> reply = safeRequestProcessor.execute(request, command, arg, connection);
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
+      Status<?> reply = safeRequestProcessor.execute(request, command, arg, connection);
+      long nanos = System.nanoTime() - start;
+      if (resources != null) {
+        recordResources(connection, request.getDatabase(),
+            TopStatistics.getCommandCollection(command.getCommandName(), document),
+            command.getCommandName(), resources);
+      }
+      serverMetrics.onCommandExecuted(command.getCommandName(), nanos);
 
-    BsonDocument bson;
-    if (reply.isOk()) {
-      try {
-        bson = command.marshallResult(reply.getResult());
-        if (bson == null) {
-          bson = DefaultBsonValues.EMPTY_DOC;
-        } else {
-          if (!bson.containsKey(OK_FIELD.getFieldName())) {
-            bson = new BsonDocumentBuilder(bson)
-                .append(OK_FIELD, MongoConstants.OK)
-                .build();
+      if (reply.isOk()) {
+        try {
+          bson = command.marshallResult(reply.getResult());
+          if (bson == null) {
+            bson = DefaultBsonValues.EMPTY_DOC;
+          } else {
+            if (!bson.containsKey(OK_FIELD.getFieldName())) {
+              bson = new BsonDocumentBuilder(bson)
+                  .append(OK_FIELD, MongoConstants.OK)
+                  .build();
+            }
           }
+        } catch (MarshalException ex) {
+          throw new FailedToParseException(ex.getLocalizedMessage());
         }
-      } catch (MarshalException ex) {
-        throw new FailedToParseException(ex.getLocalizedMessage());
+      } else {
+        bson = new BsonDocumentBuilder()
+            .append(ERR_CODE, reply.getErrorCode().getErrorCode())
+            .append(ERR_MSG_FIELD, reply.getErrorMsg())
+            .append(OK_FIELD, MongoConstants.KO)
+            .build();
+      }
+      topStatistics.recordCommand(request.getDatabase(), command.getCommandName(), document, nanos,
+          bson, messageLength);
+      ok = reply.isOk();
+      return bson;
+    } finally {
+      if (event != null) {
+        event.finish(command.getCommandName(), document, request.getDatabase(), ok, bson);
       }
-    } else {
-      bson = new BsonDocumentBuilder()
-          .append(ERR_CODE, reply.getErrorCode().getErrorCode())
-          .append(ERR_MSG_FIELD, reply.getErrorMsg())
-          .append(OK_FIELD, MongoConstants.KO)
-          .build();
     }
-
-    messageReplier.replyMessageNoCursor(bson);
   }
 
   @Override
   public void getMore(GetMoreMessage getMoreMessage, MessageReplier messageReplier) {
     C connection = getConnection(messageReplier);
+    Request req = new Request(
+        getMoreMessage.getNamespace(),
+        new ExternalClientInfo(getMoreMessage.getClientAddress(), getMoreMessage.getRequestId()),
+        true,
+        null //Set the requested timeout
+    );
+    long awaitDataMillis = safeRequestProcessor.getAwaitDataTimeoutMillis(connection,
+        getMoreMessage.getCursorId());
+    getMore(connection, req, getMoreMessage, messageReplier, awaitDataMillis > 0,
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awaitDataMillis), 0);
+  }
+
+  /**
+   * Executes a {@code getMore}. If it finds no documents and it can wait for data, it is parked on
+   * the {@link CursorWaitRegistry} and executed again on the executor of the replier once the
+   * namespace of the cursor is signaled or the deadline expires. Parked requests are cancelled when
+   * the connection is closed.
+   *
+   * <p>The request is recorded on the {@link TopStatistics} once, when it is replied, with the time
+   * spent on all its executions.
+   *
+   * @param awaitDeadline the {@link System#nanoTime()} until the request can wait for data
+   * @param previousNanos the time spent on the previous executions of the request
+   */
+  private void getMore(C connection, Request req, GetMoreMessage getMoreMessage,
+      MessageReplier messageReplier, boolean awaitData, long awaitDeadline, long previousNanos) {
     try {
-      Request req = new Request(
-          getMoreMessage.getDatabase(),
-          new ExternalClientInfo(getMoreMessage.getClientAddress(), getMoreMessage.getRequestId()),
-          true,
-          null //Set the requested timeout
-      );
+      String namespace = getMoreMessage.getNamespace().getFullName();
+      long version = awaitData ? cursorWaitRegistry.getVersion(namespace) : 0;
 
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
       ReplyMessage reply = safeRequestProcessor.getMore(connection, req, messageReplier
           .getRequestId(), getMoreMessage);
-      messageReplier.replyMessage(reply);
+      recordResources(connection, getMoreMessage.getDatabase(), getMoreMessage.getCollection(),
+          null, resources);
+      long nanos = previousNanos + System.nanoTime() - start;
+
+      long remainingNanos = awaitDeadline - System.nanoTime();
+      if (awaitData && remainingNanos > 0 && isEmptyBatch(reply)) {
+        //the empty batch is not sent, a new one is read when the request is resumed
+        closeReply(reply);
+        new ParkedGetMore(connection, req, getMoreMessage, messageReplier, awaitDeadline, nanos)
+            .park(namespace, version, remainingNanos);
+        return;
+      }
+      topStatistics.record(getMoreMessage.getDatabase(), getMoreMessage.getCollection(),
+          OperationType.READ, nanos, 0, 0, getMoreMessage.getBaseMessage().getMessageLength());
+      messageReplier.replyMessage(reply, documents -> topStatistics.recordDocumentsOut(
+          getMoreMessage.getDatabase(), getMoreMessage.getCollection(), documents));
     } catch (MongoException ex) {
-      errorHandler.handleMongodbException(connection, messageReplier.getRequestId(), false, ex);
+      handleError(RequestOpCode.OP_GET_MORE, messageReplier, ex);
+    }
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private static void closeReply(ReplyMessage reply) {
+    try {
+      reply.close();
+    } catch (Exception ex) {
+      LOGGER.debug("Error while closing a discarded reply", ex);
     }
   }
 
+  /**
+   * Ends the given measurement, which must have been started on the current thread, and adds it to
+   * the command, the namespace and the connection that used the resources.
+   *
+   * @param commandName the name of the executed command or null if the request was not a command
+   * @param resources   the measurement or null if resource accounting is disabled
+   */
+  private void recordResources(C connection, String database, String collection,
+      @Nullable String commandName, @Nullable ResourceMeasurement resources) {
+    if (resources == null) {
+      return;
+    }
+    resources.end();
+    serverMetrics.onResourcesUsed(commandName, resources);
+    topStatistics.recordResources(database, collection, resources);
+    resourceAccounting.onConnectionUsage(connection.getConnectionId(), resources);
+  }
+
+  private static boolean isEmptyBatch(ReplyMessage reply) {
+    return reply.getCursorId() != 0 && !reply.isQueryFailure() && !reply.isCursorNotFound()
+        && reply.getDocuments().getIterable(AllocationType.OFFHEAP).isEmpty();
+  }
+
   @Override
   public void killCursors(KillCursorsMessage killCursorsMessage, MessageReplier messageReplier) {
     C connection = getConnection(messageReplier);
@@ -266,12 +463,22 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
     C connection = getConnection(messageReplier);
     try {
       Request req = new Request(
-          insertMessage.getDatabase(),
+          insertMessage.getNamespace(),
           new ExternalClientInfo(insertMessage.getClientAddress(), insertMessage.getRequestId()),
           false,
           null //Set the requested timeout
       );
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
       safeRequestProcessor.insert(connection, req, insertMessage);
+      long nanos = System.nanoTime() - start;
+      recordResources(connection, insertMessage.getDatabase(), insertMessage.getCollection(), null,
+          resources);
+      //the documents are counted when the message is validated, but not when they are streamed
+      int documents = Math.max(insertMessage.getBaseMessage().getDocumentCount(), 0);
+      topStatistics.record(insertMessage.getDatabase(), insertMessage.getCollection(),
+          OperationType.WRITE, nanos, documents, 0,
+          insertMessage.getBaseMessage().getMessageLength());
     } catch (MongoException ex) {
       errorHandler.handleMongodbException(connection, messageReplier.getRequestId(), false, ex);
     }
@@ -282,12 +489,19 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
     C connection = getConnection(messageReplier);
     try {
       Request req = new Request(
-          updateMessage.getDatabase(),
+          updateMessage.getNamespace(),
           new ExternalClientInfo(updateMessage.getClientAddress(), updateMessage.getRequestId()),
           false,
           null //Set the requested timeout
       );
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
       safeRequestProcessor.update(connection, req, updateMessage);
+      recordResources(connection, updateMessage.getDatabase(), updateMessage.getCollection(), null,
+          resources);
+      topStatistics.record(updateMessage.getDatabase(), updateMessage.getCollection(),
+          OperationType.WRITE, System.nanoTime() - start, 1, 0,
+          updateMessage.getBaseMessage().getMessageLength());
     } catch (MongoException ex) {
       errorHandler.handleMongodbException(connection, messageReplier.getRequestId(), false, ex);
     }
@@ -298,17 +512,93 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
     C connection = getConnection(messageReplier);
     try {
       Request req = new Request(
-          deleteMessage.getDatabase(),
+          deleteMessage.getNamespace(),
           new ExternalClientInfo(deleteMessage.getClientAddress(), deleteMessage.getRequestId()),
           false,
           null //Set the requested timeout
       );
+      long start = System.nanoTime();
+      ResourceMeasurement resources = resourceAccounting.begin();
       safeRequestProcessor.delete(connection, req, deleteMessage);
+      recordResources(connection, deleteMessage.getDatabase(), deleteMessage.getCollection(), null,
+          resources);
+      topStatistics.record(deleteMessage.getDatabase(), deleteMessage.getCollection(),
+          OperationType.WRITE, System.nanoTime() - start, 1, 0,
+          deleteMessage.getBaseMessage().getMessageLength());
     } catch (MongoException ex) {
       errorHandler.handleMongodbException(connection, messageReplier.getRequestId(), false, ex);
     }
   }
 
+  @Override
+  public void msg(MsgMessage msgMessage, MessageReplier messageReplier) throws MongoException {
+    C connection = getConnection(messageReplier);
+    try {
+      Request req = new Request(
+          msgMessage.getDatabase(),
+          new ExternalClientInfo(msgMessage.getClientAddress(), msgMessage.getClientPort()),
+          isSecondaryOk(msgMessage.getBody()),
+          null //Set the requested timeout
+      );
+      BsonDocument bson = executeCommand(connection, req, msgMessage.getCommandDocument(),
+          msgMessage.getBaseMessage().getMessageLength());
+      if (msgMessage.isMoreToCome()) {
+        return;
+      }
+      if (msgMessage.isExhaustAllowed() && isGetMore(msgMessage.getCommandDocument())) {
+        messageReplier.replyExhaustMsgMessages(bson, createExhaustSource(connection, req,
+            msgMessage));
+      } else {
+        messageReplier.replyMsgMessage(bson);
+      }
+    } catch (MongoException ex) {
+      if (msgMessage.isMoreToCome()) {
+        errorHandler.handleMongodbException(connection, messageReplier.getRequestId(), false, ex);
+      } else {
+        messageReplier.replyMsgMessage(toErrorDocument(ex));
+      }
+    }
+  }
+
+  private static boolean isGetMore(BsonDocument command) {
+    return !command.isEmpty() && GET_MORE_COMMAND_NAME.equals(command.iterator().next().getKey());
+  }
+
+  /**
+   * Creates the source of the batches that follow the reply of an exhaust {@code getMore} command,
+   * which are the replies of the same command executed again.
+   */
+  private ExhaustMsgSource createExhaustSource(C connection, Request request,
+      MsgMessage msgMessage) {
+    BsonDocument command = msgMessage.getCommandDocument();
+    int messageLength = msgMessage.getBaseMessage().getMessageLength();
+    return () -> {
+      try {
+        return executeCommand(connection, request, command, messageLength);
+      } catch (MongoException ex) {
+        return toErrorDocument(ex);
+      }
+    };
+  }
+
+  private static BsonDocument toErrorDocument(MongoException ex) {
+    return new BsonDocumentBuilder()
+        .append(ERR_CODE, ex.getErrorCode().getErrorCode())
+        .append(ERR_MSG_FIELD, ex.getMessage())
+        .append(OK_FIELD, MongoConstants.KO)
+        .build();
+  }
+
+  private boolean isSecondaryOk(BsonDocument body) {
+    BsonValue<?> readPreference = body.get(READ_PREFERENCE_FIELD_NAME);
+    if (readPreference == null || !readPreference.isDocument()) {
+      return false;
+    }
+    BsonValue<?> mode = readPreference.asDocument().get(READ_PREFERENCE_MODE_FIELD_NAME);
+    return mode != null && mode.isString()
+        && !READ_PREFERENCE_PRIMARY.equals(mode.asString().getValue());
+  }
+
   @Override
   public boolean handleError(RequestOpCode requestOpCode, MessageReplier messageReplier,
       Throwable throwable) {
@@ -330,8 +620,104 @@ public class RequestProcessorAdaptor<C extends Connection> implements RequestPro
       );
     }
     if (requestOpCode.canReply() && handleMongodbException != null) {
-      messageReplier.replyMessage(handleMongodbException);
+      if (requestOpCode == RequestOpCode.OP_MSG) {
+        BsonDocument errorDoc;
+        try {
+          //read on the heap, so it is still valid once the reply is closed
+          errorDoc = handleMongodbException.getDocuments()
+              .getIterable(AllocationType.HEAP)
+              .<BsonDocument>transform(doc -> doc)
+              .first()
+              .or(DefaultBsonValues.EMPTY_DOC);
+        } finally {
+          closeReply(handleMongodbException);
+        }
+        messageReplier.replyMsgMessage(errorDoc);
+      } else {
+        messageReplier.replyMessage(handleMongodbException);
+      }
     }
     return true;
   }
+
+  /**
+   * A {@code getMore} that waits for new data on the {@link CursorWaitRegistry}.
+   *
+   * <p>It is stored on the attributes of its connection while it waits. The one that removes it
+   * from there, either the continuation or {@link #onChannelInactive(AttributeMap)}, decides
+   * whether the request is resumed or cancelled.
+   */
+  private class ParkedGetMore implements CursorWaitRegistry.Continuation {
+
+    private final C connection;
+    private final Request req;
+    private final GetMoreMessage getMoreMessage;
+    private final MessageReplier messageReplier;
+    private final long awaitDeadline;
+    private final long previousNanos;
+    private final Set<ParkedGetMore> parked;
+    @Nullable
+    private volatile CursorWaitRegistry.Registration registration;
+    private volatile boolean cancelled;
+
+    ParkedGetMore(C connection, Request req, GetMoreMessage getMoreMessage,
+        MessageReplier messageReplier, long awaitDeadline, long previousNanos) {
+      this.connection = connection;
+      this.req = req;
+      this.getMoreMessage = getMoreMessage;
+      this.messageReplier = messageReplier;
+      this.awaitDeadline = awaitDeadline;
+      this.previousNanos = previousNanos;
+      this.parked = getParkedGetMores(messageReplier.getAttributeMap());
+    }
+
+    void park(String namespace, long version, long remainingNanos) {
+      parked.add(this);
+      registration = cursorWaitRegistry.await(namespace, version, remainingNanos,
+          TimeUnit.NANOSECONDS, this);
+      if (cancelled) {
+        registration.cancel();
+      }
+    }
+
+    void cancel() {
+      cancelled = true;
+      CursorWaitRegistry.Registration registration = this.registration;
+      if (registration != null) {
+        registration.cancel();
+      }
+    }
+
+    @Override
+    public void resume(boolean signaled) {
+      if (!parked.remove(this)) {
+        return; //the connection has been closed
+      }
+      messageReplier.getExecutor().execute(() -> resumeOnExecutor(signaled));
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void resumeOnExecutor(boolean signaled) {
+      try {
+        getMore(connection, req, getMoreMessage, messageReplier, signaled, awaitDeadline,
+            previousNanos);
+      } catch (Throwable ex) {
+        //there is no handler that catches errors thrown off the request thread
+        handleError(RequestOpCode.OP_GET_MORE, messageReplier, ex);
+      }
+    }
+  }
+
+  private Set<ParkedGetMore> getParkedGetMores(AttributeMap attMap) {
+    Attribute<Set<ParkedGetMore>> attr = attMap.attr(parkedGetMores);
+    Set<ParkedGetMore> parked = attr.get();
+    if (parked == null) {
+      Set<ParkedGetMore> newSet = ConcurrentHashMap.newKeySet();
+      parked = attr.setIfAbsent(newSet);
+      if (parked == null) {
+        parked = newSet;
+      }
+    }
+    return parked;
+  }
 }
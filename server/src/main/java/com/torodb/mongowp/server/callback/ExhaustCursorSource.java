@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.callback;
+
+import com.torodb.mongowp.messages.response.ReplyMessage;
+
+/**
+ * Produces the batches of an exhaust cursor, which are sent to the client without waiting for
+ * {@code OP_GET_MORE} requests.
+ *
+ * @see MessageReplier#replyExhaustMessages(ReplyMessage, ExhaustCursorSource)
+ */
+@FunctionalInterface
+public interface ExhaustCursorSource {
+
+  /**
+   * Returns the next batch of the cursor.
+   *
+   * <p>Errors must be returned as replies, as there is no request to attach them to. A reply whose
+   * cursor id is 0 (or that reports a failure) ends the stream.
+   */
+  public ReplyMessage nextBatch();
+
+}
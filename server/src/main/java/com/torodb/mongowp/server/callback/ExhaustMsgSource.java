@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.callback;
+
+import com.torodb.mongowp.bson.BsonDocument;
+
+/**
+ * Produces the batches of an exhaust {@code getMore} command, which are sent to the client as
+ * {@code OP_MSG} replies with the {@code moreToCome} flag without waiting for new requests.
+ *
+ * @see MessageReplier#replyExhaustMsgMessages(BsonDocument, ExhaustMsgSource)
+ */
+@FunctionalInterface
+public interface ExhaustMsgSource {
+
+  /**
+   * Returns the reply of the next {@code getMore}.
+   *
+   * <p>Errors must be returned as replies, as there is no request to attach them to. A reply whose
+   * cursor id is 0 (or that is not ok) ends the stream.
+   */
+  public BsonDocument nextBatch();
+
+}
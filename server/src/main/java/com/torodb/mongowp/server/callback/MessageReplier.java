@@ -15,25 +15,152 @@
  */
 package com.torodb.mongowp.server.callback;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import com.torodb.mongowp.messages.request.BsonContext;
 import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
 import com.torodb.mongowp.messages.response.ReplyMessage;
 import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
 import io.netty.util.AttributeMap;
 
 import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 import javax.annotation.Nonnull;
 
 public abstract class MessageReplier {
 
+  private static final String OK_FIELD_NAME = "ok";
+  private static final String CURSOR_FIELD_NAME = "cursor";
+  private static final String CURSOR_ID_FIELD_NAME = "id";
+
   public abstract int getRequestId();
 
   public abstract AttributeMap getAttributeMap();
 
   public abstract void replyMessage(ReplyMessage replyMessage);
 
+  /**
+   * Sends a reply and tells the given listener how many documents it returned.
+   *
+   * <p>Implementations that count the documents while they encode the reply call the listener once
+   * it is encoded, so the documents are not iterated twice. The default implementation counts them
+   * before sending the reply.
+   */
+  public void replyMessage(ReplyMessage replyMessage, IntConsumer documentsListener) {
+    documentsListener.accept(
+        replyMessage.getDocuments().getIterable(AllocationType.OFFHEAP).size());
+    replyMessage(replyMessage);
+  }
+
+  /**
+   * @return true iff the replies can be sent without being buffered on the server
+   */
+  public boolean isWritable() {
+    return true;
+  }
+
+  /**
+   * Waits until the replies can be sent without being buffered on the server.
+   *
+   * <p>Code that produces several replies for the same request (like cursor batches) should call
+   * this method before producing each batch, so slow clients do not make the server buffer all of
+   * them.
+   *
+   * @return true iff the replier is writable, false if the timeout elapsed
+   */
+  public boolean awaitWritable(long timeout, TimeUnit unit) throws InterruptedException {
+    return true;
+  }
+
+  public abstract void replyMessage(MsgReplyMessage replyMessage);
+
+  /**
+   * Returns the executor where the work this request resumes later must be done, like a
+   * {@code getMore} that waited for new data.
+   *
+   * <p>Tasks executed there are serialized with the other requests of the same connection. The
+   * default implementation executes them on the calling thread.
+   */
+  public Executor getExecutor() {
+    return MoreExecutors.directExecutor();
+  }
+
+  /**
+   * Sends the first batch of an exhaust cursor and then the following ones, without waiting for
+   * {@code OP_GET_MORE} requests, until the last one is sent.
+   *
+   * <p>The client expects each batch after the first one to reply to the previous batch instead of
+   * to the request. The default implementation does not do that, as a replier does not know the ids
+   * assigned to its replies: it sends all batches as replies to the request, back to back on the
+   * calling thread. Implementations that can chain the batches must override this method.
+   *
+   * @param firstBatch the reply to the query
+   * @param source     the source of the following batches
+   * @see #isLastExhaustBatch(ReplyMessage)
+   */
+  public void replyExhaustMessages(ReplyMessage firstBatch, ExhaustCursorSource source) {
+    replyMessage(firstBatch);
+    ReplyMessage batch = firstBatch;
+    while (!isLastExhaustBatch(batch)) {
+      batch = source.nextBatch();
+      replyMessage(batch);
+    }
+  }
+
+  /**
+   * @return true iff no more batches must be sent after the given one
+   */
+  protected static boolean isLastExhaustBatch(ReplyMessage batch) {
+    return batch.getCursorId() == 0 || batch.isQueryFailure() || batch.isCursorNotFound();
+  }
+
+  public void replyMsgMessage(@Nonnull BsonDocument body) {
+    replyMessage(
+        new MsgReplyMessage.Builder(EmptyBsonContext.getInstance(), getRequestId(), body).build()
+    );
+  }
+
+  /**
+   * Sends the reply of a {@code getMore} command whose request allowed exhaust replies and then
+   * the following batches, flagged as {@code moreToCome}, without waiting for new requests, until
+   * the last one is sent.
+   *
+   * <p>The client expects each batch after the first one to reply to the previous batch instead of
+   * to the request. The default implementation cannot do that, as a replier does not know the ids
+   * assigned to its replies: it only sends the first batch without the {@code moreToCome} flag, so
+   * the client asks for the next batches as usual. Implementations that can chain the batches must
+   * override this method.
+   *
+   * @param firstBatch the reply to the request
+   * @param source     the source of the following batches
+   * @see #isLastExhaustMsgBatch(BsonDocument)
+   */
+  public void replyExhaustMsgMessages(@Nonnull BsonDocument firstBatch, ExhaustMsgSource source) {
+    replyMsgMessage(firstBatch);
+  }
+
+  /**
+   * @return true iff no more batches must be sent after the given {@code getMore} reply
+   */
+  protected static boolean isLastExhaustMsgBatch(BsonDocument batch) {
+    BsonValue<?> ok = batch.get(OK_FIELD_NAME);
+    if (ok == null || !ok.isNumber() || ok.asNumber().doubleValue() != 1) {
+      return true;
+    }
+    BsonValue<?> cursor = batch.get(CURSOR_FIELD_NAME);
+    if (cursor == null || !cursor.isDocument()) {
+      return true;
+    }
+    BsonValue<?> cursorId = cursor.asDocument().get(CURSOR_ID_FIELD_NAME);
+    return cursorId == null || !cursorId.isNumber() || cursorId.asNumber().longValue() == 0;
+  }
+
   public void replyMessage(long cursorId, int startingFrom, @Nonnull BsonDocument document) {
     replyMessageNoFlags(EmptyBsonContext.getInstance(), startingFrom, startingFrom,
         IterableDocumentProvider.of(Collections.singleton(document)));
@@ -19,6 +19,7 @@ import com.torodb.mongowp.messages.request.DeleteMessage;
 import com.torodb.mongowp.messages.request.GetMoreMessage;
 import com.torodb.mongowp.messages.request.InsertMessage;
 import com.torodb.mongowp.messages.request.KillCursorsMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
 import com.torodb.mongowp.messages.request.QueryMessage;
 import com.torodb.mongowp.messages.request.RequestOpCode;
 import com.torodb.mongowp.messages.request.UpdateMessage;
@@ -50,6 +51,9 @@ public interface RequestProcessor {
   public void delete(@Nonnull DeleteMessage deleteMessage, @Nonnull MessageReplier messageReplier)
       throws Exception;
 
+  public void msg(@Nonnull MsgMessage msgMessage, @Nonnull MessageReplier messageReplier)
+      throws Exception;
+
   public boolean handleError(@Nonnull RequestOpCode requestOpCode,
       @Nonnull MessageReplier messageReplier, @Nonnull Throwable throwable) throws Exception;
 }
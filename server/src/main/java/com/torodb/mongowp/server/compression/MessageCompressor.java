@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A compression algorithm that can be used on {@code OP_COMPRESSED} messages.
+ *
+ * <p>Implementations work on byte arrays, so heap buffers are used directly and direct buffers are
+ * copied from and to a temporal array.
+ */
+@ThreadSafe
+@SuppressFBWarnings(
+    value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT",
+    justification = "It seems FindBugs considers ByteBuf methods are not side effect")
+public abstract class MessageCompressor {
+
+  private final byte id;
+  private final String name;
+  private final MessageCompressorStats stats = new MessageCompressorStats();
+
+  protected MessageCompressor(byte id, String name) {
+    this.id = id;
+    this.name = name;
+  }
+
+  /**
+   * @return the id used on the {@code compressorId} field of {@code OP_COMPRESSED} messages
+   */
+  public byte getId() {
+    return id;
+  }
+
+  /**
+   * @return the name used to negotiate this compressor on the {@code isMaster} command
+   */
+  public String getName() {
+    return name;
+  }
+
+  public MessageCompressorStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Compresses the readable bytes of the source and writes the result on the destination.
+   *
+   * @return the number of compressed bytes written on the destination
+   */
+  public int compress(ByteBuf src, ByteBuf dst) throws IOException {
+    long start = System.nanoTime();
+
+    int length = src.readableBytes();
+    byte[] in;
+    int inOffset;
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.readerIndex();
+    } else {
+      in = new byte[length];
+      src.getBytes(src.readerIndex(), in);
+      inOffset = 0;
+    }
+
+    int maxLength = maxCompressedLength(length);
+    dst.ensureWritable(maxLength);
+    int written;
+    if (dst.hasArray()) {
+      written = doCompress(in, inOffset, length,
+          dst.array(), dst.arrayOffset() + dst.writerIndex(), maxLength);
+      dst.writerIndex(dst.writerIndex() + written);
+    } else {
+      byte[] out = new byte[maxLength];
+      written = doCompress(in, inOffset, length, out, 0, maxLength);
+      dst.writeBytes(out, 0, written);
+    }
+    src.skipBytes(length);
+
+    stats.compressed(length, written, System.nanoTime() - start);
+    return written;
+  }
+
+  /**
+   * Decompresses the readable bytes of the source and writes the result on the destination.
+   *
+   * @param uncompressedLength the number of bytes the decompressed message must have
+   * @throws IOException if the source is not valid or its decompressed size is not the expected
+   */
+  public void decompress(ByteBuf src, ByteBuf dst, @Nonnegative int uncompressedLength)
+      throws IOException {
+    long start = System.nanoTime();
+
+    int length = src.readableBytes();
+    byte[] in;
+    int inOffset;
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.readerIndex();
+    } else {
+      in = new byte[length];
+      src.getBytes(src.readerIndex(), in);
+      inOffset = 0;
+    }
+
+    dst.ensureWritable(uncompressedLength);
+    int written;
+    if (dst.hasArray()) {
+      written = doDecompress(in, inOffset, length,
+          dst.array(), dst.arrayOffset() + dst.writerIndex(), uncompressedLength);
+      dst.writerIndex(dst.writerIndex() + written);
+    } else {
+      byte[] out = new byte[uncompressedLength];
+      written = doDecompress(in, inOffset, length, out, 0, uncompressedLength);
+      dst.writeBytes(out, 0, written);
+    }
+    if (written != uncompressedLength) {
+      throw new IOException("Expected " + uncompressedLength + " decompressed bytes, but "
+          + written + " were found");
+    }
+    src.skipBytes(length);
+
+    stats.decompressed(length, written, System.nanoTime() - start);
+  }
+
+  /**
+   * @return the max number of bytes {@link #doCompress} can write for the given input length
+   */
+  protected abstract int maxCompressedLength(int length);
+
+  /**
+   * @return the number of bytes written on {@code out}, which must not be greater than
+   *         {@code outLength}
+   */
+  protected abstract int doCompress(byte[] in, int inOffset, int inLength, byte[] out,
+      int outOffset, int outLength) throws IOException;
+
+  /**
+   * @return the number of bytes written on {@code out}, which must not be greater than
+   *         {@code outLength}
+   */
+  protected abstract int doDecompress(byte[] in, int inOffset, int inLength, byte[] out,
+      int outOffset, int outLength) throws IOException;
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
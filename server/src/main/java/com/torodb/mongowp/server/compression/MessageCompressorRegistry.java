@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The {@link MessageCompressor compressors} the server can use.
+ *
+ * <p>By default zlib is always available, while snappy and zstd are only registered when their
+ * optional libraries can be loaded.
+ */
+@ThreadSafe
+@Singleton
+public class MessageCompressorRegistry {
+
+  private static final Logger LOGGER = LogManager.getLogger(MessageCompressorRegistry.class);
+
+  private final MessageCompressor[] byId = new MessageCompressor[256];
+  private final LinkedHashMap<String, MessageCompressor> byName = new LinkedHashMap<>();
+
+  @Inject
+  public MessageCompressorRegistry() {
+    this(defaultCompressors());
+  }
+
+  public MessageCompressorRegistry(Collection<? extends MessageCompressor> compressors) {
+    for (MessageCompressor compressor : compressors) {
+      int index = compressor.getId() & 0xFF;
+      if (byId[index] != null || byName.containsKey(compressor.getName())) {
+        throw new IllegalArgumentException("There are several compressors with the id "
+            + compressor.getId() + " or the name " + compressor.getName());
+      }
+      byId[index] = compressor;
+      byName.put(compressor.getName(), compressor);
+    }
+  }
+
+  private static List<MessageCompressor> defaultCompressors() {
+    List<MessageCompressor> compressors = new ArrayList<>(3);
+    if (SnappyMessageCompressor.isAvailable()) {
+      compressors.add(new SnappyMessageCompressor());
+    } else {
+      LOGGER.debug("Snappy compression is not available");
+    }
+    if (ZstdMessageCompressor.isAvailable()) {
+      compressors.add(new ZstdMessageCompressor());
+    } else {
+      LOGGER.debug("Zstd compression is not available");
+    }
+    compressors.add(new ZlibMessageCompressor());
+    return compressors;
+  }
+
+  @Nullable
+  public MessageCompressor getById(byte id) {
+    return byId[id & 0xFF];
+  }
+
+  @Nullable
+  public MessageCompressor getByName(String name) {
+    return byName.get(name);
+  }
+
+  public ImmutableList<MessageCompressor> getCompressors() {
+    return ImmutableList.copyOf(byName.values());
+  }
+
+  /**
+   * Returns the compressors that are requested by a client and supported by this server.
+   *
+   * @param requested the compressor names the client sent on the {@code compression} field of
+   *                  the {@code isMaster} command, in order of preference
+   * @return the supported compressors, in the order the client requested them
+   */
+  public ImmutableList<MessageCompressor> negotiate(Iterable<String> requested) {
+    ImmutableSet.Builder<MessageCompressor> result = ImmutableSet.builder();
+    for (String name : requested) {
+      MessageCompressor compressor = byName.get(name);
+      if (compressor != null) {
+        result.add(compressor);
+      }
+    }
+    return result.build().asList();
+  }
+}
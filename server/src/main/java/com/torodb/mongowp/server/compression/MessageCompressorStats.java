@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Counters of the bytes and time spent by a {@link MessageCompressor}.
+ *
+ * <p>As on the MongoDB {@code serverStatus} command, <em>bytes in</em> are the bytes the
+ * compressor (or decompressor) received and <em>bytes out</em> are the ones it produced.
+ */
+@ThreadSafe
+public class MessageCompressorStats {
+
+  private final LongAdder compressedMessages = new LongAdder();
+  private final LongAdder compressorBytesIn = new LongAdder();
+  private final LongAdder compressorBytesOut = new LongAdder();
+  private final LongAdder compressorNanos = new LongAdder();
+  private final LongAdder decompressedMessages = new LongAdder();
+  private final LongAdder decompressorBytesIn = new LongAdder();
+  private final LongAdder decompressorBytesOut = new LongAdder();
+  private final LongAdder decompressorNanos = new LongAdder();
+
+  void compressed(int bytesIn, int bytesOut, long nanos) {
+    compressedMessages.increment();
+    compressorBytesIn.add(bytesIn);
+    compressorBytesOut.add(bytesOut);
+    compressorNanos.add(nanos);
+  }
+
+  void decompressed(int bytesIn, int bytesOut, long nanos) {
+    decompressedMessages.increment();
+    decompressorBytesIn.add(bytesIn);
+    decompressorBytesOut.add(bytesOut);
+    decompressorNanos.add(nanos);
+  }
+
+  public long getCompressedMessages() {
+    return compressedMessages.sum();
+  }
+
+  public long getCompressorBytesIn() {
+    return compressorBytesIn.sum();
+  }
+
+  public long getCompressorBytesOut() {
+    return compressorBytesOut.sum();
+  }
+
+  public long getCompressorNanos() {
+    return compressorNanos.sum();
+  }
+
+  public long getDecompressedMessages() {
+    return decompressedMessages.sum();
+  }
+
+  public long getDecompressorBytesIn() {
+    return decompressorBytesIn.sum();
+  }
+
+  public long getDecompressorBytesOut() {
+    return decompressorBytesOut.sum();
+  }
+
+  public long getDecompressorNanos() {
+    return decompressorNanos.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "MessageCompressorStats{compressedMessages=" + getCompressedMessages()
+        + ", compressorBytesIn=" + getCompressorBytesIn()
+        + ", compressorBytesOut=" + getCompressorBytesOut()
+        + ", compressorNanos=" + getCompressorNanos()
+        + ", decompressedMessages=" + getDecompressedMessages()
+        + ", decompressorBytesIn=" + getDecompressorBytesIn()
+        + ", decompressorBytesOut=" + getDecompressorBytesOut()
+        + ", decompressorNanos=" + getDecompressorNanos() + '}';
+  }
+}
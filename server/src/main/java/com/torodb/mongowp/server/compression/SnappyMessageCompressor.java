@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link MessageCompressor} that uses the optional {@code snappy-java} library.
+ */
+@ThreadSafe
+public class SnappyMessageCompressor extends MessageCompressor {
+
+  public static final byte ID = 1;
+  public static final String NAME = "snappy";
+
+  public SnappyMessageCompressor() {
+    super(ID, NAME);
+  }
+
+  /**
+   * @return true iff the snappy library and its native code can be loaded
+   */
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  public static boolean isAvailable() {
+    try {
+      Snappy.maxCompressedLength(1);
+      Snappy.getNativeLibraryVersion();
+      return true;
+    } catch (Throwable ex) {
+      return false;
+    }
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return Snappy.maxCompressedLength(length);
+  }
+
+  @Override
+  protected int doCompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    return Snappy.compress(in, inOffset, inLength, out, outOffset);
+  }
+
+  @Override
+  protected int doDecompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    int uncompressedLength = Snappy.uncompressedLength(in, inOffset, inLength);
+    if (uncompressedLength != outLength) {
+      throw new IOException("Expected " + outLength + " decompressed bytes, but the snappy "
+          + "message contains " + uncompressedLength);
+    }
+    return Snappy.uncompress(in, inOffset, inLength, out, outOffset);
+  }
+}
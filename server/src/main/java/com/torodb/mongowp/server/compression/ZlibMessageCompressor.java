@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link MessageCompressor} that uses the zlib format provided by {@link java.util.zip}.
+ *
+ * <p>{@link Deflater} and {@link Inflater} instances are cached per thread, as they hold native
+ * memory that is expensive to allocate.
+ */
+@ThreadSafe
+public class ZlibMessageCompressor extends MessageCompressor {
+
+  public static final byte ID = 2;
+  public static final String NAME = "zlib";
+
+  private final FastThreadLocal<Deflater> deflaters;
+  private final FastThreadLocal<Inflater> inflaters = new FastThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() throws Exception {
+      return new Inflater();
+    }
+
+    @Override
+    protected void onRemoval(Inflater value) throws Exception {
+      value.end();
+    }
+  };
+
+  public ZlibMessageCompressor() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  public ZlibMessageCompressor(int level) {
+    super(ID, NAME);
+    this.deflaters = new FastThreadLocal<Deflater>() {
+      @Override
+      protected Deflater initialValue() throws Exception {
+        return new Deflater(level);
+      }
+
+      @Override
+      protected void onRemoval(Deflater value) throws Exception {
+        value.end();
+      }
+    };
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    //the same bound zlib's compressBound uses
+    return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+  }
+
+  @Override
+  protected int doCompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setInput(in, inOffset, inLength);
+    deflater.finish();
+    int written = 0;
+    while (!deflater.finished()) {
+      if (written == outLength) {
+        throw new IOException("The compressed message is larger than expected");
+      }
+      written += deflater.deflate(out, outOffset + written, outLength - written);
+    }
+    return written;
+  }
+
+  @Override
+  protected int doDecompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(in, inOffset, inLength);
+    int written = 0;
+    try {
+      while (!inflater.finished()) {
+        int read = inflater.inflate(out, outOffset + written, outLength - written);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()
+            || written == outLength)) {
+          throw new IOException("Invalid or truncated zlib message");
+        }
+        written += read;
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException(ex);
+    }
+    return written;
+  }
+}
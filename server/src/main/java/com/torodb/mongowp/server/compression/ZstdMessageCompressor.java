@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+
+import java.io.IOException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link MessageCompressor} that uses the optional {@code zstd-jni} library.
+ */
+@ThreadSafe
+public class ZstdMessageCompressor extends MessageCompressor {
+
+  public static final byte ID = 3;
+  public static final String NAME = "zstd";
+  /**
+   * The level MongoDB uses by default.
+   */
+  public static final int DEFAULT_LEVEL = 6;
+
+  private final int level;
+
+  public ZstdMessageCompressor() {
+    this(DEFAULT_LEVEL);
+  }
+
+  public ZstdMessageCompressor(int level) {
+    super(ID, NAME);
+    this.level = level;
+  }
+
+  /**
+   * @return true iff the zstd library and its native code can be loaded
+   */
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  public static boolean isAvailable() {
+    try {
+      Zstd.compressBound(1);
+      return true;
+    } catch (Throwable ex) {
+      return false;
+    }
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return (int) Zstd.compressBound(length);
+  }
+
+  @Override
+  protected int doCompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    try {
+      return checkResult(
+          Zstd.compressByteArray(out, outOffset, outLength, in, inOffset, inLength, level)
+      );
+    } catch (ZstdException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  @Override
+  protected int doDecompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset,
+      int outLength) throws IOException {
+    try {
+      return checkResult(
+          Zstd.decompressByteArray(out, outOffset, outLength, in, inOffset, inLength)
+      );
+    } catch (ZstdException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  private int checkResult(long result) throws IOException {
+    if (Zstd.isError(result)) {
+      throw new IOException(Zstd.getErrorName(result));
+    }
+    return (int) result;
+  }
+}
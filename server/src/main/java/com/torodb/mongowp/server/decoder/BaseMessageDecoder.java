@@ -20,6 +20,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 
 /**
  *
@@ -34,14 +35,19 @@ public class BaseMessageDecoder {
    *
    * @param channelHandlerContext
    * @param byteBuf
+   * @param messageLength         the value of the messageLength field of the header
    * @return
    */
   public static RequestBaseMessage decode(ChannelHandlerContext channelHandlerContext,
-      ByteBuf byteBuf) {
-    InetSocketAddress socketAddress = (InetSocketAddress) channelHandlerContext.channel()
-        .remoteAddress();
+      ByteBuf byteBuf, int messageLength) {
+    SocketAddress address = channelHandlerContext.channel().remoteAddress();
+    if (!(address instanceof InetSocketAddress)) {
+      //local channels have no network address
+      return new RequestBaseMessage(null, 0, byteBuf.readInt(), messageLength);
+    }
+    InetSocketAddress socketAddress = (InetSocketAddress) address;
 
     return new RequestBaseMessage(socketAddress.getAddress(), socketAddress.getPort(), byteBuf
-        .readInt());
+        .readInt(), messageLength);
   }
 }
@@ -20,11 +20,11 @@ import static com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType.HE
 import com.torodb.mongowp.bson.BsonDocument;
 import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
 import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
-import com.torodb.mongowp.bson.netty.NettyStringReader;
 import com.torodb.mongowp.exceptions.InvalidBsonException;
 import com.torodb.mongowp.exceptions.InvalidNamespaceException;
 import com.torodb.mongowp.messages.request.DeleteMessage;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.utils.Namespace;
 import com.torodb.mongowp.server.util.EnumBitFlags;
 import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
 import io.netty.buffer.ByteBuf;
@@ -39,12 +39,12 @@ import javax.inject.Inject;
 @ThreadSafe
 public class DeleteMessageDecoder extends AbstractMessageDecoder<DeleteMessage> {
 
-  private final NettyStringReader stringReader;
+  private final NamespaceCache namespaceCache;
   private final NettyBsonDocumentReader docReader;
 
   @Inject
-  public DeleteMessageDecoder(NettyStringReader stringReader, NettyBsonDocumentReader docReader) {
-    this.stringReader = stringReader;
+  public DeleteMessageDecoder(NamespaceCache namespaceCache, NettyBsonDocumentReader docReader) {
+    this.namespaceCache = namespaceCache;
     this.docReader = docReader;
   }
 
@@ -56,20 +56,15 @@ public class DeleteMessageDecoder extends AbstractMessageDecoder<DeleteMessage>
       MyBsonContext context = new MyBsonContext(buffer);
 
       buffer.skipBytes(4);
-      String fullCollectionName = stringReader.readCString(buffer, true);
+      Namespace namespace = namespaceCache.readNamespace(buffer);
       int flags = buffer.readInt();
 
       BsonDocument document = docReader.readDocument(HEAP, buffer);
 
-      //TODO: improve the way database and cache are pooled
-      String database = getDatabase(fullCollectionName).intern();
-      String collection = getCollection(fullCollectionName).intern();
-
       return new DeleteMessage(
           requestBaseMessage,
           context,
-          database,
-          collection,
+          namespace,
           document,
           EnumInt32FlagsUtil.isActive(Flag.SINGLE_REMOVE, flags)
       );
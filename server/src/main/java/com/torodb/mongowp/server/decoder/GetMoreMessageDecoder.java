@@ -16,11 +16,11 @@
 package com.torodb.mongowp.server.decoder;
 
 import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
-import com.torodb.mongowp.bson.netty.NettyStringReader;
 import com.torodb.mongowp.exceptions.InvalidBsonException;
 import com.torodb.mongowp.exceptions.InvalidNamespaceException;
 import com.torodb.mongowp.messages.request.GetMoreMessage;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.utils.Namespace;
 import io.netty.buffer.ByteBuf;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -32,11 +32,11 @@ import javax.inject.Inject;
 @ThreadSafe
 public class GetMoreMessageDecoder extends AbstractMessageDecoder<GetMoreMessage> {
 
-  private final NettyStringReader stringReader;
+  private final NamespaceCache namespaceCache;
 
   @Inject
-  public GetMoreMessageDecoder(NettyStringReader stringReader) {
-    this.stringReader = stringReader;
+  public GetMoreMessageDecoder(NamespaceCache namespaceCache) {
+    this.namespaceCache = namespaceCache;
   }
 
   @Override
@@ -44,15 +44,13 @@ public class GetMoreMessageDecoder extends AbstractMessageDecoder<GetMoreMessage
       InvalidNamespaceException, InvalidBsonException {
     try {
       buffer.skipBytes(4);
-      String fullCollectionName = stringReader.readCString(buffer, true);
+      Namespace namespace = namespaceCache.readNamespace(buffer);
       int numberToReturn = buffer.readInt();
       long cursorId = buffer.readLong();
 
-      //TODO: improve the way database and cache are pooled
       return new GetMoreMessage(
           requestBaseMessage,
-          getDatabase(fullCollectionName).intern(),
-          getCollection(fullCollectionName).intern(),
+          namespace,
           numberToReturn,
           cursorId
       );
@@ -17,11 +17,11 @@ package com.torodb.mongowp.server.decoder;
 
 import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
 import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
-import com.torodb.mongowp.bson.netty.NettyStringReader;
 import com.torodb.mongowp.exceptions.InvalidBsonException;
 import com.torodb.mongowp.exceptions.InvalidNamespaceException;
 import com.torodb.mongowp.messages.request.InsertMessage;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.utils.Namespace;
 import com.torodb.mongowp.server.util.ByteBufIterableDocumentProvider;
 import com.torodb.mongowp.server.util.EnumBitFlags;
 import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
@@ -38,12 +38,12 @@ import javax.inject.Inject;
 @ThreadSafe
 public class InsertMessageDecoder extends AbstractMessageDecoder<InsertMessage> {
 
-  private final NettyStringReader stringReader;
+  private final NamespaceCache namespaceCache;
   private final NettyBsonDocumentReader docReader;
 
   @Inject
-  public InsertMessageDecoder(NettyStringReader stringReader, NettyBsonDocumentReader docReader) {
-    this.stringReader = stringReader;
+  public InsertMessageDecoder(NamespaceCache namespaceCache, NettyBsonDocumentReader docReader) {
+    this.namespaceCache = namespaceCache;
     this.docReader = docReader;
   }
 
@@ -57,7 +57,7 @@ public class InsertMessageDecoder extends AbstractMessageDecoder<InsertMessage>
       MyBsonContext context = new MyBsonContext(buffer);
 
       int flags = buffer.readInt();
-      String fullCollectionName = stringReader.readCString(buffer, true);
+      Namespace namespace = namespaceCache.readNamespace(buffer);
 
       ByteBuf docBuf = buffer.slice(buffer.readerIndex(), buffer.readableBytes());
       docBuf.retain();
@@ -67,12 +67,36 @@ public class InsertMessageDecoder extends AbstractMessageDecoder<InsertMessage>
       ByteBufIterableDocumentProvider documents = new ByteBufIterableDocumentProvider(docBuf,
           docReader);
 
-      //TODO: improve the way database and cache are pooled
       return new InsertMessage(
           requestBaseMessage,
           context,
-          getDatabase(fullCollectionName).intern(),
-          getCollection(fullCollectionName).intern(),
+          namespace,
+          EnumInt32FlagsUtil.isActive(Flag.CONTINUE_ON_ERROR, flags),
+          documents
+      );
+    } catch (NettyBsonReaderException ex) {
+      throw new InvalidBsonException(ex);
+    }
+  }
+
+  /**
+   * Decodes a message whose documents are received after it is decoded.
+   *
+   * @param prefix    the part of the message between the header and the first document
+   * @param documents the provider where the documents will be added, which is also the context of
+   *                  the message
+   */
+  public InsertMessage decodeStreaming(ByteBuf prefix, RequestBaseMessage requestBaseMessage,
+      StreamingDocumentProvider documents) throws InvalidNamespaceException,
+      InvalidBsonException {
+    try {
+      int flags = prefix.readInt();
+      Namespace namespace = namespaceCache.readNamespace(prefix);
+
+      return new InsertMessage(
+          requestBaseMessage,
+          documents,
+          namespace,
           EnumInt32FlagsUtil.isActive(Flag.CONTINUE_ON_ERROR, flags),
           documents
       );
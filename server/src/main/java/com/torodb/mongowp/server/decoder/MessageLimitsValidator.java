@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.decoder;
+
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.netty.annotations.ConservesIndexes;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
+import com.torodb.mongowp.exceptions.BadValueException;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Checks the limits configured on {@link MongoServerConfig} on the raw bytes of a request, before
+ * it is decoded.
+ *
+ * <p>Only the size of the documents and the number of documents of the write batches are checked
+ * here, as the size of the message is checked by the frame decoder. Malformed messages are not
+ * reported by this class, as their decoders will reject them.
+ */
+@ThreadSafe
+@Singleton
+public class MessageLimitsValidator {
+
+  private static final int MIN_DOCUMENT_BYTES = 5;
+  private static final byte BODY_SECTION_KIND = 0;
+  private static final byte DOCUMENT_SEQUENCE_SECTION_KIND = 1;
+  private static final int CHECKSUM_PRESENT_FLAG = 1;
+
+  private final int maxMessageSizeBytes;
+  private final int maxBsonObjectSize;
+  private final int maxWriteBatchSize;
+
+  @Inject
+  public MessageLimitsValidator(MongoServerConfig config) {
+    this.maxMessageSizeBytes = config.getMaxMessageSizeBytes();
+    this.maxBsonObjectSize = config.getMaxBsonObjectSize();
+    this.maxWriteBatchSize = config.getMaxWriteBatchSize();
+  }
+
+  public int getMaxMessageSizeBytes() {
+    return maxMessageSizeBytes;
+  }
+
+  public int getMaxBsonObjectSize() {
+    return maxBsonObjectSize;
+  }
+
+  public int getMaxWriteBatchSize() {
+    return maxWriteBatchSize;
+  }
+
+  /**
+   * Checks the body of a message.
+   *
+   * @param opCode the operation of the message
+   * @param body   the bytes of the message that follow the header
+   * @return the number of documents found on the message, which is 0 for messages other than
+   *         OP_INSERT and OP_MSG
+   */
+  public int validate(RequestOpCode opCode, @Tight @ConservesIndexes ByteBuf body)
+      throws BadValueException {
+    switch (opCode) {
+      case OP_INSERT: {
+        int namespaceEnd = body.indexOf(body.readerIndex() + 4, body.writerIndex(), (byte) 0);
+        if (namespaceEnd >= 0) {
+          return validateDocuments(body, namespaceEnd + 1, body.writerIndex());
+        }
+        return 0;
+      }
+      case OP_MSG:
+        return validateSections(body);
+      default:
+        return 0;
+    }
+  }
+
+  private int validateSections(ByteBuf body) throws BadValueException {
+    int documents = 0;
+    int end = body.writerIndex();
+    if ((body.getInt(body.readerIndex()) & CHECKSUM_PRESENT_FLAG) != 0) {
+      end -= 4;
+    }
+    int index = body.readerIndex() + 4;
+    while (index + 1 + 4 <= end) {
+      byte kind = body.getByte(index);
+      int size = body.getInt(index + 1);
+      if (size <= 0) {
+        return documents;
+      }
+      //compared this way, as index + 1 + size may overflow
+      boolean lastSection = size >= end - index - 1;
+      if (kind == BODY_SECTION_KIND) {
+        documents++;
+        if (size > maxBsonObjectSize + MongoConstants.BSON_OBJECT_INTERNAL_OVERHEAD_BYTES) {
+          throw new BadValueException("Command is too large. Size in bytes: " + size
+              + ", max size: " + maxBsonObjectSize);
+        }
+      } else if (kind == DOCUMENT_SEQUENCE_SECTION_KIND) {
+        int sequenceEnd = lastSection ? end : index + 1 + size;
+        int identifierEnd = body.indexOf(index + 1 + 4, sequenceEnd, (byte) 0);
+        if (identifierEnd < 0) {
+          return documents;
+        }
+        documents += validateDocuments(body, identifierEnd + 1, sequenceEnd);
+      } else {
+        return documents;
+      }
+      if (lastSection) {
+        return documents;
+      }
+      index += 1 + size;
+    }
+    return documents;
+  }
+
+  private int validateDocuments(ByteBuf buf, int from, int to) throws BadValueException {
+    int count = 0;
+    int index = from;
+    while (index + 4 <= to) {
+      int size = buf.getInt(index);
+      if (size < MIN_DOCUMENT_BYTES) {
+        return count;
+      }
+      checkDocumentSize(size);
+      count++;
+      checkBatchSize(count);
+      if (size >= to - index) {
+        return count;
+      }
+      index += size;
+    }
+    return count;
+  }
+
+  /**
+   * @param size the size of a document that is going to be written
+   * @throws BadValueException if the document is bigger than the max size of a document
+   */
+  public void checkDocumentSize(int size) throws BadValueException {
+    if (size > maxBsonObjectSize) {
+      throw new BadValueException("Object to insert too large. Size in bytes: " + size
+          + ", max size: " + maxBsonObjectSize);
+    }
+  }
+
+  /**
+   * @param count the number of documents of a write batch
+   * @throws BadValueException if the batch contains more documents than allowed
+   */
+  public void checkBatchSize(int count) throws BadValueException {
+    if (count > maxWriteBatchSize) {
+      throw new BadValueException("Write batch sizes must be between 1 and " + maxWriteBatchSize
+          + ". Got at least " + count + " operations");
+    }
+  }
+}
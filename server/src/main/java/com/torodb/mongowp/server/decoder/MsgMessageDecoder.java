@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.decoder;
+
+import static com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType.OFFHEAP_VALUES;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.bson.netty.NettyStringReader;
+import com.torodb.mongowp.bson.utils.BsonDocumentReaderException;
+import com.torodb.mongowp.exceptions.FailedToParseException;
+import com.torodb.mongowp.exceptions.InvalidBsonException;
+import com.torodb.mongowp.exceptions.MongoException;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.util.ByteBufIterableDocumentProvider;
+import com.torodb.mongowp.server.util.EnumBitFlags;
+import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+
+import java.util.LinkedHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+/**
+ * Decodes OP_MSG messages.
+ *
+ * <p>The body is read with {@code OFFHEAP_VALUES} allocation and each document sequence is exposed
+ * as a {@link ByteBufIterableDocumentProvider} over a slice of the message buffer, so sequence
+ * documents are not read until they are consumed.
+ */
+@ThreadSafe
+public class MsgMessageDecoder extends AbstractMessageDecoder<MsgMessage> {
+
+  private static final byte BODY_SECTION_KIND = 0;
+  private static final byte DOCUMENT_SEQUENCE_SECTION_KIND = 1;
+  /**
+   * The bits that are reserved for required flags, as the client must not set a required flag the
+   * server does not understand.
+   */
+  private static final int REQUIRED_FLAGS_MASK = 0xFFFF;
+  private static final int KNOWN_FLAGS_MASK = EnumInt32FlagsUtil.getInt32AllFlagsMask(Flag.class);
+  private static final String DATABASE_FIELD = "$db";
+  private static final int CHECKSUM_CHUNK_BYTES = 8192;
+
+  private final NettyStringReader stringReader;
+  private final NettyBsonDocumentReader docReader;
+
+  @Inject
+  public MsgMessageDecoder(NettyStringReader stringReader, NettyBsonDocumentReader docReader) {
+    this.stringReader = stringReader;
+    this.docReader = docReader;
+  }
+
+  @Override
+  public MsgMessage decode(ByteBuf buffer, RequestBaseMessage requestBaseMessage)
+      throws MongoException {
+    try {
+      int flags = buffer.readInt();
+      if ((flags & REQUIRED_FLAGS_MASK & ~KNOWN_FLAGS_MASK) != 0) {
+        throw new FailedToParseException("Unrecognized required flags on OP_MSG: "
+            + Integer.toHexString(flags & REQUIRED_FLAGS_MASK & ~KNOWN_FLAGS_MASK));
+      }
+      int sectionsEnd = buffer.writerIndex();
+      if (EnumInt32FlagsUtil.isActive(Flag.CHECKSUM_PRESENT, flags)) {
+        sectionsEnd -= 4;
+        validateChecksum(buffer, sectionsEnd);
+      }
+
+      MyBsonContext context = new MyBsonContext(buffer);
+      try {
+        return decodeSections(buffer, requestBaseMessage, context, flags, sectionsEnd);
+      } catch (MongoException | RuntimeException ex) {
+        context.close();
+        throw ex;
+      }
+    } catch (BsonDocumentReaderException ex) {
+      throw new InvalidBsonException(ex);
+    }
+  }
+
+  /**
+   * Checks the CRC-32C checksum of a message, which is computed over the whole message, including
+   * its header. The header, without its length field, must precede the flags on the buffer, as it
+   * does on the frames received from the length field decoder.
+   *
+   * @param buffer        the message, whose reader index must be after the flags
+   * @param checksumIndex the index of the checksum on the buffer
+   */
+  private static void validateChecksum(ByteBuf buffer, int checksumIndex)
+      throws FailedToParseException {
+    int headerStart = buffer.readerIndex() - 4
+        - MongoConstants.MESSAGE_HEADER_WITHOUT_LENGTH_FIELD_BYTES;
+    if (checksumIndex < buffer.readerIndex() || headerStart < 0) {
+      throw new FailedToParseException("Invalid OP_MSG checksum");
+    }
+    Hasher hasher = Hashing.crc32c().newHasher();
+    hasher.putInt(buffer.writerIndex() - headerStart + MongoConstants.MESSAGE_LENGTH_FIELD_BYTES);
+    byte[] chunk = new byte[Math.min(CHECKSUM_CHUNK_BYTES, checksumIndex - headerStart)];
+    for (int index = headerStart; index < checksumIndex; index += chunk.length) {
+      int length = Math.min(chunk.length, checksumIndex - index);
+      buffer.getBytes(index, chunk, 0, length);
+      hasher.putBytes(chunk, 0, length);
+    }
+    if (hasher.hash().asInt() != buffer.getInt(checksumIndex)) {
+      throw new FailedToParseException("OP_MSG checksum mismatch");
+    }
+  }
+
+  /**
+   * Decodes a message whose last section is a document sequence that is received after the message
+   * is decoded.
+   *
+   * @param prefix    the part of the message between the header and the first document of the
+   *                  sequence, which must contain the flags, the body and the header of the
+   *                  sequence. The body is read from this buffer, so it must be released by the
+   *                  provider
+   * @param documents the provider where the documents of the sequence will be added, which is
+   *                  also the context of the message
+   * @see #getStreamingPrefixLength(ByteBuf, int, int)
+   */
+  public MsgMessage decodeStreaming(ByteBuf prefix, RequestBaseMessage requestBaseMessage,
+      StreamingDocumentProvider documents) throws MongoException {
+    try {
+      int flags = prefix.readInt();
+      if (prefix.readByte() != BODY_SECTION_KIND) {
+        throw new FailedToParseException("OP_MSG messages must have a body");
+      }
+      BsonDocument body = docReader.readDocument(OFFHEAP_VALUES, prefix);
+      if (prefix.readByte() != DOCUMENT_SEQUENCE_SECTION_KIND) {
+        throw new FailedToParseException("Invalid OP_MSG document sequence");
+      }
+      prefix.skipBytes(4); //the size of the section
+      String identifier = stringReader.readCString(prefix, true);
+
+      LinkedHashMap<String, IterableDocumentProvider<?>> sequences = new LinkedHashMap<>();
+      sequences.put(identifier, documents);
+      return new MsgMessage(
+          requestBaseMessage,
+          documents,
+          getDatabase(body),
+          false,
+          EnumInt32FlagsUtil.isActive(Flag.MORE_TO_COME, flags),
+          EnumInt32FlagsUtil.isActive(Flag.EXHAUST_ALLOWED, flags),
+          body,
+          sequences
+      );
+    } catch (BsonDocumentReaderException ex) {
+      throw new InvalidBsonException(ex);
+    }
+  }
+
+  /**
+   * Returns the number of bytes between the header and the first document of the last document
+   * sequence of a message, looking at the bytes of the message that have already been received.
+   *
+   * <p>Only messages without checksum whose sections are a body followed by a single document
+   * sequence can be streamed.
+   *
+   * @param buffer        the received bytes
+   * @param messageStart  the index of the first byte of the message header on the buffer
+   * @param messageLength the length of the whole message
+   * @return the prefix length, 0 if the message cannot be streamed or -1 if more bytes must be
+   *         received to know it
+   */
+  public static int getStreamingPrefixLength(ByteBuf buffer, int messageStart,
+      int messageLength) {
+    int bodyIndex = messageStart + MongoConstants.MESSAGE_HEADER_BYTES + 4;
+    if (buffer.writerIndex() < bodyIndex + 1 + 4) {
+      return -1;
+    }
+    int flags = buffer.getInt(bodyIndex - 4);
+    if ((flags & ~KNOWN_FLAGS_MASK) != 0 || EnumInt32FlagsUtil.isActive(Flag.CHECKSUM_PRESENT,
+        flags) || buffer.getByte(bodyIndex) != BODY_SECTION_KIND) {
+      return 0;
+    }
+    int sequenceIndex = bodyIndex + 1 + buffer.getInt(bodyIndex + 1);
+    int messageEnd = messageStart + messageLength;
+    if (sequenceIndex + 1 + 4 >= messageEnd) {
+      return 0;
+    }
+    if (buffer.writerIndex() < sequenceIndex + 1 + 4) {
+      return -1;
+    }
+    if (buffer.getByte(sequenceIndex) != DOCUMENT_SEQUENCE_SECTION_KIND
+        || sequenceIndex + 1 + buffer.getInt(sequenceIndex + 1) != messageEnd) {
+      return 0;
+    }
+    int identifierEnd = buffer.indexOf(sequenceIndex + 1 + 4,
+        Math.min(buffer.writerIndex(), messageEnd), (byte) 0);
+    if (identifierEnd < 0) {
+      return buffer.writerIndex() < messageEnd ? -1 : 0;
+    }
+    return identifierEnd + 1 - (messageStart + MongoConstants.MESSAGE_HEADER_BYTES);
+  }
+
+  @SuppressFBWarnings(value = {"RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT"},
+      justification = "Findbugs thinks ByteBuf#readerIndex(...) has no"
+      + "side effect")
+  private MsgMessage decodeSections(ByteBuf buffer, RequestBaseMessage requestBaseMessage,
+      MyBsonContext context, int flags, int sectionsEnd) throws MongoException,
+      BsonDocumentReaderException {
+    BsonDocument body = null;
+    LinkedHashMap<String, IterableDocumentProvider<?>> sequences = new LinkedHashMap<>();
+    while (buffer.readerIndex() < sectionsEnd) {
+      byte kind = buffer.readByte();
+      switch (kind) {
+        case BODY_SECTION_KIND: {
+          if (body != null) {
+            throw new FailedToParseException("Multiple body sections in OP_MSG");
+          }
+          body = docReader.readDocument(OFFHEAP_VALUES, buffer);
+          break;
+        }
+        case DOCUMENT_SEQUENCE_SECTION_KIND: {
+          int sectionEnd = buffer.readerIndex() + buffer.readInt();
+          if (sectionEnd > sectionsEnd) {
+            throw new FailedToParseException("Invalid OP_MSG document sequence size");
+          }
+          String identifier = stringReader.readCString(buffer, true);
+          if (sequences.containsKey(identifier)) {
+            throw new FailedToParseException("Duplicated document sequence " + identifier);
+          }
+          ByteBuf docsBuf = buffer.slice(buffer.readerIndex(), sectionEnd - buffer.readerIndex());
+          buffer.readerIndex(sectionEnd);
+
+          sequences.put(identifier, new ByteBufIterableDocumentProvider(docsBuf, docReader));
+          break;
+        }
+        default:
+          throw new FailedToParseException("Unknown OP_MSG section kind " + kind);
+      }
+    }
+    if (body == null) {
+      throw new FailedToParseException("OP_MSG messages must have a body");
+    }
+    buffer.readerIndex(buffer.writerIndex());
+
+    return new MsgMessage(
+        requestBaseMessage,
+        context,
+        getDatabase(body),
+        EnumInt32FlagsUtil.isActive(Flag.CHECKSUM_PRESENT, flags),
+        EnumInt32FlagsUtil.isActive(Flag.MORE_TO_COME, flags),
+        EnumInt32FlagsUtil.isActive(Flag.EXHAUST_ALLOWED, flags),
+        body,
+        sequences
+    );
+  }
+
+  private String getDatabase(BsonDocument body) throws FailedToParseException {
+    BsonValue<?> db = body.get(DATABASE_FIELD);
+    if (db == null || !db.isString()) {
+      throw new FailedToParseException("OP_MSG requests require a " + DATABASE_FIELD
+          + " string argument");
+    }
+    return db.asString().getValue();
+  }
+
+  private enum Flag implements EnumBitFlags {
+    CHECKSUM_PRESENT(0),
+    MORE_TO_COME(1),
+    EXHAUST_ALLOWED(16);
+
+    @Nonnegative
+    private final int flagBitPosition;
+
+    private Flag(@Nonnegative int flagBitPosition) {
+      this.flagBitPosition = flagBitPosition;
+    }
+
+    @Override
+    public int getFlagBitPosition() {
+      return flagBitPosition;
+    }
+  }
+}
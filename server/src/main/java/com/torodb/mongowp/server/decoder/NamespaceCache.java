@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.decoder;
+
+import com.google.common.base.Preconditions;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
+import com.torodb.mongowp.bson.netty.annotations.Loose;
+import com.torodb.mongowp.bson.netty.annotations.ModifiesIndexes;
+import com.torodb.mongowp.exceptions.InvalidNamespaceException;
+import com.torodb.mongowp.messages.utils.Namespace;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Resolves the full collection names of legacy requests to {@link Namespace namespaces}.
+ *
+ * <p>Entries are keyed by the raw bytes of the name, so a cached namespace is returned by hashing
+ * and comparing the bytes on the buffer, without decoding, splitting or interning any string. The
+ * table never grows: a lookup probes {@link #MAX_PROBES} slots and, when all of them are used, a
+ * miss replaces the entry on the first probed slot. Invalid names are never cached.
+ *
+ * <p>The table is not synchronized. Entries are immutable, so a thread can only see a complete
+ * entry or an older one, and a lost update just means a future miss.
+ */
+@ThreadSafe
+@Singleton
+public class NamespaceCache {
+
+  private static final byte CSTRING_BYTE_TERMINATION = 0x00;
+  private static final int MAX_PROBES = 4;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final CacheEntry[] table;
+  private final int mask;
+
+  @Inject
+  public NamespaceCache(MongoServerConfig config) {
+    this(config.getNamespaceCacheSize());
+  }
+
+  public NamespaceCache(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "The capacity must be positive");
+    //bigger capacities would overflow the size of the table
+    Preconditions.checkArgument(capacity <= MAX_CAPACITY, "The capacity must not exceed %s",
+        MAX_CAPACITY);
+    int tableSize = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+    this.table = new CacheEntry[tableSize];
+    this.mask = tableSize - 1;
+  }
+
+  /**
+   * Reads a full collection name stored as a cstring, advancing the reader index of the buffer to
+   * the byte that follows it.
+   *
+   * @throws NettyBsonReaderException  if there is no cstring on the buffer
+   * @throws InvalidNamespaceException if the name has no database or no collection
+   */
+  @SuppressFBWarnings(value = {"RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT"},
+      justification = "Findbugs thinks ByteBuf#readerIndex(...) has no side effect")
+  public Namespace readNamespace(@Loose @ModifiesIndexes ByteBuf buffer)
+      throws NettyBsonReaderException, InvalidNamespaceException {
+    int start = buffer.readerIndex();
+    int end = buffer.writerIndex();
+    int hash = 1;
+    int index = start;
+    for (; index < end; index++) {
+      byte b = buffer.getByte(index);
+      if (b == CSTRING_BYTE_TERMINATION) {
+        break;
+      }
+      hash = 31 * hash + b;
+    }
+    if (index == end) {
+      throw new NettyBsonReaderException("A cstring was expected but no 0x00 byte was found");
+    }
+    int length = index - start;
+    hash ^= hash >>> 16;
+
+    int home = hash & mask;
+    int freeSlot = -1;
+    for (int i = 0; i < MAX_PROBES; i++) {
+      int slot = (home + i) & mask;
+      CacheEntry entry = table[slot];
+      if (entry == null) {
+        freeSlot = slot;
+        break;
+      }
+      if (entry.hash == hash && entry.matches(buffer, start, length)) {
+        buffer.readerIndex(index + 1);
+        return entry.namespace;
+      }
+    }
+
+    byte[] key = new byte[length];
+    buffer.getBytes(start, key);
+    Namespace namespace = Namespace.parse(new String(key, StandardCharsets.UTF_8));
+    buffer.readerIndex(index + 1);
+
+    table[freeSlot >= 0 ? freeSlot : home] = new CacheEntry(hash, key, namespace);
+    return namespace;
+  }
+
+  @Immutable
+  private static final class CacheEntry {
+
+    private final int hash;
+    private final byte[] key;
+    private final Namespace namespace;
+
+    private CacheEntry(int hash, byte[] key, Namespace namespace) {
+      this.hash = hash;
+      this.key = key;
+      this.namespace = namespace;
+    }
+
+    private boolean matches(ByteBuf buffer, int start, int length) {
+      if (key.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (key[i] != buffer.getByte(start + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -35,7 +35,6 @@ import com.torodb.mongowp.bson.BsonValue;
 import com.torodb.mongowp.bson.impl.PrimitiveBsonDouble;
 import com.torodb.mongowp.bson.impl.SingleEntryBsonDocument;
 import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
-import com.torodb.mongowp.bson.netty.NettyStringReader;
 import com.torodb.mongowp.bson.netty.annotations.Loose;
 import com.torodb.mongowp.bson.netty.annotations.ModifiesIndexes;
 import com.torodb.mongowp.bson.utils.BsonDocumentReaderException;
@@ -48,6 +47,7 @@ import com.torodb.mongowp.messages.request.QueryMessage.ExplainOption;
 import com.torodb.mongowp.messages.request.QueryMessage.QueryOption;
 import com.torodb.mongowp.messages.request.QueryMessage.QueryOptions;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.utils.Namespace;
 import com.torodb.mongowp.server.util.EnumBitFlags;
 import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
 import io.netty.buffer.ByteBuf;
@@ -71,12 +71,12 @@ public class QueryMessageDecoder extends AbstractMessageDecoder<QueryMessage> {
 
   private static final Logger LOGGER = LogManager.getLogger(QueryMessageDecoder.class);
 
-  private final NettyStringReader stringReader;
+  private final NamespaceCache namespaceCache;
   private final NettyBsonDocumentReader docReader;
 
   @Inject
-  public QueryMessageDecoder(NettyStringReader stringReader, NettyBsonDocumentReader docReader) {
-    this.stringReader = stringReader;
+  public QueryMessageDecoder(NamespaceCache namespaceCache, NettyBsonDocumentReader docReader) {
+    this.namespaceCache = namespaceCache;
     this.docReader = docReader;
   }
 
@@ -88,16 +88,14 @@ public class QueryMessageDecoder extends AbstractMessageDecoder<QueryMessage> {
       MyBsonContext bsonContext = new MyBsonContext(buffer);
 
       int flags = buffer.readInt();
-      String fullCollectionName = stringReader.readCString(buffer, true);
+      Namespace namespace = namespaceCache.readNamespace(buffer);
       final int numberToSkip = buffer.readInt();
       final int numberToReturn = buffer.readInt();
 
-      //TODO: improve the way database and cache are pooled
       QueryMessage.Builder queryBuilder = new Builder(
           requestBaseMessage,
           bsonContext,
-          getDatabase(fullCollectionName).intern(),
-          getCollection(fullCollectionName).intern(),
+          namespace,
           getQueryOptions(flags)
       );
 
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.decoder;
+
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.UnmodifiableIterator;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
+import com.torodb.mongowp.bson.netty.NettyBsonReaderRuntimeException;
+import com.torodb.mongowp.bson.netty.annotations.Retains;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.messages.request.BsonContext;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link IterableDocumentProvider} whose documents are added by the event loop while they are
+ * received and consumed by the thread that executes the request.
+ *
+ * <p>It is also the {@link BsonContext} of the message, so closing it releases the documents that
+ * have not been consumed yet. The documents can only be iterated once. Documents read with
+ * {@link AllocationType#HEAP} do not depend on this provider, but any other document is only valid
+ * until the next one is requested, so the memory used by a connection is bounded by the window
+ * instead of by the size of the message.
+ */
+@ThreadSafe
+public final class StreamingDocumentProvider extends IterableDocumentProvider<BsonDocument>
+    implements BsonContext {
+
+  private final NettyBsonDocumentReader reader;
+  private final int windowBytes;
+  private final Runnable resumeReading;
+  @Nullable
+  private final ByteBuf prefix;
+  @Nullable
+  private final EventExecutor producer;
+
+  @GuardedBy("this")
+  private final ArrayDeque<ByteBuf> pending = new ArrayDeque<>();
+  @GuardedBy("this")
+  private int pendingBytes;
+  @GuardedBy("this")
+  private boolean paused;
+  @GuardedBy("this")
+  private boolean finished;
+  @GuardedBy("this")
+  @Nullable
+  private Throwable failure;
+  @GuardedBy("this")
+  private boolean closed;
+  @GuardedBy("this")
+  private boolean iterated;
+  @GuardedBy("this")
+  @Nullable
+  private ByteBuf current;
+
+  /**
+   * @param reader        the reader used to read the documents
+   * @param windowBytes   the number of pending bytes at which the producer is told to pause
+   * @param resumeReading the action that is executed when a paused producer can continue
+   * @param prefix        a buffer that contains the part of the message that was received before
+   *                      the documents (and other documents of the message may reference), which
+   *                      is released when this context is closed
+   */
+  public StreamingDocumentProvider(NettyBsonDocumentReader reader, int windowBytes,
+      Runnable resumeReading, @Nullable @Retains ByteBuf prefix) {
+    this(reader, windowBytes, resumeReading, prefix, null);
+  }
+
+  /**
+   * @param producer the event loop that adds the documents. Consumers that run on it fail instead
+   *                 of waiting for documents it would never add
+   * @see #StreamingDocumentProvider(NettyBsonDocumentReader, int, Runnable, ByteBuf)
+   */
+  public StreamingDocumentProvider(NettyBsonDocumentReader reader, int windowBytes,
+      Runnable resumeReading, @Nullable @Retains ByteBuf prefix,
+      @Nullable EventExecutor producer) {
+    this.reader = reader;
+    this.windowBytes = windowBytes;
+    this.resumeReading = resumeReading;
+    this.prefix = prefix;
+    this.producer = producer;
+  }
+
+  /**
+   * Adds a received document.
+   *
+   * @param doc a buffer that only contains the document. Its ownership is transferred to this
+   *            provider
+   * @return false iff the producer should stop reading until the resume action is executed
+   */
+  public synchronized boolean offer(@Retains ByteBuf doc) {
+    if (closed) {
+      doc.release();
+      return true;
+    }
+    pending.add(doc);
+    pendingBytes += doc.readableBytes();
+    notifyAll();
+    if (pendingBytes >= windowBytes) {
+      paused = true;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Notifies that all the documents have been received.
+   */
+  public synchronized void finish() {
+    finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Notifies that the documents that have not been received yet will never be received, so the
+   * consumer fails with the given cause once it consumes the received ones.
+   */
+  public synchronized void fail(Throwable cause) {
+    if (!finished) {
+      failure = cause;
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public synchronized FluentIterable<BsonDocument> getIterable(AllocationType algorithm) {
+    if (iterated) {
+      throw new IllegalStateException("Streamed documents can only be iterated once");
+    }
+    iterated = true;
+    return new FluentIterable<BsonDocument>() {
+      @Override
+      public Iterator<BsonDocument> iterator() {
+        return new StreamingIterator(algorithm);
+      }
+    };
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  @Override
+  public synchronized boolean isValid() {
+    return !closed;
+  }
+
+  @Override
+  public void close() {
+    boolean resume;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      releaseCurrent();
+      for (ByteBuf doc : pending) {
+        doc.release();
+      }
+      pending.clear();
+      pendingBytes = 0;
+      if (prefix != null) {
+        prefix.release();
+      }
+      resume = paused;
+      paused = false;
+      notifyAll();
+    }
+    if (resume) {
+      //the rest of the message has to be read (and discarded) anyway
+      resumeReading.run();
+    }
+  }
+
+  @GuardedBy("this")
+  private void releaseCurrent() {
+    if (current != null) {
+      current.release();
+      current = null;
+    }
+  }
+
+  @GuardedBy("this")
+  private void waitForDocument() {
+    while (pending.isEmpty() && !finished && !closed) {
+      if (producer != null && producer.inEventLoop()) {
+        throw new IllegalStateException("Streamed documents cannot be waited for on the event "
+            + "loop that receives them");
+      }
+      try {
+        wait();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for streamed documents", ex);
+      }
+    }
+    if (closed) {
+      throw new IllegalStateException("The context of the streamed documents is closed");
+    }
+  }
+
+  @Nullable
+  private synchronized ByteBuf takeDocument(boolean keep) {
+    releaseCurrent();
+    waitForDocument();
+    ByteBuf doc = pending.poll();
+    if (doc == null) {
+      assert finished;
+      if (failure != null) {
+        throw new IllegalStateException("The message was not completely received", failure);
+      }
+      return null;
+    }
+    pendingBytes -= doc.readableBytes();
+    if (keep) {
+      current = doc;
+    }
+    if (paused && pendingBytes <= windowBytes / 2) {
+      paused = false;
+      resumeReading.run();
+    }
+    return doc;
+  }
+
+  private synchronized boolean hasPending() {
+    waitForDocument();
+    if (!pending.isEmpty()) {
+      return true;
+    }
+    if (failure != null) {
+      throw new IllegalStateException("The message was not completely received", failure);
+    }
+    return false;
+  }
+
+  private class StreamingIterator extends UnmodifiableIterator<BsonDocument> {
+
+    private final AllocationType allocationType;
+
+    StreamingIterator(AllocationType allocationType) {
+      this.allocationType = allocationType;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return hasPending();
+    }
+
+    @Override
+    public BsonDocument next() {
+      boolean onHeap = allocationType == AllocationType.HEAP;
+      ByteBuf doc = takeDocument(!onHeap);
+      if (doc == null) {
+        throw new NoSuchElementException();
+      }
+      try {
+        return reader.readDocument(allocationType, doc);
+      } catch (NettyBsonReaderException ex) {
+        throw new NettyBsonReaderRuntimeException(ex);
+      } finally {
+        if (onHeap) {
+          doc.release();
+        }
+      }
+    }
+  }
+}
@@ -20,12 +20,12 @@ import static com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType.HE
 import com.torodb.mongowp.bson.BsonDocument;
 import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
 import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
-import com.torodb.mongowp.bson.netty.NettyStringReader;
 import com.torodb.mongowp.exceptions.InvalidBsonException;
 import com.torodb.mongowp.exceptions.InvalidNamespaceException;
 import com.torodb.mongowp.messages.request.EmptyBsonContext;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
 import com.torodb.mongowp.messages.request.UpdateMessage;
+import com.torodb.mongowp.messages.utils.Namespace;
 import com.torodb.mongowp.server.util.EnumBitFlags;
 import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
 import io.netty.buffer.ByteBuf;
@@ -40,12 +40,12 @@ import javax.inject.Inject;
 @ThreadSafe
 public class UpdateMessageDecoder extends AbstractMessageDecoder<UpdateMessage> {
 
-  private final NettyStringReader stringReader;
+  private final NamespaceCache namespaceCache;
   private final NettyBsonDocumentReader docReader;
 
   @Inject
-  public UpdateMessageDecoder(NettyStringReader stringReader, NettyBsonDocumentReader docReader) {
-    this.stringReader = stringReader;
+  public UpdateMessageDecoder(NamespaceCache namespaceCache, NettyBsonDocumentReader docReader) {
+    this.namespaceCache = namespaceCache;
     this.docReader = docReader;
   }
 
@@ -54,17 +54,15 @@ public class UpdateMessageDecoder extends AbstractMessageDecoder<UpdateMessage>
       InvalidNamespaceException, InvalidBsonException {
     try {
       buffer.skipBytes(4);
-      String fullCollectionName = stringReader.readCString(buffer, true);
+      Namespace namespace = namespaceCache.readNamespace(buffer);
       int flags = buffer.readInt();
       BsonDocument selector = docReader.readDocument(HEAP, buffer);
       BsonDocument update = docReader.readDocument(HEAP, buffer);
 
-      //TODO: improve the way database and cache are pooled
       return new UpdateMessage(
           requestBaseMessage,
           EmptyBsonContext.getInstance(),
-          getDatabase(fullCollectionName).intern(),
-          getCollection(fullCollectionName).intern(),
+          namespace,
           selector,
           update,
           EnumInt32FlagsUtil.isActive(Flag.UPSERT, flags),
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.encoder;
+
+import com.google.common.base.Charsets;
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
+import com.torodb.mongowp.messages.response.ResponseOpCode;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.util.EnumBitFlags;
+import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+/**
+ *
+ */
+@SuppressFBWarnings(
+    value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT",
+    justification = "It seems FindBugs considers ByteBuf methods are not side effect")
+@ThreadSafe
+public class MsgReplyMessageEncoder {
+
+  private static final byte BODY_SECTION_KIND = 0;
+  private static final byte DOCUMENT_SEQUENCE_SECTION_KIND = 1;
+
+  private final NettyBsonDocumentWriter writer;
+
+  @Inject
+  public MsgReplyMessageEncoder(NettyBsonDocumentWriter writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Writes the whole message, including its length field, which is set once the message is
+   * written.
+   */
+  public void encode(ByteBuf buffer, MsgReplyMessage message, int requestId) {
+    int messageStart = buffer.writerIndex();
+    buffer.writeInt(0);
+    encodeMessageHeader(buffer, message, requestId);
+    encodeMessageBody(buffer, message);
+    buffer.setInt(messageStart, buffer.writerIndex() - messageStart);
+  }
+
+  /**
+   * @return the number of bytes the given message will use once encoded, or -1 if it cannot be
+   *         known without serializing it
+   */
+  public int estimateSize(MsgReplyMessage message) {
+    int bodySize = writer.getSerializedSizeHint(message.getBody());
+    if (bodySize < 0) {
+      return -1;
+    }
+    //header, flags and body section
+    int size = MongoConstants.MESSAGE_HEADER_BYTES + 4 + 1 + bodySize;
+    for (Map.Entry<String, IterableDocumentProvider<? extends BsonDocument>> sequence
+        : message.getDocumentSequences().entrySet()) {
+      int docsSize = sequence.getValue().getSerializedSizeHint();
+      if (docsSize < 0) {
+        return -1;
+      }
+      //kind, size, identifier and documents
+      size += 1 + 4 + sequence.getKey().length() + 1 + docsSize;
+    }
+    return size;
+  }
+
+  public void encodeMessageHeader(ByteBuf buffer, MsgReplyMessage message, int requestId) {
+    buffer.writeInt(requestId);
+    buffer.writeInt(message.getResponseTo());
+    buffer.writeInt(ResponseOpCode.OP_MSG.getOpCode());
+  }
+
+  public void encodeMessageBody(ByteBuf buffer, MsgReplyMessage message) {
+    buffer.writeInt(EnumInt32FlagsUtil.getInt32Flags(extractFlags(message)));
+
+    buffer.writeByte(BODY_SECTION_KIND);
+    writer.writeInto(buffer, message.getBody());
+
+    for (Map.Entry<String, IterableDocumentProvider<? extends BsonDocument>> sequence
+        : message.getDocumentSequences().entrySet()) {
+      buffer.writeByte(DOCUMENT_SEQUENCE_SECTION_KIND);
+      int sizeIndex = buffer.writerIndex();
+      buffer.writeInt(0);
+      buffer.writeBytes(sequence.getKey().getBytes(Charsets.UTF_8));
+      buffer.writeByte(0x00);
+      for (BsonDocument document : sequence.getValue().getIterable(AllocationType.HEAP)) {
+        writer.writeInto(buffer, document);
+      }
+      buffer.setInt(sizeIndex, buffer.writerIndex() - sizeIndex);
+    }
+  }
+
+  private EnumSet<Flag> extractFlags(MsgReplyMessage message) {
+    EnumSet<Flag> flags = EnumSet.noneOf(Flag.class);
+    if (message.isMoreToCome()) {
+      flags.add(Flag.MORE_TO_COME);
+    }
+    return flags;
+  }
+
+  private enum Flag implements EnumBitFlags {
+    MORE_TO_COME(1);
+
+    @Nonnegative
+    private final int flagBitPosition;
+
+    private Flag(@Nonnegative int flagBitPosition) {
+      this.flagBitPosition = flagBitPosition;
+    }
+
+    @Override
+    public int getFlagBitPosition() {
+      return flagBitPosition;
+    }
+  }
+}
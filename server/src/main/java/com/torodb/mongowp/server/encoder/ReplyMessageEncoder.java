@@ -15,18 +15,33 @@
  */
 package com.torodb.mongowp.server.encoder;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Lists;
+import com.torodb.mongowp.MongoConstants;
 import com.torodb.mongowp.bson.BsonDocument;
 import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.netty.annotations.Tight;
 import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import com.torodb.mongowp.messages.response.ReplyMessage;
 import com.torodb.mongowp.messages.response.ResponseOpCode;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.util.ByteBufIterableDocumentProvider;
 import com.torodb.mongowp.server.util.EnumBitFlags;
 import com.torodb.mongowp.server.util.EnumInt32FlagsUtil;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.concurrent.ThreadSafe;
@@ -48,6 +63,173 @@ public class ReplyMessageEncoder {
     this.writer = writer;
   }
 
+  /**
+   * The bytes between the header and the documents: flags, cursor id, starting from and number
+   * returned.
+   */
+  private static final int REPLY_FIELDS_BYTES = 4 + 8 + 4 + 4;
+  private static final int MIN_DOCUMENT_BYTES = 5;
+
+  /**
+   * Writes the whole message, including its length field.
+   *
+   * <p>Documents are iterated once and the length and the number of returned documents are set
+   * once all of them have been written.
+   */
+  public void encode(ByteBuf buffer, ReplyMessage message, int requestId) {
+    int messageStart = buffer.writerIndex();
+    buffer.writeInt(0); //the length is set once the message is written
+    encodeMessageHeader(buffer, message, requestId);
+    encodeMessageBody(buffer, message);
+    buffer.setInt(messageStart, buffer.writerIndex() - messageStart);
+  }
+
+  /**
+   * Writes the whole message, referencing the buffers that back its documents instead of copying
+   * them.
+   *
+   * <p>The returned buffer is a {@link CompositeByteBuf} made of slices of an internal buffer,
+   * where the header and the documents that are not buffer backed are written, and retained slices
+   * of the buffers that contain the buffer backed documents. Runs of contiguous bytes shorter than
+   * {@code minSliceBytes} are copied, as referencing them costs more than copying them. If nothing
+   * is referenced, the internal buffer is returned.
+   *
+   * <p>Each slice holds a reference to its source buffer, so the message (and its
+   * {@link com.torodb.mongowp.messages.request.BsonContext}) can be closed as soon as this method
+   * returns. The references are released when the returned buffer is released.
+   */
+  public ByteBuf encodeZeroCopy(ByteBufAllocator alloc, ReplyMessage message, int requestId,
+      int minSliceBytes) {
+    CompositeReplyBuilder builder = new CompositeReplyBuilder(alloc);
+    try {
+      ByteBuf out = builder.getOut();
+      int messageStart = out.writerIndex();
+      out.writeInt(0); //the length is set once the message is written
+      encodeMessageHeader(out, message, requestId);
+
+      out.writeInt(EnumInt32FlagsUtil.getInt32Flags(extractFlags(message)));
+      out.writeLong(message.getCursorId());
+      out.writeInt(message.getStartingFrom());
+      int numberReturnedIndex = out.writerIndex();
+      out.writeInt(0); //the number of documents is set once they are written
+
+      int numberReturned;
+      IterableDocumentProvider<? extends BsonDocument> docs = message.getDocuments();
+      if (docs instanceof ByteBufIterableDocumentProvider) {
+        ByteBuf raw = ((ByteBufIterableDocumentProvider) docs).getByteBuf()
+            .order(ByteOrder.LITTLE_ENDIAN);
+        numberReturned = countDocuments(raw);
+        builder.writeRaw(raw, minSliceBytes);
+      } else {
+        numberReturned = 0;
+        for (BsonDocument document : docs.getIterable(AllocationType.OFFHEAP)) {
+          ByteBuf content = writer.getRawContent(document);
+          if (content != null) {
+            out.writeInt(content.readableBytes() + 4);
+            builder.writeRaw(content, minSliceBytes);
+          } else {
+            writer.writeInto(out, document);
+          }
+          numberReturned++;
+        }
+      }
+      out.setInt(numberReturnedIndex, numberReturned);
+      out.setInt(messageStart, builder.getLength());
+      return builder.build();
+    } catch (RuntimeException ex) {
+      builder.discard();
+      throw ex;
+    }
+  }
+
+  /**
+   * Encodes the whole message on the given executor, splitting its documents into chunks of
+   * {@code chunkDocuments} documents that are serialized concurrently.
+   *
+   * <p>Each chunk is written into its own buffer and, once all of them are ready, they are
+   * assembled in order after the header into a {@link CompositeByteBuf}. The given documents must
+   * be the ones returned by the message provider and must remain readable until the returned
+   * future is completed.
+   *
+   * @return a future completed with the whole message, including its length field
+   */
+  public CompletableFuture<ByteBuf> encodeInParallel(ByteBufAllocator alloc, ReplyMessage message,
+      int requestId, List<? extends BsonDocument> docs, int chunkDocuments, Executor executor) {
+    List<? extends List<? extends BsonDocument>> chunks = Lists.partition(docs, chunkDocuments);
+    List<CompletableFuture<ByteBuf>> futures = new ArrayList<>(chunks.size());
+    for (List<? extends BsonDocument> chunk : chunks) {
+      futures.add(CompletableFuture.supplyAsync(() -> encodeChunk(alloc, chunk), executor));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+        .handle((ignored, ex) -> {
+          if (ex != null) {
+            for (CompletableFuture<ByteBuf> future : futures) {
+              if (!future.isCompletedExceptionally()) {
+                future.join().release();
+              }
+            }
+            throw new CompletionException(ex);
+          }
+          CompositeByteBuf result = alloc.compositeBuffer(futures.size() + 1);
+          ByteBuf header = alloc.buffer(MongoConstants.MESSAGE_HEADER_BYTES + REPLY_FIELDS_BYTES);
+          ByteBuf out = header.order(ByteOrder.LITTLE_ENDIAN);
+          out.writeInt(0); //the length is set once the chunks are added
+          encodeMessageHeader(out, message, requestId);
+          out.writeInt(EnumInt32FlagsUtil.getInt32Flags(extractFlags(message)));
+          out.writeLong(message.getCursorId());
+          out.writeInt(message.getStartingFrom());
+          out.writeInt(docs.size());
+          result.addComponent(true, header);
+          for (CompletableFuture<ByteBuf> future : futures) {
+            result.addComponent(true, future.join());
+          }
+          out.setInt(0, result.readableBytes());
+          return result;
+        });
+  }
+
+  private ByteBuf encodeChunk(ByteBufAllocator alloc, List<? extends BsonDocument> chunk) {
+    ByteBuf buf = alloc.buffer();
+    try {
+      ByteBuf out = buf.order(ByteOrder.LITTLE_ENDIAN);
+      for (BsonDocument document : chunk) {
+        writer.writeInto(out, document);
+      }
+      return buf;
+    } catch (RuntimeException ex) {
+      buf.release();
+      throw ex;
+    }
+  }
+
+  private static int countDocuments(@Tight ByteBuf docs) {
+    int count = 0;
+    int index = docs.readerIndex();
+    int end = docs.writerIndex();
+    while (index < end) {
+      checkArgument(end - index >= 4, "Truncated document at index %s", index);
+      int length = docs.getInt(index);
+      //compared this way, as index + length may overflow
+      checkArgument(length >= MIN_DOCUMENT_BYTES && length <= end - index,
+          "Invalid document length %s at index %s", length, index);
+      index += length;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of bytes the given message will use once encoded, or -1 if it cannot be
+   *         known without iterating its documents
+   */
+  public int estimateSize(ReplyMessage message) {
+    int docsSize = message.getDocuments().getSerializedSizeHint();
+    if (docsSize < 0) {
+      return -1;
+    }
+    return MongoConstants.MESSAGE_HEADER_BYTES + REPLY_FIELDS_BYTES + docsSize;
+  }
+
   public void encodeMessageHeader(ByteBuf buffer, ReplyMessage message, int requestId) {
     buffer.writeInt(requestId);
     buffer.writeInt(message.getResponseTo());
@@ -61,11 +243,15 @@ public class ReplyMessageEncoder {
     buffer.writeInt(EnumInt32FlagsUtil.getInt32Flags(extractFlags(message)));
     buffer.writeLong(message.getCursorId());
     buffer.writeInt(message.getStartingFrom());
-    buffer.writeInt(docs.size());
+    int numberReturnedIndex = buffer.writerIndex();
+    buffer.writeInt(0); //the number of documents is set once they are written
 
+    int numberReturned = 0;
     for (BsonDocument document : docs) {
       writer.writeInto(buffer, document);
+      numberReturned++;
     }
+    buffer.setInt(numberReturnedIndex, numberReturned);
   }
 
   private EnumSet<Flag> extractFlags(ReplyMessage message) {
@@ -85,6 +271,77 @@ public class ReplyMessageEncoder {
     return flags;
   }
 
+  /**
+   * Builds a composite buffer from slices of a growing internal buffer and retained slices of
+   * external buffers.
+   */
+  private static class CompositeReplyBuilder {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ByteBufAllocator alloc;
+    private final ByteBuf internal;
+    private final ByteBuf out;
+    private CompositeByteBuf composite;
+    private int segmentStart;
+    private int externalLength;
+
+    CompositeReplyBuilder(ByteBufAllocator alloc) {
+      this.alloc = alloc;
+      this.internal = alloc.buffer(INITIAL_CAPACITY);
+      this.out = internal.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the little endian buffer where the bytes that are not referenced must be written
+     */
+    ByteBuf getOut() {
+      return out;
+    }
+
+    int getLength() {
+      return internal.writerIndex() + externalLength;
+    }
+
+    void writeRaw(@Tight ByteBuf raw, int minSliceBytes) {
+      if (raw.readableBytes() < minSliceBytes) {
+        internal.writeBytes(raw, raw.readerIndex(), raw.readableBytes());
+        return;
+      }
+      if (composite == null) {
+        composite = alloc.compositeBuffer(Integer.MAX_VALUE);
+      }
+      addInternalSegment();
+      composite.addComponent(true, raw.slice().retain());
+      externalLength += raw.readableBytes();
+    }
+
+    private void addInternalSegment() {
+      int segmentEnd = internal.writerIndex();
+      if (segmentEnd > segmentStart) {
+        composite.addComponent(true,
+            internal.slice(segmentStart, segmentEnd - segmentStart).retain());
+        segmentStart = segmentEnd;
+      }
+    }
+
+    ByteBuf build() {
+      if (composite == null) {
+        return internal;
+      }
+      addInternalSegment();
+      internal.release();
+      return composite;
+    }
+
+    void discard() {
+      if (composite != null) {
+        composite.release();
+      }
+      internal.release();
+    }
+  }
+
   private enum Flag implements EnumBitFlags {
     CURSOR_NOT_FOUND(0),
     QUERY_FAILURE(1),
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import javax.annotation.Nullable;
+
+/**
+ * The execution of a command, including the parsing of its argument and the marshalling of its
+ * result.
+ *
+ * @see WireEvents#beginCommandDispatch()
+ */
+@Name("com.torodb.mongowp.CommandDispatch")
+@Label("Command Dispatch")
+@Description("Execution of a command by the safe request processor")
+@Category({"MongoWP", "Commands"})
+@Threshold(WireEvents.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public class CommandDispatchEvent extends jdk.jfr.Event {
+
+  private static final String CURSOR_FIELD = "cursor";
+  private static final String FIRST_BATCH_FIELD = "firstBatch";
+
+  @Label("Command")
+  private String commandName;
+
+  @Label("Namespace")
+  private String namespace;
+
+  @Label("Ok")
+  private boolean ok;
+
+  @Label("Result Documents")
+  @Description("The documents of the first batch of the result cursor, 1 if there is no cursor or"
+      + " 0 if the command threw an exception")
+  private int resultDocuments;
+
+  CommandDispatchEvent() {
+  }
+
+  /**
+   * @param command  the command document, whose first value is the collection of most commands
+   * @param database the database the command was executed on
+   * @param ok       false if the command failed or threw an exception
+   * @param result   the marshalled result or null if the command threw an exception
+   */
+  public void finish(String commandName, BsonDocument command, String database, boolean ok,
+      @Nullable BsonDocument result) {
+    end();
+    if (shouldCommit()) {
+      this.commandName = commandName;
+      this.namespace = getNamespace(command, database);
+      this.ok = ok;
+      this.resultDocuments = result == null ? 0 : countResultDocuments(result);
+      commit();
+    }
+  }
+
+  private static String getNamespace(BsonDocument command, String database) {
+    if (!command.isEmpty()) {
+      BsonValue<?> first = command.getFirstEntry().getValue();
+      if (first.isString()) {
+        return database + '.' + first.asString().getValue();
+      }
+    }
+    return database + ".$cmd";
+  }
+
+  private static int countResultDocuments(BsonDocument result) {
+    BsonValue<?> cursor = result.get(CURSOR_FIELD);
+    if (cursor != null && cursor.isDocument()) {
+      BsonValue<?> firstBatch = cursor.asDocument().get(FIRST_BATCH_FIELD);
+      if (firstBatch != null && firstBatch.isArray()) {
+        return firstBatch.asArray().size();
+      }
+    }
+    return 1;
+  }
+}
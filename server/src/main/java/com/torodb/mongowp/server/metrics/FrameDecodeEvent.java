@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The decoding of a request frame into a request message.
+ *
+ * @see WireEvents#beginFrameDecode()
+ */
+@Name("com.torodb.mongowp.FrameDecode")
+@Label("Frame Decode")
+@Description("Decoding of a request frame into a request message")
+@Category({"MongoWP", "Wire Protocol"})
+@Threshold(WireEvents.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public class FrameDecodeEvent extends jdk.jfr.Event {
+
+  @Label("Op Code")
+  private String opCode;
+
+  @Label("Request Id")
+  private int requestId;
+
+  @Label("Bytes")
+  @DataAmount
+  private long bytes;
+
+  @Label("Documents")
+  private int documents;
+
+  FrameDecodeEvent() {
+  }
+
+  public void finish(RequestOpCode opCode, int requestId, long bytes, int documents) {
+    end();
+    if (shouldCommit()) {
+      this.opCode = opCode.name();
+      this.requestId = requestId;
+      this.bytes = bytes;
+      this.documents = documents;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.fields.DoubleField;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A lock free histogram of latencies, measured in microseconds.
+ *
+ * <p>Like HdrHistogram, values are counted on log-linear buckets: each power of two is divided on
+ * {@value #SUB_BUCKETS} buckets, so percentiles are reported with a relative error under 12.5%
+ * while the histogram uses a fixed and small amount of memory.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+  private static final LongField COUNT_FIELD = new LongField("count");
+  private static final LongField TOTAL_FIELD = new LongField("totalMicros");
+  private static final DoubleField MEAN_FIELD = new DoubleField("meanMicros");
+  private static final LongField MAX_FIELD = new LongField("maxMicros");
+  private static final LongField P50_FIELD = new LongField("p50Micros");
+  private static final LongField P95_FIELD = new LongField("p95Micros");
+  private static final LongField P99_FIELD = new LongField("p99Micros");
+  private static final LongField P999_FIELD = new LongField("p999Micros");
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void recordNanos(long nanos) {
+    recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  public void recordMicros(long micros) {
+    long value = Math.max(0, micros);
+    counts.incrementAndGet(getIndex(value));
+    count.increment();
+    totalMicros.add(value);
+    if (value > maxMicros.get()) {
+      maxMicros.accumulateAndGet(value, Math::max);
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @param percentile a value between 0 and 100
+   * @return the highest value of the bucket that contains the given percentile, in microseconds
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    return getPercentileMicros(snapshot, total, percentile);
+  }
+
+  public BsonDocument toBsonDocument() {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    long sum = totalMicros.sum();
+    return new BsonDocumentBuilder()
+        .append(COUNT_FIELD, total)
+        .append(TOTAL_FIELD, sum)
+        .append(MEAN_FIELD, total == 0 ? 0 : (double) sum / total)
+        .append(MAX_FIELD, maxMicros.get())
+        .append(P50_FIELD, getPercentileMicros(snapshot, total, 50))
+        .append(P95_FIELD, getPercentileMicros(snapshot, total, 95))
+        .append(P99_FIELD, getPercentileMicros(snapshot, total, 99))
+        .append(P999_FIELD, getPercentileMicros(snapshot, total, 99.9))
+        .build();
+  }
+
+  private long getPercentileMicros(long[] snapshot, long total, double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long accumulated = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      accumulated += snapshot[i];
+      if (accumulated >= target) {
+        return Math.min(getHighestValue(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  static int getIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long getHighestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
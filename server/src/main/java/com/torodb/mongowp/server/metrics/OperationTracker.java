@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Measures the phases of a request for the {@link SlowOperationProfiler}.
+ *
+ * <p>The tracker is created when the request is decoded and it is handed off to the thread that
+ * processes the request and then to the one that completes its last write, so each method is
+ * called by a single thread and the hand offs provide the visibility.
+ *
+ * <p>The returned documents and bytes are the ones written on the connection since the request
+ * started to be processed until its last reply was sent, so they are not accurate when the
+ * replies of pipelined requests are interleaved.
+ *
+ * <p>When {@linkplain ResourceAccounting resource accounting} is enabled, the CPU time and the
+ * bytes allocated while the request is processed are measured too. Work done later (like the
+ * executions of a parked {@code awaitData} getMore) is not included.
+ */
+@NotThreadSafe
+public class OperationTracker {
+
+  private final long decodeNanos;
+  private final long receivedNanos;
+  private final ResourceAccounting resourceAccounting;
+  @Nullable
+  private ResourceMeasurement resources;
+  private long processStartNanos;
+  private long processEndNanos;
+  private long finishedNanos;
+  private long startOutboundDocuments;
+  private long startOutboundBytes;
+  private long documentsReturned;
+  private long bytesReturned;
+
+  OperationTracker(long decodeNanos, ResourceAccounting resourceAccounting) {
+    this.decodeNanos = decodeNanos;
+    this.receivedNanos = System.nanoTime();
+    this.resourceAccounting = resourceAccounting;
+  }
+
+  /**
+   * @param outboundDocuments the documents written on the connection so far
+   * @param outboundBytes     the bytes written on the connection so far
+   */
+  public void onProcessStarted(long outboundDocuments, long outboundBytes) {
+    processStartNanos = System.nanoTime();
+    startOutboundDocuments = outboundDocuments;
+    startOutboundBytes = outboundBytes;
+    resources = resourceAccounting.begin();
+  }
+
+  /**
+   * Called on the same thread that called {@link #onProcessStarted(long, long)}.
+   */
+  public void onProcessFinished() {
+    processEndNanos = System.nanoTime();
+    if (resources != null) {
+      resources.end();
+    }
+  }
+
+  /**
+   * Called once the last reply to the request has been sent or the request has been processed if
+   * it had no replies.
+   *
+   * @param outboundDocuments the documents written on the connection so far
+   * @param outboundBytes     the bytes written on the connection so far
+   */
+  public void onFinished(long outboundDocuments, long outboundBytes) {
+    finishedNanos = System.nanoTime();
+    documentsReturned = outboundDocuments - startOutboundDocuments;
+    bytesReturned = outboundBytes - startOutboundBytes;
+  }
+
+  public long getDecodeNanos() {
+    return decodeNanos;
+  }
+
+  public long getQueueNanos() {
+    return processStartNanos - receivedNanos;
+  }
+
+  public long getProcessNanos() {
+    return processEndNanos - processStartNanos;
+  }
+
+  public long getReplyNanos() {
+    return finishedNanos - processEndNanos;
+  }
+
+  public long getTotalNanos() {
+    return decodeNanos + finishedNanos - receivedNanos;
+  }
+
+  public long getDocumentsReturned() {
+    return documentsReturned;
+  }
+
+  public long getBytesReturned() {
+    return bytesReturned;
+  }
+
+  /**
+   * @return the resources used while the request was processed or null if they were not measured
+   */
+  @Nullable
+  public ResourceMeasurement getResources() {
+    return resources;
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.fields.BooleanField;
+import com.torodb.mongowp.fields.DateTimeField;
+import com.torodb.mongowp.fields.DocField;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.fields.StringField;
+import com.torodb.mongowp.messages.request.DeleteMessage;
+import com.torodb.mongowp.messages.request.GetMoreMessage;
+import com.torodb.mongowp.messages.request.InsertMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.QueryMessage;
+import com.torodb.mongowp.messages.request.RequestMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.messages.request.UpdateMessage;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An operation recorded by the {@link SlowOperationProfiler}.
+ *
+ * <p>It does not reference the request it was created from, so it can be kept after the request
+ * is closed. Queries and commands are stored as their {@linkplain QueryShapes shape}.
+ */
+@Immutable
+public class ProfiledOperation {
+
+  private static final String COMMAND_COLLECTION = "$cmd";
+
+  private static final StringField OP_FIELD = new StringField("op");
+  private static final StringField NS_FIELD = new StringField("ns");
+  private static final StringField COMMAND_FIELD = new StringField("command");
+  private static final DocField SHAPE_FIELD = new DocField("shape");
+  private static final IntField REQUEST_ID_FIELD = new IntField("requestId");
+  private static final LongField DOCS_RETURNED_FIELD = new LongField("docsReturned");
+  private static final LongField BYTES_RETURNED_FIELD = new LongField("bytesReturned");
+  private static final LongField MILLIS_FIELD = new LongField("millis");
+  private static final DocField TIMINGS_FIELD = new DocField("timings");
+  private static final LongField DECODE_FIELD = new LongField("decodeMicros");
+  private static final LongField QUEUE_FIELD = new LongField("queueMicros");
+  private static final LongField PROCESS_FIELD = new LongField("processMicros");
+  private static final LongField REPLY_FIELD = new LongField("replyMicros");
+  private static final LongField CPU_FIELD = new LongField("cpuMicros");
+  private static final LongField ALLOCATED_FIELD = new LongField("allocatedBytes");
+  private static final BooleanField SAMPLED_FIELD = new BooleanField("sampled");
+  private static final DateTimeField TS_FIELD = new DateTimeField("ts");
+
+  private final long sequence;
+  private final long timestampMillis;
+  private final RequestOpCode opCode;
+  private final int requestId;
+  @Nullable
+  private final String namespace;
+  @Nullable
+  private final String command;
+  @Nullable
+  private final BsonDocument shape;
+  private final long documentsReturned;
+  private final long bytesReturned;
+  private final long decodeNanos;
+  private final long queueNanos;
+  private final long processNanos;
+  private final long replyNanos;
+  /**
+   * The CPU time spent processing the request or -1 if it was not measured.
+   */
+  private final long cpuNanos;
+  private final long allocatedBytes;
+  private final boolean sampled;
+
+  private ProfiledOperation(long sequence, RequestMessage request, @Nullable String namespace,
+      @Nullable String command, @Nullable BsonDocument shape, OperationTracker tracker,
+      boolean sampled) {
+    this.sequence = sequence;
+    this.timestampMillis = System.currentTimeMillis();
+    this.opCode = request.getOpCode();
+    this.requestId = request.getBaseMessage().getRequestId();
+    this.namespace = namespace;
+    this.command = command;
+    this.shape = shape;
+    this.documentsReturned = tracker.getDocumentsReturned();
+    this.bytesReturned = tracker.getBytesReturned();
+    this.decodeNanos = tracker.getDecodeNanos();
+    this.queueNanos = tracker.getQueueNanos();
+    this.processNanos = tracker.getProcessNanos();
+    this.replyNanos = tracker.getReplyNanos();
+    ResourceMeasurement resources = tracker.getResources();
+    this.cpuNanos = resources == null ? -1 : resources.getCpuNanos();
+    this.allocatedBytes = resources == null ? -1 : resources.getAllocatedBytes();
+    this.sampled = sampled;
+  }
+
+  /**
+   * Creates the record of the given request, which must not be closed yet.
+   */
+  static ProfiledOperation create(long sequence, RequestMessage request, OperationTracker tracker,
+      boolean sampled) {
+    String namespace = null;
+    String command = null;
+    BsonDocument query = null;
+    switch (request.getOpCode()) {
+      case OP_QUERY: {
+        QueryMessage queryMessage = (QueryMessage) request;
+        query = queryMessage.getQuery();
+        if (COMMAND_COLLECTION.equals(queryMessage.getCollection())) {
+          command = getCommandName(query);
+          namespace = getCommandNamespace(query, queryMessage.getDatabase());
+        } else {
+          namespace = queryMessage.getNamespace().getFullName();
+        }
+        break;
+      }
+      case OP_MSG: {
+        MsgMessage msg = (MsgMessage) request;
+        query = msg.getBody();
+        command = getCommandName(query);
+        namespace = getCommandNamespace(query, msg.getDatabase());
+        break;
+      }
+      case OP_UPDATE: {
+        UpdateMessage update = (UpdateMessage) request;
+        query = update.getSelector();
+        namespace = update.getNamespace().getFullName();
+        break;
+      }
+      case OP_DELETE: {
+        DeleteMessage delete = (DeleteMessage) request;
+        query = delete.getDocument();
+        namespace = delete.getNamespace().getFullName();
+        break;
+      }
+      case OP_INSERT: {
+        InsertMessage insert = (InsertMessage) request;
+        namespace = insert.getNamespace().getFullName();
+        break;
+      }
+      case OP_GET_MORE: {
+        GetMoreMessage getMore = (GetMoreMessage) request;
+        namespace = getMore.getNamespace().getFullName();
+        break;
+      }
+      default:
+        break;
+    }
+    return new ProfiledOperation(sequence, request, namespace, command,
+        query == null ? null : QueryShapes.redact(query), tracker, sampled);
+  }
+
+  @Nullable
+  private static String getCommandName(BsonDocument command) {
+    return command.isEmpty() ? null : command.getFirstEntry().getKey();
+  }
+
+  private static String getCommandNamespace(BsonDocument command, String database) {
+    if (!command.isEmpty()) {
+      BsonValue<?> first = command.getFirstEntry().getValue();
+      if (first.isString()) {
+        return database + '.' + first.asString().getValue();
+      }
+    }
+    return database + '.' + COMMAND_COLLECTION;
+  }
+
+  long getSequence() {
+    return sequence;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public RequestOpCode getOpCode() {
+    return opCode;
+  }
+
+  @Nullable
+  public String getNamespace() {
+    return namespace;
+  }
+
+  /**
+   * @return the name of the executed command or null if the operation was not a command
+   */
+  @Nullable
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * @return the shape of the query or command or null if the operation has none
+   */
+  @Nullable
+  public BsonDocument getShape() {
+    return shape;
+  }
+
+  public long getDocumentsReturned() {
+    return documentsReturned;
+  }
+
+  public long getBytesReturned() {
+    return bytesReturned;
+  }
+
+  /**
+   * @return the nanoseconds since the request started to be decoded until its last reply was sent
+   */
+  public long getTotalNanos() {
+    return decodeNanos + queueNanos + processNanos + replyNanos;
+  }
+
+  /**
+   * @return true iff the operation was recorded because it was sampled instead of because it was
+   *         slow
+   */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * @return the CPU time spent by the thread that processed the request or -1 if it was not
+   *         measured
+   */
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  /**
+   * @return the bytes allocated by the thread that processed the request or -1 if they were not
+   *         measured
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  public BsonDocument toBsonDocument() {
+    BsonDocumentBuilder builder = new BsonDocumentBuilder()
+        .append(OP_FIELD, opCode.name())
+        .append(REQUEST_ID_FIELD, requestId);
+    if (namespace != null) {
+      builder.append(NS_FIELD, namespace);
+    }
+    if (command != null) {
+      builder.append(COMMAND_FIELD, command);
+    }
+    if (shape != null) {
+      builder.append(SHAPE_FIELD, shape);
+    }
+    BsonDocumentBuilder timings = new BsonDocumentBuilder()
+        .append(DECODE_FIELD, TimeUnit.NANOSECONDS.toMicros(decodeNanos))
+        .append(QUEUE_FIELD, TimeUnit.NANOSECONDS.toMicros(queueNanos))
+        .append(PROCESS_FIELD, TimeUnit.NANOSECONDS.toMicros(processNanos))
+        .append(REPLY_FIELD, TimeUnit.NANOSECONDS.toMicros(replyNanos));
+    if (cpuNanos >= 0) {
+      timings.append(CPU_FIELD, TimeUnit.NANOSECONDS.toMicros(cpuNanos))
+          .append(ALLOCATED_FIELD, allocatedBytes);
+    }
+    return builder
+        .append(DOCS_RETURNED_FIELD, documentsReturned)
+        .append(BYTES_RETURNED_FIELD, bytesReturned)
+        .append(MILLIS_FIELD, TimeUnit.NANOSECONDS.toMillis(getTotalNanos()))
+        .append(TIMINGS_FIELD, timings)
+        .append(SAMPLED_FIELD, sampled)
+        .appendInstant(TS_FIELD, timestampMillis)
+        .build();
+  }
+
+  @Override
+  public String toString() {
+    return "ProfiledOperation{op=" + opCode + ", ns=" + namespace + ", command=" + command
+        + ", millis=" + TimeUnit.NANOSECONDS.toMillis(getTotalNanos()) + '}';
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonArray;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonDocument.Entry;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Computes the <em>shape</em> of queries and commands, which is the same document with every
+ * value replaced by {@code "?"}.
+ *
+ * <p>Shapes keep the field names and operators (so two executions of the same query with
+ * different parameters have the same shape) but they do not contain user data, so they can be
+ * kept and shown without the privacy concerns of the original documents. Arrays of documents
+ * (like the argument of {@code $and}) keep their documents, while other arrays are replaced as
+ * any other value. Very deep or wide documents are truncated.
+ */
+@ThreadSafe
+public class QueryShapes {
+
+  private static final BsonValue<?> REDACTED = DefaultBsonValues.newString("?");
+  private static final BsonValue<?> TRUNCATED = DefaultBsonValues.newString("...");
+  private static final int MAX_DEPTH = 8;
+  private static final int MAX_FIELDS = 32;
+
+  private QueryShapes() {
+  }
+
+  /**
+   * Returns the shape of the given document.
+   *
+   * <p>The returned document is stored on the heap, so it does not depend on the context of the
+   * given one.
+   */
+  public static BsonDocument redact(BsonDocument doc) {
+    return redact(doc, 0);
+  }
+
+  private static BsonDocument redact(BsonDocument doc, int depth) {
+    BsonDocumentBuilder builder = new BsonDocumentBuilder();
+    int fields = 0;
+    for (Entry<?> entry : doc) {
+      if (fields++ == MAX_FIELDS) {
+        builder.appendUnsafe("$truncated", TRUNCATED);
+        break;
+      }
+      builder.appendUnsafe(entry.getKey(), redact(entry.getValue(), depth + 1));
+    }
+    return builder.build();
+  }
+
+  private static BsonValue<?> redact(BsonValue<?> value, int depth) {
+    if (depth > MAX_DEPTH) {
+      return TRUNCATED;
+    }
+    if (value.isDocument()) {
+      return redact(value.asDocument(), depth);
+    }
+    if (value.isArray() && containsDocuments(value.asArray())) {
+      List<BsonValue<?>> redacted = new ArrayList<>();
+      for (BsonValue<?> element : value.asArray()) {
+        if (redacted.size() == MAX_FIELDS) {
+          redacted.add(TRUNCATED);
+          break;
+        }
+        redacted.add(redact(element, depth + 1));
+      }
+      return DefaultBsonValues.newArray(redacted);
+    }
+    return REDACTED;
+  }
+
+  private static boolean containsDocuments(BsonArray array) {
+    return !array.isEmpty() && array.get(0).isDocument();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.function.IntSupplier;
+
+/**
+ * The encoding of a reply.
+ *
+ * @see WireEvents#beginReplyEncode()
+ */
+@Name("com.torodb.mongowp.ReplyEncode")
+@Label("Reply Encode")
+@Description("Encoding of a reply into a buffer")
+@Category({"MongoWP", "Wire Protocol"})
+@Threshold(WireEvents.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public class ReplyEncodeEvent extends jdk.jfr.Event {
+
+  @Label("Mode")
+  @Description("How the reply was encoded: copy, zeroCopy, parallel or msg")
+  private String mode;
+
+  @Label("Bytes")
+  @DataAmount
+  private long bytes;
+
+  @Label("Documents")
+  private int documents;
+
+  ReplyEncodeEvent() {
+  }
+
+  /**
+   * @param documents the number of documents of the reply, which is only counted if the event is
+   *                  going to be committed
+   */
+  public void finish(String mode, long bytes, IntSupplier documents) {
+    end();
+    if (shouldCommit()) {
+      this.mode = mode;
+      this.bytes = bytes;
+      this.documents = documents.getAsInt();
+      commit();
+    }
+  }
+}
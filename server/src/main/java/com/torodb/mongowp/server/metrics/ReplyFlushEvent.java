@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The time an encoded reply waits on the outbound buffer of a channel until it is written to the
+ * socket.
+ *
+ * @see WireEvents#beginReplyFlush()
+ */
+@Name("com.torodb.mongowp.ReplyFlush")
+@Label("Reply Flush")
+@Description("Time since an encoded reply is written until it is sent to the socket")
+@Category({"MongoWP", "Wire Protocol"})
+@Threshold(WireEvents.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public class ReplyFlushEvent extends jdk.jfr.Event {
+
+  @Label("Bytes")
+  @DataAmount
+  private long bytes;
+
+  @Label("Success")
+  private boolean success;
+
+  ReplyFlushEvent() {
+  }
+
+  public void finish(long bytes, boolean success) {
+    end();
+    if (shouldCommit()) {
+      this.bytes = bytes;
+      this.success = success;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The execution of a request by the request processor. Replies may be encoded and sent after the
+ * event ends.
+ *
+ * @see WireEvents#beginRequestExecution()
+ */
+@Name("com.torodb.mongowp.RequestExecution")
+@Label("Request Execution")
+@Description("Execution of a request by the request processor")
+@Category({"MongoWP", "Wire Protocol"})
+@Threshold(WireEvents.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public class RequestExecutionEvent extends jdk.jfr.Event {
+
+  @Label("Op Code")
+  private String opCode;
+
+  @Label("Request Id")
+  private int requestId;
+
+  RequestExecutionEvent() {
+  }
+
+  public void finish(RequestOpCode opCode, int requestId) {
+    end();
+    if (shouldCommit()) {
+      this.opCode = opCode.name();
+      this.requestId = requestId;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.torodb.mongowp.MongoServerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Measures the CPU time and the bytes allocated by the threads that execute requests and keeps
+ * them per connection.
+ *
+ * <p>Measures are taken with the {@link ThreadMXBean} of the current thread, so they must start
+ * and end on the thread that does the work (for instance, around a call to the
+ * {@link com.torodb.mongowp.commands.SafeRequestProcessor}). Allocated bytes are only measured on
+ * JVMs whose bean implements {@link com.sun.management.ThreadMXBean}.
+ *
+ * @see MongoServerConfig#isResourceAccountingEnabled()
+ */
+@ThreadSafe
+@Singleton
+public class ResourceAccounting {
+
+  private final ThreadMXBean threadBean;
+  @Nullable
+  private final com.sun.management.ThreadMXBean allocationBean;
+  private final boolean cpuEnabled;
+  private final ConcurrentHashMap<Integer, ResourceCounters> connections =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  public ResourceAccounting(MongoServerConfig config) {
+    this(config.isResourceAccountingEnabled());
+  }
+
+  @VisibleForTesting
+  public ResourceAccounting(boolean enabled) {
+    this.threadBean = ManagementFactory.getThreadMXBean();
+    this.cpuEnabled = enabled && threadBean.isCurrentThreadCpuTimeSupported();
+    if (cpuEnabled && !threadBean.isThreadCpuTimeEnabled()) {
+      threadBean.setThreadCpuTimeEnabled(true);
+    }
+    com.sun.management.ThreadMXBean allocationBean = null;
+    if (enabled && threadBean instanceof com.sun.management.ThreadMXBean) {
+      allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+      if (!allocationBean.isThreadAllocatedMemorySupported()) {
+        allocationBean = null;
+      } else if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+    this.allocationBean = allocationBean;
+  }
+
+  public boolean isEnabled() {
+    return cpuEnabled || allocationBean != null;
+  }
+
+  /**
+   * Starts measuring the current thread.
+   *
+   * @return the measurement, which must be ended on the same thread, or null if accounting is
+   *         disabled
+   */
+  @Nullable
+  public ResourceMeasurement begin() {
+    if (!isEnabled()) {
+      return null;
+    }
+    Thread thread = Thread.currentThread();
+    return new ResourceMeasurement(this, thread, getCpuNanos(), getAllocatedBytes(thread));
+  }
+
+  long getCpuNanos() {
+    return cpuEnabled ? threadBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  long getAllocatedBytes(Thread thread) {
+    return allocationBean != null ? allocationBean.getThreadAllocatedBytes(thread.getId()) : 0;
+  }
+
+  public void onConnectionOpened(int connectionId) {
+    if (isEnabled()) {
+      connections.putIfAbsent(connectionId, new ResourceCounters());
+    }
+  }
+
+  /**
+   * Adds the given measurement to the resources of a connection.
+   *
+   * <p>Measurements of connections that are not open are ignored, as a request may finish after
+   * its connection has been closed and its counters would never be removed.
+   */
+  public void onConnectionUsage(int connectionId, ResourceMeasurement measurement) {
+    ResourceCounters counters = connections.get(connectionId);
+    if (counters != null) {
+      counters.add(measurement);
+    }
+  }
+
+  /**
+   * @return the resources used by the requests of the given connection or null if the connection
+   *         is not open or accounting is disabled
+   */
+  @Nullable
+  public ResourceCounters getConnectionUsage(int connectionId) {
+    return connections.get(connectionId);
+  }
+
+  public void onConnectionClosed(int connectionId) {
+    connections.remove(connectionId);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The aggregated {@link ResourceMeasurement measurements} of a set of operations.
+ */
+@ThreadSafe
+public class ResourceCounters {
+
+  private static final LongField COUNT_FIELD = new LongField("count");
+  private static final LongField CPU_FIELD = new LongField("cpuMicros");
+  private static final LongField ALLOCATED_FIELD = new LongField("allocatedBytes");
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+
+  public void add(ResourceMeasurement measurement) {
+    count.increment();
+    cpuNanos.add(measurement.getCpuNanos());
+    allocatedBytes.add(measurement.getAllocatedBytes());
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getCpuNanos() {
+    return cpuNanos.sum();
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes.sum();
+  }
+
+  public BsonDocument toBsonDocument() {
+    return new BsonDocumentBuilder()
+        .append(COUNT_FIELD, getCount())
+        .append(CPU_FIELD, TimeUnit.NANOSECONDS.toMicros(getCpuNanos()))
+        .append(ALLOCATED_FIELD, getAllocatedBytes())
+        .build();
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The CPU time and the bytes allocated by a thread between {@link ResourceAccounting#begin()} and
+ * {@link #end()}.
+ *
+ * <p>If the measurement is ended on a thread other than the one that started it, nothing is
+ * measured, as the values of different threads cannot be compared.
+ */
+@NotThreadSafe
+public class ResourceMeasurement {
+
+  private final ResourceAccounting accounting;
+  private final Thread thread;
+  private final long startCpuNanos;
+  private final long startAllocatedBytes;
+  private long cpuNanos;
+  private long allocatedBytes;
+
+  ResourceMeasurement(ResourceAccounting accounting, Thread thread, long startCpuNanos,
+      long startAllocatedBytes) {
+    this.accounting = accounting;
+    this.thread = thread;
+    this.startCpuNanos = startCpuNanos;
+    this.startAllocatedBytes = startAllocatedBytes;
+  }
+
+  /**
+   * Ends the measurement, which must be done on the thread that started it.
+   *
+   * @return this measurement
+   */
+  public ResourceMeasurement end() {
+    if (Thread.currentThread() == thread) {
+      cpuNanos = accounting.getCpuNanos() - startCpuNanos;
+      allocatedBytes = accounting.getAllocatedBytes(thread) - startAllocatedBytes;
+    }
+    return this;
+  }
+
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.fields.DocField;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.compression.MessageCompressor;
+import com.torodb.mongowp.server.compression.MessageCompressorRegistry;
+import com.torodb.mongowp.server.compression.MessageCompressorStats;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The counters and latency histograms of the server.
+ *
+ * <p>Requests are measured on four phases: decode and process (per {@link RequestOpCode}), encode
+ * and flush (for all replies). Commands also have their own process histogram, indexed by their
+ * name. All values are recorded without locks, so the status can be read at any time with
+ * {@link #getStatus()}, which returns a document that a {@code serverStatus} like command can
+ * return.
+ *
+ * <p>When {@linkplain ResourceAccounting resource accounting} is enabled, the CPU time and the
+ * allocated bytes of the executed requests are added too, in total and per command.
+ *
+ * <p>The counters of each {@link MessageCompressor} of the {@link MessageCompressorRegistry} are
+ * reported on the {@code compression} section of the {@code network} one, as MongoDB does.
+ */
+@ThreadSafe
+@Singleton
+public class ServerMetrics {
+
+  private static final DocField CONNECTIONS_FIELD = new DocField("connections");
+  private static final LongField CURRENT_FIELD = new LongField("current");
+  private static final LongField TOTAL_CREATED_FIELD = new LongField("totalCreated");
+  private static final DocField NETWORK_FIELD = new DocField("network");
+  private static final LongField BYTES_IN_FIELD = new LongField("bytesIn");
+  private static final LongField BYTES_OUT_FIELD = new LongField("bytesOut");
+  private static final LongField NUM_REQUESTS_FIELD = new LongField("numRequests");
+  private static final DocField OPCOUNTERS_FIELD = new DocField("opcounters");
+  private static final DocField OP_LATENCIES_FIELD = new DocField("opLatencies");
+  private static final DocField DECODE_FIELD = new DocField("decode");
+  private static final DocField PROCESS_FIELD = new DocField("process");
+  private static final DocField COMMAND_LATENCIES_FIELD = new DocField("commandLatencies");
+  private static final DocField REPLY_LATENCIES_FIELD = new DocField("replyLatencies");
+  private static final DocField ENCODE_FIELD = new DocField("encode");
+  private static final DocField FLUSH_FIELD = new DocField("flush");
+  private static final DocField RESOURCES_FIELD = new DocField("resources");
+  private static final DocField TOTAL_FIELD = new DocField("total");
+  private static final DocField COMMANDS_FIELD = new DocField("commands");
+  private static final DocField COMPRESSION_FIELD = new DocField("compression");
+  private static final DocField COMPRESSOR_FIELD = new DocField("compressor");
+  private static final DocField DECOMPRESSOR_FIELD = new DocField("decompressor");
+  private static final LongField MESSAGES_FIELD = new LongField("messages");
+  private static final LongField NANOS_FIELD = new LongField("nanos");
+
+  private final Map<RequestOpCode, LongAdder> opCounters = new EnumMap<>(RequestOpCode.class);
+  private final Map<RequestOpCode, LatencyHistogram> decodeLatencies =
+      new EnumMap<>(RequestOpCode.class);
+  private final Map<RequestOpCode, LatencyHistogram> processLatencies =
+      new EnumMap<>(RequestOpCode.class);
+  private final ConcurrentHashMap<String, LatencyHistogram> commandLatencies =
+      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, ResourceCounters> commandResources =
+      new ConcurrentHashMap<>();
+  private final ResourceCounters totalResources = new ResourceCounters();
+  private final LatencyHistogram encodeLatency = new LatencyHistogram();
+  private final LatencyHistogram flushLatency = new LatencyHistogram();
+  private final LongAdder currentConnections = new LongAdder();
+  private final LongAdder createdConnections = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final MessageCompressorRegistry compressorRegistry;
+
+  /**
+   * Creates metrics that do not report any compressor.
+   */
+  public ServerMetrics() {
+    this(new MessageCompressorRegistry(Collections.emptyList()));
+  }
+
+  @Inject
+  public ServerMetrics(MessageCompressorRegistry compressorRegistry) {
+    this.compressorRegistry = compressorRegistry;
+    //maps are filled here and never modified, so they can be read without synchronization
+    for (RequestOpCode opCode : RequestOpCode.values()) {
+      opCounters.put(opCode, new LongAdder());
+      decodeLatencies.put(opCode, new LatencyHistogram());
+      processLatencies.put(opCode, new LatencyHistogram());
+    }
+  }
+
+  public void onConnectionOpened() {
+    currentConnections.increment();
+    createdConnections.increment();
+  }
+
+  public void onConnectionClosed() {
+    currentConnections.decrement();
+  }
+
+  public void onBytesIn(long bytes) {
+    bytesIn.add(bytes);
+  }
+
+  public void onBytesOut(long bytes) {
+    bytesOut.add(bytes);
+  }
+
+  public void onRequestDecoded(RequestOpCode opCode, long nanos) {
+    requests.increment();
+    opCounters.get(opCode).increment();
+    decodeLatencies.get(opCode).recordNanos(nanos);
+  }
+
+  public void onRequestProcessed(RequestOpCode opCode, long nanos) {
+    processLatencies.get(opCode).recordNanos(nanos);
+  }
+
+  public void onCommandExecuted(String commandName, long nanos) {
+    LatencyHistogram histogram = commandLatencies.get(commandName);
+    if (histogram == null) {
+      histogram = commandLatencies.computeIfAbsent(commandName, name -> new LatencyHistogram());
+    }
+    histogram.recordNanos(nanos);
+  }
+
+  /**
+   * @param commandName the name of the command whose execution has been measured or null if the
+   *                    request was not a command
+   */
+  public void onResourcesUsed(@Nullable String commandName, ResourceMeasurement measurement) {
+    totalResources.add(measurement);
+    if (commandName != null) {
+      ResourceCounters counters = commandResources.get(commandName);
+      if (counters == null) {
+        counters = commandResources.computeIfAbsent(commandName, name -> new ResourceCounters());
+      }
+      counters.add(measurement);
+    }
+  }
+
+  public void onReplyEncoded(long nanos) {
+    encodeLatency.recordNanos(nanos);
+  }
+
+  /**
+   * @param nanos the time since the reply was written until it was sent to the socket
+   */
+  public void onReplyFlushed(long nanos) {
+    flushLatency.recordNanos(nanos);
+  }
+
+  /**
+   * @return the process latencies of the given command or null if it has not been executed
+   */
+  @Nullable
+  public LatencyHistogram getCommandLatency(String commandName) {
+    return commandLatencies.get(commandName);
+  }
+
+  /**
+   * @return the resources used by the given command or null if they have not been measured
+   */
+  @Nullable
+  public ResourceCounters getCommandResources(String commandName) {
+    return commandResources.get(commandName);
+  }
+
+  public LatencyHistogram getProcessLatency(RequestOpCode opCode) {
+    return processLatencies.get(opCode);
+  }
+
+  public long getOpCounter(RequestOpCode opCode) {
+    return opCounters.get(opCode).sum();
+  }
+
+  public long getCurrentConnections() {
+    return currentConnections.sum();
+  }
+
+  public BsonDocument getStatus() {
+    BsonDocumentBuilder opcounters = new BsonDocumentBuilder();
+    BsonDocumentBuilder opLatencies = new BsonDocumentBuilder();
+    for (RequestOpCode opCode : RequestOpCode.values()) {
+      long counter = opCounters.get(opCode).sum();
+      opcounters.append(new LongField(opCode.name()), counter);
+      if (counter != 0) {
+        opLatencies.append(new DocField(opCode.name()), new BsonDocumentBuilder()
+            .append(DECODE_FIELD, decodeLatencies.get(opCode).toBsonDocument())
+            .append(PROCESS_FIELD, processLatencies.get(opCode).toBsonDocument())
+        );
+      }
+    }
+    BsonDocumentBuilder commands = new BsonDocumentBuilder();
+    for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(commandLatencies).entrySet()) {
+      commands.append(new DocField(entry.getKey()), entry.getValue().toBsonDocument());
+    }
+
+    BsonDocumentBuilder status = new BsonDocumentBuilder()
+        .append(CONNECTIONS_FIELD, new BsonDocumentBuilder()
+            .append(CURRENT_FIELD, currentConnections.sum())
+            .append(TOTAL_CREATED_FIELD, createdConnections.sum())
+        )
+        .append(NETWORK_FIELD, getNetworkStatus())
+        .append(OPCOUNTERS_FIELD, opcounters)
+        .append(OP_LATENCIES_FIELD, opLatencies)
+        .append(COMMAND_LATENCIES_FIELD, commands)
+        .append(REPLY_LATENCIES_FIELD, new BsonDocumentBuilder()
+            .append(ENCODE_FIELD, encodeLatency.toBsonDocument())
+            .append(FLUSH_FIELD, flushLatency.toBsonDocument())
+        );
+    if (totalResources.getCount() != 0) {
+      BsonDocumentBuilder resources = new BsonDocumentBuilder();
+      for (Map.Entry<String, ResourceCounters> entry
+          : new TreeMap<>(commandResources).entrySet()) {
+        resources.append(new DocField(entry.getKey()), entry.getValue().toBsonDocument());
+      }
+      status.append(RESOURCES_FIELD, new BsonDocumentBuilder()
+          .append(TOTAL_FIELD, totalResources.toBsonDocument())
+          .append(COMMANDS_FIELD, resources)
+      );
+    }
+    return status.build();
+  }
+
+  private BsonDocumentBuilder getNetworkStatus() {
+    BsonDocumentBuilder network = new BsonDocumentBuilder()
+        .append(BYTES_IN_FIELD, bytesIn.sum())
+        .append(BYTES_OUT_FIELD, bytesOut.sum())
+        .append(NUM_REQUESTS_FIELD, requests.sum());
+    List<MessageCompressor> compressors = compressorRegistry.getCompressors();
+    if (!compressors.isEmpty()) {
+      //like on MongoDB, bytes in are the ones the (de)compressor read and bytes out the written ones
+      BsonDocumentBuilder compression = new BsonDocumentBuilder();
+      for (MessageCompressor compressor : compressors) {
+        MessageCompressorStats stats = compressor.getStats();
+        compression.append(new DocField(compressor.getName()), new BsonDocumentBuilder()
+            .append(COMPRESSOR_FIELD, new BsonDocumentBuilder()
+                .append(BYTES_IN_FIELD, stats.getCompressorBytesIn())
+                .append(BYTES_OUT_FIELD, stats.getCompressorBytesOut())
+                .append(MESSAGES_FIELD, stats.getCompressedMessages())
+                .append(NANOS_FIELD, stats.getCompressorNanos())
+            )
+            .append(DECOMPRESSOR_FIELD, new BsonDocumentBuilder()
+                .append(BYTES_IN_FIELD, stats.getDecompressorBytesIn())
+                .append(BYTES_OUT_FIELD, stats.getDecompressorBytesOut())
+                .append(MESSAGES_FIELD, stats.getDecompressedMessages())
+                .append(NANOS_FIELD, stats.getDecompressorNanos())
+            )
+        );
+      }
+      network.append(COMPRESSION_FIELD, compression);
+    }
+    return network;
+  }
+}
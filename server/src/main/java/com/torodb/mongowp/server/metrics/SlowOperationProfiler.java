@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.google.common.base.Preconditions;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.request.RequestMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Records the requests that are slower than a threshold (and a random sample of the others) on a
+ * fixed size ring buffer.
+ *
+ * <p>Operations are stored without locks: each one takes the next sequence number and it is
+ * written on the slot that corresponds to it, replacing the oldest one. Readers ignore the slots
+ * whose operation does not have the expected sequence number, as they have been overwritten while
+ * the buffer was read.
+ *
+ * @see MongoServerConfig#getSlowOperationThresholdMillis()
+ * @see MongoServerConfig#getProfilerSampleRate()
+ */
+@ThreadSafe
+@Singleton
+public class SlowOperationProfiler {
+
+  private final long thresholdNanos;
+  private final double sampleRate;
+  private final AtomicReferenceArray<ProfiledOperation> operations;
+  private final int mask;
+  private final AtomicLong nextSequence = new AtomicLong();
+  private final ResourceAccounting resourceAccounting;
+
+  @Inject
+  public SlowOperationProfiler(MongoServerConfig config, ResourceAccounting resourceAccounting) {
+    this(config.getSlowOperationThresholdMillis(), config.getProfilerSampleRate(),
+        config.getProfilerBufferSize(), resourceAccounting);
+  }
+
+  public SlowOperationProfiler(long thresholdMillis, double sampleRate, int bufferSize) {
+    this(thresholdMillis, sampleRate, bufferSize, new ResourceAccounting(false));
+  }
+
+  /**
+   * @param thresholdMillis    the latency over which operations are recorded or a negative value
+   *                           to only record sampled operations
+   * @param sampleRate         the fraction of the operations that are recorded whatever their
+   *                           latency
+   * @param bufferSize         the number of operations that are kept
+   * @param resourceAccounting used to measure the resources used by the thread that processes
+   *                           each operation
+   */
+  public SlowOperationProfiler(long thresholdMillis, double sampleRate, int bufferSize,
+      ResourceAccounting resourceAccounting) {
+    Preconditions.checkArgument(sampleRate >= 0 && sampleRate <= 1,
+        "The sample rate must be between 0 and 1, but it is %s", sampleRate);
+    Preconditions.checkArgument(bufferSize > 0 && bufferSize <= 1 << 30,
+        "Invalid profiler buffer size %s", bufferSize);
+    this.thresholdNanos = thresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.sampleRate = sampleRate;
+    int capacity = Integer.highestOneBit(bufferSize);
+    if (capacity < bufferSize) {
+      capacity <<= 1;
+    }
+    this.operations = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.resourceAccounting = resourceAccounting;
+  }
+
+  public boolean isEnabled() {
+    return thresholdNanos >= 0 || sampleRate > 0;
+  }
+
+  /**
+   * Starts tracking a request that has just been decoded.
+   *
+   * @param decodeNanos the nanoseconds spent decoding the request
+   * @return the tracker or null if the profiler is disabled
+   */
+  @Nullable
+  public OperationTracker startTracking(long decodeNanos) {
+    return isEnabled() ? new OperationTracker(decodeNanos, resourceAccounting) : null;
+  }
+
+  /**
+   * Records the given request if it has been slow or it is sampled.
+   *
+   * <p>The request must not be closed yet, as the shape of its query is copied.
+   *
+   * @param tracker a finished tracker of the request
+   * @return true iff the request has been recorded
+   */
+  public boolean onOperationFinished(RequestMessage request, OperationTracker tracker) {
+    boolean slow = thresholdNanos >= 0 && tracker.getTotalNanos() >= thresholdNanos;
+    boolean sampled = !slow && sampleRate > 0
+        && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    if (!slow && !sampled) {
+      return false;
+    }
+    long sequence = nextSequence.getAndIncrement();
+    operations.set((int) sequence & mask,
+        ProfiledOperation.create(sequence, request, tracker, sampled));
+    return true;
+  }
+
+  /**
+   * Returns the recorded operations, from the newest to the oldest.
+   *
+   * @param namespace if not null, only the operations on this namespace are returned
+   * @param limit     the max number of operations to return or 0 to return all of them
+   */
+  public List<ProfiledOperation> getOperations(@Nullable String namespace, int limit) {
+    long last = nextSequence.get() - 1;
+    long first = Math.max(0, last - mask);
+    int max = limit <= 0 ? mask + 1 : Math.min(limit, mask + 1);
+    List<ProfiledOperation> result = new ArrayList<>(Math.min(max, (int) (last - first + 1)));
+    for (long sequence = last; sequence >= first && result.size() < max; sequence--) {
+      ProfiledOperation operation = operations.get((int) sequence & mask);
+      if (operation == null || operation.getSequence() != sequence) {
+        continue;
+      }
+      if (namespace == null || namespace.equals(operation.getNamespace())) {
+        result.add(operation);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see #getOperations(String, int)
+   */
+  public List<BsonDocument> getOperationDocuments(@Nullable String namespace, int limit) {
+    List<ProfiledOperation> recorded = getOperations(namespace, limit);
+    List<BsonDocument> result = new ArrayList<>(recorded.size());
+    for (ProfiledOperation operation : recorded) {
+      result.add(operation.toBsonDocument());
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of operations that have been recorded, including the ones that have been
+   *         discarded
+   */
+  public long getRecordedCount() {
+    return nextSequence.get();
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.torodb.mongowp.Status;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonType;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.commands.Command;
+import com.torodb.mongowp.commands.CommandImplementation;
+import com.torodb.mongowp.commands.Request;
+import com.torodb.mongowp.commands.impl.AbstractNotAliasableCommand;
+import com.torodb.mongowp.exceptions.MongoException;
+import com.torodb.mongowp.exceptions.TypesMismatchException;
+import com.torodb.mongowp.fields.ArrayField;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.fields.StringField;
+import com.torodb.mongowp.server.metrics.SlowOperationsCommand.SlowOperationsArgument;
+import com.torodb.mongowp.server.metrics.SlowOperationsCommand.SlowOperationsResult;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import com.torodb.mongowp.utils.BsonReaderTool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A command that returns the operations recorded by the {@link SlowOperationProfiler}, from the
+ * newest to the oldest.
+ *
+ * <p>The request is {@code {slowOps: 1, ns: <namespace>, limit: <n>}}, where both {@code ns} and
+ * {@code limit} are optional, and the result is {@code {operations: [...]}}. It can be added to a
+ * command library with the {@link Implementation} returned by {@link #createImplementation}.
+ */
+public class SlowOperationsCommand
+    extends AbstractNotAliasableCommand<SlowOperationsArgument, SlowOperationsResult> {
+
+  public static final SlowOperationsCommand INSTANCE = new SlowOperationsCommand();
+
+  private static final String COMMAND_NAME = "slowOps";
+  private static final StringField NS_FIELD = new StringField("ns");
+  private static final IntField LIMIT_FIELD = new IntField("limit");
+  private static final ArrayField OPERATIONS_FIELD = new ArrayField("operations");
+
+  private SlowOperationsCommand() {
+    super(COMMAND_NAME);
+  }
+
+  @Override
+  public boolean isSlaveOk() {
+    return true;
+  }
+
+  @Override
+  public boolean shouldAffectCommandCounter() {
+    return false;
+  }
+
+  @Override
+  public Class<? extends SlowOperationsArgument> getArgClass() {
+    return SlowOperationsArgument.class;
+  }
+
+  @Override
+  public SlowOperationsArgument unmarshallArg(BsonDocument requestDoc) throws MongoException {
+    return new SlowOperationsArgument(
+        BsonReaderTool.getString(requestDoc, NS_FIELD, null),
+        BsonReaderTool.getInteger(requestDoc, LIMIT_FIELD, 0)
+    );
+  }
+
+  @Override
+  protected BsonDocument marshallArg(SlowOperationsArgument request) {
+    BsonDocumentBuilder builder = new BsonDocumentBuilder()
+        .append(new IntField(COMMAND_NAME), 1);
+    if (request.getNamespace() != null) {
+      builder.append(NS_FIELD, request.getNamespace());
+    }
+    if (request.getLimit() > 0) {
+      builder.append(LIMIT_FIELD, request.getLimit());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Class<? extends SlowOperationsResult> getResultClass() {
+    return SlowOperationsResult.class;
+  }
+
+  @Override
+  public SlowOperationsResult unmarshallResult(BsonDocument resultDoc) throws MongoException {
+    ImmutableList.Builder<BsonDocument> operations = ImmutableList.builder();
+    for (BsonValue<?> operation : BsonReaderTool.getArray(resultDoc, OPERATIONS_FIELD)) {
+      if (!operation.isDocument()) {
+        throw new TypesMismatchException(OPERATIONS_FIELD.getFieldName(), BsonType.DOCUMENT,
+            operation.getType());
+      }
+      operations.add(operation.asDocument());
+    }
+    return new SlowOperationsResult(operations.build());
+  }
+
+  @Override
+  public BsonDocument marshallResult(SlowOperationsResult result) {
+    List<BsonValue<?>> operations = new ArrayList<>(result.getOperations());
+    return new BsonDocumentBuilder()
+        .append(OPERATIONS_FIELD, operations)
+        .build();
+  }
+
+  /**
+   * @param <C> the context of the command library
+   */
+  public static <C> Implementation<C> createImplementation(SlowOperationProfiler profiler) {
+    return new Implementation<>(profiler);
+  }
+
+  @Immutable
+  public static class SlowOperationsArgument {
+
+    @Nullable
+    private final String namespace;
+    private final int limit;
+
+    public SlowOperationsArgument(@Nullable String namespace, int limit) {
+      this.namespace = namespace;
+      this.limit = limit;
+    }
+
+    @Nullable
+    public String getNamespace() {
+      return namespace;
+    }
+
+    /**
+     * @return the max number of operations to return or 0 if all of them must be returned
+     */
+    public int getLimit() {
+      return limit;
+    }
+  }
+
+  @Immutable
+  public static class SlowOperationsResult {
+
+    private final ImmutableList<BsonDocument> operations;
+
+    public SlowOperationsResult(List<BsonDocument> operations) {
+      this.operations = ImmutableList.copyOf(operations);
+    }
+
+    public ImmutableList<BsonDocument> getOperations() {
+      return operations;
+    }
+  }
+
+  public static class Implementation<C>
+      implements CommandImplementation<SlowOperationsArgument, SlowOperationsResult, C> {
+
+    private final SlowOperationProfiler profiler;
+
+    private Implementation(SlowOperationProfiler profiler) {
+      this.profiler = profiler;
+    }
+
+    @Override
+    public Status<SlowOperationsResult> apply(Request req,
+        Command<? super SlowOperationsArgument, ? super SlowOperationsResult> command,
+        SlowOperationsArgument arg, C context) {
+      return Status.ok(new SlowOperationsResult(
+          profiler.getOperationDocuments(arg.getNamespace(), arg.getLimit())));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.torodb.mongowp.Status;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.commands.Command;
+import com.torodb.mongowp.commands.CommandImplementation;
+import com.torodb.mongowp.commands.Request;
+import com.torodb.mongowp.commands.impl.AbstractNotAliasableCommand;
+import com.torodb.mongowp.commands.tools.Empty;
+import com.torodb.mongowp.exceptions.MongoException;
+import com.torodb.mongowp.fields.DocField;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.server.metrics.TopCommand.TopResult;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import com.torodb.mongowp.utils.BsonReaderTool;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The {@code top} command, which returns the traffic of each namespace recorded by the
+ * {@link TopStatistics} as {@code {totals: {<namespace>: {...}, ...}}}.
+ *
+ * <p>Values are cumulative, so clients compute the deltas between two executions. Java clients can
+ * use {@link TopSnapshot#minus(TopSnapshot)} instead.
+ */
+public class TopCommand extends AbstractNotAliasableCommand<Empty, TopResult> {
+
+  public static final TopCommand INSTANCE = new TopCommand();
+
+  private static final String COMMAND_NAME = "top";
+  private static final DocField TOTALS_FIELD = new DocField("totals");
+
+  private TopCommand() {
+    super(COMMAND_NAME);
+  }
+
+  @Override
+  public boolean isAdminOnly() {
+    return true;
+  }
+
+  @Override
+  public boolean isSlaveOk() {
+    return true;
+  }
+
+  @Override
+  public boolean shouldAffectCommandCounter() {
+    return false;
+  }
+
+  @Override
+  public Class<? extends Empty> getArgClass() {
+    return Empty.class;
+  }
+
+  @Override
+  public Empty unmarshallArg(BsonDocument requestDoc) {
+    return Empty.getInstance();
+  }
+
+  @Override
+  protected BsonDocument marshallArg(Empty request) {
+    return new BsonDocumentBuilder()
+        .append(new IntField(COMMAND_NAME), 1)
+        .build();
+  }
+
+  @Override
+  public Class<? extends TopResult> getResultClass() {
+    return TopResult.class;
+  }
+
+  @Override
+  public TopResult unmarshallResult(BsonDocument resultDoc) throws MongoException {
+    return new TopResult(BsonReaderTool.getDocument(resultDoc, TOTALS_FIELD));
+  }
+
+  @Override
+  public BsonDocument marshallResult(TopResult result) {
+    return new BsonDocumentBuilder()
+        .append(TOTALS_FIELD, result.getTotals())
+        .build();
+  }
+
+  /**
+   * @param <C> the context of the command library
+   */
+  public static <C> Implementation<C> createImplementation(TopStatistics topStatistics) {
+    return new Implementation<>(topStatistics);
+  }
+
+  @Immutable
+  public static class TopResult {
+
+    private final BsonDocument totals;
+
+    public TopResult(BsonDocument totals) {
+      this.totals = totals;
+    }
+
+    /**
+     * @see TopSnapshot#toBsonDocument()
+     */
+    public BsonDocument getTotals() {
+      return totals;
+    }
+  }
+
+  public static class Implementation<C> implements CommandImplementation<Empty, TopResult, C> {
+
+    private final TopStatistics topStatistics;
+
+    private Implementation(TopStatistics topStatistics) {
+      this.topStatistics = topStatistics;
+    }
+
+    @Override
+    public Status<TopResult> apply(Request req, Command<? super Empty, ? super TopResult> command,
+        Empty arg, C context) {
+      return Status.ok(new TopResult(topStatistics.getSnapshot().toBsonDocument()));
+    }
+  }
+}
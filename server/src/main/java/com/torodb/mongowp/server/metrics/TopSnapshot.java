@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.fields.DocField;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.server.metrics.TopStatistics.OperationType;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The values of the {@link TopStatistics} counters at some moment, or the difference between two
+ * of these moments.
+ */
+@Immutable
+public class TopSnapshot {
+
+  private final long nanoTime;
+  private final ImmutableMap<String, NamespaceSnapshot> namespaces;
+
+  TopSnapshot(long nanoTime, Map<String, NamespaceSnapshot> namespaces) {
+    this.nanoTime = nanoTime;
+    this.namespaces = ImmutableMap.copyOf(namespaces);
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} when the snapshot was taken
+   */
+  public long getNanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * @return the values of each namespace, indexed by its full name
+   */
+  public ImmutableMap<String, NamespaceSnapshot> getNamespaces() {
+    return namespaces;
+  }
+
+  /**
+   * Returns the traffic between the given snapshot and this one.
+   *
+   * <p>The namespaces that had no traffic since the previous snapshot are not included.
+   */
+  public TopSnapshot minus(TopSnapshot previous) {
+    ImmutableMap.Builder<String, NamespaceSnapshot> result = ImmutableMap.builder();
+    for (Map.Entry<String, NamespaceSnapshot> entry : namespaces.entrySet()) {
+      NamespaceSnapshot old = previous.namespaces.get(entry.getKey());
+      NamespaceSnapshot delta = old == null ? entry.getValue() : entry.getValue().minus(old);
+      if (delta.getTotalCount() > 0) {
+        result.put(entry.getKey(), delta);
+      }
+    }
+    return new TopSnapshot(nanoTime, result.build());
+  }
+
+  /**
+   * @return a document with an entry per namespace, like the {@code totals} of the {@code top}
+   *         command
+   */
+  public BsonDocument toBsonDocument() {
+    BsonDocumentBuilder builder = new BsonDocumentBuilder(namespaces.size());
+    for (Map.Entry<String, NamespaceSnapshot> entry : namespaces.entrySet()) {
+      builder.append(new DocField(entry.getKey()), entry.getValue().toBsonDocument());
+    }
+    return builder.build();
+  }
+
+  @Immutable
+  public static class NamespaceSnapshot {
+
+    private static final DocField TOTAL_FIELD = new DocField("total");
+    private static final DocField READS_FIELD = new DocField("reads");
+    private static final DocField WRITES_FIELD = new DocField("writes");
+    private static final DocField COMMANDS_FIELD = new DocField("commands");
+    private static final LongField COUNT_FIELD = new LongField("count");
+    private static final LongField TIME_FIELD = new LongField("time");
+    private static final LongField DOCS_IN_FIELD = new LongField("docsIn");
+    private static final LongField DOCS_OUT_FIELD = new LongField("docsOut");
+    private static final LongField BYTES_IN_FIELD = new LongField("bytesIn");
+    private static final LongField CPU_FIELD = new LongField("cpuMicros");
+    private static final LongField ALLOCATED_FIELD = new LongField("allocatedBytes");
+
+    private final long[] counts;
+    private final long[] nanos;
+    private final long documentsIn;
+    private final long documentsOut;
+    private final long bytesIn;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    NamespaceSnapshot(long[] counts, long[] nanos, long documentsIn, long documentsOut,
+        long bytesIn, long cpuNanos, long allocatedBytes) {
+      this.counts = counts;
+      this.nanos = nanos;
+      this.documentsIn = documentsIn;
+      this.documentsOut = documentsOut;
+      this.bytesIn = bytesIn;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    public long getCount(OperationType type) {
+      return counts[type.ordinal()];
+    }
+
+    public long getNanos(OperationType type) {
+      return nanos[type.ordinal()];
+    }
+
+    public long getTotalCount() {
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      return total;
+    }
+
+    public long getTotalNanos() {
+      long total = 0;
+      for (long value : nanos) {
+        total += value;
+      }
+      return total;
+    }
+
+    public long getDocumentsIn() {
+      return documentsIn;
+    }
+
+    public long getDocumentsOut() {
+      return documentsOut;
+    }
+
+    public long getBytesIn() {
+      return bytesIn;
+    }
+
+    /**
+     * @return the CPU time of the operations or 0 if resource accounting is disabled
+     */
+    public long getCpuNanos() {
+      return cpuNanos;
+    }
+
+    /**
+     * @return the bytes allocated by the operations or 0 if resource accounting is disabled
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    NamespaceSnapshot minus(NamespaceSnapshot previous) {
+      long[] countDeltas = new long[counts.length];
+      long[] nanoDeltas = new long[nanos.length];
+      for (int i = 0; i < counts.length; i++) {
+        countDeltas[i] = counts[i] - previous.counts[i];
+        nanoDeltas[i] = nanos[i] - previous.nanos[i];
+      }
+      return new NamespaceSnapshot(countDeltas, nanoDeltas, documentsIn - previous.documentsIn,
+          documentsOut - previous.documentsOut, bytesIn - previous.bytesIn,
+          cpuNanos - previous.cpuNanos, allocatedBytes - previous.allocatedBytes);
+    }
+
+    /**
+     * @return a document whose times are in microseconds, as the ones of the {@code top} command
+     */
+    public BsonDocument toBsonDocument() {
+      return new BsonDocumentBuilder()
+          .append(TOTAL_FIELD, toBsonDocument(getTotalCount(), getTotalNanos()))
+          .append(READS_FIELD, toBsonDocument(OperationType.READ))
+          .append(WRITES_FIELD, toBsonDocument(OperationType.WRITE))
+          .append(COMMANDS_FIELD, toBsonDocument(OperationType.COMMAND))
+          .append(DOCS_IN_FIELD, documentsIn)
+          .append(DOCS_OUT_FIELD, documentsOut)
+          .append(BYTES_IN_FIELD, bytesIn)
+          .append(CPU_FIELD, TimeUnit.NANOSECONDS.toMicros(cpuNanos))
+          .append(ALLOCATED_FIELD, allocatedBytes)
+          .build();
+    }
+
+    private BsonDocument toBsonDocument(OperationType type) {
+      return toBsonDocument(getCount(type), getNanos(type));
+    }
+
+    private static BsonDocument toBsonDocument(long count, long nanos) {
+      return new BsonDocumentBuilder()
+          .append(TIME_FIELD, TimeUnit.NANOSECONDS.toMicros(nanos))
+          .append(COUNT_FIELD, count)
+          .build();
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import com.google.common.collect.ImmutableSet;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The traffic of each namespace (like the one {@code mongotop} shows): the number and the time of
+ * the reads, writes and other commands executed on it and the documents and bytes they received and
+ * returned.
+ *
+ * <p>Counters are {@link LongAdder LongAdders}, indexed first by database and then by collection,
+ * so recording an operation on a known namespace costs two hash lookups and it does not need to
+ * build the full name of the namespace. The number of namespaces is bounded: once
+ * {@link MongoServerConfig#getTopMaxNamespaces()} namespaces are tracked, the traffic of new ones
+ * is added to the {@value #OTHER_NAMESPACE} entry.
+ *
+ * @see TopSnapshot
+ */
+@ThreadSafe
+@Singleton
+public class TopStatistics {
+
+  public static final String OTHER_NAMESPACE = "$other";
+
+  private static final String COMMAND_COLLECTION = "$cmd";
+  private static final String GET_MORE_COMMAND = "getMore";
+  private static final String COLLECTION_FIELD = "collection";
+  private static final String CURSOR_FIELD = "cursor";
+  private static final String FIRST_BATCH_FIELD = "firstBatch";
+  private static final String NEXT_BATCH_FIELD = "nextBatch";
+  private static final String N_FIELD = "n";
+  private static final ImmutableSet<String> READ_COMMANDS = ImmutableSet.of(
+      "find", GET_MORE_COMMAND, "count", "distinct", "aggregate");
+  private static final ImmutableSet<String> WRITE_COMMANDS = ImmutableSet.of(
+      "insert", "update", "delete", "findAndModify", "findandmodify");
+
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, NamespaceCounters>> databases =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger namespaces = new AtomicInteger();
+  private final int maxNamespaces;
+  private final NamespaceCounters other = new NamespaceCounters();
+
+  @Inject
+  public TopStatistics(MongoServerConfig config) {
+    this(config.getTopMaxNamespaces());
+  }
+
+  public TopStatistics(int maxNamespaces) {
+    this.maxNamespaces = maxNamespaces;
+  }
+
+  /**
+   * Records an operation executed on the given namespace.
+   *
+   * @param nanos        the time spent executing the operation
+   * @param documentsIn  the documents the operation received or modified
+   * @param documentsOut the documents the operation returned
+   * @param bytesIn      the size of the request
+   */
+  public void record(String database, String collection, OperationType type, long nanos,
+      long documentsIn, long documentsOut, long bytesIn) {
+    getCounters(database, collection).record(type, nanos, documentsIn, documentsOut, bytesIn);
+  }
+
+  /**
+   * Adds the documents returned by an operation that has already been
+   * {@link #record(String, String, OperationType, long, long, long, long) recorded}, for the
+   * operations whose documents are counted when their reply is encoded.
+   */
+  public void recordDocumentsOut(String database, String collection, long documentsOut) {
+    if (documentsOut != 0) {
+      getCounters(database, collection).documentsOut.add(documentsOut);
+    }
+  }
+
+  /**
+   * Records the execution of a command.
+   *
+   * <p>The namespace is the collection the command is executed on (the value of its first field
+   * on most commands) or {@code $cmd} if it has none. Documents are not read from the command, as
+   * they may be streamed: the documents a read returns are the ones of its first (or next) batch
+   * and the ones a write modifies are the {@code n} of its result.
+   *
+   * @param command the command document
+   * @param result  the marshalled result
+   * @param bytesIn the size of the request
+   */
+  public void recordCommand(String database, String commandName, BsonDocument command,
+      long nanos, BsonDocument result, long bytesIn) {
+    String collection = getCommandCollection(commandName, command);
+    if (READ_COMMANDS.contains(commandName)) {
+      record(database, collection, OperationType.READ, nanos, 0, countBatchDocuments(result),
+          bytesIn);
+    } else if (WRITE_COMMANDS.contains(commandName)) {
+      BsonValue<?> n = result.get(N_FIELD);
+      record(database, collection, OperationType.WRITE, nanos,
+          n != null && n.isNumber() ? n.asNumber().longValue() : 0, 0, bytesIn);
+    } else {
+      record(database, collection, OperationType.COMMAND, nanos, 0, 0, bytesIn);
+    }
+  }
+
+  private static int countBatchDocuments(BsonDocument result) {
+    BsonValue<?> cursor = result.get(CURSOR_FIELD);
+    if (cursor == null || !cursor.isDocument()) {
+      return 0;
+    }
+    BsonValue<?> batch = cursor.asDocument().get(FIRST_BATCH_FIELD);
+    if (batch == null) {
+      batch = cursor.asDocument().get(NEXT_BATCH_FIELD);
+    }
+    return batch != null && batch.isArray() ? batch.asArray().size() : 0;
+  }
+
+  /**
+   * Adds the resources used by an operation executed on the given namespace.
+   */
+  public void recordResources(String database, String collection,
+      ResourceMeasurement measurement) {
+    getCounters(database, collection).resources.add(measurement);
+  }
+
+  /**
+   * @return the collection a command is executed on or {@code $cmd} if it is not known
+   */
+  public static String getCommandCollection(String commandName, BsonDocument command) {
+    BsonValue<?> collection;
+    if (GET_MORE_COMMAND.equals(commandName)) {
+      collection = command.get(COLLECTION_FIELD);
+    } else {
+      collection = command.isEmpty() ? null : command.getFirstEntry().getValue();
+    }
+    if (collection != null && collection.isString()) {
+      return collection.asString().getValue();
+    }
+    return COMMAND_COLLECTION;
+  }
+
+  private NamespaceCounters getCounters(String database, String collection) {
+    ConcurrentHashMap<String, NamespaceCounters> collections = databases.get(database);
+    if (collections != null) {
+      NamespaceCounters counters = collections.get(collection);
+      if (counters != null) {
+        return counters;
+      }
+    }
+    //concurrent insertions may exceed the limit by a few namespaces
+    if (namespaces.get() >= maxNamespaces) {
+      return other;
+    }
+    if (collections == null) {
+      collections = databases.computeIfAbsent(database, db -> new ConcurrentHashMap<>());
+    }
+    return collections.computeIfAbsent(collection, coll -> {
+      namespaces.incrementAndGet();
+      return new NamespaceCounters();
+    });
+  }
+
+  /**
+   * @return the number of namespaces that are tracked separately
+   */
+  public int getNamespaceCount() {
+    return namespaces.get();
+  }
+
+  /**
+   * Returns the current values of the counters.
+   *
+   * <p>Counters are read without stopping their updates, so a snapshot may contain the time of an
+   * operation but not its documents. Deltas can be computed with
+   * {@link TopSnapshot#minus(TopSnapshot)}.
+   */
+  public TopSnapshot getSnapshot() {
+    Map<String, TopSnapshot.NamespaceSnapshot> result = new LinkedHashMap<>();
+    databases.forEach((database, collections) -> collections.forEach((collection, counters) ->
+        result.put(database + '.' + collection, counters.snapshot())
+    ));
+    TopSnapshot.NamespaceSnapshot otherSnapshot = other.snapshot();
+    if (otherSnapshot.getTotalCount() > 0) {
+      result.put(OTHER_NAMESPACE, otherSnapshot);
+    }
+    return new TopSnapshot(System.nanoTime(), result);
+  }
+
+  public static enum OperationType {
+    READ,
+    WRITE,
+    /**
+     * Commands that are not reads or writes.
+     */
+    COMMAND
+  }
+
+  private static class NamespaceCounters {
+
+    private final LongAdder[] counts = newAdders();
+    private final LongAdder[] nanos = newAdders();
+    private final LongAdder documentsIn = new LongAdder();
+    private final LongAdder documentsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final ResourceCounters resources = new ResourceCounters();
+
+    private static LongAdder[] newAdders() {
+      LongAdder[] adders = new LongAdder[OperationType.values().length];
+      for (int i = 0; i < adders.length; i++) {
+        adders[i] = new LongAdder();
+      }
+      return adders;
+    }
+
+    private void record(OperationType type, long nanos, long documentsIn, long documentsOut,
+        long bytesIn) {
+      this.counts[type.ordinal()].increment();
+      this.nanos[type.ordinal()].add(nanos);
+      if (documentsIn != 0) {
+        this.documentsIn.add(documentsIn);
+      }
+      if (documentsOut != 0) {
+        this.documentsOut.add(documentsOut);
+      }
+      this.bytesIn.add(bytesIn);
+    }
+
+    private TopSnapshot.NamespaceSnapshot snapshot() {
+      long[] countValues = new long[counts.length];
+      long[] nanoValues = new long[nanos.length];
+      for (int i = 0; i < counts.length; i++) {
+        countValues[i] = counts[i].sum();
+        nanoValues[i] = nanos[i].sum();
+      }
+      return new TopSnapshot.NamespaceSnapshot(countValues, nanoValues, documentsIn.sum(),
+          documentsOut.sum(), bytesIn.sum(), resources.getCpuNanos(),
+          resources.getAllocatedBytes());
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.metrics;
+
+import javax.annotation.Nullable;
+
+/**
+ * Creates the Java Flight Recorder events of the wire protocol pipeline.
+ *
+ * <p>Each method begins an event and returns it, or returns null if the JVM does not support JFR
+ * or the event is disabled, so the instrumented code does nothing else when no recording is
+ * interested on it. Events are enabled by default with a {@value #DEFAULT_THRESHOLD} threshold, so
+ * any recording contains the slow requests. Both settings can be changed on the recording
+ * configuration.
+ *
+ * <p>Event classes must only be used through this class, as they cannot be loaded on JVMs without
+ * JFR.
+ */
+public final class WireEvents {
+
+  static final String DEFAULT_THRESHOLD = "10 ms";
+
+  /**
+   * True iff the JVM supports JFR events.
+   */
+  public static final boolean AVAILABLE = isJfrAvailable();
+
+  private WireEvents() {
+  }
+
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError ex) {
+      return false;
+    }
+  }
+
+  @Nullable
+  public static FrameDecodeEvent beginFrameDecode() {
+    if (!AVAILABLE) {
+      return null;
+    }
+    FrameDecodeEvent event = new FrameDecodeEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Nullable
+  public static RequestExecutionEvent beginRequestExecution() {
+    if (!AVAILABLE) {
+      return null;
+    }
+    RequestExecutionEvent event = new RequestExecutionEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Nullable
+  public static CommandDispatchEvent beginCommandDispatch() {
+    if (!AVAILABLE) {
+      return null;
+    }
+    CommandDispatchEvent event = new CommandDispatchEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Nullable
+  public static ReplyEncodeEvent beginReplyEncode() {
+    if (!AVAILABLE) {
+      return null;
+    }
+    ReplyEncodeEvent event = new ReplyEncodeEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Nullable
+  public static ReplyFlushEvent beginReplyFlush() {
+    if (!AVAILABLE) {
+      return null;
+    }
+    ReplyFlushEvent event = new ReplyFlushEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+}
@@ -55,6 +55,19 @@ public final class ByteBufIterableDocumentProvider extends IterableDocumentProvi
     return new MyIterable(algorithm, reader, byteBuf);
   }
 
+  /**
+   * @return the buffer that contains the serialized documents. Its indexes must not be modified
+   */
+  @Tight
+  public ByteBuf getByteBuf() {
+    return byteBuf;
+  }
+
+  @Override
+  public int getSerializedSizeHint() {
+    return byteBuf.readableBytes();
+  }
+
   private static final class MyIterable extends FluentIterable<BsonDocument> {
 
     private final AllocationType allocationType;
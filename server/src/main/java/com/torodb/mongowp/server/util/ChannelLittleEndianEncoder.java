@@ -15,7 +15,6 @@
  */
 package com.torodb.mongowp.server.util;
 
-import com.torodb.mongowp.messages.response.ReplyMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
@@ -23,16 +22,52 @@ import io.netty.handler.codec.MessageToByteEncoder;
 import java.nio.ByteOrder;
 
 /**
+ * A {@link MessageToByteEncoder} that writes little endian messages.
  *
+ * <p>The output buffer is allocated with the size returned by {@link #estimateSize(Object)} or,
+ * when the message cannot estimate its size, with the size of the last encoded message, so big
+ * messages are not written on a buffer that has to be reallocated and copied several times.
  */
-public abstract class ChannelLittleEndianEncoder extends MessageToByteEncoder<ReplyMessage> {
+public abstract class ChannelLittleEndianEncoder<T> extends MessageToByteEncoder<T> {
+
+  private static final int MIN_INITIAL_CAPACITY = 256;
+  private static final int MAX_ADAPTIVE_CAPACITY = 4 * 1024 * 1024;
+
+  private int lastEncodedSize = MIN_INITIAL_CAPACITY;
 
   @Override
-  protected void encode(ChannelHandlerContext ctx, ReplyMessage msg, ByteBuf out) throws Exception {
+  protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, T msg, boolean preferDirect)
+      throws Exception {
+    int estimation = estimateSize(msg);
+    int initialCapacity = estimation > 0 ? estimation : lastEncodedSize;
+    if (preferDirect) {
+      return ctx.alloc().ioBuffer(initialCapacity);
+    } else {
+      return ctx.alloc().heapBuffer(initialCapacity);
+    }
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, T msg, ByteBuf out) throws Exception {
+    int start = out.writerIndex();
     encodeLittleEndian(ctx, msg, out.order(ByteOrder.LITTLE_ENDIAN));
+    lastEncodedSize = Math.min(
+        Math.max(out.writerIndex() - start, MIN_INITIAL_CAPACITY),
+        MAX_ADAPTIVE_CAPACITY
+    );
+  }
+
+  /**
+   * Returns the number of bytes the given message will use once encoded, or an estimation of it.
+   *
+   * <p>The default implementation returns -1.
+   *
+   * @return the expected size or a non positive value if it is not known
+   */
+  protected int estimateSize(T msg) {
+    return -1;
   }
 
-  protected abstract void encodeLittleEndian(ChannelHandlerContext ctx, ReplyMessage msg,
-      ByteBuf out)
+  protected abstract void encodeLittleEndian(ChannelHandlerContext ctx, T msg, ByteBuf out)
       throws Exception;
 }
@@ -24,7 +24,10 @@ import java.nio.ByteOrder;
 
 /**
  *
+ * @deprecated the reply encoders write the length field themselves, so this handler is no longer
+ *             part of the server pipeline
  */
+@Deprecated
 @ChannelHandler.Sharable
 public class LengthFieldPrependerLittleEndian extends LengthFieldPrepender {
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An executor that runs its tasks one by one, in submission order, on a delegate executor.
+ *
+ * <p>Tasks are executed in batches of at most {@link #MAX_BATCH_SIZE} tasks, so a single busy
+ * instance does not monopolize a delegate thread.
+ *
+ * <p>If the delegate rejects a batch, all queued tasks are discarded and the ones that implement
+ * {@link AutoCloseable} are closed, so they can release their resources.
+ *
+ * <p>Delegates that execute rejected batches on the calling thread must check
+ * {@link #mayRunOnCaller(Runnable)} first, as batches that contain a {@link CallerBlockingTask}
+ * must not be executed by the thread that submitted them.
+ */
+@ThreadSafe
+public class SerializingExecutor implements Executor {
+
+  private static final Logger LOGGER = LogManager.getLogger(SerializingExecutor.class);
+  private static final int MAX_BATCH_SIZE = 64;
+
+  private final Executor delegate;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  public SerializingExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Returns whether the given task, which has been submitted to the delegate, can be executed by
+   * the thread that submitted it.
+   *
+   * <p>Batches scheduled by {@link #execute(Runnable)} cannot if they contain a
+   * {@link CallerBlockingTask}. Batches scheduled by the delegate itself, to continue with the
+   * tasks that did not fit on the previous batch, always can.
+   */
+  public static boolean mayRunOnCaller(Runnable task) {
+    if (!(task instanceof SerializingExecutor.Batch)) {
+      return true;
+    }
+    Batch batch = (Batch) task;
+    return batch.fromDelegate || batch.getExecutor().tasks.stream()
+        .noneMatch(queued -> queued instanceof CallerBlockingTask);
+  }
+
+  /**
+   * @throws RejectedExecutionException if the delegate rejects the task, which is closed if it is
+   *                                    {@link AutoCloseable}
+   */
+  @Override
+  public void execute(Runnable command) throws RejectedExecutionException {
+    tasks.add(command);
+    schedule(false);
+  }
+
+  private void schedule(boolean fromDelegate) throws RejectedExecutionException {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        delegate.execute(new Batch(fromDelegate));
+      } catch (RejectedExecutionException ex) {
+        scheduled.set(false);
+        discardTasks();
+        throw ex;
+      }
+    }
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private void discardTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      if (task instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) task).close();
+        } catch (Exception ex) {
+          LOGGER.warn("Error while closing the rejected task " + task, ex);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private void runBatch() {
+    try {
+      for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+        Runnable task = tasks.poll();
+        if (task == null) {
+          break;
+        }
+        try {
+          task.run();
+        } catch (RuntimeException ex) {
+          LOGGER.error("Exception while executing " + task, ex);
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      if (!tasks.isEmpty()) {
+        try {
+          schedule(true);
+        } catch (RejectedExecutionException ex) {
+          LOGGER.debug("The pending tasks have been rejected", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * A task that may wait for the thread that submitted it, for instance for data that thread
+   * receives, so it must never be executed by that thread.
+   */
+  public interface CallerBlockingTask extends Runnable {
+  }
+
+  private class Batch implements Runnable {
+
+    private final boolean fromDelegate;
+
+    Batch(boolean fromDelegate) {
+      this.fromDelegate = fromDelegate;
+    }
+
+    SerializingExecutor getExecutor() {
+      return SerializingExecutor.this;
+    }
+
+    @Override
+    public void run() {
+      runBatch();
+    }
+  }
+}
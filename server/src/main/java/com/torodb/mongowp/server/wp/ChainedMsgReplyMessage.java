@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
+
+/**
+ * A batch of an exhaust {@code getMore} command that must reply to the previous {@code OP_MSG}
+ * reply written on the channel instead of to a request.
+ *
+ * <p>The request id of the previous reply is only known once it is encoded, so the
+ * {@link MsgReplyMessageObjectHandler} sets the {@code responseTo} of the batch when it is written.
+ */
+class ChainedMsgReplyMessage {
+
+  private final BsonDocument body;
+  private final boolean moreToCome;
+
+  ChainedMsgReplyMessage(BsonDocument body, boolean moreToCome) {
+    this.body = body;
+    this.moreToCome = moreToCome;
+  }
+
+  /**
+   * @return a reply with the body of the batch answering to the given request id
+   */
+  MsgReplyMessage chainTo(int previousReplyId) {
+    return new MsgReplyMessage.Builder(EmptyBsonContext.getInstance(), previousReplyId, body)
+        .setMoreToCome(moreToCome)
+        .build();
+  }
+
+  @Override
+  public String toString() {
+    return "ChainedMsgReplyMessage{moreToCome=" + moreToCome + ", body=" + body + '}';
+  }
+}
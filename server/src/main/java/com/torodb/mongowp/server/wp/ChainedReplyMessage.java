@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.messages.response.ReplyMessage;
+
+/**
+ * A batch of an exhaust cursor that must reply to the previous reply written on the channel
+ * instead of to a request.
+ *
+ * <p>The request id of the previous reply is only known once it is encoded, so the
+ * {@link ReplyMessageObjectHandler} sets the {@code responseTo} of the batch when it is written.
+ */
+class ChainedReplyMessage {
+
+  private final ReplyMessage batch;
+
+  ChainedReplyMessage(ReplyMessage batch) {
+    this.batch = batch;
+  }
+
+  ReplyMessage getBatch() {
+    return batch;
+  }
+
+  /**
+   * @return a reply equal to the batch but answering to the given request id
+   */
+  ReplyMessage chainTo(int previousReplyId) {
+    return new ReplyMessage(
+        batch.getDataContext(),
+        previousReplyId,
+        batch.isCursorNotFound(),
+        batch.isQueryFailure(),
+        batch.isShardConfigStale(),
+        batch.isAwaitCapable(),
+        batch.getCursorId(),
+        batch.getStartingFrom(),
+        batch.getDocuments()
+    );
+  }
+
+  @Override
+  public String toString() {
+    return "ChainedReplyMessage{" + batch + '}';
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.server.metrics.ReplyFlushEvent;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.WireEvents;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stops reading requests from a connection while its outbound buffer is over the high water mark
+ * and keeps its {@link ConnectionTraffic}.
+ *
+ * <p>This way a client that does not consume its replies cannot make the server buffer an
+ * unbounded amount of data. Reading is resumed once the buffer goes under the low water mark.
+ *
+ * <p>As it is the first handler of the pipeline that sees raw bytes, it also records the network
+ * {@link ServerMetrics} and the flush latency of each written buffer.
+ */
+public class ChannelWritabilityHandler extends ChannelDuplexHandler {
+
+  private static final Logger LOGGER = LogManager.getLogger(ChannelWritabilityHandler.class);
+
+  private final ServerMetrics serverMetrics;
+
+  private ConnectionTraffic traffic;
+
+  public ChannelWritabilityHandler(ServerMetrics serverMetrics) {
+    this.serverMetrics = serverMetrics;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    traffic = new ConnectionTraffic(ctx.channel());
+    ctx.channel().attr(ConnectionTraffic.ATTRIBUTE_KEY).set(traffic);
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws
+      Exception {
+    if (msg instanceof ByteBuf) {
+      int bytes = ((ByteBuf) msg).readableBytes();
+      traffic.onWrite(bytes);
+      serverMetrics.onBytesOut(bytes);
+      if (promise != ctx.voidPromise()) {
+        long start = System.nanoTime();
+        ReplyFlushEvent event = WireEvents.beginReplyFlush();
+        promise.addListener(future -> {
+          serverMetrics.onReplyFlushed(System.nanoTime() - start);
+          if (event != null) {
+            event.finish(bytes, future.isSuccess());
+          }
+        });
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (msg instanceof ByteBuf) {
+      serverMetrics.onBytesIn(((ByteBuf) msg).readableBytes());
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    boolean writable = ctx.channel().isWritable();
+    LOGGER.trace("Channel {} writable: {}", ctx.channel(), writable);
+    //a paused stream resumes reading itself once its consumer catches up
+    ctx.channel().config().setAutoRead(
+        writable && !StreamingRequestDecoder.isStreamPaused(ctx.channel()));
+    traffic.onWritabilityChanged();
+
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    traffic.onWritabilityChanged();
+    ctx.fireChannelInactive();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.google.common.collect.ImmutableList;
+import com.torodb.mongowp.bson.BsonArray;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.BsonValue;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.fields.ArrayField;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.QueryMessage;
+import com.torodb.mongowp.messages.request.RequestMessage;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
+import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.api.IsMasterHelper;
+import com.torodb.mongowp.server.api.RequestProcessorAdaptor;
+import com.torodb.mongowp.server.compression.MessageCompressor;
+import com.torodb.mongowp.server.compression.MessageCompressorRegistry;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.inject.Inject;
+
+/**
+ * Negotiates the compressors that can be used on a connection and advertises the limits of the
+ * server.
+ *
+ * <p>When a client sends a {@code compression} array on the {@code isMaster} (or {@code hello})
+ * command, this handler adds to its reply the compressors supported by both sides, in the order
+ * the client prefers them. Successful {@code isMaster} replies are also decorated with
+ * {@link IsMasterHelper#decorate(BsonDocument)}. This is done here instead of on the command
+ * implementation to keep it transparent to the applications that use mongowp.
+ */
+@NotThreadSafe
+public class CompressionNegotiationHandler extends ChannelDuplexHandler {
+
+  private static final String COMPRESSION_FIELD_NAME = "compression";
+  private static final ArrayField COMPRESSION_FIELD = new ArrayField(COMPRESSION_FIELD_NAME);
+
+  private static final String OK_FIELD_NAME = "ok";
+
+  private final MessageCompressorRegistry registry;
+  private final IsMasterHelper isMasterHelper;
+  private int pendingRequestId;
+  /**
+   * The compressors to add to the reply of the pending {@code isMaster}, or null if there is no
+   * pending {@code isMaster}.
+   */
+  @Nullable
+  private ImmutableList<MessageCompressor> pendingCompressors;
+
+  @Inject
+  public CompressionNegotiationHandler(MessageCompressorRegistry registry,
+      IsMasterHelper isMasterHelper) {
+    this.registry = registry;
+    this.isMasterHelper = isMasterHelper;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (msg instanceof RequestMessage) {
+      BsonDocument command = getCommand((RequestMessage) msg);
+      if (command != null && isIsMaster(command)) {
+        BsonValue<?> requested = command.get(COMPRESSION_FIELD_NAME);
+        pendingRequestId = ((RequestMessage) msg).getBaseMessage().getRequestId();
+        if (requested != null && requested.isArray()) {
+          pendingCompressors = registry.negotiate(getNames(requested.asArray()));
+        } else {
+          pendingCompressors = ImmutableList.of();
+        }
+      }
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  @Nullable
+  private BsonDocument getCommand(RequestMessage message) {
+    switch (message.getOpCode()) {
+      case OP_QUERY: {
+        QueryMessage queryMessage = (QueryMessage) message;
+        if (RequestProcessorAdaptor.QUERY_MESSAGE_COMMAND_COLLECTION.equals(
+            queryMessage.getCollection())) {
+          return queryMessage.getQuery();
+        }
+        return null;
+      }
+      case OP_MSG:
+        return ((MsgMessage) message).getBody();
+      default:
+        return null;
+    }
+  }
+
+  private boolean isIsMaster(BsonDocument command) {
+    if (command.isEmpty()) {
+      return false;
+    }
+    String commandName = command.getFirstEntry().getKey().toLowerCase(Locale.ROOT);
+    return commandName.equals("ismaster") || commandName.equals("hello");
+  }
+
+  private List<String> getNames(BsonArray requested) {
+    List<String> names = new ArrayList<>(requested.size());
+    for (BsonValue<?> value : requested) {
+      if (value.isString()) {
+        names.add(value.asString().getValue());
+      }
+    }
+    return names;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws
+      Exception {
+    if (pendingCompressors != null) {
+      if (msg instanceof ReplyMessage
+          && ((ReplyMessage) msg).getResponseTo() == pendingRequestId) {
+        msg = decorate((ReplyMessage) msg, pendingCompressors);
+        pendingCompressors = null;
+      } else if (msg instanceof MsgReplyMessage
+          && ((MsgReplyMessage) msg).getResponseTo() == pendingRequestId) {
+        msg = decorate((MsgReplyMessage) msg, pendingCompressors);
+        pendingCompressors = null;
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  private ReplyMessage decorate(ReplyMessage reply, List<MessageCompressor> compressors) {
+    if (reply.isQueryFailure()) {
+      return reply;
+    }
+    List<BsonDocument> docs = new ArrayList<>(
+        reply.getDocuments().getIterable(AllocationType.HEAP).toList());
+    if (docs.isEmpty() || !isOk(docs.get(0))) {
+      return reply;
+    }
+    docs.set(0, decorate(docs.get(0), compressors));
+    return new ReplyMessage(
+        reply.getDataContext(),
+        reply.getResponseTo(),
+        reply.isCursorNotFound(),
+        reply.isQueryFailure(),
+        reply.isShardConfigStale(),
+        reply.isAwaitCapable(),
+        reply.getCursorId(),
+        reply.getStartingFrom(),
+        IterableDocumentProvider.of(docs)
+    );
+  }
+
+  private MsgReplyMessage decorate(MsgReplyMessage reply, List<MessageCompressor> compressors) {
+    if (!isOk(reply.getBody())) {
+      return reply;
+    }
+    return new MsgReplyMessage(
+        reply.getDataContext(),
+        reply.getResponseTo(),
+        reply.isMoreToCome(),
+        decorate(reply.getBody(), compressors),
+        reply.getDocumentSequences()
+    );
+  }
+
+  private boolean isOk(BsonDocument reply) {
+    BsonValue<?> ok = reply.get(OK_FIELD_NAME);
+    if (ok == null) {
+      return false;
+    }
+    if (ok.isBoolean()) {
+      return ok.asBoolean().getPrimitiveValue();
+    }
+    return ok.isNumber() && ok.asNumber().doubleValue() != 0;
+  }
+
+  private BsonDocument decorate(BsonDocument isMasterReply, List<MessageCompressor> compressors) {
+    isMasterReply = isMasterHelper.decorate(isMasterReply);
+    if (compressors.isEmpty() || isMasterReply.containsKey(COMPRESSION_FIELD_NAME)) {
+      return isMasterReply;
+    }
+    List<BsonValue<?>> names = new ArrayList<>(compressors.size());
+    for (MessageCompressor compressor : compressors) {
+      names.add(DefaultBsonValues.newString(compressor.getName()));
+    }
+    return new BsonDocumentBuilder(isMasterReply)
+        .append(COMPRESSION_FIELD, names)
+        .build();
+  }
+}
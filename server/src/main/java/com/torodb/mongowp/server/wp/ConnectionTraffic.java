@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The outbound traffic of a connection, maintained by {@link ChannelWritabilityHandler}.
+ *
+ * <p>It also keeps the number of returned documents, which is counted by the reply encoders, and
+ * the decode time of the last request, so the profiler can attribute them to each request.
+ */
+@ThreadSafe
+public class ConnectionTraffic {
+
+  static final AttributeKey<ConnectionTraffic> ATTRIBUTE_KEY = AttributeKey.valueOf(
+      ConnectionTraffic.class.getCanonicalName());
+
+  private final Channel channel;
+  private final AtomicLong outboundBytes = new AtomicLong();
+  private final AtomicLong outboundMessages = new AtomicLong();
+  private final AtomicLong outboundDocuments = new AtomicLong();
+  /**
+   * The nanoseconds spent decoding the last request. Only accessed on the event loop.
+   */
+  private long lastDecodeNanos;
+  private final Object writabilityMonitor = new Object();
+  /**
+   * The tasks waiting for the channel to be writable. Only accessed on the event loop.
+   */
+  private List<Runnable> writableTasks = new ArrayList<>();
+
+  ConnectionTraffic(Channel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * @return the traffic of the given channel or null if its pipeline does not contain a
+   *         {@link ChannelWritabilityHandler}
+   */
+  @Nullable
+  public static ConnectionTraffic get(Channel channel) {
+    return channel.attr(ATTRIBUTE_KEY).get();
+  }
+
+  void onWrite(int bytes) {
+    outboundMessages.incrementAndGet();
+    outboundBytes.addAndGet(bytes);
+  }
+
+  void onReplyEncoded(int documents) {
+    outboundDocuments.addAndGet(documents);
+  }
+
+  void onRequestDecoded(long nanos) {
+    lastDecodeNanos = nanos;
+  }
+
+  /**
+   * Returns the nanoseconds spent decoding the last request and forgets them, so they are not
+   * attributed to a request whose decoding is not measured (like the streamed ones).
+   *
+   * <p>This method must be called from the event loop of the channel.
+   */
+  long takeLastDecodeNanos() {
+    long nanos = lastDecodeNanos;
+    lastDecodeNanos = 0;
+    return nanos;
+  }
+
+  void onWritabilityChanged() {
+    synchronized (writabilityMonitor) {
+      writabilityMonitor.notifyAll();
+    }
+    if (!writableTasks.isEmpty() && (channel.isWritable() || !channel.isActive())) {
+      List<Runnable> tasks = writableTasks;
+      writableTasks = new ArrayList<>();
+      tasks.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * @return the number of bytes written on the connection, including the ones that have not been
+   *         sent yet
+   */
+  public long getOutboundBytes() {
+    return outboundBytes.get();
+  }
+
+  public long getOutboundMessages() {
+    return outboundMessages.get();
+  }
+
+  /**
+   * @return the number of documents returned on the replies written on the connection
+   */
+  public long getOutboundDocuments() {
+    return outboundDocuments.get();
+  }
+
+  /**
+   * @return the number of bytes written on the connection that have not been sent to the socket
+   */
+  public long getPendingOutboundBytes() {
+    ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+    if (outboundBuffer == null) {
+      return 0;
+    }
+    return outboundBuffer.totalPendingWriteBytes();
+  }
+
+  public boolean isWritable() {
+    return channel.isWritable();
+  }
+
+  /**
+   * Waits until the connection is writable or it is closed.
+   *
+   * <p>This method must not be called from the event loop of the channel, as it is the thread
+   * that makes the channel writable again. In that case it returns immediately.
+   *
+   * @return true iff the channel is writable
+   */
+  public boolean awaitWritable(long timeout, TimeUnit unit) throws InterruptedException {
+    if (channel.eventLoop().inEventLoop()) {
+      return channel.isWritable();
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (writabilityMonitor) {
+      while (!channel.isWritable() && channel.isActive()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(writabilityMonitor, remaining);
+      }
+    }
+    return channel.isWritable();
+  }
+
+  /**
+   * Executes the given task once the connection is writable or it is closed.
+   *
+   * <p>This is the non blocking version of {@link #awaitWritable(long, TimeUnit)} and it must be
+   * called from the event loop of the channel. The task is executed on the event loop too.
+   */
+  public void runWhenWritable(Runnable task) {
+    assert channel.eventLoop().inEventLoop();
+    if (channel.isWritable() || !channel.isActive()) {
+      task.run();
+    } else {
+      writableTasks.add(task);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionTraffic{outboundBytes=" + getOutboundBytes()
+        + ", outboundMessages=" + getOutboundMessages()
+        + ", pendingOutboundBytes=" + getPendingOutboundBytes() + '}';
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.messages.response.ReplyMessage;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A reply whose sender must be told how many documents it returned.
+ *
+ * <p>The {@link ReplyMessageObjectHandler} knows the number of documents once the reply is encoded,
+ * so the sender does not have to iterate them.
+ */
+class CountedReplyMessage {
+
+  private final ReplyMessage reply;
+  private final IntConsumer documentsListener;
+
+  CountedReplyMessage(ReplyMessage reply, IntConsumer documentsListener) {
+    this.reply = reply;
+    this.documentsListener = documentsListener;
+  }
+
+  ReplyMessage getReply() {
+    return reply;
+  }
+
+  IntConsumer getDocumentsListener() {
+    return documentsListener;
+  }
+
+  @Override
+  public String toString() {
+    return "CountedReplyMessage{" + reply + '}';
+  }
+}
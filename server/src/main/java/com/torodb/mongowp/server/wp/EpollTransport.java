@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The Linux native transport, which uses edge-triggered epoll and supports
+ * {@code SO_REUSEPORT}.
+ */
+class EpollTransport extends NettyTransport {
+
+  private static final Logger LOGGER = LogManager.getLogger(EpollTransport.class);
+
+  /**
+   * @return true iff the epoll classes are on the classpath and its native library can be loaded
+   */
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  static boolean isAvailable() {
+    try {
+      if (!Epoll.isAvailable()) {
+        LOGGER.debug("The epoll transport is not available", Epoll.unavailabilityCause());
+        return false;
+      }
+      return true;
+    } catch (Throwable ex) {
+      LOGGER.debug("The epoll transport is not available", ex);
+      return false;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "epoll";
+  }
+
+  @Override
+  public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+    return new EpollEventLoopGroup(threads, threadFactory);
+  }
+
+  @Override
+  public Class<? extends ServerChannel> getServerChannelClass() {
+    return EpollServerSocketChannel.class;
+  }
+
+  @Override
+  public boolean supportsReusePort() {
+    return true;
+  }
+
+  @Override
+  public void enableReusePort(ServerBootstrap bootstrap) {
+    bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+  }
+}
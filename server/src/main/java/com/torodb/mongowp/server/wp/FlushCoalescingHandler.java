@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Delays the flushes of a channel to reduce the number of write syscalls.
+ *
+ * <p>Flushes requested while a batch of reads is being processed are executed once, when
+ * {@code channelReadComplete} is fired. Flushes requested outside a read batch (for example, by
+ * requests that are executed outside the event loop) are executed by a task that is scheduled on
+ * the event loop, so replies written at the same time are flushed together. In both cases the
+ * channel is flushed as soon as the number of delayed flushes or the written bytes reach the
+ * configured limits.
+ *
+ * <p>This handler must be the closest one to the head of the pipeline.
+ */
+@NotThreadSafe
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+  private final int maxPendingFlushes;
+  private final long maxPendingBytes;
+  private boolean readInProgress;
+  private int pendingFlushes;
+  private long pendingBytes;
+  @Nullable
+  private Future<?> scheduledFlush;
+  @Nullable
+  private ChannelHandlerContext ctx;
+  private final Runnable flushTask = () -> {
+    scheduledFlush = null;
+    if (pendingFlushes > 0 && !readInProgress) {
+      flushNow(ctx);
+    }
+  };
+
+  public FlushCoalescingHandler(int maxPendingFlushes, long maxPendingBytes) {
+    this.maxPendingFlushes = maxPendingFlushes;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    this.ctx = ctx;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    readInProgress = true;
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    readInProgress = false;
+    flushIfNeeded(ctx);
+    ctx.fireChannelReadComplete();
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws
+      Exception {
+    if (msg instanceof ByteBuf) {
+      pendingBytes += ((ByteBuf) msg).readableBytes();
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    pendingFlushes++;
+    if (pendingFlushes >= maxPendingFlushes || pendingBytes >= maxPendingBytes) {
+      flushNow(ctx);
+    } else if (!readInProgress && scheduledFlush == null) {
+      scheduledFlush = ctx.channel().eventLoop().submit(flushTask);
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (!ctx.channel().isWritable()) {
+      //the pending data must reach the socket to let the channel become writable again
+      flushIfNeeded(ctx);
+    }
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    flushIfNeeded(ctx);
+    ctx.fireExceptionCaught(cause);
+  }
+
+  @Override
+  public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+    flushIfNeeded(ctx);
+    ctx.disconnect(promise);
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+    flushIfNeeded(ctx);
+    ctx.close(promise);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    flushIfNeeded(ctx);
+  }
+
+  private void flushIfNeeded(ChannelHandlerContext ctx) {
+    if (pendingFlushes > 0) {
+      flushNow(ctx);
+    }
+  }
+
+  private void flushNow(ChannelHandlerContext ctx) {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    pendingFlushes = 0;
+    pendingBytes = 0;
+    ctx.flush();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.exceptions.BadValueException;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.messages.response.ResponseOpCode;
+import com.torodb.mongowp.server.compression.MessageCompressor;
+import com.torodb.mongowp.server.compression.MessageCompressorRegistry;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.collection.IntObjectHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.inject.Inject;
+
+/**
+ * Unwraps the {@code OP_COMPRESSED} requests and compresses the replies to them.
+ *
+ * <p>Inbound, this handler receives the frames produced by the length field decoder (without the
+ * length field) and replaces compressed frames by the decompressed message. Outbound, it receives
+ * the complete encoded replies (including the length field) and compresses the ones that reply to
+ * a compressed request, using the same compressor the client used, as MongoDB does. Replies
+ * smaller than {@link #MIN_COMPRESSIBLE_BYTES} are sent uncompressed.
+ */
+@NotThreadSafe
+@SuppressFBWarnings(
+    value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT",
+    justification = "It seems FindBugs considers ByteBuf methods are not side effect")
+public class MessageCompressionHandler extends ChannelDuplexHandler {
+
+  private static final Logger LOGGER = LogManager.getLogger(MessageCompressionHandler.class);
+  public static final int MIN_COMPRESSIBLE_BYTES = 512;
+  /**
+   * The bytes between the end of the header and the compressed data: the original opCode, the
+   * uncompressed size and the compressor id.
+   */
+  private static final int COMPRESSION_HEADER_BYTES = 4 + 4 + 1;
+  private static final int MORE_TO_COME_FLAG = 1 << 1;
+
+  private final MessageCompressorRegistry registry;
+  /**
+   * The compressor used by each compressed request that has not been replied yet, indexed by its
+   * request id.
+   */
+  private final IntObjectHashMap<MessageCompressor> compressedRequests = new IntObjectHashMap<>();
+
+  private final int maxMessageSizeBytes;
+
+  @Inject
+  public MessageCompressionHandler(MessageCompressorRegistry registry,
+      MongoServerConfig config) {
+    this.registry = registry;
+    this.maxMessageSizeBytes = config.getMaxMessageSizeBytes();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof ByteBuf)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    ByteBuf frame = ((ByteBuf) msg).order(ByteOrder.LITTLE_ENDIAN);
+    if (frame.readableBytes() < MongoConstants.MESSAGE_HEADER_WITHOUT_LENGTH_FIELD_BYTES
+        || frame.getInt(frame.readerIndex() + 8) != RequestOpCode.OP_COMPRESSED.getOpCode()) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    ByteBuf decompressed;
+    try {
+      decompressed = decompress(ctx, frame);
+    } finally {
+      frame.release();
+    }
+    ctx.fireChannelRead(decompressed);
+  }
+
+  private ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf frame) throws BadValueException {
+    int requestId = frame.readInt();
+    int responseTo = frame.readInt();
+    frame.skipBytes(4); //OP_COMPRESSED
+    int originalOpCode = frame.readInt();
+    int uncompressedSize = frame.readInt();
+    byte compressorId = frame.readByte();
+
+    RequestOpCode requestOpCode = RequestOpCode.getByOpcode(originalOpCode);
+    if (requestOpCode == RequestOpCode.OP_COMPRESSED) {
+      throw new BadValueException("OP_COMPRESSED messages cannot be nested");
+    }
+    MessageCompressor compressor = registry.getById(compressorId);
+    if (compressor == null) {
+      throw new BadValueException("Unsupported compressor id " + compressorId);
+    }
+    if (uncompressedSize < 0 || uncompressedSize > maxMessageSizeBytes
+        - MongoConstants.MESSAGE_HEADER_BYTES) {
+      throw new BadValueException("Invalid uncompressed size " + uncompressedSize);
+    }
+
+    ByteBuf result = ctx.alloc().buffer(
+        MongoConstants.MESSAGE_HEADER_WITHOUT_LENGTH_FIELD_BYTES + uncompressedSize);
+    try {
+      ByteBuf leResult = result.order(ByteOrder.LITTLE_ENDIAN);
+      leResult.writeInt(requestId)
+          .writeInt(responseTo)
+          .writeInt(originalOpCode);
+      compressor.decompress(frame, leResult, uncompressedSize);
+
+      if (expectsReply(requestOpCode, leResult)) {
+        compressedRequests.put(requestId, compressor);
+      }
+      return result;
+    } catch (IOException ex) {
+      result.release();
+      throw new BadValueException("Error while decompressing a " + compressor.getName()
+          + " message: " + ex.getMessage(), ex);
+    } catch (RuntimeException ex) {
+      result.release();
+      throw ex;
+    }
+  }
+
+  private boolean expectsReply(RequestOpCode requestOpCode, ByteBuf message) {
+    if (requestOpCode == null || !requestOpCode.canReply()) {
+      return false;
+    }
+    if (requestOpCode == RequestOpCode.OP_MSG) {
+      int flagsIndex = message.readerIndex()
+          + MongoConstants.MESSAGE_HEADER_WITHOUT_LENGTH_FIELD_BYTES;
+      return message.writerIndex() < flagsIndex + 4
+          || (message.getInt(flagsIndex) & MORE_TO_COME_FLAG) == 0;
+    }
+    return true;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws
+      Exception {
+    if (msg instanceof ByteBuf && !compressedRequests.isEmpty()) {
+      ByteBuf frame = ((ByteBuf) msg).order(ByteOrder.LITTLE_ENDIAN);
+      if (frame.readableBytes() >= MongoConstants.MESSAGE_HEADER_BYTES) {
+        int responseTo = frame.getInt(frame.readerIndex() + 8);
+        MessageCompressor compressor = compressedRequests.remove(responseTo);
+        if (compressor != null
+            && frame.readableBytes() - MongoConstants.MESSAGE_HEADER_BYTES
+                >= MIN_COMPRESSIBLE_BYTES) {
+          ByteBuf compressed = compress(ctx, frame, compressor);
+          if (compressed != null) {
+            frame.release();
+            ctx.write(compressed, promise);
+            return;
+          }
+        }
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  private ByteBuf compress(ChannelHandlerContext ctx, ByteBuf frame,
+      MessageCompressor compressor) {
+    int index = frame.readerIndex();
+    int uncompressedSize = frame.readableBytes() - MongoConstants.MESSAGE_HEADER_BYTES;
+
+    ByteBuf result = ctx.alloc().buffer(MongoConstants.MESSAGE_HEADER_BYTES
+        + COMPRESSION_HEADER_BYTES + uncompressedSize / 2);
+    try {
+      ByteBuf leResult = result.order(ByteOrder.LITTLE_ENDIAN);
+      leResult.writeInt(0) //the length is set once the message is compressed
+          .writeInt(frame.getInt(index + 4)) //requestId
+          .writeInt(frame.getInt(index + 8)) //responseTo
+          .writeInt(ResponseOpCode.OP_COMPRESSED.getOpCode())
+          .writeInt(frame.getInt(index + 12)) //original opCode
+          .writeInt(uncompressedSize)
+          .writeByte(compressor.getId());
+      compressor.compress(
+          frame.slice(index + MongoConstants.MESSAGE_HEADER_BYTES, uncompressedSize),
+          leResult
+      );
+      leResult.setInt(leResult.readerIndex(), leResult.readableBytes());
+      return result;
+    } catch (IOException ex) {
+      result.release();
+      LOGGER.warn("Error while compressing a reply with " + compressor.getName()
+          + ". It will be sent uncompressed", ex);
+      return null;
+    } catch (RuntimeException ex) {
+      result.release();
+      throw ex;
+    }
+  }
+}
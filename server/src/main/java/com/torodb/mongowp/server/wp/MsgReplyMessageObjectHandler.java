@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
+import com.torodb.mongowp.server.encoder.MsgReplyMessageEncoder;
+import com.torodb.mongowp.server.metrics.ReplyEncodeEvent;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.WireEvents;
+import com.torodb.mongowp.server.util.ChannelLittleEndianEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import javax.inject.Inject;
+
+/**
+ * Encodes the {@code OP_MSG} replies.
+ *
+ * <p>The batches of exhaust {@code getMore} commands are written as {@link ChainedMsgReplyMessage}
+ * and they reply to the last reply this handler encoded.
+ */
+public class MsgReplyMessageObjectHandler extends ChannelLittleEndianEncoder<MsgReplyMessage> {
+
+  private final RequestIdGenerator requestIdGenerator;
+
+  private final MsgReplyMessageEncoder encoder;
+
+  private final ServerMetrics serverMetrics;
+
+  /**
+   * The request id assigned to the last encoded reply. Only accessed on the event loop.
+   */
+  private int lastReplyId;
+
+  @Inject
+  public MsgReplyMessageObjectHandler(RequestIdGenerator requestIdGenerator,
+      MsgReplyMessageEncoder encoder, ServerMetrics serverMetrics) {
+    this.requestIdGenerator = requestIdGenerator;
+    this.encoder = encoder;
+    this.serverMetrics = serverMetrics;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (msg instanceof ChainedMsgReplyMessage) {
+      msg = ((ChainedMsgReplyMessage) msg).chainTo(lastReplyId);
+    }
+    super.write(ctx, msg, promise);
+  }
+
+  @Override
+  protected int estimateSize(MsgReplyMessage message) {
+    return encoder.estimateSize(message);
+  }
+
+  @Override
+  protected void encodeLittleEndian(ChannelHandlerContext ctx, MsgReplyMessage message, ByteBuf out)
+      throws Exception {
+    long start = System.nanoTime();
+    ReplyEncodeEvent event = WireEvents.beginReplyEncode();
+    int replyStart = out.writerIndex();
+    lastReplyId = requestIdGenerator.getNextRequestId();
+    encoder.encode(out, message, lastReplyId);
+    serverMetrics.onReplyEncoded(System.nanoTime() - start);
+    int bytes = out.writerIndex() - replyStart;
+    //the documents are only counted when someone is going to use that count
+    ConnectionTraffic traffic = ConnectionTraffic.get(ctx.channel());
+    if (traffic != null) {
+      int documents = countDocuments(message);
+      traffic.onReplyEncoded(documents);
+      if (event != null) {
+        event.finish("msg", bytes, () -> documents);
+      }
+    } else if (event != null) {
+      event.finish("msg", bytes, () -> countDocuments(message));
+    }
+  }
+
+  private static int countDocuments(MsgReplyMessage message) {
+    if (message.getDocumentSequences().isEmpty()) {
+      return 1;
+    }
+    return 1 + message.getDocumentSequences().values().stream()
+        .mapToInt(sequence -> sequence.getIterable(AllocationType.OFFHEAP).size())
+        .sum();
+  }
+}
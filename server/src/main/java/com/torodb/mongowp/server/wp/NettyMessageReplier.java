@@ -16,15 +16,29 @@
 package com.torodb.mongowp.server.wp;
 
 import com.google.common.base.Preconditions;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
 import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.server.callback.ExhaustCursorSource;
+import com.torodb.mongowp.server.callback.ExhaustMsgSource;
 import com.torodb.mongowp.server.callback.MessageReplier;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.util.AttributeKey;
 import io.netty.util.AttributeMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * This message replier writes and flush the reply to the given netty channel.
@@ -36,18 +50,48 @@ public class NettyMessageReplier extends MessageReplier {
    * The requestId must be unique for each request
    */
   public static final AttributeKey<Integer> REQUEST_ID = AttributeKey.valueOf("requestId");
+  private static final long EXHAUST_WRITABLE_WAIT_MILLIS = 1000;
 
   private final ChannelHandlerContext channelHandlerContext;
+  private final int requestId;
+  @Nullable
+  private volatile ChannelFuture lastWrite;
+  /**
+   * Completed once the exhaust cursor sent by this replier has been completely streamed or
+   * abandoned.
+   */
+  @Nullable
+  private ChannelPromise exhaustDone;
 
+  /**
+   * Creates a replier for the last request read from the channel, or for a request whose id is 0
+   * if no request has been read yet.
+   */
   public NettyMessageReplier(@Nonnull ChannelHandlerContext channelHandlerContext) {
+    this(channelHandlerContext, getLastRequestId(channelHandlerContext));
+  }
+
+  /**
+   * Creates a replier for the given request.
+   *
+   * <p>This constructor must be used when the request is not executed on the event loop, as the
+   * {@link #REQUEST_ID} attribute may have been overwritten by a later request.
+   */
+  public NettyMessageReplier(@Nonnull ChannelHandlerContext channelHandlerContext, int requestId) {
     Preconditions.checkNotNull(channelHandlerContext);
 
     this.channelHandlerContext = channelHandlerContext;
+    this.requestId = requestId;
+  }
+
+  private static int getLastRequestId(ChannelHandlerContext channelHandlerContext) {
+    Integer requestId = channelHandlerContext.attr(REQUEST_ID).get();
+    return requestId == null ? 0 : requestId;
   }
 
   @Override
   public int getRequestId() {
-    return channelHandlerContext.attr(REQUEST_ID).get();
+    return requestId;
   }
 
   @Override
@@ -55,10 +99,188 @@ public class NettyMessageReplier extends MessageReplier {
     return channelHandlerContext;
   }
 
+  @Override
+  public boolean isWritable() {
+    return channelHandlerContext.channel().isWritable();
+  }
+
+  @Override
+  public boolean awaitWritable(long timeout, TimeUnit unit) throws InterruptedException {
+    ConnectionTraffic traffic = ConnectionTraffic.get(channelHandlerContext.channel());
+    if (traffic == null) {
+      return isWritable();
+    }
+    return traffic.awaitWritable(timeout, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This is the executor of the connection when requests are executed out of the event loop or
+   * the event loop otherwise.
+   */
+  @Override
+  public Executor getExecutor() {
+    Executor executor = channelHandlerContext.attr(RequestMessageObjectHandler.CONNECTION_EXECUTOR)
+        .get();
+    if (executor == null) {
+      return channelHandlerContext.executor();
+    }
+    return executor;
+  }
+
   @Override
   public void replyMessage(ReplyMessage replyMessage) {
-    channelHandlerContext.writeAndFlush(replyMessage);
-    LOGGER.debug("Replying " + replyMessage);
+    lastWrite = channelHandlerContext.writeAndFlush(replyMessage);
+    LOGGER.debug("Replying {}", replyMessage);
+  }
+
+  @Override
+  public void replyMessage(ReplyMessage replyMessage, IntConsumer documentsListener) {
+    lastWrite = channelHandlerContext.writeAndFlush(
+        new CountedReplyMessage(replyMessage, documentsListener));
+    LOGGER.debug("Replying {}", replyMessage);
+  }
+
+  @Override
+  public void replyMessage(MsgReplyMessage replyMessage) {
+    lastWrite = channelHandlerContext.writeAndFlush(replyMessage);
+    LOGGER.debug("Replying {}", replyMessage);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Batches are only requested while the channel is writable, so a slow client does not make
+   * the server buffer the whole cursor. When this method is called from the event loop, it
+   * returns once the channel stops being writable and the remaining batches are sent from the
+   * event loop when it is writable again. Otherwise the calling thread waits until the last batch
+   * is written. The stream is abandoned if the channel is closed.
+   */
+  @Override
+  public void replyExhaustMessages(ReplyMessage firstBatch, ExhaustCursorSource source) {
+    replyMessage(firstBatch);
+    if (!isLastExhaustBatch(firstBatch)) {
+      exhaustDone = channelHandlerContext.newPromise();
+      new ExhaustStream(() -> {
+        ReplyMessage batch = source.nextBatch();
+        lastWrite = channelHandlerContext.writeAndFlush(new ChainedReplyMessage(batch));
+        LOGGER.debug("Replying exhaust batch {}", batch);
+        return isLastExhaustBatch(batch);
+      }, exhaustDone).run();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The batches are streamed like the ones of
+   * {@link #replyExhaustMessages(ReplyMessage, ExhaustCursorSource) exhaust queries}. Each one
+   * replies to the previous one and all but the last are flagged as {@code moreToCome}.
+   */
+  @Override
+  public void replyExhaustMsgMessages(BsonDocument firstBatch, ExhaustMsgSource source) {
+    boolean last = isLastExhaustMsgBatch(firstBatch);
+    replyMessage(new MsgReplyMessage.Builder(EmptyBsonContext.getInstance(), requestId,
+        firstBatch)
+        .setMoreToCome(!last)
+        .build());
+    if (!last) {
+      exhaustDone = channelHandlerContext.newPromise();
+      new ExhaustStream(() -> {
+        BsonDocument batch = source.nextBatch();
+        boolean lastBatch = isLastExhaustMsgBatch(batch);
+        lastWrite = channelHandlerContext.writeAndFlush(
+            new ChainedMsgReplyMessage(batch, !lastBatch));
+        LOGGER.debug("Replying exhaust batch {}", batch);
+        return lastBatch;
+      }, exhaustDone).run();
+    }
+  }
+
+  /**
+   * Returns the future of the last reply sent by this replier, which is completed once the reply
+   * and all the previous ones have been encoded and written (or have failed).
+   *
+   * <p>The batches of an exhaust cursor may be sent after {@link #replyExhaustMessages} returns, so
+   * this future is only the final one once {@link #getExhaustFuture()} is done.
+   *
+   * @return the future of the last reply or null if no reply has been sent
+   */
+  @Nullable
+  ChannelFuture getLastWriteFuture() {
+    return lastWrite;
+  }
+
+  /**
+   * @return a future completed once the exhaust cursor sent by this replier has been completely
+   *         streamed or abandoned, or null if no exhaust cursor has been sent
+   */
+  @Nullable
+  ChannelFuture getExhaustFuture() {
+    return exhaustDone;
+  }
+
+  private class ExhaustStream implements Runnable {
+
+    /**
+     * Sends the next batch and returns true iff it is the last one.
+     */
+    private final BooleanSupplier sendNextBatch;
+    private final ChannelPromise done;
+    /**
+     * True once the stream has been deferred until the channel is writable again, so its errors
+     * cannot be thrown to the request.
+     */
+    private boolean deferred;
+
+    ExhaustStream(BooleanSupplier sendNextBatch, ChannelPromise done) {
+      this.sendNextBatch = sendNextBatch;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        stream();
+      } catch (RuntimeException ex) {
+        done.tryFailure(ex);
+        if (!deferred) {
+          throw ex;
+        }
+        LOGGER.error("Error while streaming an exhaust cursor", ex);
+        channelHandlerContext.close();
+      }
+    }
+
+    private void stream() {
+      Channel channel = channelHandlerContext.channel();
+      ConnectionTraffic traffic = ConnectionTraffic.get(channel);
+      while (channel.isActive()) {
+        if (traffic != null && !channel.isWritable()) {
+          if (channel.eventLoop().inEventLoop()) {
+            deferred = true;
+            traffic.runWhenWritable(this);
+            return;
+          }
+          try {
+            traffic.awaitWritable(EXHAUST_WRITABLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while streaming an exhaust cursor", ex);
+            done.trySuccess();
+            return;
+          }
+          continue;
+        }
+        if (sendNextBatch.getAsBoolean()) {
+          done.trySuccess();
+          return;
+        }
+      }
+      LOGGER.debug("Channel {} closed while streaming an exhaust cursor", channel);
+      done.trySuccess();
+    }
   }
 
 }
@@ -15,12 +15,16 @@
  */
 package com.torodb.mongowp.server.wp;
 
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.torodb.mongowp.MongoConstants;
 import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.MongoServerConfig.ExecutionMode;
 import com.torodb.mongowp.annotations.MongoWp;
-import com.torodb.mongowp.server.util.LengthFieldPrependerLittleEndian;
+import com.torodb.mongowp.commands.cursors.CursorRegistry;
+import com.torodb.mongowp.server.api.CursorWaitRegistry;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
@@ -28,9 +32,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -51,26 +53,85 @@ public class NettyMongoServer extends AbstractIdleService {
   private static final Logger LOGGER = LogManager.getLogger(NettyMongoServer.class);
 
   private final int port;
+  private final NettyTransport transport;
+  private final int acceptorCount;
+  private final boolean flushCoalescing;
+  private final int maxCoalescedFlushes;
+  private final int maxCoalescedBytes;
+  private final int writeBufferHighWaterMark;
+  private final int writeBufferLowWaterMark;
   private EventLoopGroup connectionGroup;
   private EventLoopGroup workerGroup;
   private final RequestMessageObjectHandler requestMessageObjectHandler;
   private final Provider<RequestMessageByteHandler> requestMessageByteHandler;
   private final Provider<ReplyMessageObjectHandler> replyMessageObjectHandler;
-  private final LengthFieldPrependerLittleEndian lengthFieldPrependerLittleEndian;
+  private final Provider<MsgReplyMessageObjectHandler> msgReplyMessageObjectHandler;
+  private final Provider<MessageCompressionHandler> messageCompressionHandler;
+  private final Provider<CompressionNegotiationHandler> compressionNegotiationHandler;
   private final ThreadFactory threadFactory;
+  private final RequestExecutor requestExecutor;
+  private final ReplyEncodingExecutor replyEncodingExecutor;
+  private final CursorWaitRegistry cursorWaitRegistry;
+  private final CursorRegistry cursorRegistry;
+  private final ServerMetrics serverMetrics;
+  private final Provider<StreamingRequestDecoder> streamingRequestDecoder;
+  private final boolean streamingDecoding;
+  private final int maxMessageSizeBytes;
 
   @Inject
   public NettyMongoServer(@MongoWp ThreadFactory threadFactory, MongoServerConfig mongoServerConfig,
       Provider<RequestMessageByteHandler> requestMessageByteHandler,
       Provider<ReplyMessageObjectHandler> replyMessageObjectHandler,
-      RequestMessageObjectHandler requestMessageObjectHandler) {
-    this.lengthFieldPrependerLittleEndian = new LengthFieldPrependerLittleEndian(
-        MongoConstants.MESSAGE_LENGTH_FIELD_BYTES, true);
+      Provider<MsgReplyMessageObjectHandler> msgReplyMessageObjectHandler,
+      Provider<MessageCompressionHandler> messageCompressionHandler,
+      Provider<CompressionNegotiationHandler> compressionNegotiationHandler,
+      RequestMessageObjectHandler requestMessageObjectHandler,
+      RequestExecutor requestExecutor,
+      ReplyEncodingExecutor replyEncodingExecutor,
+      Provider<StreamingRequestDecoder> streamingRequestDecoder,
+      CursorWaitRegistry cursorWaitRegistry,
+      CursorRegistry cursorRegistry,
+      ServerMetrics serverMetrics) {
     this.port = mongoServerConfig.getPort();
+    this.transport = NettyTransport.select(mongoServerConfig.getTransport());
+    this.acceptorCount = getAcceptorCount(mongoServerConfig, transport);
+    this.flushCoalescing = mongoServerConfig.isFlushCoalescingEnabled();
+    this.maxCoalescedFlushes = mongoServerConfig.getMaxCoalescedFlushes();
+    this.maxCoalescedBytes = mongoServerConfig.getMaxCoalescedBytes();
+    this.writeBufferHighWaterMark = mongoServerConfig.getWriteBufferHighWaterMark();
+    this.writeBufferLowWaterMark = mongoServerConfig.getWriteBufferLowWaterMark();
+    Preconditions.checkArgument(writeBufferLowWaterMark <= writeBufferHighWaterMark,
+        "The write buffer low water mark must not be greater than the high water mark");
     this.requestMessageByteHandler = requestMessageByteHandler;
     this.replyMessageObjectHandler = replyMessageObjectHandler;
+    this.msgReplyMessageObjectHandler = msgReplyMessageObjectHandler;
+    this.messageCompressionHandler = messageCompressionHandler;
+    this.compressionNegotiationHandler = compressionNegotiationHandler;
     this.requestMessageObjectHandler = requestMessageObjectHandler;
     this.threadFactory = threadFactory;
+    this.requestExecutor = requestExecutor;
+    this.replyEncodingExecutor = replyEncodingExecutor;
+    this.streamingRequestDecoder = streamingRequestDecoder;
+    this.cursorWaitRegistry = cursorWaitRegistry;
+    this.cursorRegistry = cursorRegistry;
+    this.serverMetrics = serverMetrics;
+    this.maxMessageSizeBytes = mongoServerConfig.getMaxMessageSizeBytes();
+    Preconditions.checkArgument(maxMessageSizeBytes > MongoConstants.MESSAGE_HEADER_BYTES,
+        "The max message size is too small");
+    //the thread that consumes the streamed documents waits for them, so it cannot be the event loop
+    this.streamingDecoding = mongoServerConfig.isStreamingDecodingEnabled()
+        && requestExecutor.getExecutionMode() != ExecutionMode.INLINE;
+  }
+
+  private static int getAcceptorCount(MongoServerConfig config, NettyTransport transport) {
+    int acceptorCount = config.getAcceptorCount();
+    Preconditions.checkArgument(acceptorCount > 0, "The acceptor count must be positive");
+    if (acceptorCount > 1 && !transport.supportsReusePort()) {
+      LOGGER.warn("Several acceptors require SO_REUSEPORT, which is not supported by the "
+          + transport + " transport. Only one acceptor will be used");
+      return 1;
+    }
+    return acceptorCount;
   }
 
   @Override
@@ -83,30 +144,43 @@ public class NettyMongoServer extends AbstractIdleService {
   }
 
   private void buildChildHandlerPipeline(ChannelPipeline pipeline) {
+    if (flushCoalescing) {
+      pipeline.addLast(new FlushCoalescingHandler(maxCoalescedFlushes, maxCoalescedBytes));
+    }
+    pipeline.addLast(new ChannelWritabilityHandler(serverMetrics));
+    if (streamingDecoding) {
+      pipeline.addLast(streamingRequestDecoder.get());
+    }
     pipeline.addLast(new LengthFieldBasedFrameDecoder(
-        ByteOrder.LITTLE_ENDIAN, MongoConstants.MAX_MESSAGE_SIZE_BYTES, 0,
+        ByteOrder.LITTLE_ENDIAN, maxMessageSizeBytes, 0,
         MongoConstants.MESSAGE_LENGTH_FIELD_BYTES, -MongoConstants.MESSAGE_LENGTH_FIELD_BYTES,
         MongoConstants.MESSAGE_LENGTH_FIELD_BYTES, true
     ));
+    pipeline.addLast(messageCompressionHandler.get());
     pipeline.addLast(requestMessageByteHandler.get());
-    pipeline.addLast(lengthFieldPrependerLittleEndian);
     pipeline.addLast(replyMessageObjectHandler.get());
+    pipeline.addLast(msgReplyMessageObjectHandler.get());
+    pipeline.addLast(compressionNegotiationHandler.get());
     pipeline.addLast(requestMessageObjectHandler);
   }
 
   @Override
   protected void startUp() throws Exception {
-    LOGGER.info("Listening MongoDB requests on port " + port);
+    LOGGER.info("Listening MongoDB requests on port " + port + " using the " + transport
+        + " transport");
 
-    connectionGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat(
-        "netty-connection-%d").build());
-    workerGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat(
+    connectionGroup = transport.newEventLoopGroup(acceptorCount, new ThreadFactoryBuilder()
+        .setNameFormat("netty-connection-%d").build());
+    workerGroup = transport.newEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat(
         "netty-worker-%d").build());
 
     ServerBootstrap bootstrap = new ServerBootstrap();
     bootstrap.group(connectionGroup, workerGroup)
-        .channel(NioServerSocketChannel.class)
+        .channel(transport.getServerChannelClass())
         .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        //the high water mark must be set first, as the low one cannot be greater than it
+        .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark)
+        .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark)
         .childHandler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel socketChannel) throws Exception {
@@ -114,11 +188,19 @@ public class NettyMongoServer extends AbstractIdleService {
           }
         }) // TODO: set TCP channel options?
         ;
+    if (acceptorCount > 1) {
+      transport.enableReusePort(bootstrap);
+    }
 
-    ChannelFuture channelFuture = bootstrap.bind(port).awaitUninterruptibly();
-    if (!channelFuture.isSuccess()) {
-      workerGroup.shutdownGracefully();
-      connectionGroup.shutdownGracefully();
+    //With SO_REUSEPORT each bind creates a new acceptor channel on its own event loop, so the
+    //kernel spreads the incoming connections between them
+    for (int i = 0; i < acceptorCount; i++) {
+      ChannelFuture channelFuture = bootstrap.bind(port).awaitUninterruptibly();
+      if (!channelFuture.isSuccess()) {
+        workerGroup.shutdownGracefully();
+        connectionGroup.shutdownGracefully();
+        break;
+      }
     }
   }
 
@@ -131,6 +213,10 @@ public class NettyMongoServer extends AbstractIdleService {
     if (connectionGroup != null) {
       connectionGroup.shutdownGracefully().syncUninterruptibly();
     }
+    requestExecutor.shutdown();
+    replyEncodingExecutor.shutdown();
+    cursorWaitRegistry.shutdown();
+    cursorRegistry.shutdown();
   }
 
   public int getPort() {
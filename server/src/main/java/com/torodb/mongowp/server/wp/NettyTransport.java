@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.torodb.mongowp.MongoServerConfig.Transport;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The Netty classes that implement a network transport.
+ *
+ * <p>Native transports are optional dependencies, so their classes are only loaded once
+ * {@link #select(Transport)} checks they are available.
+ */
+public abstract class NettyTransport {
+
+  private static final Logger LOGGER = LogManager.getLogger(NettyTransport.class);
+
+  public abstract String getName();
+
+  public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+  public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+  /**
+   * @return true iff several server channels can be bound to the same port
+   */
+  public abstract boolean supportsReusePort();
+
+  /**
+   * Enables {@code SO_REUSEPORT} on the server channels created by the given bootstrap.
+   *
+   * @throws UnsupportedOperationException if {@link #supportsReusePort()} is false
+   */
+  public abstract void enableReusePort(ServerBootstrap bootstrap);
+
+  /**
+   * Returns the transport that should be used when the given one is requested, falling back to
+   * NIO when the native library is not loadable.
+   */
+  public static NettyTransport select(Transport requested) {
+    return select(requested, EpollTransport::isAvailable);
+  }
+
+  /**
+   * @param epollAvailable whether the epoll transport can be used, which is only checked when
+   *                       epoll may be selected
+   */
+  @VisibleForTesting
+  public static NettyTransport select(Transport requested, BooleanSupplier epollAvailable) {
+    switch (requested) {
+      case NIO:
+        return NioTransport.INSTANCE;
+      case IO_URING:
+        LOGGER.warn("The io_uring transport is not supported by the Netty version used by "
+            + "mongowp. The best available transport will be used instead");
+        return selectBest(epollAvailable);
+      case EPOLL:
+        if (!epollAvailable.getAsBoolean()) {
+          LOGGER.warn("The epoll transport is not available on this platform. NIO will be used "
+              + "instead");
+          return NioTransport.INSTANCE;
+        }
+        return new EpollTransport();
+      case AUTO:
+        return selectBest(epollAvailable);
+      default:
+        throw new AssertionError("Unexpected transport " + requested);
+    }
+  }
+
+  private static NettyTransport selectBest(BooleanSupplier epollAvailable) {
+    if (epollAvailable.getAsBoolean()) {
+      return new EpollTransport();
+    }
+    return NioTransport.INSTANCE;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
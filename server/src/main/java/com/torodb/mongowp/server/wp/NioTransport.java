@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The portable transport based on Java NIO.
+ */
+class NioTransport extends NettyTransport {
+
+  static final NioTransport INSTANCE = new NioTransport();
+
+  private NioTransport() {
+  }
+
+  @Override
+  public String getName() {
+    return "nio";
+  }
+
+  @Override
+  public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+    return new NioEventLoopGroup(threads, threadFactory);
+  }
+
+  @Override
+  public Class<? extends ServerChannel> getServerChannelClass() {
+    return NioServerSocketChannel.class;
+  }
+
+  @Override
+  public boolean supportsReusePort() {
+    return false;
+  }
+
+  @Override
+  public void enableReusePort(ServerBootstrap bootstrap) {
+    throw new UnsupportedOperationException("SO_REUSEPORT is not supported by the NIO transport");
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.annotations.MongoWp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Holds the threads that encode replies in parallel, as configured by
+ * {@link MongoServerConfig#isParallelReplyEncodingEnabled()}.
+ */
+@ThreadSafe
+@Singleton
+public class ReplyEncodingExecutor {
+
+  @Nullable
+  private final ExecutorService executorService;
+
+  @Inject
+  public ReplyEncodingExecutor(@MongoWp ThreadFactory threadFactory, MongoServerConfig config) {
+    if (config.isParallelReplyEncodingEnabled()) {
+      int threads = config.getEncodingThreads();
+      executorService = new ThreadPoolExecutor(
+          threads,
+          threads,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(),
+          new ThreadFactoryBuilder()
+              .setNameFormat("mongowp-encoder-%d")
+              .setThreadFactory(threadFactory)
+              .setDaemon(true)
+              .build()
+      );
+    } else {
+      executorService = null;
+    }
+  }
+
+  /**
+   * @return the executor where encoding tasks must be executed or null if replies must not be
+   *         encoded in parallel
+   */
+  @Nullable
+  public ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  public void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+}
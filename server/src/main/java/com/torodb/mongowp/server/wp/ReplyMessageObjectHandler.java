@@ -15,34 +15,335 @@
  */
 package com.torodb.mongowp.server.wp;
 
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
 import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
 import com.torodb.mongowp.server.encoder.ReplyMessageEncoder;
+import com.torodb.mongowp.server.metrics.ReplyEncodeEvent;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.WireEvents;
+import com.torodb.mongowp.server.util.ByteBufIterableDocumentProvider;
 import com.torodb.mongowp.server.util.ChannelLittleEndianEncoder;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
+ * Encodes {@link ReplyMessage replies}.
+ *
+ * <p>When {@link MongoServerConfig#isZeroCopyRepliesEnabled() zero copy replies} are enabled,
+ * replies that may be big are written as composite buffers that reference the buffers their
+ * documents are backed by (see {@link ReplyMessageEncoder#encodeZeroCopy}).
+ *
+ * <p>When {@link MongoServerConfig#isParallelReplyEncodingEnabled() parallel encoding} is enabled,
+ * replies with a lot of documents are encoded on the {@link ReplyEncodingExecutor}. Writes and
+ * flushes that arrive while one of these replies is being encoded are delayed until it is written,
+ * so the order of the outgoing messages is preserved. The writes that are still delayed when the
+ * handler is removed fail.
  *
+ * <p>The batches of exhaust cursors are written as {@link ChainedReplyMessage} and they reply to
+ * the last reply this handler encoded. Replies written as {@link CountedReplyMessage} tell their
+ * sender how many documents they returned once they are encoded.
  */
-public class ReplyMessageObjectHandler extends ChannelLittleEndianEncoder {
+public class ReplyMessageObjectHandler extends ChannelLittleEndianEncoder<ReplyMessage> {
+
+  private static final Logger LOGGER = LogManager.getLogger(ReplyMessageObjectHandler.class);
+
+  /**
+   * The offset of the {@code numberReturned} field of an encoded reply.
+   */
+  private static final int NUMBER_RETURNED_OFFSET = MongoConstants.MESSAGE_HEADER_BYTES + 16;
 
   private final RequestIdGenerator requestIdGenerator;
 
   private final ReplyMessageEncoder encoder;
 
+  private final boolean zeroCopy;
+
+  private final int zeroCopyMinSliceBytes;
+
+  @Nullable
+  private final ExecutorService encodingExecutor;
+
+  private final int parallelMinDocuments;
+
+  private final int parallelChunkDocuments;
+
+  private final ServerMetrics serverMetrics;
+
+  /**
+   * The writes received while a reply is encoded in parallel. Only accessed on the event loop.
+   */
+  private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+
+  private boolean encodingInParallel;
+
+  private boolean flushPending;
+
+  /**
+   * The request id assigned to the last encoded reply. Only accessed on the event loop.
+   */
+  private int lastReplyId;
+
+  /**
+   * The listener of the reply that is being encoded by {@link #encodeLittleEndian}. Only accessed
+   * on the event loop.
+   */
+  @Nullable
+  private IntConsumer encodingListener;
+
   @Inject
   public ReplyMessageObjectHandler(RequestIdGenerator requestIdGenerator,
-      ReplyMessageEncoder encoder) {
+      ReplyMessageEncoder encoder, MongoServerConfig config,
+      ReplyEncodingExecutor encodingExecutor, ServerMetrics serverMetrics) {
     this.requestIdGenerator = requestIdGenerator;
     this.encoder = encoder;
+    this.zeroCopy = config.isZeroCopyRepliesEnabled();
+    this.zeroCopyMinSliceBytes = config.getZeroCopyMinSliceBytes();
+    this.encodingExecutor = encodingExecutor.getExecutorService();
+    this.parallelMinDocuments = config.getParallelEncodingMinDocuments();
+    this.parallelChunkDocuments = config.getParallelEncodingChunkDocuments();
+    this.serverMetrics = serverMetrics;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (encodingInParallel) {
+      pendingWrites.add(new PendingWrite(msg, promise));
+      return;
+    }
+    if (msg instanceof ChainedReplyMessage) {
+      msg = ((ChainedReplyMessage) msg).chainTo(lastReplyId);
+    }
+    IntConsumer documentsListener = null;
+    if (msg instanceof CountedReplyMessage) {
+      documentsListener = ((CountedReplyMessage) msg).getDocumentsListener();
+      msg = ((CountedReplyMessage) msg).getReply();
+    }
+    if (msg instanceof ReplyMessage) {
+      ReplyMessage reply = (ReplyMessage) msg;
+      if (encodingExecutor != null
+          && !(reply.getDocuments() instanceof ByteBufIterableDocumentProvider)) {
+        //the documents are iterated once, whether the reply is encoded in parallel or not
+        ImmutableList<BsonDocument> docs = ImmutableList.copyOf(
+            reply.getDocuments().getIterable(AllocationType.OFFHEAP));
+        if (docs.size() >= parallelMinDocuments) {
+          encodeInParallel(ctx, reply, docs, promise, documentsListener);
+          return;
+        }
+        reply = withDocuments(reply, docs);
+        msg = reply;
+      }
+      if (zeroCopy) {
+        int estimation = encoder.estimateSize(reply);
+        if (estimation <= 0 || estimation >= zeroCopyMinSliceBytes) {
+          //the composite retains the buffers it references, so it does not depend on the reply
+          //context once it is built
+          long start = System.nanoTime();
+          ReplyEncodeEvent event = WireEvents.beginReplyEncode();
+          ByteBuf buf = encoder.encodeZeroCopy(ctx.alloc(), reply,
+              nextReplyId(), zeroCopyMinSliceBytes);
+          serverMetrics.onReplyEncoded(System.nanoTime() - start);
+          int documents = getNumberReturned(buf, 0);
+          onReplyEncoded(ctx, documents);
+          if (documentsListener != null) {
+            documentsListener.accept(documents);
+          }
+          if (event != null) {
+            event.finish("zeroCopy", buf.readableBytes(), () -> documents);
+          }
+          ctx.write(buf, promise);
+          return;
+        }
+      }
+    }
+    encodingListener = documentsListener;
+    try {
+      super.write(ctx, msg, promise);
+    } finally {
+      encodingListener = null;
+    }
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    if (encodingInParallel) {
+      flushPending = true;
+    } else {
+      ctx.flush();
+    }
+  }
+
+  /**
+   * Starts the parallel encoding of the given reply, whose documents are the given ones.
+   *
+   * <p>Documents that are already serialized are not encoded in parallel, as they are just copied.
+   * The documents of the reply must be valid until the promise is completed.
+   */
+  private void encodeInParallel(ChannelHandlerContext ctx, ReplyMessage reply,
+      List<BsonDocument> docs, ChannelPromise promise, @Nullable IntConsumer documentsListener) {
+    encodingInParallel = true;
+    long start = System.nanoTime();
+    ReplyEncodeEvent event = WireEvents.beginReplyEncode();
+    encoder.encodeInParallel(ctx.alloc(), reply, nextReplyId(), docs,
+        parallelChunkDocuments, encodingExecutor)
+        .whenCompleteAsync((buf, ex) -> {
+          serverMetrics.onReplyEncoded(System.nanoTime() - start);
+          if (buf != null) {
+            onReplyEncoded(ctx, docs.size());
+            if (documentsListener != null) {
+              documentsListener.accept(docs.size());
+            }
+            if (event != null) {
+              event.finish("parallel", buf.readableBytes(), docs::size);
+            }
+          }
+          onParallelEncodingFinished(ctx, buf, ex, promise);
+        }, ctx.executor());
+  }
+
+  /**
+   * Returns a copy of the given reply whose documents are the given ones, which must be the ones
+   * the reply already contains.
+   */
+  private static ReplyMessage withDocuments(ReplyMessage reply, List<BsonDocument> docs) {
+    int sizeHint = reply.getDocuments().getSerializedSizeHint();
+    return new ReplyMessage(reply.getDataContext(), reply.getResponseTo(),
+        reply.isCursorNotFound(), reply.isQueryFailure(), reply.isShardConfigStale(),
+        reply.isAwaitCapable(), reply.getCursorId(), reply.getStartingFrom(),
+        new IterableDocumentProvider<BsonDocument>() {
+          @Override
+          public FluentIterable<BsonDocument> getIterable(AllocationType algorithm) {
+            return FluentIterable.from(docs);
+          }
+
+          @Override
+          public int getSerializedSizeHint() {
+            return sizeHint;
+          }
+        });
+  }
+
+  private void onParallelEncodingFinished(ChannelHandlerContext ctx, @Nullable ByteBuf buf,
+      @Nullable Throwable ex, ChannelPromise promise) {
+    encodingInParallel = false;
+    if (ctx.isRemoved()) {
+      //the pending writes have already been failed
+      if (buf != null) {
+        buf.release();
+      }
+      promise.tryFailure(ex != null ? ex : new ClosedChannelException());
+      return;
+    }
+    if (ex != null) {
+      LOGGER.error("Error while encoding a reply", ex);
+      promise.tryFailure(ex);
+    } else {
+      ctx.write(buf, promise);
+    }
+    PendingWrite pending;
+    while (!encodingInParallel && (pending = pendingWrites.poll()) != null) {
+      pending.write(ctx);
+    }
+    if (!encodingInParallel && flushPending) {
+      flushPending = false;
+      ctx.flush();
+    }
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    flushPending = false;
+    PendingWrite pending;
+    while ((pending = pendingWrites.poll()) != null) {
+      pending.fail(new ClosedChannelException());
+    }
+    super.handlerRemoved(ctx);
+  }
+
+  @Override
+  protected int estimateSize(ReplyMessage message) {
+    return encoder.estimateSize(message);
   }
 
   @Override
   protected void encodeLittleEndian(ChannelHandlerContext ctx, ReplyMessage message, ByteBuf out)
       throws Exception {
-    encoder.encodeMessageHeader(out, message, requestIdGenerator.getNextRequestId());
-    encoder.encodeMessageBody(out, message);
+    long start = System.nanoTime();
+    ReplyEncodeEvent event = WireEvents.beginReplyEncode();
+    int replyStart = out.writerIndex();
+    encoder.encode(out, message, nextReplyId());
+    serverMetrics.onReplyEncoded(System.nanoTime() - start);
+    int documents = getNumberReturned(out, replyStart);
+    onReplyEncoded(ctx, documents);
+    if (encodingListener != null) {
+      encodingListener.accept(documents);
+    }
+    if (event != null) {
+      event.finish("copy", out.writerIndex() - replyStart, () -> documents);
+    }
+  }
+
+  /**
+   * Counts the documents of an encoded reply on the {@link ConnectionTraffic} of the channel.
+   */
+  static void onReplyEncoded(ChannelHandlerContext ctx, int documents) {
+    ConnectionTraffic traffic = ConnectionTraffic.get(ctx.channel());
+    if (traffic != null) {
+      traffic.onReplyEncoded(documents);
+    }
+  }
+
+  private static int getNumberReturned(ByteBuf buf, int replyStart) {
+    return buf.order(ByteOrder.LITTLE_ENDIAN).getInt(replyStart + NUMBER_RETURNED_OFFSET);
+  }
+
+  private int nextReplyId() {
+    lastReplyId = requestIdGenerator.getNextRequestId();
+    return lastReplyId;
+  }
+
+  private class PendingWrite {
+
+    private final Object msg;
+    private final ChannelPromise promise;
+
+    PendingWrite(Object msg, ChannelPromise promise) {
+      this.msg = msg;
+      this.promise = promise;
+    }
+
+    void fail(Throwable cause) {
+      ReferenceCountUtil.release(msg);
+      promise.tryFailure(cause);
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    void write(ChannelHandlerContext ctx) {
+      try {
+        ReplyMessageObjectHandler.this.write(ctx, msg, promise);
+      } catch (Throwable ex) {
+        promise.tryFailure(ex);
+      }
+    }
   }
 }
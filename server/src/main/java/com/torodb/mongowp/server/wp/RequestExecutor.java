@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.MongoServerConfig.ExecutionMode;
+import com.torodb.mongowp.annotations.MongoWp;
+import com.torodb.mongowp.server.util.SerializingExecutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Decides where the decoded requests are executed, as configured by
+ * {@link MongoServerConfig#getExecutionMode()}.
+ *
+ * <p>When requests are not executed inline, each connection gets its own
+ * {@link SerializingExecutor} so its requests are executed (and replied) in the same order they
+ * were received.
+ */
+@ThreadSafe
+@Singleton
+public class RequestExecutor {
+
+  private static final Logger LOGGER = LogManager.getLogger(RequestExecutor.class);
+
+  private final ExecutionMode executionMode;
+  @Nullable
+  private final ExecutorService executorService;
+
+  @Inject
+  public RequestExecutor(@MongoWp ThreadFactory threadFactory, MongoServerConfig config) {
+    ExecutionMode mode = config.getExecutionMode();
+    ExecutorService service = null;
+    if (mode == ExecutionMode.VIRTUAL_THREADS) {
+      service = newVirtualThreadPerTaskExecutor();
+      if (service == null) {
+        LOGGER.warn("Virtual threads are not supported by this JVM. A thread pool will be used "
+            + "to execute requests");
+        mode = ExecutionMode.POOL;
+      }
+    }
+    if (mode == ExecutionMode.POOL) {
+      int threads = config.getExecutorThreads();
+      //Each connection has at most one pending task, so the queue is only full when there are
+      //more busy connections than queue slots. In that case the event loop executes the request
+      //itself, which stops reading new requests until it finishes. Streamed requests are rejected
+      //instead, as they wait for documents that only the event loop can receive. Once the pool is
+      //shut down, tasks are rejected instead of silently discarded, so their requests can be
+      //released
+      service = new ThreadPoolExecutor(
+          threads,
+          threads,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(config.getExecutorQueueSize()),
+          new ThreadFactoryBuilder()
+              .setNameFormat("mongowp-request-%d")
+              .setThreadFactory(threadFactory)
+              .build(),
+          RequestExecutor::runOrReject
+      );
+    }
+    this.executionMode = mode;
+    this.executorService = service;
+    LOGGER.debug("Requests will be executed using mode " + mode);
+  }
+
+  private static void runOrReject(Runnable task, ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("The request executor has been shut down");
+    }
+    if (!SerializingExecutor.mayRunOnCaller(task)) {
+      throw new RejectedExecutionException("The request executor is saturated and streamed "
+          + "requests cannot be executed by the event loop");
+    }
+    task.run();
+  }
+
+  @Nullable
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      return null;
+    } catch (InvocationTargetException ex) {
+      LOGGER.debug("Error while creating the virtual thread executor", ex.getCause());
+      return null;
+    }
+  }
+
+  public ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
+  /**
+   * Returns a new executor that executes the requests of a connection in order or null if they
+   * must be executed inline, on the event loop.
+   */
+  @Nullable
+  public SerializingExecutor newConnectionExecutor() {
+    if (executorService == null) {
+      return null;
+    }
+    return new SerializingExecutor(executorService);
+  }
+
+  public void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+}
@@ -16,12 +16,17 @@
 package com.torodb.mongowp.server.wp;
 
 import com.google.common.primitives.Ints;
+import com.torodb.mongowp.MongoConstants;
 import com.torodb.mongowp.exceptions.IllegalOperationException;
 import com.torodb.mongowp.messages.request.RequestBaseMessage;
 import com.torodb.mongowp.messages.request.RequestOpCode;
 import com.torodb.mongowp.server.decoder.BaseMessageDecoder;
 import com.torodb.mongowp.server.decoder.MessageDecoder;
 import com.torodb.mongowp.server.decoder.MessageDecoderLocator;
+import com.torodb.mongowp.server.decoder.MessageLimitsValidator;
+import com.torodb.mongowp.server.metrics.FrameDecodeEvent;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.WireEvents;
 import com.torodb.mongowp.server.util.ChannelLittleEndianHandler;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.EmptyByteBuf;
@@ -44,10 +49,15 @@ public class RequestMessageByteHandler extends ChannelLittleEndianHandler {
       "Message decoder not implemented for opCode ";
 
   private final MessageDecoderLocator decoderLocator;
+  private final MessageLimitsValidator limitsValidator;
+  private final ServerMetrics serverMetrics;
 
   @Inject
-  public RequestMessageByteHandler(MessageDecoderLocator decoderLocator) {
+  public RequestMessageByteHandler(MessageDecoderLocator decoderLocator,
+      MessageLimitsValidator limitsValidator, ServerMetrics serverMetrics) {
     this.decoderLocator = decoderLocator;
+    this.limitsValidator = limitsValidator;
+    this.serverMetrics = serverMetrics;
   }
 
   @Override
@@ -58,10 +68,14 @@ public class RequestMessageByteHandler extends ChannelLittleEndianHandler {
       //TODO: This is a workaround. Check how to prevent calling decode on channel inactive
       return;
     }
+    long start = System.nanoTime();
+    FrameDecodeEvent event = WireEvents.beginFrameDecode();
+    int frameBytes = byteBuf.readableBytes();
 
     // Header
-    final RequestBaseMessage requestBaseMessage = BaseMessageDecoder.decode(
-        channelHandlerContext, byteBuf);
+    //the frame decoder strips the messageLength field
+    RequestBaseMessage requestBaseMessage = BaseMessageDecoder.decode(
+        channelHandlerContext, byteBuf, frameBytes + MongoConstants.MESSAGE_LENGTH_FIELD_BYTES);
     byteBuf.skipBytes(Ints.BYTES);  // Ignore responseTo field in header
     int requestOpCodeInt = byteBuf.readInt();
     RequestOpCode requestOpCode = RequestOpCode.getByOpcode(requestOpCodeInt);
@@ -77,6 +91,18 @@ public class RequestMessageByteHandler extends ChannelLittleEndianHandler {
       throw new UnsupportedOperationException(OPERATION_NOT_IMPLEMENTED + requestOpCode);
     }
 
+    int documents = limitsValidator.validate(requestOpCode, byteBuf);
+    //kept on the message, so its documents do not have to be counted again
+    requestBaseMessage = requestBaseMessage.withDocumentCount(documents);
     objects.add(messageDecoder.decode(byteBuf, requestBaseMessage));
+    long decodeNanos = System.nanoTime() - start;
+    serverMetrics.onRequestDecoded(requestOpCode, decodeNanos);
+    ConnectionTraffic traffic = ConnectionTraffic.get(channelHandlerContext.channel());
+    if (traffic != null) {
+      traffic.onRequestDecoded(decodeNanos);
+    }
+    if (event != null) {
+      event.finish(requestOpCode, requestBaseMessage.getRequestId(), frameBytes, documents);
+    }
   }
 }
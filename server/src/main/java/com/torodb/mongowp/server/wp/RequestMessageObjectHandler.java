@@ -19,6 +19,7 @@ import static com.torodb.mongowp.messages.request.RequestOpCode.OP_DELETE;
 import static com.torodb.mongowp.messages.request.RequestOpCode.OP_GET_MORE;
 import static com.torodb.mongowp.messages.request.RequestOpCode.OP_INSERT;
 import static com.torodb.mongowp.messages.request.RequestOpCode.OP_KILL_CURSORS;
+import static com.torodb.mongowp.messages.request.RequestOpCode.OP_MSG;
 import static com.torodb.mongowp.messages.request.RequestOpCode.OP_QUERY;
 import static com.torodb.mongowp.messages.request.RequestOpCode.OP_UPDATE;
 
@@ -26,12 +27,20 @@ import com.torodb.mongowp.messages.request.DeleteMessage;
 import com.torodb.mongowp.messages.request.GetMoreMessage;
 import com.torodb.mongowp.messages.request.InsertMessage;
 import com.torodb.mongowp.messages.request.KillCursorsMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
 import com.torodb.mongowp.messages.request.QueryMessage;
 import com.torodb.mongowp.messages.request.RequestMessage;
 import com.torodb.mongowp.messages.request.RequestOpCode;
 import com.torodb.mongowp.messages.request.UpdateMessage;
 import com.torodb.mongowp.server.callback.MessageReplier;
 import com.torodb.mongowp.server.callback.RequestProcessor;
+import com.torodb.mongowp.server.metrics.OperationTracker;
+import com.torodb.mongowp.server.metrics.RequestExecutionEvent;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.SlowOperationProfiler;
+import com.torodb.mongowp.server.metrics.WireEvents;
+import com.torodb.mongowp.server.util.SerializingExecutor;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -39,6 +48,9 @@ import io.netty.util.AttributeKey;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
@@ -52,62 +64,223 @@ public class RequestMessageObjectHandler extends ChannelInboundHandlerAdapter {
   public static final AttributeKey<RequestOpCode> REQUEST_OP_CODE = AttributeKey.valueOf(
       "requestOpCode");
 
+  static final AttributeKey<SerializingExecutor> CONNECTION_EXECUTOR =
+      AttributeKey.valueOf("connectionExecutor");
+
   private final RequestProcessor requestProcessor;
+  private final RequestExecutor requestExecutor;
+  private final ServerMetrics serverMetrics;
+  private final SlowOperationProfiler profiler;
 
   @Inject
-  public RequestMessageObjectHandler(RequestProcessor requestProcessor) {
+  public RequestMessageObjectHandler(RequestProcessor requestProcessor,
+      RequestExecutor requestExecutor, ServerMetrics serverMetrics,
+      SlowOperationProfiler profiler) {
     this.requestProcessor = requestProcessor;
+    this.requestExecutor = requestExecutor;
+    this.serverMetrics = serverMetrics;
+    this.profiler = profiler;
   }
 
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-    try (RequestMessage requestMessage = (RequestMessage) msg) {
-      ctx.attr(NettyMessageReplier.REQUEST_ID).set(requestMessage.getBaseMessage().getRequestId());
-      LOGGER.debug("Received message type: {}, data: {}", 
-          requestMessage.getOpCode(), requestMessage);
-
-      MessageReplier messageReplier = new NettyMessageReplier(ctx);
-      ctx.attr(REQUEST_OP_CODE).set(requestMessage.getOpCode());
-      switch (requestMessage.getOpCode()) {
-        case OP_QUERY:
-          assert requestMessage instanceof QueryMessage;
-          requestProcessor.queryMessage((QueryMessage) requestMessage, messageReplier);
-          break;
-        case OP_GET_MORE:
-          assert requestMessage instanceof GetMoreMessage;
-          requestProcessor.getMore((GetMoreMessage) requestMessage, messageReplier);
-          break;
-        case OP_KILL_CURSORS:
-          assert requestMessage instanceof KillCursorsMessage;
-          requestProcessor.killCursors((KillCursorsMessage) requestMessage, messageReplier);
-          break;
-        case OP_INSERT:
-          assert requestMessage instanceof InsertMessage;
-          requestProcessor.insert((InsertMessage) requestMessage, messageReplier);
-          break;
-        case OP_UPDATE:
-          assert requestMessage instanceof UpdateMessage;
-          requestProcessor.update((UpdateMessage) requestMessage, messageReplier);
-          break;
-        case OP_DELETE:
-          assert requestMessage instanceof DeleteMessage;
-          requestProcessor.delete((DeleteMessage) requestMessage, messageReplier);
-          break;
-        default:
-          throw new UnsupportedOperationException(
-              "Message replier not implemented for "
-              + requestMessage.getOpCode() + " opCode"
-          );
+    RequestMessage requestMessage = (RequestMessage) msg;
+    OperationTracker tracker = startTracking(ctx);
+    int requestId = requestMessage.getBaseMessage().getRequestId();
+    //they are set on the event loop whatever the execution mode is, as exceptionCaught uses them
+    ctx.attr(NettyMessageReplier.REQUEST_ID).set(requestId);
+    ctx.attr(REQUEST_OP_CODE).set(requestMessage.getOpCode());
+    SerializingExecutor executor = ctx.attr(CONNECTION_EXECUTOR).get();
+    if (executor == null) {
+      NettyMessageReplier messageReplier = new NettyMessageReplier(ctx, requestId);
+      try {
+        process(ctx, requestMessage, messageReplier, tracker);
+      } finally {
+        closeAfterReplies(ctx, requestMessage, messageReplier, tracker);
+      }
+    } else {
+      //if the executor rejects the task, it closes it and therefore the request
+      if (StreamingRequestDecoder.isStreamed(requestMessage)) {
+        executor.execute(new StreamedOffLoopTask(ctx, requestMessage, tracker));
+      } else {
+        executor.execute(new OffLoopTask(ctx, requestMessage, tracker));
+      }
+    }
+  }
+
+  /**
+   * Executes a request outside the event loop.
+   *
+   * <p>As exceptions cannot be propagated to the pipeline, they are handled here.
+   */
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private void processOffLoop(ChannelHandlerContext ctx, RequestMessage requestMessage,
+      @Nullable OperationTracker tracker) {
+    NettyMessageReplier messageReplier = new NettyMessageReplier(ctx,
+        requestMessage.getBaseMessage().getRequestId());
+    try {
+      process(ctx, requestMessage, messageReplier, tracker);
+    } catch (Throwable ex) {
+      logCaughtException(ex);
+      try {
+        requestProcessor.handleError(requestMessage.getOpCode(), messageReplier, ex);
+      } catch (Throwable ex2) {
+        LOGGER.error("Error while handling an exception", ex2);
+        ctx.close();
+      }
+    } finally {
+      closeAfterReplies(ctx, requestMessage, messageReplier, tracker);
+    }
+  }
+
+  /**
+   * Closes the message (and therefore its
+   * {@link com.torodb.mongowp.messages.request.BsonContext}) once the replies sent by the given
+   * replier have been written.
+   *
+   * <p>Replies may reference the buffer the request was read from and they are not always encoded
+   * by the thread that writes them (requests executed out of the event loop or replies encoded in
+   * parallel), so the buffer cannot be released as soon as the request is processed.
+   *
+   * <p>This is also the moment when the request is offered to the {@link SlowOperationProfiler},
+   * as its replies have been sent but it can still be read.
+   */
+  private void closeAfterReplies(ChannelHandlerContext ctx, RequestMessage requestMessage,
+      NettyMessageReplier messageReplier, @Nullable OperationTracker tracker) {
+    ChannelFuture exhaust = messageReplier.getExhaustFuture();
+    if (exhaust != null && !exhaust.isDone()) {
+      //the last batches are sent later, so the last write is only known once the stream finishes
+      exhaust.addListener(future -> closeAfterReplies(ctx, requestMessage, messageReplier,
+          tracker));
+      return;
+    }
+    ChannelFuture lastWrite = messageReplier.getLastWriteFuture();
+    if (lastWrite == null) {
+      finishRequest(ctx, requestMessage, tracker);
+    } else {
+      lastWrite.addListener(future -> finishRequest(ctx, requestMessage, tracker));
+    }
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private void finishRequest(ChannelHandlerContext ctx, RequestMessage requestMessage,
+      @Nullable OperationTracker tracker) {
+    if (tracker != null) {
+      try {
+        ConnectionTraffic traffic = ConnectionTraffic.get(ctx.channel());
+        tracker.onFinished(getOutboundDocuments(traffic), getOutboundBytes(traffic));
+        profiler.onOperationFinished(requestMessage, tracker);
+      } catch (RuntimeException ex) {
+        LOGGER.warn("Error while profiling a request", ex);
+      }
+    }
+    closeMessage(requestMessage);
+  }
+
+  /**
+   * @return the tracker of a request that has just been read or null if the profiler is disabled
+   */
+  @Nullable
+  private OperationTracker startTracking(ChannelHandlerContext ctx) {
+    if (!profiler.isEnabled()) {
+      return null;
+    }
+    ConnectionTraffic traffic = ConnectionTraffic.get(ctx.channel());
+    return profiler.startTracking(traffic == null ? 0 : traffic.takeLastDecodeNanos());
+  }
+
+  private static long getOutboundDocuments(@Nullable ConnectionTraffic traffic) {
+    return traffic == null ? 0 : traffic.getOutboundDocuments();
+  }
+
+  private static long getOutboundBytes(@Nullable ConnectionTraffic traffic) {
+    return traffic == null ? 0 : traffic.getOutboundBytes();
+  }
+
+  @SuppressWarnings("checkstyle:IllegalCatch")
+  private static void closeMessage(RequestMessage requestMessage) {
+    try {
+      requestMessage.close();
+    } catch (Exception ex) {
+      LOGGER.warn("Error while closing a request", ex);
+    }
+  }
+
+  private void process(ChannelHandlerContext ctx, RequestMessage requestMessage,
+      MessageReplier messageReplier, @Nullable OperationTracker tracker) throws Exception {
+    if (tracker != null) {
+      ConnectionTraffic traffic = ConnectionTraffic.get(ctx.channel());
+      tracker.onProcessStarted(getOutboundDocuments(traffic), getOutboundBytes(traffic));
+    }
+    long start = System.nanoTime();
+    RequestExecutionEvent event = WireEvents.beginRequestExecution();
+    try {
+      dispatch(requestMessage, messageReplier);
+    } finally {
+      serverMetrics.onRequestProcessed(requestMessage.getOpCode(), System.nanoTime() - start);
+      if (tracker != null) {
+        tracker.onProcessFinished();
+      }
+      if (event != null) {
+        event.finish(requestMessage.getOpCode(), requestMessage.getBaseMessage().getRequestId());
       }
     }
   }
 
+  private void dispatch(RequestMessage requestMessage, MessageReplier messageReplier)
+      throws Exception {
+    LOGGER.debug("Received message type: {}, data: {}",
+        requestMessage.getOpCode(), requestMessage);
+
+    switch (requestMessage.getOpCode()) {
+      case OP_QUERY:
+        assert requestMessage instanceof QueryMessage;
+        requestProcessor.queryMessage((QueryMessage) requestMessage, messageReplier);
+        break;
+      case OP_GET_MORE:
+        assert requestMessage instanceof GetMoreMessage;
+        requestProcessor.getMore((GetMoreMessage) requestMessage, messageReplier);
+        break;
+      case OP_KILL_CURSORS:
+        assert requestMessage instanceof KillCursorsMessage;
+        requestProcessor.killCursors((KillCursorsMessage) requestMessage, messageReplier);
+        break;
+      case OP_INSERT:
+        assert requestMessage instanceof InsertMessage;
+        requestProcessor.insert((InsertMessage) requestMessage, messageReplier);
+        break;
+      case OP_UPDATE:
+        assert requestMessage instanceof UpdateMessage;
+        requestProcessor.update((UpdateMessage) requestMessage, messageReplier);
+        break;
+      case OP_DELETE:
+        assert requestMessage instanceof DeleteMessage;
+        requestProcessor.delete((DeleteMessage) requestMessage, messageReplier);
+        break;
+      case OP_MSG:
+        assert requestMessage instanceof MsgMessage;
+        requestProcessor.msg((MsgMessage) requestMessage, messageReplier);
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Message replier not implemented for "
+            + requestMessage.getOpCode() + " opCode"
+        );
+    }
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     logCaughtException(cause);
 
+    RequestOpCode requestOpCode = ctx.attr(REQUEST_OP_CODE).get();
+    if (requestOpCode == null) {
+      //no request has been read yet, so there is nothing to reply to
+      ctx.close();
+      return;
+    }
     MessageReplier messageReplier = new NettyMessageReplier(ctx);
-    requestProcessor.handleError(ctx.attr(REQUEST_OP_CODE).get(), messageReplier, cause);
+    requestProcessor.handleError(requestOpCode, messageReplier, cause);
   }
 
   private void logCaughtException(Throwable cause) {
@@ -127,7 +300,9 @@ public class RequestMessageObjectHandler extends ChannelInboundHandlerAdapter {
       LOGGER.debug("Exception raised while logging connection", e);
     }
 
+    serverMetrics.onConnectionOpened();
     requestProcessor.onChannelActive(ctx);
+    ctx.attr(CONNECTION_EXECUTOR).set(requestExecutor.newConnectionExecutor());
 
     super.channelActive(ctx);
   }
@@ -141,7 +316,61 @@ public class RequestMessageObjectHandler extends ChannelInboundHandlerAdapter {
     }
 
     super.channelInactive(ctx);
+    serverMetrics.onConnectionClosed();
 
-    requestProcessor.onChannelInactive(ctx);
+    SerializingExecutor executor = ctx.attr(CONNECTION_EXECUTOR).get();
+    if (executor == null) {
+      requestProcessor.onChannelInactive(ctx);
+    } else {
+      try {
+        //the connection must be closed after the requests that are still pending
+        executor.execute(() -> requestProcessor.onChannelInactive(ctx));
+      } catch (RejectedExecutionException ex) {
+        //the server is being shut down and the pending requests have been discarded
+        requestProcessor.onChannelInactive(ctx);
+      }
+    }
+  }
+
+  /**
+   * A request that is executed out of the event loop. It is closed if it is rejected by the
+   * executor.
+   */
+  private class OffLoopTask implements Runnable, AutoCloseable {
+
+    private final ChannelHandlerContext ctx;
+    private final RequestMessage requestMessage;
+    @Nullable
+    private final OperationTracker tracker;
+
+    OffLoopTask(ChannelHandlerContext ctx, RequestMessage requestMessage,
+        @Nullable OperationTracker tracker) {
+      this.ctx = ctx;
+      this.requestMessage = requestMessage;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void run() {
+      processOffLoop(ctx, requestMessage, tracker);
+    }
+
+    @Override
+    public void close() {
+      closeMessage(requestMessage);
+    }
+  }
+
+  /**
+   * A streamed request, which waits for the documents the event loop receives, so it must not be
+   * executed by the event loop even when the request executor is saturated.
+   */
+  private class StreamedOffLoopTask extends OffLoopTask
+      implements SerializingExecutor.CallerBlockingTask {
+
+    StreamedOffLoopTask(ChannelHandlerContext ctx, RequestMessage requestMessage,
+        @Nullable OperationTracker tracker) {
+      super(ctx, requestMessage, tracker);
+    }
   }
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.server.wp;
+
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.exceptions.BadValueException;
+import com.torodb.mongowp.messages.request.InsertMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.request.RequestMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.decoder.BaseMessageDecoder;
+import com.torodb.mongowp.server.decoder.InsertMessageDecoder;
+import com.torodb.mongowp.server.decoder.MessageLimitsValidator;
+import com.torodb.mongowp.server.decoder.MsgMessageDecoder;
+import com.torodb.mongowp.server.decoder.StreamingDocumentProvider;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.util.ChannelLittleEndianHandler;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.AttributeKey;
+
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * Splits the incoming bytes into messages and decodes big OP_INSERT and OP_MSG messages while they
+ * are received, as configured by {@link MongoServerConfig#isStreamingDecodingEnabled()}.
+ *
+ * <p>This handler must be placed before the frame decoder. Messages that are not streamed are
+ * forwarded unchanged, as they are received. When a message is streamed, the part that precedes
+ * its documents is decoded as soon as it is received and the message is sent to the next handlers
+ * with a {@link StreamingDocumentProvider} that receives each document as soon as its last byte
+ * arrives. If the consumer does not keep up, the connection stops reading until it does.
+ *
+ * <p>Reading is paused and resumed on the event loop, even when the consumer is the one that asks
+ * to resume, so the decision and the change of {@code autoRead} cannot be reordered. The
+ * {@link ChannelWritabilityHandler} does not resume reading while a stream is paused.
+ */
+@SuppressFBWarnings(
+    value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT",
+    justification = "It seems FindBugs considers ByteBuf methods are not side effect")
+public class StreamingRequestDecoder extends ChannelLittleEndianHandler {
+
+  private static final int MIN_DOCUMENT_BYTES = 5;
+  private static final AttributeKey<Boolean> STREAM_PAUSED = AttributeKey.valueOf("streamPaused");
+
+  private final InsertMessageDecoder insertDecoder;
+  private final MsgMessageDecoder msgDecoder;
+  private final NettyBsonDocumentReader docReader;
+  private final MessageLimitsValidator limitsValidator;
+  private final ServerMetrics serverMetrics;
+  private final int minMessageBytes;
+  private final int windowBytes;
+
+  private State state = State.MESSAGE_START;
+  /**
+   * The number of bytes of the current message that have not been forwarded, streamed or
+   * discarded.
+   */
+  private int remaining;
+  @Nullable
+  private StreamingDocumentProvider provider;
+  /**
+   * The number of documents of the current message that have been streamed.
+   */
+  private int streamedDocuments;
+  /**
+   * The sequence number of the last streamed message.
+   */
+  private long streamSequence;
+  /**
+   * The sequence number of the message whose consumer asked to stop reading or 0 if reading is not
+   * paused by a stream.
+   */
+  private long pausedStream;
+
+  @Inject
+  public StreamingRequestDecoder(InsertMessageDecoder insertDecoder, MsgMessageDecoder msgDecoder,
+      NettyBsonDocumentReader docReader, MessageLimitsValidator limitsValidator,
+      MongoServerConfig config, ServerMetrics serverMetrics) {
+    this.insertDecoder = insertDecoder;
+    this.msgDecoder = msgDecoder;
+    this.docReader = docReader;
+    this.limitsValidator = limitsValidator;
+    this.serverMetrics = serverMetrics;
+    this.minMessageBytes = config.getStreamingDecodingMinMessageBytes();
+    this.windowBytes = config.getStreamingDecodingWindowBytes();
+  }
+
+  @Override
+  protected void decodeLittleEndian(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+      throws Exception {
+    switch (state) {
+      case MESSAGE_START:
+        decodeMessageStart(ctx, in, out);
+        break;
+      case FORWARD:
+        forward(in, out);
+        break;
+      case STREAM:
+        stream(ctx, in);
+        break;
+      case DISCARD:
+        discard(in);
+        break;
+      default:
+        throw new AssertionError("Unexpected state " + state);
+    }
+  }
+
+  private void decodeMessageStart(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+      throws Exception {
+    if (in.readableBytes() < MongoConstants.MESSAGE_HEADER_BYTES) {
+      return;
+    }
+    int messageStart = in.readerIndex();
+    int length = in.getInt(messageStart);
+    if (length < MongoConstants.MESSAGE_HEADER_BYTES) {
+      //the frame decoder will reject the message, so the connection cannot be recovered
+      remaining = Integer.MAX_VALUE;
+      state = State.FORWARD;
+      forward(in, out);
+      return;
+    }
+    int prefixLength = 0;
+    if (length >= minMessageBytes && length <= limitsValidator.getMaxMessageSizeBytes()) {
+      prefixLength = getPrefixLength(in, messageStart, length);
+      if (prefixLength < 0) {
+        return; //wait until the prefix is received
+      }
+    }
+    if (prefixLength > 0 && MongoConstants.MESSAGE_HEADER_BYTES + prefixLength < length) {
+      startStreaming(ctx, in, length, prefixLength, out);
+    } else {
+      //the frame decoder will check the message
+      remaining = length;
+      state = State.FORWARD;
+      forward(in, out);
+    }
+  }
+
+  private int getPrefixLength(ByteBuf in, int messageStart, int length) {
+    int opCode = in.getInt(messageStart + 12);
+    if (opCode == RequestOpCode.OP_INSERT.getOpCode()) {
+      int namespaceStart = messageStart + MongoConstants.MESSAGE_HEADER_BYTES + 4;
+      int messageEnd = messageStart + length;
+      int received = Math.min(in.writerIndex(), messageEnd);
+      if (received <= namespaceStart) {
+        return -1;
+      }
+      int namespaceEnd = in.indexOf(namespaceStart, received, (byte) 0);
+      if (namespaceEnd < 0) {
+        return received < messageEnd ? -1 : 0;
+      }
+      return namespaceEnd + 1 - (messageStart + MongoConstants.MESSAGE_HEADER_BYTES);
+    }
+    if (opCode == RequestOpCode.OP_MSG.getOpCode()) {
+      return MsgMessageDecoder.getStreamingPrefixLength(in, messageStart, length);
+    }
+    return 0;
+  }
+
+  private void startStreaming(ChannelHandlerContext ctx, ByteBuf in, int length, int prefixLength,
+      List<Object> out) throws Exception {
+    long start = System.nanoTime();
+    in.skipBytes(MongoConstants.MESSAGE_LENGTH_FIELD_BYTES);
+    RequestBaseMessage requestBaseMessage = BaseMessageDecoder.decode(ctx, in, length);
+    in.skipBytes(4); //responseTo
+    int opCode = in.readInt();
+
+    ByteBuf prefix = ctx.alloc().buffer(prefixLength, prefixLength)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    in.readBytes(prefix, prefixLength);
+    remaining = length - MongoConstants.MESSAGE_HEADER_BYTES - prefixLength;
+
+    Channel channel = ctx.channel();
+    long stream = ++streamSequence;
+    StreamingDocumentProvider newProvider = new StreamingDocumentProvider(docReader, windowBytes,
+        () -> channel.eventLoop().execute(() -> resumeReading(channel, stream)), prefix,
+        channel.eventLoop());
+    RequestMessage message;
+    RequestOpCode requestOpCode;
+    try {
+      if (opCode == RequestOpCode.OP_INSERT.getOpCode()) {
+        requestOpCode = RequestOpCode.OP_INSERT;
+        message = insertDecoder.decodeStreaming(prefix, requestBaseMessage, newProvider);
+      } else {
+        requestOpCode = RequestOpCode.OP_MSG;
+        message = msgDecoder.decodeStreaming(prefix, requestBaseMessage, newProvider);
+      }
+    } catch (Exception ex) {
+      newProvider.close();
+      state = State.DISCARD;
+      throw ex;
+    }
+    provider = newProvider;
+    streamedDocuments = 0;
+    state = State.STREAM;
+    //only the prefix is decoded here, the documents are decoded when they are consumed
+    long decodeNanos = System.nanoTime() - start;
+    serverMetrics.onRequestDecoded(requestOpCode, decodeNanos);
+    ConnectionTraffic traffic = ConnectionTraffic.get(channel);
+    if (traffic != null) {
+      traffic.onRequestDecoded(decodeNanos);
+    }
+    out.add(message);
+  }
+
+  private void forward(ByteBuf in, List<Object> out) {
+    int bytes = Math.min(remaining, in.readableBytes());
+    if (bytes == 0) {
+      return;
+    }
+    out.add(in.readSlice(bytes).retain());
+    remaining -= bytes;
+    if (remaining == 0) {
+      state = State.MESSAGE_START;
+    }
+  }
+
+  private void discard(ByteBuf in) {
+    int bytes = Math.min(remaining, in.readableBytes());
+    in.skipBytes(bytes);
+    remaining -= bytes;
+    if (remaining == 0) {
+      state = State.MESSAGE_START;
+    }
+  }
+
+  private void stream(ChannelHandlerContext ctx, ByteBuf in) {
+    assert provider != null;
+    if (in.readableBytes() < 4) {
+      return;
+    }
+    int docLength = in.getInt(in.readerIndex());
+    if (docLength < MIN_DOCUMENT_BYTES || docLength > remaining) {
+      failStream(new CorruptedFrameException("Invalid document length " + docLength));
+      return;
+    }
+    try {
+      limitsValidator.checkDocumentSize(docLength);
+      limitsValidator.checkBatchSize(streamedDocuments + 1);
+    } catch (BadValueException ex) {
+      failStream(ex);
+      return;
+    }
+    if (in.readableBytes() < docLength) {
+      return;
+    }
+    //the document is copied, so the received buffer does not have to be retained
+    ByteBuf doc = ctx.alloc().buffer(docLength, docLength).order(ByteOrder.LITTLE_ENDIAN);
+    in.readBytes(doc, docLength);
+    remaining -= docLength;
+    streamedDocuments++;
+    boolean keepReading = provider.offer(doc);
+    if (remaining == 0) {
+      provider.finish();
+      provider = null;
+      state = State.MESSAGE_START;
+    } else if (!keepReading) {
+      pausedStream = streamSequence;
+      ctx.channel().attr(STREAM_PAUSED).set(true);
+      ctx.channel().config().setAutoRead(false);
+    }
+  }
+
+  /**
+   * Makes the consumer fail with the given cause and ignores the rest of the message.
+   */
+  private void failStream(Throwable cause) {
+    assert provider != null;
+    provider.fail(cause);
+    provider = null;
+    state = State.DISCARD;
+  }
+
+  /**
+   * Resumes reading once the consumer of the given stream has caught up. It must be called on the
+   * event loop.
+   */
+  private void resumeReading(Channel channel, long stream) {
+    if (pausedStream != stream) {
+      //the request comes from a stream that did not pause reading
+      return;
+    }
+    pausedStream = 0;
+    channel.attr(STREAM_PAUSED).set(false);
+    //the writability handler stops reading while the channel is not writable
+    if (channel.isWritable()) {
+      channel.config().setAutoRead(true);
+    }
+  }
+
+  /**
+   * @return true iff the documents of the given message are streamed, so the thread that consumes
+   *         them waits until the event loop receives them
+   */
+  public static boolean isStreamed(RequestMessage message) {
+    if (message instanceof InsertMessage) {
+      return ((InsertMessage) message).getDocuments() instanceof StreamingDocumentProvider;
+    }
+    if (message instanceof MsgMessage) {
+      return ((MsgMessage) message).getDocumentSequences().values().stream()
+          .anyMatch(sequence -> sequence instanceof StreamingDocumentProvider);
+    }
+    return false;
+  }
+
+  /**
+   * @return true iff the given channel is not reading because the consumer of a streamed message
+   *         has not consumed its documents yet
+   */
+  public static boolean isStreamPaused(Channel channel) {
+    return Boolean.TRUE.equals(channel.attr(STREAM_PAUSED).get());
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    if (state == State.STREAM && !ctx.channel().config().isAutoRead()) {
+      //the default implementation requests another read when nothing has been decoded, which
+      //would ignore that the consumer asked to stop reading
+      ctx.fireChannelReadComplete();
+    } else {
+      super.channelReadComplete(ctx);
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    if (provider != null) {
+      provider.fail(new ClosedChannelException());
+      provider = null;
+    }
+    super.channelInactive(ctx);
+  }
+
+  private enum State {
+    /**
+     * The next byte is the first byte of a message.
+     */
+    MESSAGE_START,
+    /**
+     * The current message is not streamed, so it is forwarded to the frame decoder.
+     */
+    FORWARD,
+    /**
+     * The next bytes are documents of the current message.
+     */
+    STREAM,
+    /**
+     * The current message cannot be decoded, so the rest of its bytes are ignored.
+     */
+    DISCARD
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Ticker;
+import com.google.common.net.HostAndPort;
+import com.torodb.mongowp.commands.Connection;
+import com.torodb.mongowp.commands.cursors.CursorRegistry;
+import com.torodb.mongowp.commands.cursors.RegisteredCursor;
+import com.torodb.mongowp.commands.pojos.MongoCursor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+public class CursorRegistryTest {
+
+  private static final long TIMEOUT_MILLIS = 10_000;
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final CursorRegistry registry = new CursorRegistry(TIMEOUT_MILLIS, ticker);
+  private final Connection connection = new TestConnection(1);
+
+  public CursorRegistryTest() {
+    registry.openConnection(connection);
+  }
+
+  @After
+  public void tearDown() {
+    registry.shutdown();
+  }
+
+  @Test
+  public void testIdleCursorsAreKilled() {
+    TestCursor cursor = new TestCursor();
+    RegisteredCursor registered = registry.register(connection, "db.coll", cursor, false);
+
+    ticker.advance(TIMEOUT_MILLIS / 2);
+    assertEquals(0, registry.expireIdleCursors());
+    ticker.advance(TIMEOUT_MILLIS);
+    assertEquals(1, registry.expireIdleCursors());
+
+    assertTrue(cursor.closed);
+    assertNull(registry.checkout(registered.getId()));
+    assertEquals(0, registry.getCursorCount());
+  }
+
+  @Test
+  public void testUsingACursorRestartsItsTimeout() {
+    RegisteredCursor registered = registry.register(connection, "db.coll", new TestCursor(),
+        false);
+
+    ticker.advance(TIMEOUT_MILLIS - 2_000);
+    RegisteredCursor checkedOut = registry.checkout(registered.getId());
+    assertNotNull(checkedOut);
+    registry.release(checkedOut);
+
+    ticker.advance(3_000);
+    assertEquals("A used cursor was killed", 0, registry.expireIdleCursors());
+    ticker.advance(TIMEOUT_MILLIS);
+    assertEquals(1, registry.expireIdleCursors());
+  }
+
+  @Test
+  public void testNoTimeoutCursorsAreNotKilled() {
+    TestCursor cursor = new TestCursor();
+    RegisteredCursor registered = registry.register(connection, "db.coll", cursor, true);
+
+    ticker.advance(TimeUnit.HOURS.toMillis(1));
+    assertEquals(0, registry.expireIdleCursors());
+
+    assertFalse(cursor.closed);
+    assertNotNull(registry.checkout(registered.getId()));
+  }
+
+  @Test
+  public void testCursorsAreKilledWhenTheirConnectionIsClosed() {
+    Connection other = new TestConnection(2);
+    registry.openConnection(other);
+    TestCursor first = new TestCursor();
+    TestCursor second = new TestCursor();
+    TestCursor ofOther = new TestCursor();
+    registry.register(connection, "db.coll", first, false);
+    registry.register(connection, "db.coll", second, true);
+    registry.register(other, "db.coll", ofOther, false);
+
+    assertEquals(2, registry.killConnectionCursors(connection));
+    assertTrue(first.closed);
+    assertTrue(second.closed);
+    assertFalse(ofOther.closed);
+    assertEquals(1, registry.getCursorCount());
+  }
+
+  @Test
+  public void testClosedConnectionsCannotRegisterCursors() {
+    registry.killConnectionCursors(connection);
+
+    TestCursor cursor = new TestCursor();
+    try {
+      registry.register(connection, "db.coll", cursor, false);
+      fail("A cursor was registered on a closed connection");
+    } catch (IllegalStateException expected) {
+      //expected
+    }
+    assertTrue(cursor.closed);
+    assertEquals(0, registry.getCursorCount());
+  }
+
+  @Test
+  public void testKillCursors() {
+    TestCursor killed = new TestCursor();
+    TestCursor alive = new TestCursor();
+    RegisteredCursor registered = registry.register(connection, "db.coll", killed, false);
+    RegisteredCursor other = registry.register(connection, "db.coll", alive, false);
+
+    long unknownId = registered.getId() ^ other.getId();
+    assertEquals(1, registry.killCursors(connection, registered.getId(), unknownId));
+
+    assertTrue(killed.closed);
+    assertFalse(alive.closed);
+    assertNull(registry.checkout(registered.getId()));
+    assertNotNull(registry.checkout(other.getId()));
+  }
+
+  @Test
+  public void testConnectionsCannotKillCursorsOfOtherConnections() {
+    Connection other = new TestConnection(2);
+    registry.openConnection(other);
+    TestCursor cursor = new TestCursor();
+    RegisteredCursor registered = registry.register(connection, "db.coll", cursor, false);
+
+    assertEquals(0, registry.killCursors(other, registered.getId()));
+
+    assertFalse(cursor.closed);
+    assertNotNull(registry.checkout(registered.getId()));
+  }
+
+  @Test
+  public void testCursorsKilledWhileCheckedOutAreClosedOnRelease() {
+    TestCursor cursor = new TestCursor();
+    RegisteredCursor registered = registry.register(connection, "db.coll", cursor, false);
+    RegisteredCursor checkedOut = registry.checkout(registered.getId());
+    assertNotNull(checkedOut);
+
+    assertEquals(1, registry.killCursors(connection, registered.getId()));
+
+    assertFalse("A cursor in use was closed", cursor.closed);
+    assertTrue(checkedOut.isKilled());
+    assertNotNull(checkedOut.getCursor());
+    assertNull(registry.checkout(registered.getId()));
+    assertEquals(0, registry.getCursorCount());
+
+    registry.release(checkedOut);
+    assertTrue(cursor.closed);
+    assertNull(checkedOut.getCursor());
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  private static class TestConnection implements Connection {
+
+    private final int id;
+
+    TestConnection(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public int getConnectionId() {
+      return id;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class TestCursor implements MongoCursor<Object> {
+
+    private volatile boolean closed;
+
+    @Override
+    public String getDatabase() {
+      return "db";
+    }
+
+    @Override
+    public String getCollection() {
+      return "coll";
+    }
+
+    @Override
+    public Batch<Object> fetchBatch() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Batch<Object> tryFetchBatch() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getId() {
+      return 0;
+    }
+
+    @Override
+    public void setMaxBatchSize(int newBatchSize) {
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+      return 0;
+    }
+
+    @Override
+    public boolean isTailable() {
+      return false;
+    }
+
+    @Override
+    public Object next() {
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public Object tryNext() {
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return false;
+    }
+
+    @Override
+    public HostAndPort getServerAddress() {
+      return null;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return closed;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.torodb.mongowp.OpTime;
+import com.torodb.mongowp.server.api.CursorWaitRegistry;
+import com.torodb.mongowp.server.api.CursorWaitRegistry.Registration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class CursorWaitRegistryTest {
+
+  private final CursorWaitRegistry registry = new CursorWaitRegistry(
+      Executors.defaultThreadFactory());
+  private final BlockingQueue<Boolean> resumed = new ArrayBlockingQueue<>(10);
+
+  @After
+  public void tearDown() {
+    registry.shutdown();
+  }
+
+  @Test
+  public void testSignalResumesWaiters() {
+    long version = registry.getVersion("db.coll");
+    registry.await("db.coll", version, 1, TimeUnit.HOURS, resumed::add);
+    registry.signal("db.other");
+    assertNull(resumed.poll());
+
+    registry.signal("db.coll");
+    assertEquals(Boolean.TRUE, resumed.poll());
+    registry.signal("db.coll");
+    assertNull(resumed.poll());
+  }
+
+  @Test
+  public void testSignalBeforeRegistrationIsNotLost() {
+    long version = registry.getVersion("db.coll");
+    registry.signal("db.coll");
+    registry.await("db.coll", version, 1, TimeUnit.HOURS, resumed::add);
+    assertEquals(Boolean.TRUE, resumed.poll());
+  }
+
+  @Test
+  public void testTimeoutAndCancel() throws InterruptedException {
+    registry.await("db.coll", registry.getVersion("db.coll"), 20, TimeUnit.MILLISECONDS,
+        resumed::add);
+    assertEquals(Boolean.FALSE, resumed.poll(10, TimeUnit.SECONDS));
+
+    Registration registration = registry.await("db.coll", registry.getVersion("db.coll"), 1,
+        TimeUnit.HOURS, resumed::add);
+    assertTrue(registration.cancel());
+    assertFalse(registration.cancel());
+    registry.signal("db.coll");
+    assertNull(resumed.poll());
+  }
+
+  @Test
+  public void testOpTimeSignal() {
+    registry.awaitOpTime(OpTime.ofSeconds(10), 1, TimeUnit.HOURS, resumed::add);
+    registry.signalOpTime(OpTime.ofSeconds(5));
+    assertNull(resumed.poll());
+
+    registry.signalOpTime(OpTime.ofSeconds(12));
+    assertEquals(Boolean.TRUE, resumed.poll());
+
+    registry.awaitOpTime(OpTime.ofSeconds(11), 1, TimeUnit.HOURS, resumed::add);
+    assertEquals(Boolean.TRUE, resumed.poll());
+  }
+}
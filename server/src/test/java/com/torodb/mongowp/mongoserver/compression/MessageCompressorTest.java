@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.torodb.mongowp.server.compression.MessageCompressor;
+import com.torodb.mongowp.server.compression.MessageCompressorRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+@RunWith(Parameterized.class)
+public class MessageCompressorTest {
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> compressors() {
+    Collection<Object[]> result = new ArrayList<>();
+    for (MessageCompressor compressor : new MessageCompressorRegistry().getCompressors()) {
+      result.add(new Object[] {compressor.getName(), compressor});
+    }
+    return result;
+  }
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public MessageCompressor compressor;
+
+  @Test
+  public void testHeapRoundTrip() throws IOException {
+    roundTrip(Unpooled.buffer(), Unpooled.buffer());
+  }
+
+  @Test
+  public void testDirectRoundTrip() throws IOException {
+    roundTrip(Unpooled.directBuffer(), Unpooled.directBuffer());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnexpectedSize() throws IOException {
+    byte[] original = createMessage();
+    ByteBuf compressed = Unpooled.buffer();
+    compressor.compress(Unpooled.wrappedBuffer(original), compressed);
+
+    compressor.decompress(compressed, Unpooled.buffer(), original.length - 1);
+  }
+
+  private void roundTrip(ByteBuf compressed, ByteBuf decompressed) throws IOException {
+    byte[] original = createMessage();
+    ByteBuf src = Unpooled.wrappedBuffer(original);
+
+    compressor.compress(src, compressed);
+    assertEquals(0, src.readableBytes());
+
+    compressor.decompress(compressed, decompressed, original.length);
+    assertEquals(0, compressed.readableBytes());
+
+    byte[] result = new byte[decompressed.readableBytes()];
+    decompressed.readBytes(result);
+    assertArrayEquals(original, result);
+  }
+
+  private byte[] createMessage() {
+    byte[] message = new byte[10_000];
+    Random random = new Random(1234);
+    for (int i = 0; i < message.length; i++) {
+      message[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return message;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.decoder;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.exceptions.BadValueException;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.fields.StringField;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.decoder.MessageLimitsValidator;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+
+public class MessageLimitsValidatorTest {
+
+  private static final IntField ID_FIELD = new IntField("_id");
+  private static final StringField NAME_FIELD = new StringField("name");
+
+  private final NettyBsonDocumentWriter writer = new NettyBsonDocumentWriter();
+  private final MessageLimitsValidator validator = new MessageLimitsValidator(
+      new MongoServerConfig() {
+        @Override
+        public int getPort() {
+          return 0;
+        }
+
+        @Override
+        public int getMaxBsonObjectSize() {
+          return 64;
+        }
+
+        @Override
+        public int getMaxWriteBatchSize() {
+          return 2;
+        }
+      });
+
+  private ByteBuf newInsert(int docs, String name) {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0);
+    buf.writeBytes("test.coll".getBytes(Charsets.UTF_8)).writeByte(0);
+    for (int i = 0; i < docs; i++) {
+      writer.writeInto(buf, new BsonDocumentBuilder()
+          .append(ID_FIELD, i)
+          .append(NAME_FIELD, name)
+          .build());
+    }
+    return buf;
+  }
+
+  @Test
+  public void testValidInsert() throws Exception {
+    validator.validate(RequestOpCode.OP_INSERT, newInsert(2, "a"));
+  }
+
+  @Test(expected = BadValueException.class)
+  public void testDocumentTooLarge() throws Exception {
+    validator.validate(RequestOpCode.OP_INSERT, newInsert(1, Strings.repeat("x", 64)));
+  }
+
+  @Test(expected = BadValueException.class)
+  public void testBatchTooLarge() throws Exception {
+    validator.validate(RequestOpCode.OP_INSERT, newInsert(3, "a"));
+  }
+
+  @Test
+  public void testSectionSizeDoesNotOverflow() throws Exception {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0);
+    buf.writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder().append(ID_FIELD, 0).build());
+    buf.writeByte(1);
+    buf.writeInt(Integer.MAX_VALUE);
+    buf.writeBytes("documents".getBytes(Charsets.UTF_8)).writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder().append(ID_FIELD, 1).build());
+
+    assertEquals(2, validator.validate(RequestOpCode.OP_MSG, buf));
+  }
+}
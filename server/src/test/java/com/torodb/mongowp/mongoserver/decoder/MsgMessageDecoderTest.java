@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.decoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.torodb.mongowp.bson.BsonArray;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.DefaultNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.netty.NettyStringReader;
+import com.torodb.mongowp.bson.netty.OffHeapNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.OffHeapValuesNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.PooledNettyStringReader;
+import com.torodb.mongowp.bson.netty.pool.InternStringPool;
+import com.torodb.mongowp.bson.netty.pool.NeverStringPoolPolicy;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.exceptions.FailedToParseException;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.fields.StringField;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.decoder.MsgMessageDecoder;
+import com.torodb.mongowp.server.decoder.StreamingDocumentProvider;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MsgMessageDecoderTest {
+
+  private static final StringField INSERT_FIELD = new StringField("insert");
+  private static final StringField DB_FIELD = new StringField("$db");
+  private static final IntField ID_FIELD = new IntField("_id");
+
+  private final NettyBsonDocumentWriter writer = new NettyBsonDocumentWriter();
+  private final NettyBsonDocumentReader reader;
+  private final MsgMessageDecoder decoder;
+
+  public MsgMessageDecoderTest() {
+    NettyStringReader stringReader = new PooledNettyStringReader(
+        new InternStringPool(NeverStringPoolPolicy.getInstance()));
+    reader = new NettyBsonDocumentReader(
+        new DefaultNettyBsonLowLevelReader(stringReader),
+        new OffHeapNettyBsonLowLevelReader(stringReader),
+        new OffHeapValuesNettyBsonLowLevelReader(stringReader)
+    );
+    decoder = new MsgMessageDecoder(stringReader, reader);
+  }
+
+  @Test
+  public void testDecodeWithDocumentSequence() throws Exception {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0);
+    buf.writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder()
+        .append(INSERT_FIELD, "coll")
+        .append(DB_FIELD, "test")
+        .build());
+    buf.writeByte(1);
+    int sizeIndex = buf.writerIndex();
+    buf.writeInt(0);
+    buf.writeBytes("documents".getBytes(Charsets.UTF_8)).writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder().append(ID_FIELD, 1).build());
+    writer.writeInto(buf, new BsonDocumentBuilder().append(ID_FIELD, 2).build());
+    buf.setInt(sizeIndex, buf.writerIndex() - sizeIndex);
+
+    try (MsgMessage message = decoder.decode(buf, new RequestBaseMessage(null, 0, 1))) {
+      assertEquals("test", message.getDatabase());
+      assertFalse(message.isMoreToCome());
+      assertTrue(message.getDocumentSequences().containsKey("documents"));
+
+      BsonDocument command = message.getCommandDocument();
+      assertEquals("coll", command.get("insert").asString().getValue());
+      BsonArray docs = command.get("documents").asArray();
+      assertEquals(2, docs.size());
+      assertEquals(2, docs.get(1).asDocument().get("_id").asInt32().intValue());
+    }
+  }
+
+  @Test(expected = FailedToParseException.class)
+  public void testDecodeWithoutDatabase() throws Exception {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0);
+    buf.writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder().append(INSERT_FIELD, "coll").build());
+
+    decoder.decode(buf, new RequestBaseMessage(null, 0, 1));
+  }
+
+  /**
+   * Returns the frame of an OP_MSG message with a checksum, as the length field decoder would
+   * emit it, with its reader index after the header.
+   */
+  private ByteBuf newChecksummedFrame(int checksumDelta) {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0).writeInt(1).writeInt(0).writeInt(RequestOpCode.OP_MSG.getOpCode());
+    buf.writeInt(1);
+    buf.writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder()
+        .append(INSERT_FIELD, "coll")
+        .append(DB_FIELD, "test")
+        .build());
+    buf.setInt(0, buf.readableBytes() + 4);
+    byte[] bytes = new byte[buf.readableBytes()];
+    buf.getBytes(0, bytes);
+    buf.writeInt(Hashing.crc32c().hashBytes(bytes).asInt() + checksumDelta);
+
+    ByteBuf frame = buf.slice(4, buf.readableBytes() - 4).order(ByteOrder.LITTLE_ENDIAN);
+    frame.skipBytes(12);
+    return frame;
+  }
+
+  @Test
+  public void testDecodeWithChecksum() throws Exception {
+    try (MsgMessage message = decoder.decode(newChecksummedFrame(0),
+        new RequestBaseMessage(null, 0, 1))) {
+      assertTrue(message.isChecksumPresent());
+      assertEquals("test", message.getDatabase());
+    }
+  }
+
+  @Test(expected = FailedToParseException.class)
+  public void testDecodeWithWrongChecksum() throws Exception {
+    decoder.decode(newChecksummedFrame(1), new RequestBaseMessage(null, 0, 1));
+  }
+
+  @Test
+  public void testStreamingDecode() throws Exception {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(0).writeInt(1).writeInt(0).writeInt(RequestOpCode.OP_MSG.getOpCode());
+    buf.writeInt(0);
+    buf.writeByte(0);
+    writer.writeInto(buf, new BsonDocumentBuilder()
+        .append(INSERT_FIELD, "coll")
+        .append(DB_FIELD, "test")
+        .build());
+    buf.writeByte(1);
+    int sizeIndex = buf.writerIndex();
+    buf.writeInt(0);
+    buf.writeBytes("documents".getBytes(Charsets.UTF_8)).writeByte(0);
+    int prefixEnd = buf.writerIndex();
+    ByteBuf docs = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    writer.writeInto(docs, new BsonDocumentBuilder().append(ID_FIELD, 1).build());
+    writer.writeInto(docs, new BsonDocumentBuilder().append(ID_FIELD, 2).build());
+    int docLength = docs.readableBytes() / 2;
+    int length = prefixEnd + docs.readableBytes();
+    buf.setInt(0, length);
+    buf.setInt(sizeIndex, length - sizeIndex);
+
+    assertEquals(-1, MsgMessageDecoder.getStreamingPrefixLength(
+        buf.slice(0, 24).order(ByteOrder.LITTLE_ENDIAN), 0, length));
+    int prefixLength = MsgMessageDecoder.getStreamingPrefixLength(buf, 0, length);
+    assertEquals(prefixEnd - 16, prefixLength);
+
+    AtomicInteger resumes = new AtomicInteger();
+    StreamingDocumentProvider provider = new StreamingDocumentProvider(reader, docLength,
+        resumes::incrementAndGet, buf.retain());
+    try (MsgMessage message = decoder.decodeStreaming(buf.slice(16, prefixLength),
+        new RequestBaseMessage(null, 0, 1), provider)) {
+      assertEquals("test", message.getDatabase());
+
+      assertFalse(provider.offer(docs.readSlice(docLength).retain()));
+      assertSame(provider, message.getDocumentSequences().get("documents"));
+      Iterator<BsonDocument> it = provider.getIterable(AllocationType.OFFHEAP).iterator();
+      assertEquals(1, it.next().get("_id").asInt32().intValue());
+      assertEquals(1, resumes.get());
+
+      assertFalse(provider.offer(docs.readSlice(docLength).retain()));
+      provider.finish();
+      assertEquals(2, it.next().get("_id").asInt32().intValue());
+      assertFalse(it.hasNext());
+    }
+    assertFalse(provider.isValid());
+    assertEquals(1, docs.refCnt());
+    assertEquals(1, buf.refCnt());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStreamedDocumentsAreNotAwaitedOnTheProducer() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    StreamingDocumentProvider provider = new StreamingDocumentProvider(reader, 100, () -> { },
+        null, channel.eventLoop());
+    provider.getIterable(AllocationType.HEAP).iterator().hasNext();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.decoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Charsets;
+import com.torodb.mongowp.bson.netty.NettyBsonReaderException;
+import com.torodb.mongowp.exceptions.InvalidNamespaceException;
+import com.torodb.mongowp.messages.utils.Namespace;
+import com.torodb.mongowp.server.decoder.NamespaceCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+public class NamespaceCacheTest {
+
+  private static ByteBuf cstring(String value) {
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(value.getBytes(Charsets.UTF_8));
+    buf.writeByte(0);
+    buf.writeInt(42);
+    return buf;
+  }
+
+  @Test
+  public void testRepeatedNamespaceIsCached() throws Exception {
+    NamespaceCache cache = new NamespaceCache(16);
+
+    ByteBuf first = cstring("db.coll.sub");
+    Namespace namespace = cache.readNamespace(first);
+    assertEquals("db", namespace.getDatabase());
+    assertEquals("coll.sub", namespace.getCollection());
+    assertEquals("db.coll.sub", namespace.getFullName());
+    assertEquals(42, first.readInt());
+
+    ByteBuf second = cstring("db.coll.sub");
+    assertSame(namespace, cache.readNamespace(second));
+    assertEquals(42, second.readInt());
+
+    assertEquals(Namespace.of("db", "coll.sub"), namespace);
+    assertEquals(Namespace.of("db", "coll.sub").hashCode(), namespace.hashCode());
+  }
+
+  @Test
+  public void testEvictedNamespacesAreParsedAgain() throws Exception {
+    NamespaceCache cache = new NamespaceCache(4);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 64; j++) {
+        Namespace namespace = cache.readNamespace(cstring("db" + j + ".coll"));
+        assertEquals("db" + j, namespace.getDatabase());
+        assertEquals("coll", namespace.getCollection());
+      }
+    }
+  }
+
+  @Test(expected = InvalidNamespaceException.class)
+  public void testNoCollection() throws Exception {
+    new NamespaceCache(16).readNamespace(cstring("db"));
+  }
+
+  @Test(expected = InvalidNamespaceException.class)
+  public void testEmptyDatabase() throws Exception {
+    new NamespaceCache(16).readNamespace(cstring(".coll"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityTooLarge() {
+    new NamespaceCache((1 << 30) + 1);
+  }
+
+  @Test(expected = NettyBsonReaderException.class)
+  public void testUnterminated() throws Exception {
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes("db.coll".getBytes(Charsets.UTF_8));
+    new NamespaceCache(16).readNamespace(buf);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.encoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.DefaultNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.netty.NettyStringReader;
+import com.torodb.mongowp.bson.netty.OffHeapNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.OffHeapValuesNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.PooledNettyStringReader;
+import com.torodb.mongowp.bson.netty.pool.AlwaysFalseStringPool;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.encoder.ReplyMessageEncoder;
+import com.torodb.mongowp.server.util.ByteBufIterableDocumentProvider;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ReplyMessageEncoderTest {
+
+  private static final IntField ID_FIELD = new IntField("_id");
+
+  private final NettyBsonDocumentWriter writer = new NettyBsonDocumentWriter();
+  private final ReplyMessageEncoder encoder = new ReplyMessageEncoder(writer);
+  private final NettyBsonDocumentReader reader;
+
+  public ReplyMessageEncoderTest() {
+    NettyStringReader stringReader = new PooledNettyStringReader(
+        AlwaysFalseStringPool.getInstance());
+    reader = new NettyBsonDocumentReader(
+        new DefaultNettyBsonLowLevelReader(stringReader),
+        new OffHeapNettyBsonLowLevelReader(stringReader),
+        new OffHeapValuesNettyBsonLowLevelReader(stringReader)
+    );
+  }
+
+  @Test
+  public void testSinglePassEncoding() {
+    ByteBuf docs = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < 3; i++) {
+      writer.writeInto(docs, new BsonDocumentBuilder().append(ID_FIELD, i).build());
+    }
+    ReplyMessage message = new ReplyMessage(EmptyBsonContext.getInstance(), 7, false, false,
+        false, false, 0, 0, new ByteBufIterableDocumentProvider(docs, reader));
+
+    ByteBuf out = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    encoder.encode(out, message, 42);
+
+    assertEquals(out.readableBytes(), encoder.estimateSize(message));
+    assertEquals(out.readableBytes(), out.getInt(0));
+    assertEquals(42, out.getInt(4));
+    assertEquals(7, out.getInt(8));
+    assertEquals(3, out.getInt(16 + 4 + 8 + 4));
+  }
+
+  @Test
+  public void testZeroCopyEncoding() throws Exception {
+    ByteBuf docs = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < 3; i++) {
+      writer.writeInto(docs, new BsonDocumentBuilder().append(ID_FIELD, i).build());
+    }
+    ReplyMessage message = new ReplyMessage(EmptyBsonContext.getInstance(), 7, false, false,
+        false, false, 0, 0, new ByteBufIterableDocumentProvider(docs, reader));
+
+    ByteBuf expected = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    encoder.encode(expected, message, 42);
+
+    ByteBuf out = encoder.encodeZeroCopy(UnpooledByteBufAllocator.DEFAULT, message, 42, 1);
+    assertTrue(out instanceof CompositeByteBuf);
+    assertEquals(2, docs.refCnt());
+    assertEquals(expected, out);
+
+    out.release();
+    assertEquals(1, docs.refCnt());
+  }
+
+  @Test
+  public void testZeroCopyMixedDocuments() throws Exception {
+    ByteBuf docBuf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    writer.writeInto(docBuf, new BsonDocumentBuilder().append(ID_FIELD, 1).build());
+    BsonDocument offHeap = reader.readDocument(AllocationType.OFFHEAP, docBuf);
+    BsonDocument onHeap = new BsonDocumentBuilder().append(ID_FIELD, 2).build();
+    ReplyMessage message = new ReplyMessage(EmptyBsonContext.getInstance(), 7, false, false,
+        false, false, 0, 0, IterableDocumentProvider.of(Arrays.asList(onHeap, offHeap, onHeap)));
+
+    ByteBuf expected = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    encoder.encode(expected, message, 42);
+
+    ByteBuf sliced = encoder.encodeZeroCopy(UnpooledByteBufAllocator.DEFAULT, message, 42, 1);
+    assertTrue(sliced instanceof CompositeByteBuf);
+    assertEquals(expected, sliced);
+    assertEquals(3, sliced.order(ByteOrder.LITTLE_ENDIAN).getInt(16 + 4 + 8 + 4));
+    sliced.release();
+
+    ByteBuf copied = encoder.encodeZeroCopy(UnpooledByteBufAllocator.DEFAULT, message, 42,
+        Integer.MAX_VALUE);
+    assertTrue(!(copied instanceof CompositeByteBuf));
+    assertEquals(expected, copied);
+    copied.release();
+    assertEquals(1, docBuf.refCnt());
+  }
+
+  @Test
+  public void testZeroCopyRejectsMalformedDocuments() {
+    ByteBuf docs = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    writer.writeInto(docs, new BsonDocumentBuilder().append(ID_FIELD, 1).build());
+    docs.writeInt(0);
+    ReplyMessage message = new ReplyMessage(EmptyBsonContext.getInstance(), 7, false, false,
+        false, false, 0, 0, new ByteBufIterableDocumentProvider(docs, reader));
+
+    try {
+      encoder.encodeZeroCopy(UnpooledByteBufAllocator.DEFAULT, message, 42, 1);
+      fail("A document with an invalid length was encoded");
+    } catch (IllegalArgumentException expected) {
+      assertEquals(1, docs.refCnt());
+    }
+  }
+
+  @Test
+  public void testParallelEncoding() throws Exception {
+    List<BsonDocument> docs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      docs.add(new BsonDocumentBuilder().append(ID_FIELD, i).build());
+    }
+    ReplyMessage message = new ReplyMessage(EmptyBsonContext.getInstance(), 7, false, false,
+        false, false, 0, 0, IterableDocumentProvider.of(docs));
+
+    ByteBuf expected = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    encoder.encode(expected, message, 42);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ByteBuf out = encoder.encodeInParallel(UnpooledByteBufAllocator.DEFAULT, message, 42, docs,
+          64, executor).get();
+      assertEquals(expected, out);
+      out.release();
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.server.metrics.LatencyHistogram;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.recordMicros(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertWithinError(500, histogram.getPercentileMicros(50));
+    assertWithinError(990, histogram.getPercentileMicros(99));
+    assertEquals(1000, histogram.getPercentileMicros(100));
+
+    BsonDocument doc = histogram.toBsonDocument();
+    assertEquals(1000, doc.get("count").asInt64().longValue());
+    assertEquals(1000, doc.get("maxMicros").asInt64().longValue());
+    assertEquals(500.5, doc.get("meanMicros").asDouble().doubleValue(), 0.001);
+  }
+
+  @Test
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentileMicros(99));
+    assertEquals(0, histogram.toBsonDocument().get("count").asInt64().longValue());
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    assertTrue("Expected " + expected + " but was " + actual,
+        actual >= expected && actual <= expected * 1.125);
+  }
+}
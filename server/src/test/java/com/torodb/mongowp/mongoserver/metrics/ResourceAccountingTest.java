@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.torodb.mongowp.server.metrics.ResourceAccounting;
+import com.torodb.mongowp.server.metrics.ResourceCounters;
+import com.torodb.mongowp.server.metrics.ResourceMeasurement;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class ResourceAccountingTest {
+
+  private static boolean isAllocationMeasured() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    return bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+  }
+
+  @Test
+  public void testMeasuresCurrentThread() {
+    ResourceAccounting accounting = new ResourceAccounting(true);
+    assumeTrue(isAllocationMeasured());
+
+    ResourceMeasurement measurement = accounting.begin();
+    List<byte[]> garbage = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      garbage.add(new byte[1024]);
+    }
+    measurement.end();
+    assertEquals(100, garbage.size());
+    assertTrue(measurement.getAllocatedBytes() >= 100 * 1024);
+
+    accounting.onConnectionOpened(1);
+    accounting.onConnectionUsage(1, measurement);
+    ResourceCounters counters = accounting.getConnectionUsage(1);
+    assertEquals(1, counters.getCount());
+    accounting.onConnectionClosed(1);
+    assertNull(accounting.getConnectionUsage(1));
+  }
+
+  @Test
+  public void testUsageOfClosedConnectionsIsIgnored() {
+    ResourceAccounting accounting = new ResourceAccounting(true);
+    assumeTrue(accounting.isEnabled());
+
+    accounting.onConnectionOpened(1);
+    ResourceMeasurement measurement = accounting.begin();
+    accounting.onConnectionClosed(1);
+    measurement.end();
+    accounting.onConnectionUsage(1, measurement);
+    assertNull(accounting.getConnectionUsage(1));
+
+    measurement = accounting.begin();
+    measurement.end();
+    accounting.onConnectionUsage(2, measurement);
+    assertNull(accounting.getConnectionUsage(2));
+  }
+
+  @Test
+  public void testOtherThreadsAreNotMeasured() throws Exception {
+    ResourceAccounting accounting = new ResourceAccounting(true);
+    assumeTrue(accounting.isEnabled());
+
+    ResourceMeasurement measurement = accounting.begin();
+    CompletableFuture.runAsync(measurement::end).get();
+    assertEquals(0, measurement.getCpuNanos());
+    assertEquals(0, measurement.getAllocatedBytes());
+  }
+
+  @Test
+  public void testDisabled() {
+    assertNull(new ResourceAccounting(false).begin());
+  }
+}
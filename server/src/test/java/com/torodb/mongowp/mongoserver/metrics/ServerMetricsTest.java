@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.compression.MessageCompressorRegistry;
+import com.torodb.mongowp.server.compression.ZlibMessageCompressor;
+import com.torodb.mongowp.server.metrics.ResourceAccounting;
+import com.torodb.mongowp.server.metrics.ResourceMeasurement;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class ServerMetricsTest {
+
+  private static long getLong(BsonDocument doc, String field) {
+    return doc.get(field).asInt64().longValue();
+  }
+
+  @Test
+  public void testStatus() {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.onConnectionOpened();
+    metrics.onConnectionOpened();
+    metrics.onConnectionClosed();
+    metrics.onBytesIn(100);
+    metrics.onBytesOut(300);
+    metrics.onRequestDecoded(RequestOpCode.OP_MSG, TimeUnit.MICROSECONDS.toNanos(10));
+    metrics.onRequestDecoded(RequestOpCode.OP_MSG, TimeUnit.MICROSECONDS.toNanos(20));
+    metrics.onRequestProcessed(RequestOpCode.OP_MSG, TimeUnit.MICROSECONDS.toNanos(50));
+    metrics.onCommandExecuted("ping", TimeUnit.MICROSECONDS.toNanos(5));
+    metrics.onCommandExecuted("find", TimeUnit.MICROSECONDS.toNanos(40));
+    metrics.onReplyEncoded(TimeUnit.MICROSECONDS.toNanos(7));
+    metrics.onReplyFlushed(TimeUnit.MICROSECONDS.toNanos(9));
+
+    BsonDocument status = metrics.getStatus();
+
+    BsonDocument connections = status.get("connections").asDocument();
+    assertEquals(1, getLong(connections, "current"));
+    assertEquals(2, getLong(connections, "totalCreated"));
+
+    BsonDocument network = status.get("network").asDocument();
+    assertEquals(100, getLong(network, "bytesIn"));
+    assertEquals(300, getLong(network, "bytesOut"));
+    assertEquals(2, getLong(network, "numRequests"));
+
+    BsonDocument opcounters = status.get("opcounters").asDocument();
+    assertEquals(RequestOpCode.values().length, opcounters.size());
+    assertEquals(2, getLong(opcounters, "OP_MSG"));
+    assertEquals(0, getLong(opcounters, "OP_QUERY"));
+
+    BsonDocument opLatencies = status.get("opLatencies").asDocument();
+    assertEquals("Only the used op codes have latencies", 1, opLatencies.size());
+    BsonDocument msgLatencies = opLatencies.get("OP_MSG").asDocument();
+    assertEquals(2, getLong(msgLatencies.get("decode").asDocument(), "count"));
+    assertEquals(1, getLong(msgLatencies.get("process").asDocument(), "count"));
+
+    BsonDocument commands = status.get("commandLatencies").asDocument();
+    assertEquals("find", commands.getFirstEntry().getKey());
+    assertEquals(40, getLong(commands.get("find").asDocument(), "maxMicros"));
+    assertEquals(1, getLong(commands.get("ping").asDocument(), "count"));
+
+    BsonDocument replies = status.get("replyLatencies").asDocument();
+    assertEquals(1, getLong(replies.get("encode").asDocument(), "count"));
+    assertEquals(1, getLong(replies.get("flush").asDocument(), "count"));
+
+    assertFalse("Resources are only reported when measured", status.containsKey("resources"));
+    assertFalse("Compression is only reported when there are compressors",
+        network.containsKey("compression"));
+  }
+
+  @Test
+  public void testCompressionStatus() throws IOException {
+    ZlibMessageCompressor zlib = new ZlibMessageCompressor();
+    ServerMetrics metrics = new ServerMetrics(
+        new MessageCompressorRegistry(Collections.singletonList(zlib)));
+    ByteBuf src = Unpooled.wrappedBuffer(new byte[1000]);
+    ByteBuf dst = Unpooled.buffer();
+    int compressed;
+    try {
+      compressed = zlib.compress(src, dst);
+    } finally {
+      src.release();
+      dst.release();
+    }
+
+    BsonDocument compression = metrics.getStatus().get("network").asDocument()
+        .get("compression").asDocument();
+
+    assertEquals(1, compression.size());
+    BsonDocument zlibStatus = compression.get(zlib.getName()).asDocument();
+    BsonDocument compressor = zlibStatus.get("compressor").asDocument();
+    assertEquals(1000, getLong(compressor, "bytesIn"));
+    assertEquals(compressed, getLong(compressor, "bytesOut"));
+    assertEquals(1, getLong(compressor, "messages"));
+    BsonDocument decompressor = zlibStatus.get("decompressor").asDocument();
+    assertEquals(0, getLong(decompressor, "messages"));
+  }
+
+  @Test
+  public void testStatusWithResources() {
+    ResourceAccounting accounting = new ResourceAccounting(true);
+    assumeTrue(accounting.isEnabled());
+    ServerMetrics metrics = new ServerMetrics();
+
+    ResourceMeasurement measurement = accounting.begin();
+    measurement.end();
+    metrics.onResourcesUsed("find", measurement);
+    metrics.onResourcesUsed(null, measurement);
+
+    BsonDocument resources = metrics.getStatus().get("resources").asDocument();
+    assertNotNull(resources.get("total"));
+    BsonDocument commands = resources.get("commands").asDocument();
+    assertEquals(1, commands.size());
+    assertTrue(commands.containsKey("find"));
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.server.metrics.OperationTracker;
+import com.torodb.mongowp.server.metrics.ProfiledOperation;
+import com.torodb.mongowp.server.metrics.SlowOperationProfiler;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class SlowOperationProfilerTest {
+
+  @Test
+  public void testRingBufferKeepsNewestOperations() {
+    SlowOperationProfiler profiler = new SlowOperationProfiler(0, 0, 3);
+    for (int i = 0; i < 6; i++) {
+      record(profiler, i, i % 2 == 0 ? "even" : "odd");
+    }
+    assertEquals(6, profiler.getRecordedCount());
+
+    List<ProfiledOperation> operations = profiler.getOperations(null, 0);
+    assertEquals(4, operations.size());
+    assertEquals("test.odd", operations.get(0).getNamespace());
+    assertEquals(2, profiler.getOperations("test.even", 0).size());
+    assertEquals(1, profiler.getOperations(null, 1).size());
+  }
+
+  @Test
+  public void testShapeIsRedacted() {
+    SlowOperationProfiler profiler = new SlowOperationProfiler(0, 0, 16);
+    record(profiler, 1, "users");
+
+    BsonDocument doc = profiler.getOperationDocuments(null, 0).get(0);
+    assertEquals("find", doc.get("command").asString().getValue());
+    assertEquals("test.users", doc.get("ns").asString().getValue());
+    BsonDocument shape = doc.get("shape").asDocument();
+    assertEquals("?", shape.get("find").asString().getValue());
+    assertEquals("?", shape.get("filter").asDocument().get("name").asString().getValue());
+    assertFalse(doc.get("sampled").asBoolean().getPrimitiveValue());
+  }
+
+  @Test
+  public void testFastOperationsAreNotRecorded() {
+    SlowOperationProfiler profiler = new SlowOperationProfiler(60_000, 0, 16);
+    assertFalse(record(profiler, 1, "users"));
+    assertEquals(0, profiler.getOperations(null, 0).size());
+    assertNull(new SlowOperationProfiler(-1, 0, 16).startTracking(0));
+  }
+
+  private static boolean record(SlowOperationProfiler profiler, int requestId,
+      String collection) {
+    BsonDocument body = new BsonDocumentBuilder()
+        .appendUnsafe("find", DefaultBsonValues.newString(collection))
+        .appendUnsafe("filter", new BsonDocumentBuilder()
+            .appendUnsafe("name", DefaultBsonValues.newString("secret"))
+            .build())
+        .appendUnsafe("$db", DefaultBsonValues.newString("test"))
+        .build();
+    MsgMessage request = new MsgMessage(new RequestBaseMessage(null, 0, requestId),
+        EmptyBsonContext.getInstance(), "test", false, false, false, body,
+        Collections.emptyMap());
+    OperationTracker tracker = profiler.startTracking(0);
+    tracker.onProcessStarted(0, 0);
+    tracker.onProcessFinished();
+    tracker.onFinished(1, 100);
+    return profiler.onOperationFinished(request, tracker);
+  }
+}
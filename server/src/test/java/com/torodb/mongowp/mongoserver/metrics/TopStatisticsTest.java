@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.server.metrics.TopSnapshot;
+import com.torodb.mongowp.server.metrics.TopSnapshot.NamespaceSnapshot;
+import com.torodb.mongowp.server.metrics.TopStatistics;
+import com.torodb.mongowp.server.metrics.TopStatistics.OperationType;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import org.junit.Test;
+
+public class TopStatisticsTest {
+
+  @Test
+  public void testSnapshotsAndDeltas() {
+    TopStatistics top = new TopStatistics(100);
+    top.record("db", "users", OperationType.READ, 2000, 0, 10, 100);
+    top.recordCommand("db", "insert", command("insert", "users"), 3000,
+        new BsonDocumentBuilder().appendUnsafe("n", DefaultBsonValues.newInt(5)).build(), 200);
+    TopSnapshot first = top.getSnapshot();
+
+    NamespaceSnapshot users = first.getNamespaces().get("db.users");
+    assertEquals(1, users.getCount(OperationType.READ));
+    assertEquals(1, users.getCount(OperationType.WRITE));
+    assertEquals(5000, users.getTotalNanos());
+    assertEquals(5, users.getDocumentsIn());
+    assertEquals(10, users.getDocumentsOut());
+    assertEquals(300, users.getBytesIn());
+
+    top.recordCommand("db", "ping", command("ping", null), 1000, DefaultBsonValues.EMPTY_DOC, 50);
+    TopSnapshot delta = top.getSnapshot().minus(first);
+    assertFalse(delta.getNamespaces().containsKey("db.users"));
+    assertEquals(1, delta.getNamespaces().get("db.$cmd").getCount(OperationType.COMMAND));
+  }
+
+  @Test
+  public void testNamespacesAreBounded() {
+    TopStatistics top = new TopStatistics(2);
+    for (int i = 0; i < 10; i++) {
+      top.record("db", "coll" + i, OperationType.READ, 1, 0, 0, 0);
+    }
+    assertEquals(2, top.getNamespaceCount());
+    TopSnapshot snapshot = top.getSnapshot();
+    assertEquals(3, snapshot.getNamespaces().size());
+    assertEquals(8, snapshot.getNamespaces().get(TopStatistics.OTHER_NAMESPACE).getTotalCount());
+    assertTrue(snapshot.toBsonDocument().containsKey("db.coll0"));
+  }
+
+  private static BsonDocument command(String name, String collection) {
+    return new BsonDocumentBuilder()
+        .appendUnsafe(name, collection == null ? DefaultBsonValues.newInt(1)
+            : DefaultBsonValues.newString(collection))
+        .build();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.metrics.CommandDispatchEvent;
+import com.torodb.mongowp.server.metrics.FrameDecodeEvent;
+import com.torodb.mongowp.server.metrics.ReplyEncodeEvent;
+import com.torodb.mongowp.server.metrics.ReplyFlushEvent;
+import com.torodb.mongowp.server.metrics.RequestExecutionEvent;
+import com.torodb.mongowp.server.metrics.WireEvents;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class WireEventsTest {
+
+  private static final String[] EVENT_NAMES = {
+      "com.torodb.mongowp.FrameDecode",
+      "com.torodb.mongowp.RequestExecution",
+      "com.torodb.mongowp.CommandDispatch",
+      "com.torodb.mongowp.ReplyEncode",
+      "com.torodb.mongowp.ReplyFlush"
+  };
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue("JFR is not supported by this JVM", WireEvents.AVAILABLE);
+  }
+
+  @Test
+  public void testEventsAreNullWithoutRecordings() {
+    assertNull(WireEvents.beginFrameDecode());
+    assertNull(WireEvents.beginRequestExecution());
+    assertNull(WireEvents.beginCommandDispatch());
+    assertNull(WireEvents.beginReplyEncode());
+    assertNull(WireEvents.beginReplyFlush());
+  }
+
+  @Test
+  public void testEventsAreNullWhenDisabled() {
+    try (Recording recording = new Recording()) {
+      for (String name : EVENT_NAMES) {
+        recording.disable(name);
+      }
+      recording.start();
+
+      assertNull(WireEvents.beginFrameDecode());
+      assertNull(WireEvents.beginRequestExecution());
+      assertNull(WireEvents.beginCommandDispatch());
+      assertNull(WireEvents.beginReplyEncode());
+      assertNull(WireEvents.beginReplyFlush());
+    }
+  }
+
+  @Test
+  public void testEventsAreCommittedWhenEnabled() throws IOException {
+    Map<String, RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      for (String name : EVENT_NAMES) {
+        recording.enable(name).withoutThreshold();
+      }
+      recording.start();
+
+      FrameDecodeEvent frameDecode = WireEvents.beginFrameDecode();
+      assertNotNull(frameDecode);
+      frameDecode.finish(RequestOpCode.OP_INSERT, 3, 100, 2);
+
+      RequestExecutionEvent execution = WireEvents.beginRequestExecution();
+      assertNotNull(execution);
+      execution.finish(RequestOpCode.OP_INSERT, 3);
+
+      CommandDispatchEvent dispatch = WireEvents.beginCommandDispatch();
+      assertNotNull(dispatch);
+      dispatch.finish("find", new BsonDocumentBuilder()
+          .appendUnsafe("find", DefaultBsonValues.newString("users"))
+          .build(), "db", false, null);
+
+      ReplyEncodeEvent encode = WireEvents.beginReplyEncode();
+      assertNotNull(encode);
+      encode.finish("copy", 200, () -> 4);
+
+      ReplyFlushEvent flush = WireEvents.beginReplyFlush();
+      assertNotNull(flush);
+      flush.finish(200, true);
+
+      recording.stop();
+      events = readEvents(recording);
+    }
+
+    RecordedEvent frameDecode = events.get("com.torodb.mongowp.FrameDecode");
+    assertEquals("OP_INSERT", frameDecode.getString("opCode"));
+    assertEquals(3, frameDecode.getInt("requestId"));
+    assertEquals(100, frameDecode.getLong("bytes"));
+    assertEquals(2, frameDecode.getInt("documents"));
+
+    assertEquals(3, events.get("com.torodb.mongowp.RequestExecution").getInt("requestId"));
+
+    RecordedEvent dispatch = events.get("com.torodb.mongowp.CommandDispatch");
+    assertEquals("find", dispatch.getString("commandName"));
+    assertEquals("db.users", dispatch.getString("namespace"));
+    assertFalse(dispatch.getBoolean("ok"));
+    assertEquals(0, dispatch.getInt("resultDocuments"));
+
+    RecordedEvent encode = events.get("com.torodb.mongowp.ReplyEncode");
+    assertEquals("copy", encode.getString("mode"));
+    assertEquals(4, encode.getInt("documents"));
+
+    assertEquals(200, events.get("com.torodb.mongowp.ReplyFlush").getLong("bytes"));
+  }
+
+  private static Map<String, RecordedEvent> readEvents(Recording recording) throws IOException {
+    Path file = Files.createTempFile("wire-events", ".jfr");
+    try {
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      return events.stream()
+          .filter(event -> event.getEventType().getName().startsWith("com.torodb.mongowp."))
+          .collect(Collectors.toMap(event -> event.getEventType().getName(),
+              Function.identity()));
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
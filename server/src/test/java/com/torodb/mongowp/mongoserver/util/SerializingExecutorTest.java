@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.torodb.mongowp.server.util.SerializingExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class SerializingExecutorTest {
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testTasksAreExecutedInOrder() throws InterruptedException {
+    SerializingExecutor executor = new SerializingExecutor(pool);
+    int tasks = 1000;
+    List<Integer> executed = Collections.synchronizedList(new ArrayList<>(tasks));
+    AtomicInteger concurrent = new AtomicInteger();
+    AtomicInteger maxConcurrent = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(tasks);
+
+    for (int i = 0; i < tasks; i++) {
+      int taskId = i;
+      executor.execute(() -> {
+        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+        executed.add(taskId);
+        concurrent.decrementAndGet();
+        latch.countDown();
+      });
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(1, maxConcurrent.get());
+    for (int i = 0; i < tasks; i++) {
+      assertEquals(i, (int) executed.get(i));
+    }
+  }
+
+  @Test
+  public void testRejectedTasksAreClosed() throws InterruptedException {
+    AtomicBoolean reject = new AtomicBoolean(true);
+    SerializingExecutor executor = new SerializingExecutor(task -> {
+      if (reject.get()) {
+        throw new RejectedExecutionException();
+      }
+      pool.execute(task);
+    });
+    CloseableTask rejected = new CloseableTask();
+    try {
+      executor.execute(rejected);
+      fail("The task should have been rejected");
+    } catch (RejectedExecutionException expected) {
+      //expected
+    }
+    assertTrue(rejected.closed);
+
+    reject.set(false);
+    CountDownLatch executed = new CountDownLatch(1);
+    executor.execute(executed::countDown);
+    assertTrue("The executor is still marked as scheduled", executed.await(10, TimeUnit.SECONDS));
+  }
+
+  private static class CloseableTask implements Runnable, AutoCloseable {
+
+    private volatile boolean closed;
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
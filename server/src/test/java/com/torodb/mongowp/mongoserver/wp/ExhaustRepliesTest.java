@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.fields.DocField;
+import com.torodb.mongowp.fields.DoubleField;
+import com.torodb.mongowp.fields.LongField;
+import com.torodb.mongowp.messages.request.BsonContext;
+import com.torodb.mongowp.messages.request.DeleteMessage;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.request.GetMoreMessage;
+import com.torodb.mongowp.messages.request.InsertMessage;
+import com.torodb.mongowp.messages.request.KillCursorsMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.QueryMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.messages.request.UpdateMessage;
+import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.messages.utils.Namespace;
+import com.torodb.mongowp.server.callback.MessageReplier;
+import com.torodb.mongowp.server.callback.RequestProcessor;
+import com.torodb.mongowp.server.encoder.MsgReplyMessageEncoder;
+import com.torodb.mongowp.server.encoder.ReplyMessageEncoder;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.SlowOperationProfiler;
+import com.torodb.mongowp.server.wp.ChannelWritabilityHandler;
+import com.torodb.mongowp.server.wp.DefaultRequestIdGenerator;
+import com.torodb.mongowp.server.wp.MsgReplyMessageObjectHandler;
+import com.torodb.mongowp.server.wp.NettyMessageReplier;
+import com.torodb.mongowp.server.wp.ReplyEncodingExecutor;
+import com.torodb.mongowp.server.wp.ReplyMessageObjectHandler;
+import com.torodb.mongowp.server.wp.RequestExecutor;
+import com.torodb.mongowp.server.wp.RequestMessageObjectHandler;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.AttributeMap;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+
+public class ExhaustRepliesTest {
+
+  private static final int MORE_TO_COME_FLAG = 1 << 1;
+  private static final DocField CURSOR_FIELD = new DocField("cursor");
+  private static final LongField CURSOR_ID_FIELD = new LongField("id");
+  private static final DoubleField OK_FIELD = new DoubleField("ok");
+
+  private final MongoServerConfig config = () -> 0;
+
+  @Test
+  public void testBatchesReplyToThePreviousReply() {
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new ReplyMessageObjectHandler(
+            new DefaultRequestIdGenerator(),
+            new ReplyMessageEncoder(new NettyBsonDocumentWriter()),
+            config,
+            new ReplyEncodingExecutor(Executors.defaultThreadFactory(), config),
+            new ServerMetrics()
+        ),
+        new ExhaustHandler(3)
+    );
+
+    channel.pipeline().fireChannelRead("query");
+
+    int responseTo = 5;
+    for (int i = 0; i < 3; i++) {
+      ByteBuf reply = ((ByteBuf) channel.readOutbound()).order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals(responseTo, reply.getInt(8));
+      responseTo = reply.getInt(4);
+      reply.release();
+    }
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void testMsgBatchesReplyToThePreviousReplyWithMoreToCome() {
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new MsgReplyMessageObjectHandler(
+            new DefaultRequestIdGenerator(),
+            new MsgReplyMessageEncoder(new NettyBsonDocumentWriter()),
+            new ServerMetrics()
+        ),
+        new ExhaustMsgHandler(3)
+    );
+
+    channel.pipeline().fireChannelRead("getMore");
+
+    int responseTo = 5;
+    for (int i = 0; i < 3; i++) {
+      ByteBuf reply = ((ByteBuf) channel.readOutbound()).order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals(responseTo, reply.getInt(8));
+      assertEquals("Unexpected moreToCome flag on batch " + i, i < 2,
+          (reply.getInt(16) & MORE_TO_COME_FLAG) != 0);
+      responseTo = reply.getInt(4);
+      reply.release();
+    }
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void testRequestIsClosedOnceTheDeferredStreamFinishes() {
+    RequestExecutor requestExecutor = new RequestExecutor(Executors.defaultThreadFactory(),
+        config);
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new ChannelWritabilityHandler(new ServerMetrics()),
+        new ReplyMessageObjectHandler(
+            new DefaultRequestIdGenerator(),
+            new ReplyMessageEncoder(new NettyBsonDocumentWriter()),
+            config,
+            new ReplyEncodingExecutor(Executors.defaultThreadFactory(), config),
+            new ServerMetrics()
+        ),
+        new RequestMessageObjectHandler(new ExhaustProcessor(3), requestExecutor,
+            new ServerMetrics(), new SlowOperationProfiler(-1, 0, 16))
+    );
+    try {
+      channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+      ClosedTrackingContext context = new ClosedTrackingContext();
+      channel.writeInbound(new InsertMessage(new RequestBaseMessage(null, 0, 5), context,
+          Namespace.of("db", "coll"), false,
+          IterableDocumentProvider.of(Collections.<BsonDocument>emptyList())));
+
+      assertReplies(channel, 1);
+      assertFalse("The request was closed before its exhaust stream finished", context.closed);
+
+      channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+      channel.runPendingTasks();
+      assertReplies(channel, 2);
+      assertTrue(context.closed);
+    } finally {
+      channel.finish();
+      requestExecutor.shutdown();
+    }
+  }
+
+  private static void assertReplies(EmbeddedChannel channel, int expected) {
+    for (int i = 0; i < expected; i++) {
+      ByteBuf reply = (ByteBuf) channel.readOutbound();
+      assertNotNull("Expected " + expected + " replies but found " + i, reply);
+      reply.release();
+    }
+    assertNull(channel.readOutbound());
+  }
+
+  private static ReplyMessage newBatch(long cursorId) {
+    return new ReplyMessage.Builder(EmptyBsonContext.getInstance(), 5, cursorId, 0,
+        DefaultBsonValues.EMPTY_DOC).build();
+  }
+
+  private static BsonDocument newMsgBatch(long cursorId) {
+    return new BsonDocumentBuilder()
+        .append(CURSOR_FIELD, new BsonDocumentBuilder().append(CURSOR_ID_FIELD, cursorId))
+        .append(OK_FIELD, 1)
+        .build();
+  }
+
+  private static class ExhaustMsgHandler extends ChannelInboundHandlerAdapter {
+
+    private int remainingBatches;
+
+    ExhaustMsgHandler(int batches) {
+      this.remainingBatches = batches;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      remainingBatches--;
+      new NettyMessageReplier(ctx, 5).replyExhaustMsgMessages(newMsgBatch(1), () -> {
+        remainingBatches--;
+        return newMsgBatch(remainingBatches == 0 ? 0 : 1);
+      });
+    }
+  }
+
+  private static class ExhaustHandler extends ChannelInboundHandlerAdapter {
+
+    private int remainingBatches;
+
+    ExhaustHandler(int batches) {
+      this.remainingBatches = batches;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      remainingBatches--;
+      new NettyMessageReplier(ctx, 5).replyExhaustMessages(newBatch(1), () -> {
+        remainingBatches--;
+        return newBatch(remainingBatches == 0 ? 0 : 1);
+      });
+    }
+  }
+
+  private static class ClosedTrackingContext implements BsonContext {
+
+    private boolean closed;
+
+    @Override
+    public boolean isValid() {
+      return !closed;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /**
+   * Replies to inserts with an exhaust cursor of the given number of batches.
+   */
+  private static class ExhaustProcessor implements RequestProcessor {
+
+    private final int batches;
+
+    ExhaustProcessor(int batches) {
+      this.batches = batches;
+    }
+
+    @Override
+    public void onChannelActive(AttributeMap attributeMap) {
+    }
+
+    @Override
+    public void onChannelInactive(AttributeMap attributeMap) {
+    }
+
+    @Override
+    public void insert(InsertMessage insertMessage, MessageReplier messageReplier) {
+      int[] remaining = {batches - 1};
+      messageReplier.replyExhaustMessages(newBatch(1), () -> {
+        remaining[0]--;
+        return newBatch(remaining[0] == 0 ? 0 : 1);
+      });
+    }
+
+    @Override
+    public boolean handleError(RequestOpCode requestOpCode, MessageReplier messageReplier,
+        Throwable throwable) {
+      throw new AssertionError(throwable);
+    }
+
+    @Override
+    public void queryMessage(QueryMessage queryMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void getMore(GetMoreMessage getMoreMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void killCursors(KillCursorsMessage killCursorsMessage,
+        MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void update(UpdateMessage updateMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(DeleteMessage deleteMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void msg(MsgMessage msgMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+
+import com.torodb.mongowp.server.wp.FlushCoalescingHandler;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class FlushCoalescingHandlerTest {
+
+  @Test
+  public void testFlushesAreDelayedUntilReadComplete() {
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new FlushCoalescingHandler(100, Long.MAX_VALUE),
+        new EchoHandler()
+    );
+
+    channel.pipeline().fireChannelRead("a");
+    channel.pipeline().fireChannelRead("b");
+    assertEquals(0, channel.outboundMessages().size());
+
+    channel.pipeline().fireChannelReadComplete();
+    assertEquals(2, channel.outboundMessages().size());
+  }
+
+  @Test
+  public void testFlushWhenMaxFlushesIsReached() {
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new FlushCoalescingHandler(2, Long.MAX_VALUE),
+        new EchoHandler()
+    );
+
+    channel.pipeline().fireChannelRead("a");
+    assertEquals(0, channel.outboundMessages().size());
+    channel.pipeline().fireChannelRead("b");
+    assertEquals(2, channel.outboundMessages().size());
+  }
+
+  @Test
+  public void testFlushesOutsideReadsAreScheduled() {
+    EmbeddedChannel channel = new EmbeddedChannel(new FlushCoalescingHandler(100, Long.MAX_VALUE));
+
+    channel.write(Unpooled.wrappedBuffer(new byte[] {1}));
+    channel.flush();
+    channel.write(Unpooled.wrappedBuffer(new byte[] {2}));
+    channel.flush();
+    assertEquals(0, channel.outboundMessages().size());
+
+    channel.runPendingTasks();
+    assertEquals(2, channel.outboundMessages().size());
+  }
+
+  private static class EchoHandler extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      ctx.writeAndFlush(msg);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.MsgReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.encoder.MsgReplyMessageEncoder;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.wp.ChannelWritabilityHandler;
+import com.torodb.mongowp.server.wp.ConnectionTraffic;
+import com.torodb.mongowp.server.wp.DefaultRequestIdGenerator;
+import com.torodb.mongowp.server.wp.MsgReplyMessageObjectHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.List;
+
+public class MsgReplyMessageObjectHandlerTest {
+
+  private static MsgReplyMessageObjectHandler newHandler() {
+    return new MsgReplyMessageObjectHandler(new DefaultRequestIdGenerator(),
+        new MsgReplyMessageEncoder(new NettyBsonDocumentWriter()), new ServerMetrics());
+  }
+
+  private static MsgReplyMessage newReply(CountingProvider docs) {
+    return new MsgReplyMessage.Builder(EmptyBsonContext.getInstance(), 5,
+        DefaultBsonValues.EMPTY_DOC)
+        .addDocumentSequence("documents", docs)
+        .build();
+  }
+
+  private static void writeReply(EmbeddedChannel channel, CountingProvider docs) {
+    channel.writeAndFlush(newReply(docs));
+    ((ByteBuf) channel.readOutbound()).release();
+    channel.finish();
+  }
+
+  @Test
+  public void testDocumentsAreNotCountedWhenNobodyUsesTheCount() {
+    CountingProvider docs = new CountingProvider(
+        ImmutableList.of(DefaultBsonValues.EMPTY_DOC, DefaultBsonValues.EMPTY_DOC));
+
+    writeReply(new EmbeddedChannel(newHandler()), docs);
+
+    assertEquals("The sequence was iterated to count its documents", 1, docs.iterations);
+  }
+
+  @Test
+  public void testDocumentsAreCountedOnTheConnectionTraffic() {
+    CountingProvider docs = new CountingProvider(
+        ImmutableList.of(DefaultBsonValues.EMPTY_DOC, DefaultBsonValues.EMPTY_DOC));
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new ChannelWritabilityHandler(new ServerMetrics()), newHandler());
+    ConnectionTraffic traffic = ConnectionTraffic.get(channel);
+
+    writeReply(channel, docs);
+
+    assertEquals(3, traffic.getOutboundDocuments());
+  }
+
+  private static class CountingProvider extends IterableDocumentProvider<BsonDocument> {
+
+    private final List<BsonDocument> docs;
+    private int iterations;
+
+    CountingProvider(List<BsonDocument> docs) {
+      this.docs = docs;
+    }
+
+    @Override
+    public FluentIterable<BsonDocument> getIterable(AllocationType algorithm) {
+      iterations++;
+      return FluentIterable.from(docs);
+    }
+  }
+}
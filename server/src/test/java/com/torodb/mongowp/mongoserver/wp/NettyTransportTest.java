@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.torodb.mongowp.MongoServerConfig.Transport;
+import com.torodb.mongowp.server.wp.NettyTransport;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.junit.Test;
+
+public class NettyTransportTest {
+
+  @Test
+  public void testFallsBackToNioWhenEpollIsUnavailable() {
+    for (Transport requested : Transport.values()) {
+      NettyTransport transport = NettyTransport.select(requested, () -> false);
+      assertEquals(requested.name(), "nio", transport.getName());
+      assertSame(NioServerSocketChannel.class, transport.getServerChannelClass());
+      assertFalse(transport.supportsReusePort());
+    }
+  }
+
+  @Test
+  public void testEpollIsSelectedWhenAvailable() {
+    assertEquals("epoll", NettyTransport.select(Transport.EPOLL, () -> true).getName());
+    assertEquals("epoll", NettyTransport.select(Transport.AUTO, () -> true).getName());
+    assertEquals("nio", NettyTransport.select(Transport.NIO, () -> true).getName());
+  }
+
+  @Test
+  public void testSelectionDependsOnTheNativeLibrary() {
+    String expected = Epoll.isAvailable() ? "epoll" : "nio";
+    assertEquals(expected, NettyTransport.select(Transport.EPOLL).getName());
+    assertEquals(expected, NettyTransport.select(Transport.AUTO).getName());
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.torodb.mongowp.MongoConstants;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.messages.request.EmptyBsonContext;
+import com.torodb.mongowp.messages.response.ReplyMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.server.encoder.ReplyMessageEncoder;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.wp.DefaultRequestIdGenerator;
+import com.torodb.mongowp.server.wp.NettyMessageReplier;
+import com.torodb.mongowp.server.wp.ReplyEncodingExecutor;
+import com.torodb.mongowp.server.wp.ReplyMessageObjectHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplyMessageObjectHandlerTest {
+
+  private static final int NUMBER_RETURNED_OFFSET = MongoConstants.MESSAGE_HEADER_BYTES + 16;
+
+  private final MongoServerConfig config = new MongoServerConfig() {
+    @Override
+    public int getPort() {
+      return 0;
+    }
+
+    @Override
+    public boolean isParallelReplyEncodingEnabled() {
+      return true;
+    }
+
+    @Override
+    public int getParallelEncodingMinDocuments() {
+      return 2;
+    }
+
+    @Override
+    public int getParallelEncodingChunkDocuments() {
+      return 1;
+    }
+
+    @Override
+    public int getEncodingThreads() {
+      return 1;
+    }
+  };
+  private final ReplyEncodingExecutor encodingExecutor =
+      new ReplyEncodingExecutor(Executors.defaultThreadFactory(), config);
+  private final ReplyMessageObjectHandler handler = new ReplyMessageObjectHandler(
+      new DefaultRequestIdGenerator(),
+      new ReplyMessageEncoder(new NettyBsonDocumentWriter()),
+      config,
+      encodingExecutor,
+      new ServerMetrics()
+  );
+  private final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+  @After
+  public void tearDown() {
+    encodingExecutor.shutdown();
+    channel.finish();
+  }
+
+  private static ReplyMessage newReply(IterableDocumentProvider<BsonDocument> docs) {
+    return new ReplyMessage(EmptyBsonContext.getInstance(), 5, false, false, false, false, 0, 0,
+        docs);
+  }
+
+  @Test
+  public void testSmallRepliesAreIteratedOnce() {
+    CountingProvider docs = new CountingProvider(ImmutableList.of(DefaultBsonValues.EMPTY_DOC));
+    channel.writeAndFlush(newReply(docs));
+
+    ByteBuf reply = ((ByteBuf) channel.readOutbound()).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      assertEquals(1, reply.getInt(NUMBER_RETURNED_OFFSET));
+    } finally {
+      reply.release();
+    }
+    assertEquals(1, docs.iterations);
+  }
+
+  @Test
+  public void testCountedRepliesReportTheEncodedDocuments() {
+    channel.pipeline().addLast(new ChannelInboundHandlerAdapter());
+    CountingProvider docs = new CountingProvider(ImmutableList.of(DefaultBsonValues.EMPTY_DOC));
+    AtomicInteger reported = new AtomicInteger(-1);
+
+    new NettyMessageReplier(channel.pipeline().lastContext(), 5)
+        .replyMessage(newReply(docs), reported::set);
+
+    ((ByteBuf) channel.readOutbound()).release();
+    assertEquals(1, reported.get());
+    assertEquals("The reply was iterated to count its documents", 1, docs.iterations);
+  }
+
+  @Test
+  public void testPendingWritesFailWhenTheHandlerIsRemoved() throws Exception {
+    CountDownLatch encoderBlocked = new CountDownLatch(1);
+    encodingExecutor.getExecutorService().execute(() -> {
+      try {
+        encoderBlocked.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    CountingProvider docs = new CountingProvider(
+        ImmutableList.of(DefaultBsonValues.EMPTY_DOC, DefaultBsonValues.EMPTY_DOC));
+    ChannelFuture parallel = channel.writeAndFlush(newReply(docs));
+    ChannelFuture pending = channel.writeAndFlush(newReply(docs));
+    assertFalse(pending.isDone());
+    assertEquals("The parallel reply was iterated more than once", 1, docs.iterations);
+
+    channel.pipeline().remove(handler);
+    assertTrue(pending.isDone());
+    assertTrue(pending.cause() instanceof ClosedChannelException);
+
+    encoderBlocked.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!parallel.isDone() && System.nanoTime() < deadline) {
+      channel.runPendingTasks();
+      Thread.sleep(1);
+    }
+    assertNotNull("The parallel reply was written after the handler was removed",
+        parallel.cause());
+    assertNull(channel.readOutbound());
+  }
+
+  private static class CountingProvider extends IterableDocumentProvider<BsonDocument> {
+
+    private final List<BsonDocument> docs;
+    private int iterations;
+
+    CountingProvider(List<BsonDocument> docs) {
+      this.docs = docs;
+    }
+
+    @Override
+    public FluentIterable<BsonDocument> getIterable(AllocationType algorithm) {
+      iterations++;
+      return FluentIterable.from(docs);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.utils.DefaultBsonValues;
+import com.torodb.mongowp.messages.request.BsonContext;
+import com.torodb.mongowp.messages.request.DeleteMessage;
+import com.torodb.mongowp.messages.request.GetMoreMessage;
+import com.torodb.mongowp.messages.request.InsertMessage;
+import com.torodb.mongowp.messages.request.KillCursorsMessage;
+import com.torodb.mongowp.messages.request.MsgMessage;
+import com.torodb.mongowp.messages.request.QueryMessage;
+import com.torodb.mongowp.messages.request.RequestBaseMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.messages.request.UpdateMessage;
+import com.torodb.mongowp.messages.utils.IterableDocumentProvider;
+import com.torodb.mongowp.messages.utils.Namespace;
+import com.torodb.mongowp.server.callback.MessageReplier;
+import com.torodb.mongowp.server.callback.RequestProcessor;
+import com.torodb.mongowp.server.decoder.StreamingDocumentProvider;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.metrics.SlowOperationProfiler;
+import com.torodb.mongowp.server.wp.RequestExecutor;
+import com.torodb.mongowp.server.wp.RequestMessageObjectHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.AttributeMap;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestMessageObjectHandlerTest {
+
+  private final MongoServerConfig config = new MongoServerConfig() {
+    @Override
+    public int getPort() {
+      return 0;
+    }
+
+    @Override
+    public ExecutionMode getExecutionMode() {
+      return ExecutionMode.POOL;
+    }
+
+    @Override
+    public int getExecutorThreads() {
+      return 1;
+    }
+  };
+  private final RequestExecutor requestExecutor =
+      new RequestExecutor(Executors.defaultThreadFactory(), config);
+  private final StubProcessor processor = new StubProcessor();
+  private final HoldingWriter writer = new HoldingWriter();
+  private final EmbeddedChannel channel = new EmbeddedChannel(
+      writer,
+      new RequestMessageObjectHandler(processor, requestExecutor, new ServerMetrics(),
+          new SlowOperationProfiler(-1, 0, 16))
+  );
+
+  @After
+  public void tearDown() {
+    requestExecutor.shutdown();
+  }
+
+  private static InsertMessage newInsert(int requestId, BsonContext context) {
+    return new InsertMessage(new RequestBaseMessage(null, 0, requestId), context,
+        Namespace.of("db", "coll"), false,
+        IterableDocumentProvider.of(Collections.<BsonDocument>emptyList()));
+  }
+
+  @Test
+  public void testOffLoopRequestIsClosedAfterItsReplyIsWritten() throws Exception {
+    TrackedContext context = new TrackedContext();
+    channel.writeInbound(newInsert(1, context));
+
+    ChannelPromise replyPromise = writer.promises.poll(5, TimeUnit.SECONDS);
+    assertNotNull("The request has not been replied", replyPromise);
+
+    //the connection executor processes requests in order, so once the second one has been
+    //processed, the first one has finished
+    channel.writeInbound(newInsert(2, new TrackedContext()));
+    assertTrue(processor.secondProcessed.await(5, TimeUnit.SECONDS));
+    assertFalse("The request was closed before its reply was written", context.closed);
+
+    replyPromise.setSuccess();
+    assertTrue(context.closed);
+  }
+
+  @Test
+  public void testExceptionCaughtUsesTheLastOffLoopRequest() throws Exception {
+    channel.writeInbound(newInsert(7, new TrackedContext()));
+    assertNotNull(writer.promises.poll(5, TimeUnit.SECONDS));
+
+    channel.pipeline().fireExceptionCaught(new IllegalStateException("test"));
+
+    assertEquals(RequestOpCode.OP_INSERT, processor.errorOpCode);
+    assertEquals(7, processor.errorRequestId);
+  }
+
+  @Test
+  public void testStreamedRequestsAreNotExecutedByTheEventLoopWhenThePoolIsSaturated()
+      throws Exception {
+    RequestExecutor saturated = new RequestExecutor(Executors.defaultThreadFactory(),
+        new MongoServerConfig() {
+          @Override
+          public int getPort() {
+            return 0;
+          }
+
+          @Override
+          public ExecutionMode getExecutionMode() {
+            return ExecutionMode.POOL;
+          }
+
+          @Override
+          public int getExecutorThreads() {
+            return 1;
+          }
+
+          @Override
+          public int getExecutorQueueSize() {
+            return 1;
+          }
+        });
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      //one task keeps the only thread busy and the other one fills the queue
+      saturated.newConnectionExecutor().execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      saturated.newConnectionExecutor().execute(() -> { });
+      EmbeddedChannel streamingChannel = new EmbeddedChannel(
+          new ChannelOutboundHandlerAdapter(),
+          new RequestMessageObjectHandler(processor, saturated, new ServerMetrics(),
+              new SlowOperationProfiler(-1, 0, 16))
+      );
+
+      StreamingDocumentProvider docs = new StreamingDocumentProvider(null, 100, () -> { }, null,
+          streamingChannel.eventLoop());
+      InsertMessage streamed = new InsertMessage(new RequestBaseMessage(null, 0, 5), docs,
+          Namespace.of("db", "coll"), false, docs);
+      //the rejection is handled as any other error of the request
+      streamingChannel.writeInbound(streamed);
+      assertEquals("The streamed request was executed", 0, processor.inserts.get());
+      assertFalse("The rejected request was not closed", docs.isValid());
+      assertEquals(RequestOpCode.OP_INSERT, processor.errorOpCode);
+      assertEquals(5, processor.errorRequestId);
+
+      //other requests are still executed by the event loop
+      streamingChannel.writeInbound(newInsert(6, new TrackedContext()));
+      assertEquals(1, processor.inserts.get());
+    } finally {
+      release.countDown();
+      saturated.shutdown();
+    }
+  }
+
+  @Test
+  public void testExceptionBeforeAnyRequestClosesTheChannel() {
+    channel.pipeline().fireExceptionCaught(new IllegalStateException("test"));
+
+    assertFalse(channel.isOpen());
+  }
+
+  private static class TrackedContext implements BsonContext {
+
+    private volatile boolean closed;
+
+    @Override
+    public boolean isValid() {
+      return !closed;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static class HoldingWriter extends ChannelOutboundHandlerAdapter {
+
+    private final BlockingQueue<ChannelPromise> promises = new LinkedBlockingQueue<>();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+      promises.add(promise);
+    }
+  }
+
+  private static class StubProcessor implements RequestProcessor {
+
+    private final CountDownLatch secondProcessed = new CountDownLatch(1);
+    private final AtomicInteger inserts = new AtomicInteger();
+    private volatile RequestOpCode errorOpCode;
+    private volatile int errorRequestId;
+
+    @Override
+    public void onChannelActive(AttributeMap attributeMap) {
+    }
+
+    @Override
+    public void onChannelInactive(AttributeMap attributeMap) {
+    }
+
+    @Override
+    public void insert(InsertMessage insertMessage, MessageReplier messageReplier) {
+      inserts.incrementAndGet();
+      if (insertMessage.getRequestId() == 2) {
+        secondProcessed.countDown();
+      } else {
+        messageReplier.replyMessageNoCursor(DefaultBsonValues.EMPTY_DOC);
+      }
+    }
+
+    @Override
+    public boolean handleError(RequestOpCode requestOpCode, MessageReplier messageReplier,
+        Throwable throwable) {
+      errorOpCode = requestOpCode;
+      errorRequestId = messageReplier.getRequestId();
+      return true;
+    }
+
+    @Override
+    public void queryMessage(QueryMessage queryMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void getMore(GetMoreMessage getMoreMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void killCursors(KillCursorsMessage killCursorsMessage,
+        MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void update(UpdateMessage updateMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(DeleteMessage deleteMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void msg(MsgMessage msgMessage, MessageReplier messageReplier) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 8Kdata Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.torodb.mongowp.mongoserver.wp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.torodb.mongowp.MongoServerConfig;
+import com.torodb.mongowp.bson.BsonDocument;
+import com.torodb.mongowp.bson.netty.DefaultNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentReader;
+import com.torodb.mongowp.bson.netty.NettyBsonDocumentWriter;
+import com.torodb.mongowp.bson.netty.NettyStringReader;
+import com.torodb.mongowp.bson.netty.OffHeapNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.OffHeapValuesNettyBsonLowLevelReader;
+import com.torodb.mongowp.bson.netty.PooledNettyStringReader;
+import com.torodb.mongowp.bson.netty.pool.InternStringPool;
+import com.torodb.mongowp.bson.netty.pool.NeverStringPoolPolicy;
+import com.torodb.mongowp.bson.utils.BsonDocumentReader.AllocationType;
+import com.torodb.mongowp.fields.IntField;
+import com.torodb.mongowp.fields.StringField;
+import com.torodb.mongowp.messages.request.InsertMessage;
+import com.torodb.mongowp.messages.request.RequestOpCode;
+import com.torodb.mongowp.server.decoder.InsertMessageDecoder;
+import com.torodb.mongowp.server.decoder.MessageLimitsValidator;
+import com.torodb.mongowp.server.decoder.MsgMessageDecoder;
+import com.torodb.mongowp.server.decoder.NamespaceCache;
+import com.torodb.mongowp.server.metrics.ServerMetrics;
+import com.torodb.mongowp.server.wp.ChannelWritabilityHandler;
+import com.torodb.mongowp.server.wp.StreamingRequestDecoder;
+import com.torodb.mongowp.utils.BsonDocumentBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+public class StreamingRequestDecoderTest {
+
+  private static final IntField ID_FIELD = new IntField("_id");
+  private static final StringField VALUE_FIELD = new StringField("value");
+  private static final int DOCUMENTS = 4;
+  private static final int WINDOW_BYTES = 100;
+
+  private final MongoServerConfig config = new MongoServerConfig() {
+    @Override
+    public int getPort() {
+      return 0;
+    }
+
+    @Override
+    public boolean isStreamingDecodingEnabled() {
+      return true;
+    }
+
+    @Override
+    public int getStreamingDecodingMinMessageBytes() {
+      return 16;
+    }
+
+    @Override
+    public int getStreamingDecodingWindowBytes() {
+      return WINDOW_BYTES;
+    }
+  };
+  private final NettyBsonDocumentWriter writer = new NettyBsonDocumentWriter();
+  private final ServerMetrics serverMetrics = new ServerMetrics();
+  private final EmbeddedChannel channel;
+  private InsertMessage message;
+
+  public StreamingRequestDecoderTest() {
+    NettyStringReader stringReader = new PooledNettyStringReader(
+        new InternStringPool(NeverStringPoolPolicy.getInstance()));
+    NettyBsonDocumentReader reader = new NettyBsonDocumentReader(
+        new DefaultNettyBsonLowLevelReader(stringReader),
+        new OffHeapNettyBsonLowLevelReader(stringReader),
+        new OffHeapValuesNettyBsonLowLevelReader(stringReader)
+    );
+    channel = new EmbeddedChannel(
+        new ChannelWritabilityHandler(new ServerMetrics()),
+        new StreamingRequestDecoder(
+            new InsertMessageDecoder(new NamespaceCache(16), reader),
+            new MsgMessageDecoder(stringReader, reader),
+            reader,
+            new MessageLimitsValidator(config),
+            config,
+            serverMetrics)
+    );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (message != null) {
+      message.close();
+    }
+    channel.finish();
+  }
+
+  private ByteBuf newDocument(int id) {
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    writer.writeInto(buf, new BsonDocumentBuilder()
+        .append(ID_FIELD, id)
+        .append(VALUE_FIELD, "abcdefghijklmnopqrst")
+        .build());
+    return buf;
+  }
+
+  /**
+   * Sends every document of an OP_INSERT but the last one, so the message is still streamed.
+   */
+  private ByteBuf sendIncompleteInsert() {
+    ByteBuf docs = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < DOCUMENTS; i++) {
+      ByteBuf doc = newDocument(i);
+      docs.writeBytes(doc);
+      doc.release();
+    }
+    byte[] namespace = "db.coll\0".getBytes(Charsets.UTF_8);
+    ByteBuf buf = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+    buf.writeInt(16 + 4 + namespace.length + docs.readableBytes());
+    buf.writeInt(1); //requestId
+    buf.writeInt(0); //responseTo
+    buf.writeInt(RequestOpCode.OP_INSERT.getOpCode());
+    buf.writeInt(0); //flags
+    buf.writeBytes(namespace);
+    int docLength = docs.readableBytes() / DOCUMENTS;
+    buf.writeBytes(docs, docs.readableBytes() - docLength);
+
+    channel.writeInbound(buf);
+    message = (InsertMessage) channel.readInbound();
+    return docs;
+  }
+
+  private static int nextId(Iterator<?> it) {
+    return ((BsonDocument) it.next()).get("_id").asInt32().intValue();
+  }
+
+  @Test
+  public void testReadingIsPausedUntilTheConsumerCatchesUp() {
+    ByteBuf lastDoc = sendIncompleteInsert();
+    try {
+      assertFalse("Reading was not paused when the window was full",
+          channel.config().isAutoRead());
+      assertTrue(StreamingRequestDecoder.isStreamPaused(channel));
+
+      Iterator<?> it = message.getDocuments().getIterable(AllocationType.HEAP)
+          .iterator();
+      assertEquals(0, nextId(it));
+      channel.runPendingTasks();
+      assertFalse("Reading was resumed before the consumer caught up",
+          channel.config().isAutoRead());
+
+      assertEquals(1, nextId(it));
+      assertFalse("Reading must be resumed on the event loop", channel.config().isAutoRead());
+      channel.runPendingTasks();
+      assertTrue(channel.config().isAutoRead());
+      assertFalse(StreamingRequestDecoder.isStreamPaused(channel));
+
+      channel.writeInbound(lastDoc.retain());
+      assertEquals(2, nextId(it));
+      assertEquals(3, nextId(it));
+      assertFalse(it.hasNext());
+    } finally {
+      lastDoc.release();
+    }
+  }
+
+  @Test
+  public void testStreamedRequestsAreCounted() {
+    ByteBuf lastDoc = sendIncompleteInsert();
+    lastDoc.release();
+    assertEquals(1, serverMetrics.getOpCounter(RequestOpCode.OP_INSERT));
+  }
+
+  @Test
+  public void testWritabilityDoesNotResumeAPausedStream() {
+    ByteBuf lastDoc = sendIncompleteInsert();
+    try {
+      assertFalse(channel.config().isAutoRead());
+
+      channel.pipeline().fireChannelWritabilityChanged();
+      assertFalse("A writable channel resumed a paused stream", channel.config().isAutoRead());
+
+      Iterator<?> it = message.getDocuments().getIterable(AllocationType.HEAP)
+          .iterator();
+      it.next();
+      it.next();
+      channel.runPendingTasks();
+      assertTrue(channel.config().isAutoRead());
+    } finally {
+      lastDoc.release();
+    }
+  }
+}